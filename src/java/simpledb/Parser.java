@@ -24,6 +24,7 @@ import simpledb.transaction.TransactionId;
 
 public class Parser {
     static boolean explain = false;
+    static boolean asyncCommit = false;
 
     public static Predicate.Op getOp(String s) throws simpledb.ParsingException {
         if (s.equals("="))
@@ -453,6 +454,7 @@ public class Parser {
                     throw new ParsingException(
                             "Can't start new transactions until current transaction has been committed or rolledback.");
                 curtrans = new Transaction();
+                curtrans.setAsyncCommit(asyncCommit);
                 curtrans.start();
                 inUserTrans = true;
                 System.out.println("Started a new transaction tid = "
@@ -504,6 +506,7 @@ public class Parser {
             else {
                 if (!this.inUserTrans) {
                     curtrans = new Transaction();
+                    curtrans.setAsyncCommit(asyncCommit);
                     curtrans.start();
                     System.out.println("Started a new transaction tid = "
                             + curtrans.getId().getId());
@@ -571,7 +574,7 @@ public class Parser {
 
     public static void main(String[] argv) throws IOException {
 
-        if (argv.length < 1 || argv.length > 4) {
+        if (argv.length < 1 || argv.length > 5) {
             System.out.println("Invalid number of arguments.\n" + usage);
             System.exit(0);
         }
@@ -581,10 +584,11 @@ public class Parser {
         p.start(argv);
     }
 
-    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
+    static final String usage = "Usage: parser catalogFile [-explain] [-asynccommit] [-f queryFile]";
     static final int SLEEP_TIME = 1000;
 
     protected void shutdown() {
+        Database.getLogFile().shutdown();
         System.out.println("Bye");
     }
 
@@ -593,6 +597,8 @@ public class Parser {
     protected void start(String[] argv) throws IOException {
         // first add tables to database
         Database.getCatalog().loadSchema(argv[0]);
+        // read back the pages that were cached at the last clean shutdown
+        Database.getBufferPool().warmStart(Database.getLogFile().getWarmStartFile());
         TableStats.computeStatistics();
 
         String queryFile = null;
@@ -602,6 +608,9 @@ public class Parser {
                 if (argv[i].equals("-explain")) {
                     explain = true;
                     System.out.println("Explain mode enabled.");
+                } else if (argv[i].equals("-asynccommit")) {
+                    asyncCommit = true;
+                    System.out.println("Asynchronous commit enabled.");
                 } else if (argv[i].equals("-f")) {
                     interactive = false;
                     if (i++ == argv.length) {
@@ -23,12 +23,34 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class Catalog {
 
+    /** A table registered in the catalog. */
+    private static class Table {
+        final DbFile file;
+        final String name;
+        final String pkeyField;
+        final String partition;
+
+        Table(DbFile file, String name, String pkeyField, String partition) {
+            this.file = file;
+            this.name = name;
+            this.pkeyField = pkeyField;
+            this.partition = partition;
+        }
+    }
+
+    private final Map<Integer, Table> tables;
+    private final Map<String, Integer> nameToId;
+    /** Buffer pool partitions and their quotas, in pages. */
+    private final Map<String, Integer> partitions;
+
     /**
      * Constructor.
      * Creates a new, empty catalog.
      */
     public Catalog() {
-        // some code goes here
+        tables = new ConcurrentHashMap<>();
+        nameToId = new ConcurrentHashMap<>();
+        partitions = new ConcurrentHashMap<>();
     }
 
     /**
@@ -41,7 +63,27 @@ public class Catalog {
      * @param pkeyField the name of the primary key field
      */
     public void addTable(DbFile file, String name, String pkeyField) {
-        // some code goes here
+        addTable(file, name, pkeyField, null);
+    }
+
+    /**
+     * Add a new table to the catalog, caching its pages in the named buffer
+     * pool partition.
+     * @param partition the buffer pool partition of the table, declared
+     *    with addPartition; null for the default partition
+     * @see #addTable(DbFile, String, String)
+     * @see simpledb.storage.BufferPool.Partition
+     */
+    public synchronized void addTable(DbFile file, String name, String pkeyField, String partition) {
+        if (name == null)
+            throw new IllegalArgumentException("table name may not be null");
+        if (partition != null && !partitions.containsKey(partition))
+            throw new IllegalArgumentException("no partition named " + partition);
+        Table old = tables.get(file.getId());
+        if (old != null)
+            nameToId.remove(old.name, file.getId());
+        tables.put(file.getId(), new Table(file, name, pkeyField, partition));
+        nameToId.put(name, file.getId());
     }
 
     public void addTable(DbFile file, String name) {
@@ -64,8 +106,10 @@ public class Catalog {
      * @throws NoSuchElementException if the table doesn't exist
      */
     public int getTableId(String name) throws NoSuchElementException {
-        // some code goes here
-        return 0;
+        Integer id = name == null ? null : nameToId.get(name);
+        if (id == null)
+            throw new NoSuchElementException("no table named " + name);
+        return id;
     }
 
     /**
@@ -75,8 +119,7 @@ public class Catalog {
      * @throws NoSuchElementException if the table doesn't exist
      */
     public TupleDesc getTupleDesc(int tableid) throws NoSuchElementException {
-        // some code goes here
-        return null;
+        return getTable(tableid).file.getTupleDesc();
     }
 
     /**
@@ -86,32 +129,75 @@ public class Catalog {
      *     function passed to addTable
      */
     public DbFile getDatabaseFile(int tableid) throws NoSuchElementException {
-        // some code goes here
-        return null;
+        return getTable(tableid).file;
     }
 
     public String getPrimaryKey(int tableid) {
-        // some code goes here
-        return null;
+        return getTable(tableid).pkeyField;
     }
 
     public Iterator<Integer> tableIdIterator() {
-        // some code goes here
-        return null;
+        return tables.keySet().iterator();
     }
 
     public String getTableName(int id) {
-        // some code goes here
-        return null;
+        return getTable(id).name;
+    }
+
+    /**
+     * Declare a buffer pool partition, or change its quota.
+     * @param name the name of the partition
+     * @param quota the maximum number of pages of the partition's tables
+     *    that may be in the buffer pool at once
+     */
+    public void addPartition(String name, int quota) {
+        if (name == null || quota <= 0)
+            throw new IllegalArgumentException("bad partition " + name + " " + quota);
+        partitions.put(name, quota);
+    }
+
+    /**
+     * Returns the buffer pool partition of the specified table, or null if
+     * it is in the default partition.
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    public String getPartition(int tableid) throws NoSuchElementException {
+        return getTable(tableid).partition;
+    }
+
+    /**
+     * Returns the quota, in pages, of the named buffer pool partition.
+     * @throws NoSuchElementException if the partition was never declared
+     */
+    public int getPartitionQuota(String name) throws NoSuchElementException {
+        Integer quota = name == null ? null : partitions.get(name);
+        if (quota == null)
+            throw new NoSuchElementException("no partition named " + name);
+        return quota;
+    }
+
+    private Table getTable(int tableid) throws NoSuchElementException {
+        Table table = tables.get(tableid);
+        if (table == null)
+            throw new NoSuchElementException("no table with id " + tableid);
+        return table;
     }
     
     /** Delete all tables from the catalog */
-    public void clear() {
-        // some code goes here
+    public synchronized void clear() {
+        tables.clear();
+        nameToId.clear();
+        partitions.clear();
     }
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * <p>
+     * Each line is either a table, as in
+     * <pre>    name (field type [pk], field type, ...) [partition pname]</pre>
+     * or the declaration of a buffer pool partition with its quota in pages,
+     * which must come before the tables assigned to it:
+     * <pre>    partition pname pages</pre>
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -121,6 +207,14 @@ public class Catalog {
             BufferedReader br = new BufferedReader(new FileReader(catalogFile));
             
             while ((line = br.readLine()) != null) {
+                if (line.trim().isEmpty())
+                    continue;
+                if (!line.contains("(") && line.trim().startsWith("partition ")) {
+                    String[] decl = line.trim().split("\\s+");
+                    addPartition(decl[1], Integer.parseInt(decl[2]));
+                    System.out.println("Added partition : " + decl[1] + " with " + decl[2] + " pages");
+                    continue;
+                }
                 //assume line is of the format name (field type, field type, ...)
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
@@ -149,17 +243,28 @@ public class Catalog {
                         }
                     }
                 }
+                String partition = null;
+                String rest = line.substring(line.indexOf(")") + 1).trim();
+                if (!rest.isEmpty()) {
+                    String[] els3 = rest.split("\\s+");
+                    if (els3.length == 2 && els3[0].equals("partition") && partitions.containsKey(els3[1]))
+                        partition = els3[1];
+                    else {
+                        System.out.println("Unknown partition clause " + rest);
+                        System.exit(0);
+                    }
+                }
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
                 HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
-                addTable(tabHf,name,primaryKey);
+                addTable(tabHf,name,primaryKey,partition);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(0);
-        } catch (IndexOutOfBoundsException e) {
+        } catch (IndexOutOfBoundsException | NumberFormatException e) {
             System.out.println ("Invalid catalog entry : " + line);
             System.exit(0);
         }
@@ -1,6 +1,7 @@
 package simpledb.common;
 
 import simpledb.storage.BufferPool;
+import simpledb.storage.EvictionPolicy;
 import simpledb.storage.LogFile;
 
 import java.io.*;
@@ -23,10 +24,21 @@ public class Database {
 
     private final static String LOGFILENAME = "log";
     private final LogFile _logfile;
+    private final String _evictionPolicy;
 
     private Database() {
+        this(System.getProperty(EvictionPolicy.POLICY_PROPERTY));
+    }
+
+    /**
+     * @param evictionPolicy the name of the buffer pool's eviction policy,
+     *            see {@link EvictionPolicy#create}; null for the default
+     */
+    private Database(String evictionPolicy) {
         _catalog = new Catalog();
-        _bufferpool = new BufferPool(BufferPool.DEFAULT_PAGES);
+        _evictionPolicy = evictionPolicy;
+        _bufferpool = new BufferPool(BufferPool.DEFAULT_PAGES,
+                EvictionPolicy.create(evictionPolicy, BufferPool.DEFAULT_PAGES));
         LogFile tmp = null;
         try {
             tmp = new LogFile(new File(LOGFILENAME));
@@ -59,10 +71,13 @@ public class Database {
      */
     public static BufferPool resetBufferPool(int pages) {
         java.lang.reflect.Field bufferPoolF=null;
+        // stop the old pool's background writer, if any
+        _instance.get()._bufferpool.setDirtyRatio(0);
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
-            bufferPoolF.set(_instance.get(), new BufferPool(pages));
+            bufferPoolF.set(_instance.get(), new BufferPool(pages,
+                    EvictionPolicy.create(_instance.get()._evictionPolicy, pages)));
         } catch (NoSuchFieldException | IllegalAccessException | IllegalArgumentException | SecurityException e) {
             e.printStackTrace();
         }
@@ -72,7 +87,15 @@ public class Database {
 
     // reset the database, used for unit tests only.
     public static void reset() {
-        _instance.set(new Database());
+        _instance.getAndSet(new Database())._bufferpool.setDirtyRatio(0);
+    }
+
+    /**
+     * Reset the database with a buffer pool that uses the named eviction
+     * policy, see {@link EvictionPolicy#create}.
+     */
+    public static void reset(String evictionPolicy) {
+        _instance.getAndSet(new Database(evictionPolicy))._bufferpool.setDirtyRatio(0);
     }
 
 }
@@ -64,6 +64,7 @@ public class BTreeChecker {
      * 3) range invariants.
      * 4) record to page pointers.
      * 5) occupancy invariants. (if enabled)
+     * 6) high keys.
      */
     public static void checkRep(BTreeFile bt, TransactionId tid, Map<PageId, Page> dirtypages,
                                 boolean checkOccupancy) throws
@@ -85,6 +86,7 @@ public class BTreeChecker {
             TransactionAbortedException, DbException {
         BTreePage page = (BTreePage )bt.getPage(tid, dirtypages, pageId, Permissions.READ_ONLY);
         assert(page.getParentId().equals(parentId));
+        assert(upperBound == null ? page.getHighKey() == null : upperBound.equals(page.getHighKey()));
 
         if (page.getId().pgcateg() == BTreePageId.LEAF) {
             BTreeLeafPage bpage = (BTreeLeafPage) page;
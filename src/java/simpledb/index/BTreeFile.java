@@ -1,6 +1,8 @@
 package simpledb.index;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 
 import simpledb.common.Database;
@@ -33,6 +35,31 @@ public class BTreeFile implements DbFile {
 	private final int tableid ;
 	private final int keyField;
 
+	private volatile boolean memoryMapped = MappedFile.DEFAULT_ENABLED;
+	private MappedFile mapped;
+
+	private final PageLatches latches = new PageLatches();
+	/** How long a latch taken out of the top-down order is waited for before giving it up. */
+	private static final long LATCH_WAIT_MILLIS = 50;
+
+	/**
+	 * Thrown by getPage under latches for a page it cannot have at once. An insert that has
+	 * not changed anything yet releases its latches, waits for the page and starts again from
+	 * the root; anywhere else it aborts the transaction as its superclass does.
+	 */
+	private static class PageBusyException extends TransactionAbortedException {
+		private static final long serialVersionUID = 1L;
+
+		/** The page whose lock was not granted, or null if its latch was busy. */
+		final BTreePageId pid;
+		final Permissions perm;
+
+		PageBusyException(BTreePageId pid, Permissions perm) {
+			this.pid = pid;
+			this.perm = perm;
+		}
+	}
+
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
 	 * 
@@ -77,6 +104,45 @@ public class BTreeFile implements DbFile {
 		return td;
 	}
 
+	/**
+	 * Choose whether readPage reads through a memory mapping of the file
+	 * instead of a FileInputStream.
+	 * 
+	 * @see MappedFile
+	 */
+	public void setMemoryMapped(boolean memoryMapped) {
+		this.memoryMapped = memoryMapped;
+	}
+
+	private synchronized MappedFile mappedFile() {
+		if (mapped == null)
+			mapped = new MappedFile(f, BufferPool.getPageSize());
+		return mapped;
+	}
+
+	/**
+	 * Read a page through the memory mapping of the file.
+	 * 
+	 * @see #readPage(PageId)
+	 */
+	private Page readMappedPage(BTreePageId id) throws IOException {
+		if (id.pgcateg() == BTreePageId.ROOT_PTR) {
+			byte[] pageBuf = mappedFile().read(0, BTreeRootPtrPage.getPageSize());
+			Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
+			return new BTreeRootPtrPage(id, pageBuf);
+		}
+		byte[] pageBuf = mappedFile().read(BTreeRootPtrPage.getPageSize()
+				+ (long) (id.getPageNumber() - 1) * BufferPool.getPageSize(), BufferPool.getPageSize());
+		Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
+		if (id.pgcateg() == BTreePageId.INTERNAL) {
+			return new BTreeInternalPage(id, pageBuf, keyField);
+		} else if (id.pgcateg() == BTreePageId.LEAF) {
+			return new BTreeLeafPage(id, pageBuf, keyField);
+		} else { // id.pgcateg() == BTreePageId.HEADER
+			return new BTreeHeaderPage(id, pageBuf);
+		}
+	}
+
 	/**
 	 * Read a page from the file on disk. This should not be called directly
 	 * but should be called from the BufferPool via getPage()
@@ -87,6 +153,14 @@ public class BTreeFile implements DbFile {
 	public Page readPage(PageId pid) {
 		BTreePageId id = (BTreePageId) pid;
 
+		if (memoryMapped) {
+			try {
+				return readMappedPage(id);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
         try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(f))) {
             if (id.pgcateg() == BTreePageId.ROOT_PTR) {
                 byte[] pageBuf = new byte[BTreeRootPtrPage.getPageSize()];
@@ -152,6 +226,29 @@ public class BTreeFile implements DbFile {
 			rf.close();
 		}
 	}
+
+	/**
+	 * Write several pages to disk, coalescing adjacent pages into single
+	 * writes.  Like writePage, this should only be called from the BufferPool.
+	 *
+	 * @param pages - the pages to write to disk
+	 */
+	@Override
+	public void writePages(List<Page> pages) throws IOException {
+		VectoredPageWriter.write(f, pages, pid -> pid.getPageNumber() == 0 ? 0
+				: BTreeRootPtrPage.getPageSize() + (long) (pid.getPageNumber() - 1) * BufferPool.getPageSize());
+	}
+
+	/**
+	 * Force the pages written to this file to disk, so that the BufferPool
+	 * can log them as written.
+	 */
+	@Override
+	public void sync() throws IOException {
+		try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.WRITE)) {
+			ch.force(false);
+		}
+	}
 	
 	/**
 	 * Returns the number of pages in this BTreeFile.
@@ -169,16 +266,31 @@ public class BTreeFile implements DbFile {
 	}
 
 	/**
-	 * Recursive function which finds and locks the leaf page in the B+ tree corresponding to
-	 * the left-most page possibly containing the key field f. It locks all internal
-	 * nodes along the path to the leaf node with READ_ONLY permission, and locks the 
-	 * leaf node with permission perm.
+	 * Function which finds and locks the leaf page in the B+ tree corresponding to
+	 * the left-most page possibly containing the key field f. Internal nodes along
+	 * the path are not locked but latched, and the leaf node is locked with
+	 * permission perm.
+	 * 
+	 * The descent crabs down the tree: a reader releases the latch on a node once
+	 * it holds the latch on its child, and a writer (perm is READ_WRITE) releases
+	 * the latches on the ancestors of a node once the node has an empty slot, as a
+	 * split below it then stops there. A writer returns with the latches on the
+	 * path from its last such node still held if the leaf is full, for the split;
+	 * otherwise no latch is held on return.
+	 * 
+	 * Pages are read as they are, even if a transaction that has not completed is
+	 * splitting them. A page whose high key is less than f has split since the pointer
+	 * to it was read, and the descent follows its right link to the page now holding
+	 * the upper part of its keys, as in a B-link tree. A leaf locked by another
+	 * transaction is waited for with no latch held, after which the descent starts
+	 * again from the root, as it does from a page emptied since the pointer to it
+	 * was read.
 	 * 
 	 * If f is null, it finds the left-most leaf page -- used for the iterator
 	 * 
 	 * @param tid - the transaction id
 	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
-	 * @param pid - the current page being searched
+	 * @param pid - the root page
 	 * @param perm - the permissions with which to lock the leaf page
 	 * @param f - the field to search for
 	 * @return the left-most leaf page possibly containing the key field f
@@ -187,8 +299,167 @@ public class BTreeFile implements DbFile {
 	private BTreeLeafPage findLeafPage(TransactionId tid, Map<PageId, Page> dirtypages, BTreePageId pid, Permissions perm,
                                        Field f)
 					throws DbException, TransactionAbortedException {
-		// some code goes here
-        return null;
+		boolean write = perm == Permissions.READ_WRITE;
+		while(true) {
+			BTreePageId cur = pid;
+			BTreeLeafPage leaf = null;
+			boolean stale = false;
+			try {
+				while(cur.pgcateg() == BTreePageId.INTERNAL) {
+					BTreeInternalPage node = (BTreeInternalPage) latchedPage(tid, dirtypages, cur, write);
+					if(node.movesRight(f)) {
+						latches.releaseAll();
+						cur = node.getRightSiblingId();
+						continue;
+					}
+					if(node.getNumEntries() == 0) {
+						stale = true;
+						break;
+					}
+					if(!write || node.getNumEmptySlots() > 0) {
+						latches.releaseAncestors();
+					}
+					cur = childFor(node, f);
+				}
+				while(!stale) {
+					leaf = (BTreeLeafPage) (dirtypages.containsKey(cur) ? dirtypages.get(cur)
+							: Database.getBufferPool().tryGetPage(tid, cur, perm));
+					if(leaf == null || !leaf.movesRight(f)) {
+						break;
+					}
+					latches.releaseAll();
+					cur = leaf.getRightSiblingId();
+				}
+				if(leaf != null && !cur.equals(pid) && leaf.getParentId().pgcateg() == BTreePageId.ROOT_PTR) {
+					// no longer in the tree, put back as it was before an aborted split
+					stale = true;
+				}
+			} finally {
+				if(stale || leaf == null || !write || leaf.getNumEmptySlots() > 0) {
+					latches.releaseAll();
+				}
+			}
+			if(leaf != null && !stale) {
+				if(write) {
+					dirtypages.put(cur, leaf);
+				}
+				return leaf;
+			}
+			if(!stale) {
+				// wait for the transaction holding the leaf to complete
+				Database.getBufferPool().getPage(tid, cur, perm);
+			}
+			pid = getRootId(tid, dirtypages);
+		}
+	}
+
+	/**
+	 * Latch an internal page and read it without locking it.
+	 * 
+	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @param pid - the id of the internal page
+	 * @param exclusive - whether to latch the page exclusively, to change it
+	 * @return the page
+	 */
+	private Page latchedPage(TransactionId tid, Map<PageId, Page> dirtypages, BTreePageId pid, boolean exclusive)
+			throws DbException, TransactionAbortedException {
+		latches.latch(pid, exclusive);
+		if(dirtypages.containsKey(pid)) {
+			return dirtypages.get(pid);
+		}
+		if(Database.getBufferPool().getVersionStore().isSnapshot(tid)) {
+			// a snapshot must see the tree as it was, not as it is
+			return Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+		}
+		return Database.getBufferPool().getPageUnlocked(pid);
+	}
+
+	/**
+	 * Read the id of the root page under a latch on the root pointer page rather than a
+	 * lock, so that readers do not hold up a split of the root. A descent from a root
+	 * that has split since moves right along the old root's level.
+	 * 
+	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @return the id of the root page, or null if the tree has none yet
+	 */
+	BTreePageId getRootId(TransactionId tid, Map<PageId, Page> dirtypages)
+			throws DbException, TransactionAbortedException {
+		BTreePageId rootPtrId = BTreeRootPtrPage.getId(tableid);
+		if(f.length() == 0 || dirtypages.containsKey(rootPtrId)
+				|| Database.getBufferPool().getVersionStore().isSnapshot(tid)) {
+			try {
+				return getRootPtrPage(tid, dirtypages).getRootId();
+			} catch (IOException e) {
+				throw new DbException("could not create the root pointer page: " + e.getMessage());
+			}
+		}
+		latches.latch(rootPtrId, false);
+		try {
+			return ((BTreeRootPtrPage) Database.getBufferPool().getPageUnlocked(rootPtrId)).getRootId();
+		} finally {
+			latches.releaseAll();
+		}
+	}
+
+	/**
+	 * @return the child of node the left-most leaf possibly containing f is under,
+	 * or its left-most child if f is null
+	 */
+	private static BTreePageId childFor(BTreeInternalPage node, Field f) {
+		Iterator<BTreeEntry> it = node.iterator();
+		BTreeEntry e = null;
+		while(it.hasNext()) {
+			e = it.next();
+			if(f == null || f.compare(Op.LESS_THAN_OR_EQ, e.getKey())) {
+				return e.getLeftChild();
+			}
+		}
+		return e.getRightChild();
+	}
+
+	/**
+	 * Latch exclusively the ancestors of a leaf page that a delete from it may change,
+	 * from the top down, as a writer's descent in findLeafPage would have: on return
+	 * the latches are held from the lowest ancestor that stays at least half full after
+	 * losing an entry (or the root, if it keeps an entry) down to the leaf's parent.
+	 * 
+	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @param leaf - the leaf page, locked with READ_WRITE permission
+	 */
+	private void latchPath(TransactionId tid, Map<PageId, Page> dirtypages, BTreeLeafPage leaf)
+			throws DbException, TransactionAbortedException {
+		while(true) {
+			// the path up to the root through parent pointers, read without latches, so it
+			// is checked again on the way down
+			LinkedList<BTreePageId> path = new LinkedList<>();
+			for(BTreePageId id = leaf.getParentId(); id.pgcateg() == BTreePageId.INTERNAL; ) {
+				path.addFirst(id);
+				id = ((BTreePage) Database.getBufferPool().getPageUnlocked(id)).getParentId();
+			}
+			BTreePageId expected = BTreeRootPtrPage.getId(tableid);
+			boolean valid = true;
+			for(BTreePageId id : path) {
+				BTreeInternalPage node = (BTreeInternalPage) latchedPage(tid, dirtypages, id, true);
+				if(!node.getParentId().equals(expected)) {
+					valid = false;
+					break;
+				}
+				int maxEmptySlots = node.getMaxEntries() - node.getMaxEntries()/2; // ceiling
+				boolean safe = expected.pgcateg() == BTreePageId.ROOT_PTR
+						? node.getNumEntries() > 1 : node.getNumEmptySlots() < maxEmptySlots;
+				if(safe) {
+					latches.releaseAncestors();
+				}
+				expected = id;
+			}
+			if(valid && (path.isEmpty() || leaf.getParentId().equals(expected))) {
+				return;
+			}
+			latches.releaseAll();
+		}
 	}
 	
 	/**
@@ -231,16 +502,45 @@ public class BTreeFile implements DbFile {
 	 */
 	public BTreeLeafPage splitLeafPage(TransactionId tid, Map<PageId, Page> dirtypages, BTreeLeafPage page, Field field)
 			throws DbException, IOException, TransactionAbortedException {
-		// some code goes here
-        //
-        // Split the leaf page by adding a new page on the right of the existing
-		// page and moving half of the tuples to the new page.  Copy the middle key up
-		// into the parent page, and recursively split the parent as needed to accommodate
-		// the new entry.  getParentWithEmtpySlots() will be useful here.  Don't forget to update
-		// the sibling pointers of all the affected leaf pages.  Return the page into which a 
-		// tuple with the given key field should be inserted.
-        return null;
-		
+		BTreeLeafPage newPage = (BTreeLeafPage) getEmptyPage(tid, dirtypages, BTreePageId.LEAF);
+
+		// move the upper half of the tuples to the new page, on the right of the old one
+		int move = page.getNumTuples() / 2;
+		Iterator<Tuple> it = page.reverseIterator();
+		List<Tuple> moving = new ArrayList<>();
+		while(moving.size() < move && it.hasNext()) {
+			moving.add(it.next());
+		}
+		for(Tuple t : moving) {
+			page.deleteTuple(t);
+			newPage.insertTuple(t);
+		}
+		Field splitKey = newPage.iterator().next().getField(keyField);
+
+		BTreePageId oldRightId = page.getRightSiblingId();
+		if(oldRightId != null) {
+			BTreeLeafPage oldRight = (BTreeLeafPage) getPage(tid, dirtypages, oldRightId, Permissions.READ_WRITE);
+			oldRight.setLeftSiblingId(newPage.getId());
+		}
+		newPage.setRightSiblingId(oldRightId);
+		newPage.setLeftSiblingId(page.getId());
+		page.setRightSiblingId(newPage.getId());
+
+		// the new page takes over the upper bound of the old one, which is bounded by the split key
+		// from now on, so that a descent that read the parent before the new entry moves right
+		newPage.setHighKey(page.getHighKey());
+		page.setHighKey(splitKey);
+
+		// copy the split key up into the parent
+		BTreeInternalPage parent = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), splitKey);
+		parent.insertEntry(new BTreeEntry(splitKey, page.getId(), newPage.getId()));
+		page.setParentId(parent.getId());
+		newPage.setParentId(parent.getId());
+
+		if(field.compare(Op.GREATER_THAN, splitKey)) {
+			return newPage;
+		}
+		return page;
 	}
 	
 	/**
@@ -268,16 +568,42 @@ public class BTreeFile implements DbFile {
 	public BTreeInternalPage splitInternalPage(TransactionId tid, Map<PageId, Page> dirtypages,
 			BTreeInternalPage page, Field field) 
 					throws DbException, IOException, TransactionAbortedException {
-		// some code goes here
-        //
-        // Split the internal page by adding a new page on the right of the existing
-		// page and moving half of the entries to the new page.  Push the middle key up
-		// into the parent page, and recursively split the parent as needed to accommodate
-		// the new entry.  getParentWithEmtpySlots() will be useful here.  Don't forget to update
-		// the parent pointers of all the children moving to the new page.  updateParentPointers()
-		// will be useful here.  Return the page into which an entry with the given key field
-		// should be inserted.
-		return null;
+		BTreeInternalPage newPage = (BTreeInternalPage) getEmptyPage(tid, dirtypages, BTreePageId.INTERNAL);
+
+		// move the upper half of the entries to the new page, and take the one below them out
+		// to push it up
+		int move = page.getNumEntries() / 2;
+		Iterator<BTreeEntry> it = page.reverseIterator();
+		List<BTreeEntry> moving = new ArrayList<>();
+		while(moving.size() < move && it.hasNext()) {
+			moving.add(it.next());
+		}
+		BTreeEntry mid = it.next();
+		for(BTreeEntry e : moving) {
+			page.deleteKeyAndRightChild(e);
+			newPage.insertEntry(e);
+		}
+		page.deleteKeyAndRightChild(mid);
+
+		// the new page takes over the right link and the upper bound of the old one
+		newPage.setRightSiblingId(page.getRightSiblingId());
+		newPage.setHighKey(page.getHighKey());
+		page.setRightSiblingId(newPage.getId());
+		page.setHighKey(mid.getKey());
+		updateParentPointers(tid, dirtypages, newPage);
+
+		// push the middle key up into the parent
+		BTreeInternalPage parent = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), mid.getKey());
+		mid.setLeftChild(page.getId());
+		mid.setRightChild(newPage.getId());
+		parent.insertEntry(mid);
+		page.setParentId(parent.getId());
+		newPage.setParentId(parent.getId());
+
+		if(field.compare(Op.GREATER_THAN, mid.getKey())) {
+			return newPage;
+		}
+		return page;
 	}
 	
 	/**
@@ -389,6 +715,12 @@ public class BTreeFile implements DbFile {
 	 * This method is needed to ensure that page updates are not lost if the same pages are
 	 * accessed multiple times.
 	 * 
+	 * Internal pages and the root pointer page fetched with read-write permission are latched
+	 * exclusively as well, as descents read them without locks. While the thread holds latches,
+	 * internal pages are latched exclusively whatever the permission, and a latch that is not
+	 * released soon or a lock that cannot be granted at once throws PageBusyException rather
+	 * than waiting.
+	 * 
 	 * @param tid - the transaction id
 	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
 	 * @param pid - the id of the requested page
@@ -404,19 +736,41 @@ public class BTreeFile implements DbFile {
 		if(dirtypages.containsKey(pid)) {
 			return dirtypages.get(pid);
 		}
+		boolean unlockedReads = pid.pgcateg() == BTreePageId.INTERNAL || pid.pgcateg() == BTreePageId.ROOT_PTR;
+		Page p;
+		if(latches.getHeldCount() > 0) {
+			// changing the structure of the tree under latches, where waiting for a
+			// lock could deadlock unseen
+			if((pid.pgcateg() == BTreePageId.INTERNAL || (unlockedReads && perm == Permissions.READ_WRITE))
+					&& !latches.tryLatch(pid, true, LATCH_WAIT_MILLIS)) {
+				throw new PageBusyException(null, perm);
+			}
+			p = Database.getBufferPool().tryGetPage(tid, pid, perm);
+			if(p == null) {
+				throw new PageBusyException(pid, perm);
+			}
+		}
 		else {
-			Page p = Database.getBufferPool().getPage(tid, pid, perm);
-			if(perm == Permissions.READ_WRITE) {
-				dirtypages.put(pid, p);
+			p = Database.getBufferPool().getPage(tid, pid, perm);
+			if(unlockedReads && perm == Permissions.READ_WRITE) {
+				// latched after the lock, as a thread holding a latch never waits for a lock
+				latches.latch(pid, true);
 			}
-			return p;
 		}
+		if(perm == Permissions.READ_WRITE) {
+			dirtypages.put(pid, p);
+		}
+		return p;
 	}
 
 	/**
 	 * Insert a tuple into this BTreeFile, keeping the tuples in sorted order. 
 	 * May cause pages to split if the page where tuple t belongs is full.
 	 * 
+	 * The pages a split changes are all had before it changes any of them, so a page another
+	 * transaction holds is waited for with no latches held, and the insert then starts again
+	 * from the root instead of aborting.
+	 * 
 	 * @param tid - the transaction id
 	 * @param t - the tuple to insert
 	 * @return a list of all pages that were dirtied by this operation. Could include
@@ -427,27 +781,110 @@ public class BTreeFile implements DbFile {
 			throws DbException, IOException, TransactionAbortedException {
 		Map<PageId, Page> dirtypages = new HashMap<>();
 
-		// get a read lock on the root pointer page and use it to locate the root page
-		BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
-		BTreePageId rootId = rootPtr.getRootId();
+		while(true) {
+			try {
+				// read the root pointer page under a latch and use it to locate the root page
+				BTreePageId rootId = getRootId(tid, dirtypages);
 
-		if(rootId == null) { // the root has just been created, so set the root pointer to point to it		
-			rootId = new BTreePageId(tableid, numPages(), BTreePageId.LEAF);
-			rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
-			rootPtr.setRootId(rootId);
+				if(rootId == null) { // the root has just been created, so set the root pointer to point to it		
+					rootId = new BTreePageId(tableid, numPages(), BTreePageId.LEAF);
+					BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages,
+							BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
+					rootPtr.setRootId(rootId);
+				}
+
+				// find and lock the left-most leaf page corresponding to the key field,
+				// and split the leaf page if there are no more slots available
+				BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, rootId, Permissions.READ_WRITE, t.getField(keyField));
+				if(leafPage.getNumEmptySlots() == 0) {
+					lockForSplit(tid, dirtypages, leafPage);
+					try {
+						leafPage = splitLeafPage(tid, dirtypages, leafPage, t.getField(keyField));
+					} catch (PageBusyException e) {
+						// too late to start again, the split has changed pages
+						throw new TransactionAbortedException();
+					}
+				}
+
+				// insert the tuple into the leaf page
+				leafPage.insertTuple(t);
+
+				return new ArrayList<>(dirtypages.values());
+			} catch (PageBusyException e) {
+				// nothing changed yet: wait for the page without latches, where the deadlock
+				// detection sees the wait, and start again from the root
+				releaseLatches(tid, dirtypages);
+				dirtypages.clear();
+				if(e.pid != null) {
+					Database.getBufferPool().getPage(tid, e.pid, e.perm);
+				}
+			} finally {
+				releaseLatches(tid, dirtypages);
+			}
 		}
+	}
 
-		// find and lock the left-most leaf page corresponding to the key field,
-		// and split the leaf page if there are no more slots available
-		BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, rootId, Permissions.READ_WRITE, t.getField(keyField));
-		if(leafPage.getNumEmptySlots() == 0) {
-			leafPage = splitLeafPage(tid, dirtypages, leafPage, t.getField(keyField));	
+	/**
+	 * Lock every page a split of a full leaf page will change, and latch the internal pages
+	 * and the root pointer page among them, before the split changes any page. These are the
+	 * root pointer and header pages a new page is taken with, the right sibling of the leaf,
+	 * its ancestors up to the first with an empty slot, and the children that move to the new
+	 * right half of each ancestor that splits.
+	 * 
+	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @param leaf - the full leaf page, locked with READ_WRITE permission
+	 * @throws PageBusyException if one of the pages cannot be had at once
+	 */
+	private void lockForSplit(TransactionId tid, Map<PageId, Page> dirtypages, BTreeLeafPage leaf)
+			throws DbException, IOException, TransactionAbortedException {
+		BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
+		for(BTreePageId id = rootPtr.getHeaderId(); id != null; ) {
+			id = ((BTreeHeaderPage) getPage(tid, dirtypages, id, Permissions.READ_WRITE)).getNextPageId();
+		}
+		if(leaf.getRightSiblingId() != null) {
+			getPage(tid, dirtypages, leaf.getRightSiblingId(), Permissions.READ_WRITE);
 		}
 
-		// insert the tuple into the leaf page
-		leafPage.insertTuple(t);
+		BTreePageId parentId = leaf.getParentId();
+		while(parentId.pgcateg() == BTreePageId.INTERNAL) {
+			BTreeInternalPage parent = (BTreeInternalPage) getPage(tid, dirtypages, parentId, Permissions.READ_WRITE);
+			if(parent.getNumEmptySlots() > 0) {
+				return;
+			}
+			// splitInternalPage moves the upper half of the entries, and their children with them
+			List<BTreeEntry> entries = new ArrayList<>();
+			parent.iterator().forEachRemaining(entries::add);
+			int n = entries.size();
+			for(int i = n - n / 2; i < n; i++) {
+				getPage(tid, dirtypages, entries.get(i).getLeftChild(), Permissions.READ_WRITE);
+			}
+			getPage(tid, dirtypages, entries.get(n - 1).getRightChild(), Permissions.READ_WRITE);
+			parentId = parent.getParentId();
+		}
+		// the root splits, and the root pointer moves to the new root
+		getPage(tid, dirtypages, parentId, Permissions.READ_WRITE);
+	}
 
-        return new ArrayList<>(dirtypages.values());
+	/**
+	 * Release the latches of this thread, after marking the pages it changed dirty so
+	 * that descents reading internal pages without locks wait for tid to complete.
+	 */
+	private void releaseLatches(TransactionId tid, Map<PageId, Page> dirtypages) {
+		if(latches.getHeldCount() == 0) {
+			return;
+		}
+		for(Page p : dirtypages.values()) {
+			p.markDirty(true, tid);
+		}
+		latches.releaseAll();
+	}
+
+	/**
+	 * @return the number of pages of this file whose latch is held or waited for
+	 */
+	public int getLatchedPageCount() {
+		return latches.size();
 	}
 	
 	/**
@@ -568,7 +1005,8 @@ public class BTreeFile implements DbFile {
         //
         // Move some of the tuples from the sibling to the page so
 		// that the tuples are evenly distributed. Be sure to update
-		// the corresponding parent entry.
+		// the corresponding parent entry, and the high key of the left-hand
+		// page to match it.
 	}
 
 	/**
@@ -646,8 +1084,9 @@ public class BTreeFile implements DbFile {
 		// some code goes here
         // Move some of the entries from the left sibling to the page so
 		// that the entries are evenly distributed. Be sure to update
-		// the corresponding parent entry. Be sure to update the parent
-		// pointers of all children in the entries that were moved.
+		// the corresponding parent entry, and the high key of the left sibling
+		// to match it. Be sure to update the parent pointers of all children
+		// in the entries that were moved.
 	}
 	
 	/**
@@ -673,8 +1112,9 @@ public class BTreeFile implements DbFile {
 		// some code goes here
         // Move some of the entries from the right sibling to the page so
 		// that the entries are evenly distributed. Be sure to update
-		// the corresponding parent entry. Be sure to update the parent
-		// pointers of all children in the entries that were moved.
+		// the corresponding parent entry, and the high key of the page to
+		// match it. Be sure to update the parent pointers of all children in
+		// the entries that were moved.
 	}
 	
 	/**
@@ -702,7 +1142,8 @@ public class BTreeFile implements DbFile {
 		// some code goes here
         //
 		// Move all the tuples from the right page to the left page, update
-		// the sibling pointers, and make the right page available for reuse.
+		// the sibling pointers, give the left page the high key of the right
+		// page, and make the right page available for reuse.
 		// Delete the entry in the parent corresponding to the two pages that are merging -
 		// deleteParentEntry() will be useful here
 	}
@@ -735,6 +1176,7 @@ public class BTreeFile implements DbFile {
         //
         // Move all the entries from the right page to the left page, update
 		// the parent pointers of the children in the entries that were moved, 
+		// give the left page the right link and the high key of the right page,
 		// and make the right page available for reuse
 		// Delete the entry in the parent corresponding to the two pages that are merging -
 		// deleteParentEntry() will be useful here
@@ -811,7 +1253,12 @@ public class BTreeFile implements DbFile {
 		// or merge with one of the siblings
 		int maxEmptySlots = page.getMaxTuples() - page.getMaxTuples()/2; // ceiling
 		if(page.getNumEmptySlots() > maxEmptySlots) { 
-			handleMinOccupancyPage(tid, dirtypages, page);
+			try {
+				latchPath(tid, dirtypages, page);
+				handleMinOccupancyPage(tid, dirtypages, page);
+			} finally {
+				releaseLatches(tid, dirtypages);
+			}
 		}
 
         return new ArrayList<>(dirtypages.values());
@@ -1080,9 +1527,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 	 * Open this iterator by getting an iterator on the first leaf page
 	 */
 	public void open() throws DbException, TransactionAbortedException {
-		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-		BTreePageId root = rootPtr.getRootId();
+		BTreePageId root = f.getRootId(tid, new HashMap<>());
 		curp = f.findLeafPage(tid, root, null);
 		it = curp.iterator();
 	}
@@ -1165,9 +1610,7 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	 * for the given predicate operation
 	 */
 	public void open() throws DbException, TransactionAbortedException {
-		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-		BTreePageId root = rootPtr.getRootId();
+		BTreePageId root = f.getRootId(tid, new HashMap<>());
 		if(ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.GREATER_THAN 
 				|| ipred.getOp() == Op.GREATER_THAN_OR_EQ) {
 			curp = f.findLeafPage(tid, root, ipred.getField());
@@ -228,12 +228,14 @@ public class BTreeFileEncoder {
 		}
 		// pointerbytes: left sibling pointer, right sibling pointer, parent pointer
 		int leafpointerbytes = 3 * BTreeLeafPage.INDEX_SIZE; 
-		int nrecords = (npagebytes * 8 - leafpointerbytes * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
+		// highkeybytes: whether there is a high key, and the key, then the page LSN
+		int highkeybytes = 1 + keyType.getLen() + BTreePage.LSN_SIZE;
+		int nrecords = (npagebytes * 8 - leafpointerbytes * 8 - highkeybytes * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
 
 		int nentrybytes = keyType.getLen() + BTreeInternalPage.INDEX_SIZE;
-		// pointerbytes: one extra child pointer, parent pointer, child page category
-		int internalpointerbytes = 2 * BTreeLeafPage.INDEX_SIZE + 1; 
-		int nentries = (npagebytes * 8 - internalpointerbytes * 8 - 1) /  (nentrybytes * 8 + 1);  //floor comes for free
+		// pointerbytes: one extra child pointer, parent pointer, child page category, right sibling pointer
+		int internalpointerbytes = 3 * BTreeLeafPage.INDEX_SIZE + 1; 
+		int nentries = (npagebytes * 8 - internalpointerbytes * 8 - highkeybytes * 8 - 1) /  (nentrybytes * 8 + 1);  //floor comes for free
 
 		List<List<BTreeEntry>> entries = new ArrayList<>();
 
@@ -328,8 +330,9 @@ public class BTreeFileEncoder {
 		byte[] rootPtrBytes = convertToRootPtrPage(root, rootCategory, 0);
 		bf.writePage(new BTreeRootPtrPage(BTreeRootPtrPage.getId(tableid), rootPtrBytes));
 
-		// set all the parent and sibling pointers
-		setParents(bf, new BTreePageId(tableid, root, rootCategory), BTreeRootPtrPage.getId(tableid));
+		// set all the parent and sibling pointers, and the high keys
+		setParents(bf, new BTreePageId(tableid, root, rootCategory), BTreeRootPtrPage.getId(tableid),
+				null, new ArrayList<>(), 0);
 		setRightSiblingPtrs(bf, lastPid, null);
 
 		Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
@@ -357,34 +360,53 @@ public class BTreeFileEncoder {
 	}
 
 	/**
-	 * Recursive function to set all the parent pointers
+	 * Recursive function to set all the parent pointers, the high keys, and the right
+	 * sibling pointers of internal pages. Pages are visited from left to right at each
+	 * level, so each internal page is the right sibling of the one visited before it
+	 * at its depth, which has been written by then.
 	 * 
 	 * @param bf - the BTreeFile
 	 * @param pid - id of the page to update with the parent pointer
 	 * @param parent - the id of the page's parent
+	 * @param highKey - the high key of the page, or null for the right-most page of a level
+	 * @param lastAtDepth - the id of the internal page visited last at each depth so far
+	 * @param depth - the depth of the page, 0 for the root
 	 * @throws IOException
 	 * @throws DbException
 	 */
-	private static void setParents(BTreeFile bf, BTreePageId pid, BTreePageId parent) 
+	private static void setParents(BTreeFile bf, BTreePageId pid, BTreePageId parent, Field highKey,
+			List<BTreePageId> lastAtDepth, int depth) 
 			throws IOException, DbException {
 		if(pid.pgcateg() == BTreePageId.INTERNAL) {
 			BTreeInternalPage page = (BTreeInternalPage) bf.readPage(pid);
 			page.setParentId(parent);
+			page.setHighKey(highKey);
+
+			if(lastAtDepth.size() > depth) {
+				BTreeInternalPage left = (BTreeInternalPage) bf.readPage(lastAtDepth.get(depth));
+				left.setRightSiblingId(pid);
+				bf.writePage(left);
+				lastAtDepth.set(depth, pid);
+			}
+			else {
+				lastAtDepth.add(pid);
+			}
 
 			Iterator<BTreeEntry> it = page.iterator();
 			BTreeEntry e = null;
 			while(it.hasNext()) {
 				e = it.next();
-				setParents(bf, e.getLeftChild(), pid);
+				setParents(bf, e.getLeftChild(), pid, e.getKey(), lastAtDepth, depth + 1);
 			}
 			if(e != null) {
-				setParents(bf, e.getRightChild(), pid);
+				setParents(bf, e.getRightChild(), pid, highKey, lastAtDepth, depth + 1);
 			}
 			bf.writePage(page);
 		}
 		else { // pid.pgcateg() == BTreePageId.LEAF
 			BTreeLeafPage page = (BTreeLeafPage) bf.readPage(pid);
 			page.setParentId(parent);
+			page.setHighKey(highKey);
 			bf.writePage(page);
 		}
 	}
@@ -489,6 +511,382 @@ public class BTreeFileEncoder {
 		entries.get(level).add(e);
 	}
 
+	/**
+	 * Bulk load a B+ tree file from a text file, streaming it through bounded memory so that
+	 * inputs much larger than the heap can be loaded. Unless the input is already sorted on the
+	 * key field it is sorted externally first, in runs of at most sortRunTuples tuples written
+	 * next to bFile. The tree is then built bottom-up as in
+	 * {@link #bulkLoad(Iterator, long, File, int, int, Type[], int, double)}.
+	 * 
+	 * @param inFile - the file containing the raw data, one tuple per line
+	 * @param bFile - the data file for the BTreeFile, overwritten if it exists
+	 * @param npagebytes - number of bytes per page
+	 * @param numFields - number of fields per tuple
+	 * @param typeAr - array containing the types of the tuples
+	 * @param fieldSeparator - character separating fields in the raw data file
+	 * @param keyField - the field of the tuples the B+ tree will be keyed on
+	 * @param fillFactor - the fraction of each leaf page to fill, greater than 0 and at most 1
+	 * @param sorted - whether inFile is already sorted on the key field
+	 * @param sortRunTuples - the most tuples held in memory while sorting
+	 * @return the B+ tree file
+	 * @throws IOException
+	 * @throws DbException if sorted is true and the input is not sorted
+	 */
+	public static BTreeFile bulkLoad(File inFile, File bFile, int npagebytes, int numFields, Type[] typeAr,
+			char fieldSeparator, int keyField, double fillFactor, boolean sorted, int sortRunTuples)
+					throws IOException, DbException {
+		TupleDesc td = new TupleDesc(typeAr);
+		if(sorted) {
+			long count;
+			try (BufferedReader br = new BufferedReader(new FileReader(inFile))) {
+				count = br.lines().filter(l -> !l.trim().isEmpty()).count();
+			}
+			try (BufferedReader br = new BufferedReader(new FileReader(inFile))) {
+				return bulkLoad(new TextTupleIterator(br, td, numFields, fieldSeparator), count, bFile,
+						npagebytes, numFields, typeAr, keyField, fillFactor);
+			}
+			catch (UncheckedIOException e) {
+				throw e.getCause();
+			}
+		}
+		File tmpDir = bFile.getAbsoluteFile().getParentFile();
+		try (BufferedReader br = new BufferedReader(new FileReader(inFile));
+				ExternalTupleSort sort = new ExternalTupleSort(td, keyField, sortRunTuples, tmpDir)) {
+			Iterator<Tuple> it = new TextTupleIterator(br, td, numFields, fieldSeparator);
+			while(it.hasNext()) {
+				sort.add(it.next());
+			}
+			return bulkLoad(sort.sorted(), sort.size(), bFile, npagebytes, numFields, typeAr, keyField, fillFactor);
+		}
+		catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Bulk load a B+ tree file from tuples already sorted on the key field, building it
+	 * bottom-up in a single pass. The shape of the tree follows from the number of tuples:
+	 * the tuples are spread evenly over as few leaves as hold them at the given fill factor,
+	 * and the children of each level evenly over as few full internal pages as hold them.
+	 * So every page is written once, with its final parent and sibling pointers, right link
+	 * and high key, and only the page being filled at each level is held in memory.
+	 * 
+	 * Leaves are filled to the fill factor to leave room for later inserts; internal pages
+	 * are filled completely. Each page is at least half as full as the others at its level.
+	 * 
+	 * @param sorted - the tuples, in order on the key field
+	 * @param count - the number of tuples
+	 * @param bFile - the data file for the BTreeFile, overwritten if it exists
+	 * @param npagebytes - number of bytes per page
+	 * @param numFields - number of fields per tuple
+	 * @param typeAr - array containing the types of the tuples
+	 * @param keyField - the field of the tuples the B+ tree will be keyed on
+	 * @param fillFactor - the fraction of each leaf page to fill, greater than 0 and at most 1
+	 * @return the B+ tree file
+	 * @throws IOException
+	 * @throws DbException if the tuples are not in order, or there are not count of them
+	 */
+	public static BTreeFile bulkLoad(Iterator<Tuple> sorted, long count, File bFile, int npagebytes,
+			int numFields, Type[] typeAr, int keyField, double fillFactor)
+					throws IOException, DbException {
+		if(!(fillFactor > 0 && fillFactor <= 1)) {
+			throw new IllegalArgumentException("fill factor must be in (0, 1]: " + fillFactor);
+		}
+		BTreeFile bf = new BTreeFile(bFile, keyField, new TupleDesc(typeAr));
+		Database.getCatalog().addTable(bf, UUID.randomUUID().toString());
+
+		int nrecbytes = 0;
+		for (int i = 0; i < numFields ; i++) {
+			nrecbytes += typeAr[i].getLen();
+		}
+		// pointerbytes: left sibling pointer, right sibling pointer, parent pointer
+		int leafpointerbytes = 3 * BTreeLeafPage.INDEX_SIZE; 
+		// highkeybytes: whether there is a high key, and the key, then the page LSN
+		int highkeybytes = 1 + typeAr[keyField].getLen() + BTreePage.LSN_SIZE;
+		int nrecords = (npagebytes * 8 - leafpointerbytes * 8 - highkeybytes * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
+
+		int nentrybytes = typeAr[keyField].getLen() + BTreeInternalPage.INDEX_SIZE;
+		// pointerbytes: one extra child pointer, parent pointer, child page category, right sibling pointer
+		int internalpointerbytes = 3 * BTreeLeafPage.INDEX_SIZE + 1; 
+		int nentries = (npagebytes * 8 - internalpointerbytes * 8 - highkeybytes * 8 - 1) /  (nentrybytes * 8 + 1);  //floor comes for free
+
+		try (TreeWriter w = new TreeWriter(bf, count, npagebytes, numFields, typeAr, keyField,
+				Math.max(1, (int) (nrecords * fillFactor)), nentries)) {
+			while(sorted.hasNext()) {
+				w.add(sorted.next());
+			}
+			w.finish();
+		}
+		return bf;
+	}
+
+	/**
+	 * The shape of one level of a B+ tree being bulk loaded: its pages, and how its
+	 * children (the tuples, for the leaves) are spread over them. Each of the first
+	 * extra pages holds base + 1 children, and the others base.
+	 */
+	private static class Level {
+		final int firstPage;
+		final int pages;
+		final long base;
+		final long extra;
+
+		Level(int firstPage, long children, long perPage) {
+			this.firstPage = firstPage;
+			long n = Math.max(1, (children + perPage - 1) / perPage);
+			if(n > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("too many pages: " + n);
+			}
+			this.pages = (int) n;
+			this.base = children / pages;
+			this.extra = children % pages;
+		}
+
+		/** @return the number of children of the given page */
+		long sizeOf(int page) {
+			return base + (page < extra ? 1 : 0);
+		}
+
+		/** @return the page holding the given child */
+		int pageOf(long child) {
+			long big = extra * (base + 1);
+			return (int) (child < big ? child / (base + 1) : extra + (child - big) / base);
+		}
+	}
+
+	/**
+	 * Writes the pages of a bulk loaded B+ tree as tuples arrive in order. It keeps the
+	 * page being filled at each level, and writes a page as soon as the first key past it
+	 * arrives, as that key is its high key.
+	 */
+	private static class TreeWriter implements Closeable {
+		private final BTreeFile bf;
+		private final int tableid;
+		private final long count;
+		private final int npagebytes;
+		private final int numFields;
+		private final Type[] typeAr;
+		private final int keyField;
+		private final List<Level> levels = new ArrayList<>();
+		private final RandomAccessFile raf;
+
+		// the leaf being filled
+		private int leafPage;
+		private List<Tuple> tuples = new ArrayList<>();
+		private long seen;
+		private Field lastKey;
+
+		// the internal page being filled at each level above the leaves, and the key
+		// that separates it from the page before it
+		private final int[] page;
+		private final List<List<Field>> keys = new ArrayList<>();
+		private final List<List<Integer>> children = new ArrayList<>();
+		private final Field[] lowKeys;
+
+		TreeWriter(BTreeFile bf, long count, int npagebytes, int numFields, Type[] typeAr, int keyField,
+				int leafCapacity, int nentries) throws IOException {
+			this.bf = bf;
+			this.tableid = bf.getId();
+			this.count = count;
+			this.npagebytes = npagebytes;
+			this.numFields = numFields;
+			this.typeAr = typeAr;
+			this.keyField = keyField;
+
+			// page numbers from 1, the leaves first, then each level up to the root
+			Level l = new Level(1, count, leafCapacity);
+			levels.add(l);
+			while(l.pages > 1) {
+				l = new Level(l.firstPage + l.pages, l.pages, nentries + 1);
+				levels.add(l);
+			}
+			page = new int[levels.size()];
+			lowKeys = new Field[levels.size()];
+			for(int i = 0; i < levels.size(); i++) {
+				keys.add(new ArrayList<>());
+				children.add(new ArrayList<>());
+			}
+
+			raf = new RandomAccessFile(bf.getFile(), "rw");
+			raf.setLength(0);
+			Level root = levels.get(levels.size() - 1);
+			write(BTreeRootPtrPage.getId(tableid), convertToRootPtrPage(root.firstPage,
+					levels.size() > 1 ? BTreePageId.INTERNAL : BTreePageId.LEAF, 0));
+		}
+
+		void add(Tuple t) throws IOException, DbException {
+			Field key = t.getField(keyField);
+			if(lastKey != null && key.compare(Op.LESS_THAN, lastKey)) {
+				throw new DbException("tuples are not sorted on the key field: " + key + " after " + lastKey);
+			}
+			if(++seen > count) {
+				throw new DbException("more than " + count + " tuples");
+			}
+			lastKey = key;
+			if(tuples.size() == levels.get(0).sizeOf(leafPage)) {
+				writeLeaf(key);
+				leafPage++;
+				tuples = new ArrayList<>();
+			}
+			tuples.add(t);
+		}
+
+		void finish() throws IOException, DbException {
+			if(seen != count) {
+				throw new DbException("expected " + count + " tuples, got " + seen);
+			}
+			writeLeaf(null);
+			for(int level = 1; level < levels.size(); level++) {
+				writeInternal(level, null);
+			}
+		}
+
+		public void close() throws IOException {
+			raf.close();
+		}
+
+		private void writeLeaf(Field highKey) throws IOException {
+			Level l = levels.get(0);
+			BTreePageId pid = new BTreePageId(tableid, l.firstPage + leafPage, BTreePageId.LEAF);
+			BTreeLeafPage p = new BTreeLeafPage(pid,
+					convertToLeafPage(tuples, npagebytes, numFields, typeAr, keyField), keyField);
+			try {
+				p.setParentId(parentOf(0, leafPage));
+				p.setLeftSiblingId(leafPage > 0 ? new BTreePageId(tableid, pid.getPageNumber() - 1, BTreePageId.LEAF) : null);
+				p.setRightSiblingId(leafPage < l.pages - 1 ? new BTreePageId(tableid, pid.getPageNumber() + 1, BTreePageId.LEAF) : null);
+				p.setHighKey(highKey);
+			} catch (DbException e) {
+				throw new IOException(e);
+			}
+			write(pid, p.getPageData());
+			if(levels.size() > 1) {
+				addChild(1, pid.getPageNumber(), leafPage > 0 ? tuples.get(0).getField(keyField) : null);
+			}
+		}
+
+		/** Add the next child, with the key separating it from the child before it, to a level. */
+		private void addChild(int level, int child, Field separator) throws IOException {
+			List<Integer> c = children.get(level);
+			if(c.size() == levels.get(level).sizeOf(page[level])) {
+				// the separator is pushed up, between this page and the next
+				writeInternal(level, separator);
+				page[level]++;
+				keys.get(level).clear();
+				c.clear();
+				lowKeys[level] = separator;
+			}
+			else if(!c.isEmpty()) {
+				keys.get(level).add(separator);
+			}
+			c.add(child);
+		}
+
+		private void writeInternal(int level, Field highKey) throws IOException {
+			Level l = levels.get(level);
+			int pageNo = l.firstPage + page[level];
+			List<Field> k = keys.get(level);
+			List<Integer> c = children.get(level);
+			int childCategory = level == 1 ? BTreePageId.LEAF : BTreePageId.INTERNAL;
+			List<BTreeEntry> entries = new ArrayList<>(k.size());
+			for(int i = 0; i < k.size(); i++) {
+				entries.add(new BTreeEntry(k.get(i), new BTreePageId(tableid, c.get(i), childCategory),
+						new BTreePageId(tableid, c.get(i + 1), childCategory)));
+			}
+			BTreePageId pid = new BTreePageId(tableid, pageNo, BTreePageId.INTERNAL);
+			BTreeInternalPage p = new BTreeInternalPage(pid,
+					convertToInternalPage(entries, npagebytes, typeAr[keyField], childCategory), keyField);
+			try {
+				p.setParentId(parentOf(level, page[level]));
+				p.setRightSiblingId(page[level] < l.pages - 1 ? new BTreePageId(tableid, pageNo + 1, BTreePageId.INTERNAL) : null);
+				p.setHighKey(highKey);
+			} catch (DbException e) {
+				throw new IOException(e);
+			}
+			write(pid, p.getPageData());
+			if(level + 1 < levels.size()) {
+				addChild(level + 1, pageNo, lowKeys[level]);
+			}
+		}
+
+		/** @return the id of the parent of a page of a level */
+		private BTreePageId parentOf(int level, int pageIndex) {
+			if(level + 1 == levels.size()) {
+				return BTreeRootPtrPage.getId(tableid);
+			}
+			Level up = levels.get(level + 1);
+			return new BTreePageId(tableid, up.firstPage + up.pageOf(pageIndex), BTreePageId.INTERNAL);
+		}
+
+		private void write(BTreePageId pid, byte[] data) throws IOException {
+			raf.seek(pid.pgcateg() == BTreePageId.ROOT_PTR ? 0
+					: BTreeRootPtrPage.getPageSize() + (long) (pid.getPageNumber() - 1) * npagebytes);
+			raf.write(data);
+		}
+	}
+
+	/**
+	 * Reads tuples from a text file, one per line with fields separated by a character,
+	 * as HeapFileEncoder does. Empty lines are skipped. Throws UncheckedIOException if
+	 * the file cannot be read or a line is malformed.
+	 */
+	private static class TextTupleIterator implements Iterator<Tuple> {
+		private final BufferedReader br;
+		private final TupleDesc td;
+		private final int numFields;
+		private final String separator;
+		private String line;
+
+		TextTupleIterator(BufferedReader br, TupleDesc td, int numFields, char fieldSeparator) {
+			this.br = br;
+			this.td = td;
+			this.numFields = numFields;
+			this.separator = java.util.regex.Pattern.quote(String.valueOf(fieldSeparator));
+		}
+
+		public boolean hasNext() {
+			try {
+				while(line == null) {
+					line = br.readLine();
+					if(line == null) {
+						return false;
+					}
+					if(line.trim().isEmpty()) {
+						line = null;
+					}
+				}
+				return true;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		public Tuple next() {
+			if(!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			String[] fields = line.split(separator, -1);
+			if(fields.length != numFields) {
+				throw new UncheckedIOException(new IOException("expected " + numFields + " fields: " + line));
+			}
+			Tuple t = new Tuple(td);
+			for(int i = 0; i < numFields; i++) {
+				String s = fields[i].trim();
+				if(td.getFieldType(i) == Type.INT_TYPE) {
+					try {
+						t.setField(i, new IntField(Integer.parseInt(s)));
+					} catch (NumberFormatException e) {
+						throw new UncheckedIOException(new IOException("bad integer: " + line, e));
+					}
+				}
+				else {
+					t.setField(i, new StringField(s, Type.STRING_LEN));
+				}
+			}
+			line = null;
+			return t;
+		}
+	}
+
 	/**
 	 * Convert a set of tuples to a byte array in the format of a BTreeLeafPage
 	 * 
@@ -509,7 +907,10 @@ public class BTreeFileEncoder {
 		}
 		// pointerbytes: left sibling pointer, right sibling pointer, parent pointer
 		int pointerbytes = 3 * BTreeLeafPage.INDEX_SIZE; 
-		int nrecords = (npagebytes * 8 - pointerbytes * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
+		// highkeybytes: whether there is a high key, and the key, then the page LSN,
+		// left zero (no high key, no LSN known)
+		int highkeybytes = 1 + typeAr[keyField].getLen() + BTreePage.LSN_SIZE;
+		int nrecords = (npagebytes * 8 - pointerbytes * 8 - highkeybytes * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
 
 		//  per record, we need one bit; there are nrecords per page, so we need
 		// nrecords bits, i.e., ((nrecords/32)+1) integers.
@@ -624,7 +1025,10 @@ public class BTreeFileEncoder {
 		int nentrybytes = keyType.getLen() + BTreeInternalPage.INDEX_SIZE;
 		// pointerbytes: one extra child pointer, parent pointer, child page category
 		int pointerbytes = 2 * BTreeLeafPage.INDEX_SIZE + 1; 
-		int nentries = (npagebytes * 8 - pointerbytes * 8 - 1) /  (nentrybytes * 8 + 1);  //floor comes for free
+		// linkbytes: right sibling pointer, whether there is a high key, and the key,
+		// then the page LSN, left zero (no right sibling, no high key, no LSN known)
+		int linkbytes = BTreeInternalPage.INDEX_SIZE + 1 + keyType.getLen() + BTreePage.LSN_SIZE;
+		int nentries = (npagebytes * 8 - pointerbytes * 8 - linkbytes * 8 - 1) /  (nentrybytes * 8 + 1);  //floor comes for free
 
 		//  per entry, we need one bit; there are nentries per page, so we need
 		// nentries bits, plus 1 for the extra child pointer.
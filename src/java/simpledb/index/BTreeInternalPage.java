@@ -29,6 +29,7 @@ public class BTreeInternalPage extends BTreePage {
 	private final int numSlots;
 	
 	private int childCategory; // either leaf or internal
+	private int rightSibling; // internal node or 0
 
 	public void checkRep(Field lowerBound, Field upperBound, boolean checkOccupancy, int depth) {
 		Field prev = lowerBound;
@@ -52,7 +53,9 @@ public class BTreeInternalPage extends BTreePage {
 	 * the slots of the page that are in use, some number of entry slots, and extra
 	 * bytes for the parent pointer, one extra child pointer (a node with m entries 
 	 * has m+1 pointers to children), and the category of all child pages (either 
-	 * leaf or internal).
+	 * leaf or internal). After the child pointers come the right sibling pointer,
+	 * the high key (a byte telling whether there is one, and the key) and the LSN of
+	 * the last log record the page reflects.
 	 *  Specifically, the number of entries is equal to: <p>
 	 *          floor((BufferPool.getPageSize()*8 - extra bytes*8) / (entry size * 8 + 1))
 	 * <p> where entry size is the size of entries in this index node
@@ -111,6 +114,11 @@ public class BTreeInternalPage extends BTreePage {
 		}catch(NoSuchElementException e){
 			e.printStackTrace();
 		}
+
+		// read the right sibling pointer, the high key and the LSN
+		rightSibling = dis.readInt();
+		readHighKey(dis);
+		readLSN(dis);
 		dis.close();
 
 		setBeforeImage();
@@ -123,8 +131,9 @@ public class BTreeInternalPage extends BTreePage {
 		int keySize = td.getFieldType(keyField).getLen();
 		int bitsPerEntryIncludingHeader = keySize * 8 + INDEX_SIZE * 8 + 1;
 		// extraBits are: one parent pointer, 1 byte for child page category, 
-		// one extra child pointer (node with m entries has m+1 pointers to children), 1 bit for extra header
-		int extraBits = 2 * INDEX_SIZE * 8 + 8 + 1;
+		// one extra child pointer (node with m entries has m+1 pointers to children), 1 bit for extra header,
+		// right sibling pointer, high key, LSN
+		int extraBits = 3 * INDEX_SIZE * 8 + 8 + 1 + getHighKeySize() * 8 + LSN_SIZE * 8;
         return (BufferPool.getPageSize()*8 - extraBits) / bitsPerEntryIncludingHeader;
 	}
 
@@ -144,12 +153,7 @@ public class BTreeInternalPage extends BTreePage {
         -- used by recovery */
 	public BTreeInternalPage getBeforeImage(){
 		try {
-			byte[] oldDataRef = null;
-			synchronized(oldDataLock)
-			{
-				oldDataRef = oldData;
-			}
-			return new BTreeInternalPage(pid,oldDataRef,keyField);
+			return new BTreeInternalPage(pid,getBeforeImageData(),keyField);
 		} catch (IOException e) {
 			e.printStackTrace();
 			//should never happen -- we parsed it OK before!
@@ -159,10 +163,7 @@ public class BTreeInternalPage extends BTreePage {
 	}
 
 	public void setBeforeImage() {
-		synchronized(oldDataLock)
-		{
-			oldData = getPageData().clone();
-		}
+		saveBeforeImage(getPageData());
 	}
 
 	/**
@@ -318,9 +319,19 @@ public class BTreeInternalPage extends BTreePage {
 			}
 		}
 
+		// write out the right sibling pointer, the high key and the LSN
+		try {
+			dos.writeInt(rightSibling);
+			writeHighKey(dos);
+			writeLSN(dos);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
 		// padding
 		int zerolen = BufferPool.getPageSize() - (INDEX_SIZE + 1 + header.length + 
-				td.getFieldType(keyField).getLen() * (keys.length - 1) + INDEX_SIZE * children.length); 
+				td.getFieldType(keyField).getLen() * (keys.length - 1) + INDEX_SIZE * children.length
+				+ INDEX_SIZE + getHighKeySize() + LSN_SIZE); 
 		byte[] zeroes = new byte[zerolen];
 		try {
 			dos.write(zeroes, 0, zerolen);
@@ -562,6 +573,37 @@ public class BTreeInternalPage extends BTreePage {
 		}
 	}
 
+	/**
+	 * Get the id of the right sibling of this page, the next internal page at the same level
+	 * @return the id of the right sibling, or null if this is the right-most page of its level
+	 */
+	public BTreePageId getRightSiblingId() {
+		if(rightSibling == 0) {
+			return null;
+		}
+		return new BTreePageId(pid.getTableId(), rightSibling, BTreePageId.INTERNAL);
+	}
+
+	/**
+	 * Set the right sibling id of this page
+	 * @param id - the new right sibling id
+	 * @throws DbException if the id is not valid
+	 */
+	public void setRightSiblingId(BTreePageId id) throws DbException {
+		if(id == null) {
+			rightSibling = 0;
+		}
+		else {
+			if(id.getTableId() != pid.getTableId()) {
+				throw new DbException("table id mismatch in setRightSiblingId");
+			}
+			if(id.pgcateg() != BTreePageId.INTERNAL) {
+				throw new DbException("rightSibling must be an internal node");
+			}
+			rightSibling = id.getPageNumber();
+		}
+	}
+
 	/**
 	 * Returns the number of entries (keys) currently stored on this page
 	 */
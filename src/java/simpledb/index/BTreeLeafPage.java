@@ -48,7 +48,9 @@ public class BTreeLeafPage extends BTreePage {
 	 * Create a BTreeLeafPage from a set of bytes of data read from disk.
 	 * The format of a BTreeLeafPage is a set of header bytes indicating
 	 * the slots of the page that are in use, and some number of tuple slots, 
-	 * as well as some extra bytes for the parent and sibling pointers.
+	 * as well as some extra bytes for the parent and sibling pointers and, after
+	 * the tuple slots, the high key (a byte telling whether there is one, and the key)
+	 * and the LSN of the last log record the page reflects.
 	 *  Specifically, the number of tuples is equal to: <p>
 	 *          floor((BufferPool.getPageSize()*8 - extra bytes*8) / (tuple size * 8 + 1))
 	 * <p> where tuple size is the size of tuples in this
@@ -105,6 +107,10 @@ public class BTreeLeafPage extends BTreePage {
 		}catch(NoSuchElementException e){
 			e.printStackTrace();
 		}
+
+		// read the high key and the LSN
+		readHighKey(dis);
+		readLSN(dis);
 		dis.close();
 
 		setBeforeImage();
@@ -115,8 +121,8 @@ public class BTreeLeafPage extends BTreePage {
 	 */
 	public int getMaxTuples() {        
 		int bitsPerTupleIncludingHeader = td.getSize() * 8 + 1;
-		// extraBits are: left sibling pointer, right sibling pointer, parent pointer
-		int extraBits = 3 * INDEX_SIZE * 8;
+		// extraBits are: left sibling pointer, right sibling pointer, parent pointer, high key, LSN
+		int extraBits = 3 * INDEX_SIZE * 8 + getHighKeySize() * 8 + LSN_SIZE * 8;
         return (BufferPool.getPageSize()*8 - extraBits) / bitsPerTupleIncludingHeader;
 	}
 
@@ -135,12 +141,7 @@ public class BTreeLeafPage extends BTreePage {
         -- used by recovery */
 	public BTreeLeafPage getBeforeImage(){
 		try {
-			byte[] oldDataRef = null;
-			synchronized(oldDataLock)
-			{
-				oldDataRef = oldData;
-			}
-			return new BTreeLeafPage(pid,oldDataRef,keyField);
+			return new BTreeLeafPage(pid,getBeforeImageData(),keyField);
 		} catch (IOException e) {
 			e.printStackTrace();
 			//should never happen -- we parsed it OK before!
@@ -150,10 +151,7 @@ public class BTreeLeafPage extends BTreePage {
 	}
 
 	public void setBeforeImage() {
-		synchronized(oldDataLock)
-		{
-			oldData = getPageData().clone();
-		}
+		saveBeforeImage(getPageData());
 	}
 
 	/**
@@ -264,8 +262,17 @@ public class BTreeLeafPage extends BTreePage {
 			}
 		}
 
+		// write out the high key and the LSN
+		try {
+			writeHighKey(dos);
+			writeLSN(dos);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
 		// padding
-		int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length + 3 * INDEX_SIZE); //- numSlots * td.getSize();
+		int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length + 3 * INDEX_SIZE
+				+ getHighKeySize() + LSN_SIZE); //- numSlots * td.getSize();
 		byte[] zeroes = new byte[zerolen];
 		try {
 			dos.write(zeroes, 0, zerolen);
@@ -4,11 +4,18 @@ import simpledb.common.Catalog;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Type;
+import simpledb.execution.Predicate.Op;
 import simpledb.storage.BufferPool;
+import simpledb.storage.Field;
 import simpledb.storage.Page;
+import simpledb.storage.PageFrameArena;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionId;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 /**
  * Each instance of BTreeInternalPage stores data for one page of a BTreeFile and 
  * implements the Page interface that is used by BufferPool.
@@ -20,15 +27,22 @@ import simpledb.transaction.TransactionId;
 public abstract class BTreePage implements Page {
 	protected volatile boolean dirty = false;
 	protected volatile TransactionId dirtier = null;
+	private volatile long lsn;
 
 	protected final static int INDEX_SIZE = Type.INT_TYPE.getLen();
+	/** The size of the page LSN stored after the high key. */
+	protected final static int LSN_SIZE = 8;
 
 	protected final BTreePageId pid;
 	protected final TupleDesc td;
 	protected final int keyField;
 
 	protected int parent; // parent is always internal node or 0 for root node
-	protected byte[] oldData;
+	protected Field highKey; // upper bound on the keys under this page, or null if there is none
+	/** The before image, kept in a frame of the off-heap PageFrameArena. */
+	private PageFrameArena.Frame oldData;
+	/** The before image once the page has been released, kept on the heap. */
+	private byte[] releasedOldData;
 	protected final Byte oldDataLock= (byte) 0;
 
 	/**
@@ -60,6 +74,45 @@ public abstract class BTreePage implements Page {
 		this.td = Database.getCatalog().getTupleDesc(id.getTableId());
 	}
 
+	/**
+	 * Save data as the before image of this page, copying it into a frame
+	 * that is reused for every later before image of the page.
+	 */
+	protected void saveBeforeImage(byte[] data) {
+		synchronized(oldDataLock) {
+			if (releasedOldData != null) {
+				releasedOldData = data.clone();
+				return;
+			}
+			if (oldData == null)
+				oldData = PageFrameArena.get().acquire(this);
+			oldData.fill(data);
+		}
+	}
+
+	/**
+	 * @return a copy of the bytes of the before image of this page
+	 */
+	protected byte[] getBeforeImageData() {
+		synchronized(oldDataLock) {
+			return releasedOldData != null ? releasedOldData.clone() : oldData.toArray();
+		}
+	}
+
+	/**
+	 * Move the before image to the heap and give its frame back to the
+	 * arena.  The page stays usable.
+	 */
+	public void release() {
+		synchronized(oldDataLock) {
+			if (oldData == null)
+				return;
+			releasedOldData = oldData.toArray();
+			oldData.release();
+			oldData = null;
+		}
+	}
+
 	/**
 	 * @return the PageId associated with this page.
 	 */
@@ -115,6 +168,88 @@ public abstract class BTreePage implements Page {
 		}
 	}
 
+	/**
+	 * Get the high key of this page: every key in the subtree under this page is less
+	 * than or equal to it, and every key under the right sibling of this page at the
+	 * same level is greater than or equal to it. It is the key of the entry in the
+	 * parent to the right of this page, or the parent's high key for its right-most child.
+	 * @return the high key, or null if this is the right-most page of its level
+	 */
+	public Field getHighKey() {
+		return highKey;
+	}
+
+	/**
+	 * Set the high key of this page
+	 * @param key - the new high key, or null for the right-most page of a level
+	 * @throws DbException if the key is not of the type of the key field
+	 */
+	public void setHighKey(Field key) throws DbException {
+		if(key != null && key.getType() != td.getFieldType(keyField)) {
+			throw new DbException("high key type mismatch");
+		}
+		highKey = key;
+	}
+
+	/**
+	 * @return true if the keys equal to key may be under pages to the right of this one,
+	 * so that a search for key should move right rather than descend from this page.
+	 * Keys equal to the high key may be on either side of the link, and the search for
+	 * the left-most page possibly containing key stays on this page for them.
+	 */
+	public boolean movesRight(Field key) {
+		return key != null && highKey != null && key.compare(Op.GREATER_THAN, highKey);
+	}
+
+	/**
+	 * @return the number of bytes the high key takes on the page: a byte telling whether
+	 * there is one, and the key
+	 */
+	protected int getHighKeySize() {
+		return 1 + td.getFieldType(keyField).getLen();
+	}
+
+	/**
+	 * Read the high key of this page from dis
+	 */
+	protected void readHighKey(DataInputStream dis) throws IOException {
+		boolean present = dis.readByte() != 0;
+		try {
+			Field f = td.getFieldType(keyField).parse(dis);
+			highKey = present ? f : null;
+		} catch (java.text.ParseException e) {
+			throw new IOException("parsing error in high key", e);
+		}
+	}
+
+	/**
+	 * Write the high key of this page to dos
+	 */
+	protected void writeHighKey(DataOutputStream dos) throws IOException {
+		dos.writeByte(highKey != null ? 1 : 0);
+		if(highKey != null) {
+			highKey.serialize(dos);
+		}
+		else {
+			dos.write(new byte[td.getFieldType(keyField).getLen()]);
+		}
+	}
+
+	/**
+	 * Read the LSN stored on this page from dis
+	 */
+	protected void readLSN(DataInputStream dis) throws IOException {
+		lsn = dis.readLong();
+	}
+
+	/**
+	 * Write the LSN of this page to dos, so that the page on disk tells
+	 * recovery which log records it reflects
+	 */
+	protected void writeLSN(DataOutputStream dos) throws IOException {
+		dos.writeLong(lsn);
+	}
+
 	/**
 	 * Marks this page as dirty/not dirty and record that transaction
 	 * that did the dirtying
@@ -134,6 +269,14 @@ public abstract class BTreePage implements Page {
 			return null;
 	}
 
+	public long getLSN() {
+		return lsn;
+	}
+
+	public void setLSN(long lsn) {
+		this.lsn = lsn;
+	}
+
 	/**
 	 * Returns the number of empty slots on this page.
 	 */
@@ -0,0 +1,213 @@
+package simpledb.index;
+
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * ExternalTupleSort sorts tuples on a key field when there may be more of
+ * them than fit in memory.  Tuples are gathered in memory up to a bound;
+ * each full batch is sorted and written to a temporary file as a run.  The
+ * runs are then merged, at most {@link #MERGE_FAN_IN} at a time, until one
+ * last merge can stream all the tuples out in order.  Memory use is the
+ * batch and a read buffer per run being merged, whatever the input size.
+ * <p>
+ * Tuples that compare equal come out in no particular order.
+ */
+class ExternalTupleSort implements Closeable {
+
+	/** The most runs merged at once. */
+	static final int MERGE_FAN_IN = 64;
+	private static final int RUN_BUFFER_BYTES = 64 * 1024;
+
+	private final TupleDesc td;
+	private final Comparator<Tuple> comparator;
+	private final int runTuples;
+	private final File tmpDir;
+
+	private List<Tuple> batch = new ArrayList<>();
+	private final LinkedList<File> runs = new LinkedList<>();
+	private final Map<File, Long> runSizes = new HashMap<>();
+	private final List<Closeable> open = new ArrayList<>();
+	private long size;
+
+	/**
+	 * @param td - the tuple descriptor of the tuples
+	 * @param keyField - the index of the field to sort on
+	 * @param runTuples - the most tuples held in memory, the length of a run
+	 * @param tmpDir - the directory for the runs, or null for the default temporary directory
+	 */
+	ExternalTupleSort(TupleDesc td, int keyField, int runTuples, File tmpDir) {
+		if (runTuples < 1)
+			throw new IllegalArgumentException("runTuples must be positive");
+		this.td = td;
+		this.comparator = new BTreeFileEncoder.TupleComparator(keyField);
+		this.runTuples = runTuples;
+		this.tmpDir = tmpDir;
+	}
+
+	/** Add a tuple, writing out a run if the batch in memory is full. */
+	void add(Tuple t) throws IOException {
+		batch.add(t);
+		size++;
+		if (batch.size() >= runTuples)
+			spill();
+	}
+
+	/** @return the number of tuples added */
+	long size() {
+		return size;
+	}
+
+	/**
+	 * Finish adding tuples and return them in order.  Nothing may be added
+	 * afterwards.  The iterator throws UncheckedIOException if a run cannot
+	 * be read.
+	 */
+	Iterator<Tuple> sorted() throws IOException {
+		if (runs.isEmpty()) {
+			batch.sort(comparator);
+			return batch.iterator();
+		}
+		if (!batch.isEmpty())
+			spill();
+		batch = null;
+		while (runs.size() > MERGE_FAN_IN) {
+			List<File> group = new ArrayList<>(runs.subList(0, MERGE_FAN_IN));
+			runs.subList(0, MERGE_FAN_IN).clear();
+			File merged = newRun();
+			long n = 0;
+			try (Merge m = new Merge(group);
+					DataOutputStream out = new DataOutputStream(
+							new BufferedOutputStream(new FileOutputStream(merged), RUN_BUFFER_BYTES))) {
+				for (; m.hasNext(); n++)
+					write(out, m.next());
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			}
+			for (File f : group) {
+				f.delete();
+				runSizes.remove(f);
+			}
+			runs.add(merged);
+			runSizes.put(merged, n);
+		}
+		Merge m = new Merge(runs);
+		open.add(m);
+		return m;
+	}
+
+	/** Delete the runs. */
+	public void close() throws IOException {
+		for (Closeable c : open)
+			c.close();
+		open.clear();
+		for (File f : runs)
+			f.delete();
+		runs.clear();
+		runSizes.clear();
+	}
+
+	private void spill() throws IOException {
+		batch.sort(comparator);
+		File run = newRun();
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(run), RUN_BUFFER_BYTES))) {
+			for (Tuple t : batch)
+				write(out, t);
+		}
+		runs.add(run);
+		runSizes.put(run, (long) batch.size());
+		batch = new ArrayList<>();
+	}
+
+	private File newRun() throws IOException {
+		File f = File.createTempFile("sortrun", ".dat", tmpDir);
+		f.deleteOnExit();
+		return f;
+	}
+
+	private void write(DataOutputStream out, Tuple t) throws IOException {
+		for (int i = 0; i < td.numFields(); i++)
+			t.getField(i).serialize(out);
+	}
+
+	/** A run being read, with the tuple it is at. */
+	private class RunReader {
+		private final DataInputStream in;
+		private long remaining;
+		Tuple head;
+
+		RunReader(File f) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(f), RUN_BUFFER_BYTES));
+			remaining = runSizes.get(f);
+			advance();
+		}
+
+		/** Read the next tuple into head, or set it to null at the end of the run. */
+		void advance() throws IOException {
+			if (remaining == 0) {
+				in.close();
+				head = null;
+				return;
+			}
+			Tuple t = new Tuple(td);
+			try {
+				for (int i = 0; i < td.numFields(); i++)
+					t.setField(i, td.getFieldType(i).parse(in));
+			} catch (ParseException e) {
+				throw new IOException("could not read a sorted run", e);
+			}
+			remaining--;
+			head = t;
+		}
+	}
+
+	/** The tuples of several runs, merged in order. */
+	private class Merge implements Iterator<Tuple>, Closeable {
+		private final PriorityQueue<RunReader> heads =
+				new PriorityQueue<>((a, b) -> comparator.compare(a.head, b.head));
+		private final List<RunReader> readers = new ArrayList<>();
+
+		Merge(List<File> files) throws IOException {
+			try {
+				for (File f : files) {
+					RunReader r = new RunReader(f);
+					readers.add(r);
+					if (r.head != null)
+						heads.add(r);
+				}
+			} catch (IOException e) {
+				close();
+				throw e;
+			}
+		}
+
+		public boolean hasNext() {
+			return !heads.isEmpty();
+		}
+
+		public Tuple next() {
+			RunReader r = heads.poll();
+			if (r == null)
+				throw new NoSuchElementException();
+			Tuple t = r.head;
+			try {
+				r.advance();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			if (r.head != null)
+				heads.add(r);
+			return t;
+		}
+
+		public void close() throws IOException {
+			for (RunReader r : readers)
+				r.in.close();
+		}
+	}
+}
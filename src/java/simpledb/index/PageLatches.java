@@ -0,0 +1,174 @@
+package simpledb.index;
+
+import simpledb.storage.PageId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * PageLatches are the short-term latches BTreeFile takes on its internal
+ * pages, separate from the transactional locks of the LockManager.  A
+ * latch keeps a page physically consistent while a thread reads or
+ * changes it, and is held for one operation on the tree at most; locks on
+ * the leaves keep transactions logically consistent until they end.
+ * <p>
+ * A thread takes latches top down, and they are kept in the order it took
+ * them, so crabbing is {@link #latch} on a child followed by
+ * {@link #releaseAncestors} once the child is known to be safe.  Latches
+ * taken in any other order, such as a parent's during a split or a
+ * sibling's during a merge, are taken with {@link #tryLatch}.  A thread
+ * never waits for a lock while it holds a latch, since such a wait is
+ * invisible to the deadlock detection of the LockManager.
+ * <p>
+ * A page has an entry in the latch table only while some thread holds its
+ * latch or waits for it, so the table stays as small as the number of
+ * pages in use rather than growing with every page the tree has touched.
+ *
+ * @Threadsafe
+ */
+class PageLatches {
+
+	/** A page's latch, with the number of threads holding or waiting for it. */
+	private static final class Latch {
+		final ReentrantReadWriteLock rw = new ReentrantReadWriteLock();
+		/** Guarded by the entry of the page in latches. */
+		int users;
+	}
+
+	/** A latch a thread holds, with the page it latches. */
+	private static final class Held {
+		final PageId pid;
+		final Lock lock;
+
+		Held(PageId pid, Lock lock) {
+			this.pid = pid;
+			this.lock = lock;
+		}
+	}
+
+	private final ConcurrentHashMap<PageId, Latch> latches = new ConcurrentHashMap<>();
+	/** The latches each thread holds, in the order it took them. */
+	private final ThreadLocal<List<Held>> held = ThreadLocal.withInitial(ArrayList::new);
+
+	/** Add a user to the latch of pid, creating it if it has none. */
+	private Latch pin(PageId pid) {
+		return latches.compute(pid, (p, l) -> {
+			if (l == null)
+				l = new Latch();
+			l.users++;
+			return l;
+		});
+	}
+
+	/** Remove a user from the latch of pid, dropping it when it has none left. */
+	private void unpin(PageId pid) {
+		latches.computeIfPresent(pid, (p, l) -> --l.users == 0 ? null : l);
+	}
+
+	/**
+	 * Pin the latch of pid for a request of this thread.
+	 *
+	 * @return the latch, or null if this thread already holds a latch
+	 *         covering the request
+	 * @throws IllegalStateException if this thread holds the shared latch
+	 *             and asks for the exclusive one, which could never be granted
+	 */
+	private Latch pinFor(PageId pid, boolean exclusive) {
+		Latch l = pin(pid);
+		ReentrantReadWriteLock rw = l.rw;
+		if (rw.isWriteLockedByCurrentThread() || (!exclusive && rw.getReadHoldCount() > 0)) {
+			unpin(pid);
+			return null;
+		}
+		if (rw.getReadHoldCount() > 0) {
+			unpin(pid);
+			throw new IllegalStateException("cannot upgrade the latch on " + pid);
+		}
+		return l;
+	}
+
+	/**
+	 * Latch pid, waiting while another thread holds a conflicting latch on
+	 * it.  Nothing is taken if this thread already holds a latch covering
+	 * the request.
+	 *
+	 * @param exclusive true to change the page, false to read it
+	 * @throws IllegalStateException if this thread holds the shared latch
+	 *             and asks for the exclusive one, which could never be granted
+	 */
+	void latch(PageId pid, boolean exclusive) {
+		Latch l = pinFor(pid, exclusive);
+		if (l == null)
+			return;
+		Lock lock = exclusive ? l.rw.writeLock() : l.rw.readLock();
+		lock.lock();
+		held.get().add(new Held(pid, lock));
+	}
+
+	/**
+	 * Latch pid as {@link #latch} does, but wait at most timeoutMillis for
+	 * another thread to release a conflicting latch.  Latches taken out of
+	 * the top-down order use this, so that two threads taking them in
+	 * opposite orders cannot wait for each other forever.
+	 *
+	 * @return true if this thread now holds the latch
+	 */
+	boolean tryLatch(PageId pid, boolean exclusive, long timeoutMillis) {
+		Latch l = pinFor(pid, exclusive);
+		if (l == null)
+			return true;
+		Lock lock = exclusive ? l.rw.writeLock() : l.rw.readLock();
+		boolean locked;
+		try {
+			locked = lock.tryLock(timeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			locked = false;
+		}
+		if (!locked) {
+			unpin(pid);
+			return false;
+		}
+		held.get().add(new Held(pid, lock));
+		return true;
+	}
+
+	private void release(Held h) {
+		h.lock.unlock();
+		unpin(h.pid);
+	}
+
+	/** Release every latch of this thread but the one it took last. */
+	void releaseAncestors() {
+		List<Held> h = held.get();
+		if (h.size() <= 1)
+			return;
+		for (int i = 0; i < h.size() - 1; i++)
+			release(h.get(i));
+		Held last = h.get(h.size() - 1);
+		h.clear();
+		h.add(last);
+	}
+
+	/** Release every latch of this thread. */
+	void releaseAll() {
+		List<Held> h = held.get();
+		for (Held l : h)
+			release(l);
+		h.clear();
+	}
+
+	/** @return the number of latches this thread holds */
+	int getHeldCount() {
+		return held.get().size();
+	}
+
+	/** @return the number of pages with a latch held or waited for */
+	int size() {
+		return latches.size();
+	}
+}
@@ -3,13 +3,35 @@ package simpledb.storage;
 import simpledb.common.Database;
 import simpledb.common.Permissions;
 import simpledb.common.DbException;
-import simpledb.common.DeadlockException;
+import simpledb.common.Debug;
+import simpledb.transaction.LockManager;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.lang.reflect.Constructor;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -18,7 +40,56 @@ import java.util.concurrent.ConcurrentHashMap;
  * <p>
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
- * locks to read/write the page.
+ * locks to read/write the page.  Locks are granted by a {@link LockManager},
+ * which aborts the youngest transaction of a deadlock as soon as it forms.
+ * A transaction about to touch most of a table can lock it whole with
+ * {@link #lockTable}; getPage then takes no page locks on it.
+ * <p>
+ * Read-only transactions can instead read a snapshot (see
+ * {@link #beginSnapshot}): they take no locks at all, and see pages as
+ * they were when the snapshot began, from the old versions kept by a
+ * {@link VersionStore}.
+ * <p>
+ * The page table is a ConcurrentHashMap, so a hit in getPage takes no
+ * lock at all: the hit is recorded in a lock-free PageAccessBuffer and
+ * replayed into the eviction policy later, under policyLock.  A miss only
+ * coordinates with other threads missing on the same page, through the
+ * loading map, so a page is never read from disk twice concurrently.
+ * Only installing the loaded page (and evicting to make room for it)
+ * takes the BufferPool monitor, which LogFile relies on to keep the pool
+ * still during rollback and checkpoints.
+ * <p>
+ * Pages can also be prefetched (see {@link #prefetchPage}) on a shared
+ * background I/O executor.  Prefetching goes through the same miss path,
+ * so it respects the pool's capacity and never evicts a dirty page; it
+ * takes no transactional locks, which are acquired as usual when the page
+ * is fetched with getPage.
+ * <p>
+ * Dirty pages are always written in (table, page number) order, with the
+ * pages of each file handed to {@link DbFile#writePages} together so that
+ * adjacent pages can be coalesced; all of their log records are forced
+ * before the first page is written.  An optional {@link DirtyPageWriter}
+ * does this in the background to keep the fraction of dirty pages under a
+ * target; the committed contents of the pages it writes for running
+ * transactions are kept until they end, and an abort puts them back on
+ * disk.
+ * <p>
+ * A commit logs its pages' changes and writes the pages once the log is
+ * forced.  An asynchronous commit (see {@link #commitLogged(TransactionId,
+ * boolean)}) only logs them, so it never waits for a force; its pages stay
+ * dirty, marked as committed, until the DirtyPageWriter, a flush or an
+ * eviction that finds no clean page writes them after forcing the log.
+ * <p>
+ * Tables can be assigned to named partitions in the Catalog, each with a
+ * quota of pages.  A page of a partition that is at its quota replaces
+ * another page of the same partition, so a large scan of one table cannot
+ * push every other table out of the pool.  Tables without a partition are
+ * in the default partition, whose quota is the whole pool.  Per-partition
+ * statistics are available through {@link #getPartition}.
+ * <p>
+ * On a clean shutdown the ids of the resident pages are saved, hottest
+ * first (see {@link #saveResidentPages}), and {@link #warmStart} reads them
+ * back in on the background I/O executor after a restart.
  * 
  * @Threadsafe, all fields are final
  */
@@ -33,13 +104,347 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
+    /** Threads reading prefetched pages and preallocating log segments,
+        shared by all buffer pools and logs. */
+    private static final int IO_THREADS = 4;
+    private static final ThreadPoolExecutor IO_EXECUTOR = newIoExecutor();
+
+    private final int numPages;
+    private final ConcurrentHashMap<PageId, Page> pages;
+    private final ConcurrentHashMap<PageId, CompletableFuture<Page>> loading;
+    private final EvictionPolicy evictionPolicy;
+    private final ReentrantLock policyLock;
+    private final PageAccessBuffer accesses;
+    private final Set<PageId> prefetched;
+    private volatile DirtyPageWriter writer;
+    private final ConcurrentHashMap<String, Partition> partitions;
+    private final LockManager lockManager;
+    private final VersionStore versions;
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Heap pages all of whose changes since they were last written were
+     * logged as tuple records, with the page's modification count as of
+     * the last one; writing them needs no page images in the log.
+     */
+    private final ConcurrentHashMap<PageId, Long> loggedChanges;
+    /**
+     * Pages written back by writeBack while the transaction that dirtied
+     * them was running, by transaction; guarded by the monitor.
+     */
+    private final Map<TransactionId, Set<PageId>> stolenPages;
+    /**
+     * Pages with changes of asynchronously committed transactions that
+     * are not written yet; guarded by the monitor.  Such pages are dirty,
+     * as of COMMITTED unless a running transaction dirtied them since.
+     */
+    private final Set<PageId> unwrittenCommits;
+    /** The dirtier of pages whose changes are all committed and logged. */
+    private static final TransactionId COMMITTED = new TransactionId();
+
+    /** Name of the partition of tables that are not assigned one. */
+    public static final String DEFAULT_PARTITION = "default";
+
+    /**
+     * A buffer pool partition: its quota and usage statistics.  The
+     * statistics are live and updated without locking, so a snapshot of
+     * several of them may be slightly inconsistent.
+     */
+    public static class Partition {
+        private final String name;
+        private final int quota;
+        private final AtomicInteger resident = new AtomicInteger();
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder evictions = new LongAdder();
+
+        Partition(String name, int quota) {
+            this.name = name;
+            this.quota = quota;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /** @return the maximum number of resident pages of this partition */
+        public int getQuota() {
+            return quota;
+        }
+
+        /** @return the number of pages of this partition now in the pool */
+        public int getResidentPages() {
+            return resident.get();
+        }
+
+        /** @return the number of getPage calls that found the page resident */
+        public long getHits() {
+            return hits.sum();
+        }
+
+        /** @return the number of pages read into the pool */
+        public long getMisses() {
+            return misses.sum();
+        }
+
+        /** @return the number of pages evicted from the pool */
+        public long getEvictions() {
+            return evictions.sum();
+        }
+
+        public String toString() {
+            return String.format("%s: %d/%d pages, %d hits, %d misses, %d evictions",
+                    name, getResidentPages(), quota, getHits(), getMisses(), getEvictions());
+        }
+    }
+
+    /** The order in which dirty pages are written. */
+    private static final Comparator<Page> WRITE_ORDER =
+            Comparator.<Page>comparingInt(p -> p.getId().getTableId())
+                    .thenComparingInt(p -> p.getId().getPageNumber());
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, using the
+     * eviction policy named by the {@link EvictionPolicy#POLICY_PROPERTY}
+     * system property.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
-        // some code goes here
+        this(numPages, EvictionPolicy.create(System.getProperty(EvictionPolicy.POLICY_PROPERTY), numPages));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param evictionPolicy the policy that picks pages to evict; it must
+     *            not be shared with another BufferPool.
+     */
+    public BufferPool(int numPages, EvictionPolicy evictionPolicy) {
+        this.numPages = numPages;
+        this.pages = new ConcurrentHashMap<>();
+        this.loading = new ConcurrentHashMap<>();
+        this.evictionPolicy = evictionPolicy;
+        this.policyLock = new ReentrantLock();
+        this.accesses = new PageAccessBuffer();
+        this.prefetched = ConcurrentHashMap.newKeySet();
+        this.partitions = new ConcurrentHashMap<>();
+        this.lockManager = new LockManager();
+        this.versions = new VersionStore();
+        this.loggedChanges = new ConcurrentHashMap<>();
+        this.stolenPages = new HashMap<>();
+        this.unwrittenCommits = new HashSet<>();
+        String ratio = System.getProperty(DirtyPageWriter.RATIO_PROPERTY);
+        if (ratio != null)
+            setDirtyRatio(Double.parseDouble(ratio));
+    }
+
+    private static ThreadPoolExecutor newIoExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(IO_THREADS, IO_THREADS,
+                5, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "BufferPool-io");
+                    t.setDaemon(true);
+                    return t;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /** @return the threads for background file I/O */
+    static Executor ioExecutor() {
+        return IO_EXECUTOR;
+    }
+
+    /**
+     * Start a background writer that keeps at most ratio * capacity pages
+     * dirty, replacing any running writer; a ratio of 0 stops it.
+     *
+     * @see DirtyPageWriter
+     */
+    public synchronized void setDirtyRatio(double ratio) {
+        if (writer != null) {
+            writer.shutdown();
+            writer = null;
+        }
+        if (ratio > 0)
+            writer = new DirtyPageWriter(this, ratio);
+    }
+
+    /** @return the number of dirty pages in the pool */
+    public int countDirty() {
+        int n = 0;
+        for (Page page : pages.values()) {
+            if (page.isDirty() != null)
+                n++;
+        }
+        return n;
+    }
+
+    /**
+     * Returns the statistics of the named partition.  Partitions show up
+     * here once a page of one of their tables has been fetched.
+     *
+     * @param name a partition declared in the Catalog, or DEFAULT_PARTITION
+     * @return the partition, or null if none of its pages was ever fetched
+     */
+    public Partition getPartition(String name) {
+        return partitions.get(name);
+    }
+
+    /** @return the statistics of every partition that has been used */
+    public Collection<Partition> getPartitions() {
+        return Collections.unmodifiableCollection(partitions.values());
+    }
+
+    /** Return the partition the page belongs to, per the Catalog. */
+    private Partition partitionOf(PageId pid) {
+        String name;
+        try {
+            name = Database.getCatalog().getPartition(pid.getTableId());
+        } catch (NoSuchElementException e) {
+            name = null;
+        }
+        if (name == null)
+            name = DEFAULT_PARTITION;
+        Partition part = partitions.get(name);
+        if (part != null)
+            return part;
+        return partitions.computeIfAbsent(name, n -> new Partition(n,
+                n.equals(DEFAULT_PARTITION) ? numPages
+                        : Math.min(numPages, Database.getCatalog().getPartitionQuota(n))));
+    }
+
+    /** Tag at the start of a file written by saveResidentPages. */
+    private static final int RESIDENT_PAGES_MAGIC = 0x53444257;
+
+    /**
+     * Save the ids of the resident pages to f, in the order the eviction
+     * policy would keep them, hottest first.
+     * <p>
+     * The file starts with a tag and the number of pages.  Each page is
+     * then a byte giving the index of its PageId class, the class name (in
+     * modified UTF-8) if the class was not seen before, a byte giving the
+     * number of ints in PageId.serialize(), and the ints.
+     */
+    public void saveResidentPages(File f) throws IOException {
+        List<PageId> hottest;
+        policyLock.lock();
+        try {
+            drainAccesses();
+            hottest = evictionPolicy.residentByHotness();
+        } finally {
+            policyLock.unlock();
+        }
+        Map<String, Integer> classes = new HashMap<>();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)))) {
+            out.writeInt(RESIDENT_PAGES_MAGIC);
+            out.writeInt(hottest.size());
+            for (PageId pid : hottest) {
+                String name = pid.getClass().getName();
+                Integer idx = classes.get(name);
+                if (idx == null) {
+                    out.writeByte(classes.size());
+                    out.writeUTF(name);
+                    classes.put(name, classes.size());
+                } else {
+                    out.writeByte(idx);
+                }
+                int[] ids = pid.serialize();
+                out.writeByte(ids.length);
+                for (int id : ids)
+                    out.writeInt(id);
+            }
+        }
+    }
+
+    /** Read back the page ids written by saveResidentPages. */
+    private static List<PageId> readResidentPages(File f) throws IOException {
+        List<Constructor<?>> classes = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+            if (in.readInt() != RESIDENT_PAGES_MAGIC)
+                throw new IOException(f + " is not a list of resident pages");
+            int n = in.readInt();
+            List<PageId> pids = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                int idx = in.readUnsignedByte();
+                if (idx == classes.size()) {
+                    String name = in.readUTF();
+                    Constructor<?> cons = null;
+                    try {
+                        for (Constructor<?> c : Class.forName(name).getConstructors()) {
+                            if (Arrays.stream(c.getParameterTypes()).allMatch(t -> t == int.class))
+                                cons = c;
+                        }
+                    } catch (ClassNotFoundException e) {
+                        throw new IOException("unknown page id class " + name);
+                    }
+                    if (cons == null)
+                        throw new IOException("no int constructor for " + name);
+                    classes.add(cons);
+                }
+                Object[] args = new Object[in.readUnsignedByte()];
+                for (int j = 0; j < args.length; j++)
+                    args[j] = in.readInt();
+                try {
+                    pids.add((PageId) classes.get(idx).newInstance(args));
+                } catch (ReflectiveOperationException | IllegalArgumentException e) {
+                    throw new IOException("bad page id in " + f + ": " + e);
+                }
+            }
+            return pids;
+        }
+    }
+
+    /**
+     * Asynchronously read back the pages saved by saveResidentPages, on
+     * the background I/O executor.  The hottest pages that fit in the pool
+     * are read in (table, page number) order; pages of tables that are not
+     * in the Catalog are skipped, and loading stops early if queries fill
+     * the pool first.  Like prefetched pages, the pages are admitted
+     * without any transactional lock.
+     *
+     * @return a future that yields the number of pages read
+     */
+    public CompletableFuture<Integer> warmStart(File f) {
+        return CompletableFuture.supplyAsync(() -> {
+            List<PageId> pids;
+            try {
+                pids = readResidentPages(f);
+            } catch (IOException e) {
+                Debug.log(1, "BufferPool.warmStart: cannot read %s: %s", f, e);
+                return 0;
+            }
+            List<PageId> load = new ArrayList<>();
+            for (PageId pid : pids) {
+                if (load.size() >= numPages)
+                    break;
+                try {
+                    Database.getCatalog().getDatabaseFile(pid.getTableId());
+                    load.add(pid);
+                } catch (NoSuchElementException e) {
+                    // the table is gone
+                }
+            }
+            load.sort(Comparator.comparingInt(PageId::getTableId).thenComparingInt(PageId::getPageNumber));
+            int loaded = 0;
+            for (PageId pid : load) {
+                if (pages.size() >= numPages)
+                    break;
+                if (pages.containsKey(pid))
+                    continue;
+                try {
+                    loadPage(pid, true);
+                    loaded++;
+                } catch (DbException | RuntimeException e) {
+                    Debug.log(1, "BufferPool.warmStart: skipped %s: %s", pid, e);
+                }
+            }
+            return loaded;
+        }, IO_EXECUTOR);
+    }
+
+    /** @return the maximum number of pages in this buffer pool */
+    public int getCapacity() {
+        return numPages;
     }
     
     public static int getPageSize() {
@@ -73,8 +478,188 @@ public class BufferPool {
      */
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
-        // some code goes here
-        return null;
+        boolean snapshot = versions.isSnapshot(tid);
+        if (snapshot) {
+            if (perm == Permissions.READ_WRITE)
+                throw new DbException("transaction " + tid.getId() + " is read-only");
+        } else {
+            lockManager.acquire(tid, pid, perm == Permissions.READ_WRITE);
+        }
+        Page page = lookupPage(pid);
+        return snapshot ? versions.read(tid, page) : page;
+    }
+
+    /**
+     * Retrieve the specified page as {@link #getPage} does, but only if
+     * its lock can be granted without waiting.
+     *
+     * @return the page, or null if another transaction holds a
+     *         conflicting lock; no lock is acquired then
+     */
+    public Page tryGetPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException, DbException {
+        if (!versions.isSnapshot(tid) && !lockManager.tryAcquire(tid, pid, perm == Permissions.READ_WRITE))
+            return null;
+        return getPage(tid, pid, perm);
+    }
+
+    /**
+     * Retrieve the specified page without acquiring any lock, for callers
+     * that keep their reads consistent by other means, such as the page
+     * latches of BTreeFile.  The page may be dirty with the changes of an
+     * uncommitted transaction.
+     *
+     * @param pid the ID of the requested page
+     */
+    public Page getPageUnlocked(PageId pid) throws DbException {
+        return lookupPage(pid);
+    }
+
+    // the page from the pool, read in if it is not resident
+    private Page lookupPage(PageId pid) throws DbException {
+        Page page = pages.get(pid);
+        if (page != null) {
+            // the first fetch of a prefetched page is its admission, not a re-reference
+            if (prefetched.isEmpty() || !prefetched.remove(pid)) {
+                recordAccess(pid);
+            }
+            partitionOf(pid).hits.increment();
+        } else {
+            page = loadPage(pid, false);
+        }
+        return page;
+    }
+
+    /**
+     * Make tid a read-only transaction reading a snapshot of the committed
+     * state: its getPage calls take no locks and return pages as they were
+     * committed when the snapshot began.  The snapshot ends when the
+     * transaction completes.
+     */
+    public void beginSnapshot(TransactionId tid) {
+        versions.beginSnapshot(tid);
+    }
+
+    /** @return the store of page versions kept for snapshots */
+    public VersionStore getVersionStore() {
+        return versions;
+    }
+
+    /**
+     * Asynchronously read the specified page into the buffer pool, if it is
+     * not resident already.  No lock is acquired on behalf of any
+     * transaction.  If the pool is full of dirty pages the prefetch is
+     * silently dropped.
+     *
+     * @param pid the ID of the page to prefetch
+     * @return a future that completes when the page is resident (or the
+     *         prefetch was dropped)
+     */
+    public CompletableFuture<?> prefetchPage(PageId pid) {
+        if (pages.containsKey(pid)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Page> inFlight = loading.get(pid);
+        if (inFlight != null) {
+            return inFlight;
+        }
+        return CompletableFuture.runAsync(() -> {
+            try {
+                if (!pages.containsKey(pid)) {
+                    loadPage(pid, true);
+                }
+            } catch (DbException | RuntimeException e) {
+                // a failed prefetch is just a missed opportunity
+                Debug.log(1, "BufferPool.prefetchPage: dropped prefetch of %s: %s", pid, e);
+            }
+        }, IO_EXECUTOR);
+    }
+
+    /**
+     * Read a page that was not resident and install it in the pool.  If
+     * another thread is already loading the same page, wait for it instead
+     * of reading the page a second time.
+     */
+    private Page loadPage(PageId pid, boolean prefetch) throws DbException {
+        CompletableFuture<Page> load = new CompletableFuture<>();
+        CompletableFuture<Page> inFlight = loading.putIfAbsent(pid, load);
+        if (inFlight != null) {
+            return awaitLoad(inFlight);
+        }
+        try {
+            // the page may have been installed between our lookup and
+            // registering the load
+            Page page = pages.get(pid);
+            if (page == null) {
+                page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+                installPage(page, prefetch);
+            }
+            load.complete(page);
+            return page;
+        } catch (DbException | RuntimeException e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(pid, load);
+        }
+    }
+
+    private Page awaitLoad(CompletableFuture<Page> load) throws DbException {
+        try {
+            return load.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DbException("interrupted while waiting for a page to be read");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof DbException)
+                throw (DbException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Add a freshly read page to the pool, evicting a page first if the
+     * page's partition or the pool is full.
+     */
+    private synchronized void installPage(Page page, boolean prefetch) throws DbException {
+        Partition part = makeRoomFor(page.getId());
+        part.misses.increment();
+        if (prefetch) {
+            prefetched.add(page.getId());
+        }
+        pages.put(page.getId(), page);
+        policyLock.lock();
+        try {
+            evictionPolicy.pageAdded(page.getId());
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    /**
+     * Record a hit without blocking.  If the access buffer is full and
+     * nobody else is feeding the policy, drain it now.
+     */
+    private void recordAccess(PageId pid) {
+        if (accesses.record(pid)) {
+            return;
+        }
+        if (policyLock.tryLock()) {
+            try {
+                drainAccesses();
+                evictionPolicy.pageAccessed(pid);
+            } finally {
+                policyLock.unlock();
+            }
+        }
+    }
+
+    /** Replay buffered hits into the eviction policy.  Caller holds policyLock. */
+    private void drainAccesses() {
+        accesses.drainTo(evictionPolicy::pageAccessed);
     }
 
     /**
@@ -87,8 +672,7 @@ public class BufferPool {
      * @param pid the ID of the page to unlock
      */
     public  void unsafeReleasePage(TransactionId tid, PageId pid) {
-        // some code goes here
-        // not necessary for lab1|lab2
+        lockManager.release(tid, pid);
     }
 
     /**
@@ -97,15 +681,28 @@ public class BufferPool {
      * @param tid the ID of the transaction requesting the unlock
      */
     public void transactionComplete(TransactionId tid) {
-        // some code goes here
-        // not necessary for lab1|lab2
+        transactionComplete(tid, true);
     }
 
     /** Return true if the specified transaction has a lock on the specified page */
     public boolean holdsLock(TransactionId tid, PageId p) {
-        // some code goes here
-        // not necessary for lab1|lab2
-        return false;
+        return lockManager.holdsLock(tid, p);
+    }
+
+    /**
+     * Lock a whole table for tid, so that getPage takes no page locks on
+     * it.  May block if other transactions hold conflicting locks.
+     *
+     * @param perm READ_ONLY for a shared lock, READ_WRITE for an exclusive one
+     */
+    public void lockTable(TransactionId tid, int tableId, Permissions perm)
+        throws TransactionAbortedException {
+        lockManager.lockTable(tid, tableId, perm == Permissions.READ_WRITE);
+    }
+
+    /** @return the lock manager, for its deadlock and escalation statistics */
+    public LockManager getLockManager() {
+        return lockManager;
     }
 
     /**
@@ -116,8 +713,144 @@ public class BufferPool {
      * @param commit a flag indicating whether we should commit or abort
      */
     public void transactionComplete(TransactionId tid, boolean commit) {
-        // some code goes here
-        // not necessary for lab1|lab2
+        try {
+            complete(tid, commit, false, false);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Commit a given transaction as transactionComplete does, appending its
+     * COMMIT record to the log once its pages are written and before its
+     * locks are released.  A transaction that reads its changes can then
+     * only commit after it in the log, and so never becomes durable first.
+     * The record is not forced.
+     *
+     * @param tid the ID of the committing transaction
+     * @return the LSN just past the commit record, to wait on with
+     *         {@link LogFile#awaitCommit}
+     */
+    public long commitLogged(TransactionId tid) throws IOException {
+        return complete(tid, true, true, false);
+    }
+
+    /**
+     * Commit a given transaction as commitLogged does.  An asynchronous
+     * commit logs the changes to its pages but leaves the pages to be
+     * written later, so that nothing in it waits for the log to be forced.
+     *
+     * @param tid the ID of the committing transaction
+     * @param async true if the commit is not to wait for a force
+     * @return the LSN just past the commit record, to wait on with
+     *         {@link LogFile#awaitCommit}
+     */
+    public long commitLogged(TransactionId tid, boolean async) throws IOException {
+        return complete(tid, true, true, async);
+    }
+
+    private long complete(TransactionId tid, boolean commit, boolean logCommit, boolean async)
+            throws IOException {
+        if (versions.isSnapshot(tid)) {
+            versions.endSnapshot(tid);
+            return 0;
+        }
+        try {
+            if (commit) {
+                // the pages' changes are logged under the monitor, but the
+                // force the WAL rule needs before they are written is
+                // waited for outside it, along with other commits
+                List<Page> dirty;
+                long logged;
+                synchronized (this) {
+                    dirty = dirtiedBy(tid);
+                    logged = logDirtyPages(dirty);
+                    if (async)
+                        leaveUnwritten(dirty);
+                }
+                if (!dirty.isEmpty())
+                    Database.getLogFile().awaitForce(logged);
+                // writing makes the pages evictable, and a page evicted
+                // before its old version is kept would be read back with
+                // the new contents as its before-image; the monitor holds
+                // off eviction until the versions are published
+                synchronized (this) {
+                    // pages written back meanwhile are clean already
+                    dirty.removeIf(page -> pages.get(page.getId()) != page || !tid.equals(page.isDirty()));
+                    writeLoggedPages(dirty);
+                    // the committed contents are the next transaction's
+                    // before-image; snapshots may still need the old ones
+                    List<Page> written = new ArrayList<>();
+                    for (Page page : pages.values()) {
+                        if (lockManager.holdsExclusive(tid, page.getId()))
+                            written.add(page);
+                    }
+                    Set<PageId> stolen = stolenPages.remove(tid);
+                    versions.commit(written, stolen != null ? stolen : Collections.emptySet());
+                    return logCommit ? Database.getLogFile().appendCommit(tid) : 0;
+                }
+            } else {
+                restorePages(tid);
+                return 0;
+            }
+        } finally {
+            lockManager.releaseAll(tid);
+        }
+    }
+
+    /**
+     * Mark the pages of an asynchronous commit, whose changes are all
+     * logged, as dirty with committed changes, to be written once the log
+     * is forced by someone else.  Caller holds the monitor.
+     */
+    private void leaveUnwritten(List<Page> dirty) {
+        for (Page page : dirty) {
+            page.markDirty(true, COMMITTED);
+            unwrittenCommits.add(page.getId());
+            if (page instanceof HeapPage)
+                loggedChanges.put(page.getId(), ((HeapPage) page).getModCount());
+        }
+        dirty.clear();
+    }
+
+    /**
+     * Put back the before-image of every page tid dirtied, and the free
+     * slots of heap pages in their file's free-space map.  Pages that were
+     * written back while tid ran get their committed contents back on
+     * disk too.
+     */
+    private synchronized void restorePages(TransactionId tid) throws IOException {
+        for (Page page : pages.values()) {
+            if (tid.equals(page.isDirty())) {
+                Page before = page.getBeforeImage();
+                // committed changes of an earlier asynchronous commit
+                if (unwrittenCommits.contains(page.getId()))
+                    before.markDirty(true, COMMITTED);
+                pages.put(page.getId(), before);
+                page.release();
+                loggedChanges.remove(page.getId());
+                DbFile file = Database.getCatalog().getDatabaseFile(page.getId().getTableId());
+                if (file instanceof HeapFile)
+                    ((HeapFile) file).noteFreeSlots(before);
+            }
+        }
+        Set<PageId> stolen = stolenPages.remove(tid);
+        if (stolen == null)
+            return;
+        // a page read back after it was evicted has the uncommitted
+        // contents as its before-image, so use the ones kept at the write
+        for (Page committed : versions.abortStolen(stolen).values()) {
+            PageId pid = committed.getId();
+            Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(committed);
+            loggedChanges.remove(pid);
+            Page resident = pages.get(pid);
+            if (resident != null) {
+                pages.put(pid, committed);
+                resident.release();
+            } else {
+                committed.release();
+            }
+        }
     }
 
     /**
@@ -137,8 +870,14 @@ public class BufferPool {
      */
     public void insertTuple(TransactionId tid, int tableId, Tuple t)
         throws DbException, IOException, TransactionAbortedException {
-        // some code goes here
-        // not necessary for lab1
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        List<Page> dirtied = file.insertTuple(tid, t);
+        if (file instanceof HeapFile) {
+            HeapPage page = (HeapPage) dirtied.get(0);
+            Database.getLogFile().logTupleInsert(tid, page, t.getRecordId().getTupleNumber());
+            noteLoggedChange(page);
+        }
+        installDirtied(tid, dirtied);
     }
 
     /**
@@ -156,8 +895,68 @@ public class BufferPool {
      */
     public  void deleteTuple(TransactionId tid, Tuple t)
         throws DbException, IOException, TransactionAbortedException {
-        // some code goes here
-        // not necessary for lab1
+        if (t.getRecordId() == null)
+            throw new DbException("tuple has no record id");
+        RecordId rid = t.getRecordId();
+        DbFile file = Database.getCatalog().getDatabaseFile(rid.getPageId().getTableId());
+        byte[] tuple = null;
+        if (file instanceof HeapFile) {
+            // the record needs the bytes being deleted, to undo the delete
+            HeapPage page = (HeapPage) getPage(tid, rid.getPageId(), Permissions.READ_WRITE);
+            tuple = page.getSlotData(rid.getTupleNumber());
+        }
+        List<Page> dirtied = file.deleteTuple(tid, t);
+        if (tuple != null) {
+            HeapPage page = (HeapPage) dirtied.get(0);
+            Database.getLogFile().logTupleDelete(tid, page, rid.getTupleNumber(), tuple);
+            noteLoggedChange(page);
+        }
+        installDirtied(tid, dirtied);
+    }
+
+    /**
+     * Note that the latest change to page, a single insert or delete, was
+     * logged as a tuple record.  If every earlier change since the page was
+     * last written was logged the same way, writing the page needs no page
+     * images in the log.
+     */
+    private synchronized void noteLoggedChange(HeapPage page) {
+        long mods = page.getModCount();
+        Long logged = loggedChanges.get(page.getId());
+        if (page.isDirty() == null || (logged != null && logged == mods - 1))
+            loggedChanges.put(page.getId(), mods);
+        else
+            loggedChanges.remove(page.getId());
+    }
+
+    /**
+     * Mark pages modified by tid dirty and make them the cached version,
+     * replacing (or, if they were evicted meanwhile, re-adding) the
+     * resident page.
+     */
+    private synchronized void installDirtied(TransactionId tid, List<Page> dirtied) throws DbException {
+        for (Page page : dirtied) {
+            page.markDirty(true, tid);
+            Page resident = pages.get(page.getId());
+            if (resident == page)
+                continue;
+            if (resident == null)
+                makeRoomFor(page.getId());
+            pages.put(page.getId(), page);
+            if (resident != null)
+                resident.release();
+            if (resident == null) {
+                policyLock.lock();
+                try {
+                    evictionPolicy.pageAdded(page.getId());
+                } finally {
+                    policyLock.unlock();
+                }
+            }
+        }
+        DirtyPageWriter w = writer;
+        if (w != null)
+            w.wakeUp();
     }
 
     /**
@@ -166,9 +965,12 @@ public class BufferPool {
      *     break simpledb if running in NO STEAL mode.
      */
     public synchronized void flushAllPages() throws IOException {
-        // some code goes here
-        // not necessary for lab1
-
+        List<Page> dirty = new ArrayList<>();
+        for (Page page : pages.values()) {
+            if (page.isDirty() != null)
+                dirty.add(page);
+        }
+        writeDirtyPages(dirty);
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -180,8 +982,20 @@ public class BufferPool {
         are removed from the cache so they can be reused safely
     */
     public synchronized void discardPage(PageId pid) {
-        // some code goes here
-        // not necessary for lab1
+        prefetched.remove(pid);
+        loggedChanges.remove(pid);
+        unwrittenCommits.remove(pid);
+        Page page = pages.remove(pid);
+        if (page != null) {
+            page.release();
+            partitionOf(pid).resident.decrementAndGet();
+            policyLock.lock();
+            try {
+                evictionPolicy.pageRemoved(pid);
+            } finally {
+                policyLock.unlock();
+            }
+        }
     }
 
     /**
@@ -189,24 +1003,206 @@ public class BufferPool {
      * @param pid an ID indicating the page to flush
      */
     private synchronized  void flushPage(PageId pid) throws IOException {
-        // some code goes here
-        // not necessary for lab1
+        Page page = pages.get(pid);
+        if (page != null && page.isDirty() != null) {
+            writeDirtyPages(new ArrayList<>(Collections.singletonList(page)));
+        }
     }
 
     /** Write all pages of the specified transaction to disk.
      */
     public synchronized  void flushPages(TransactionId tid) throws IOException {
-        // some code goes here
-        // not necessary for lab1|lab2
+        writeDirtyPages(dirtiedBy(tid));
+    }
+
+    /** @return the resident pages tid dirtied.  Caller holds the monitor. */
+    private List<Page> dirtiedBy(TransactionId tid) {
+        List<Page> dirty = new ArrayList<>();
+        for (Page page : pages.values()) {
+            if (tid.equals(page.isDirty()))
+                dirty.add(page);
+        }
+        return dirty;
+    }
+
+    /**
+     * Write dirty pages back until at most maxDirty pages are dirty, taking
+     * them in (table, page number) order.  Used by the DirtyPageWriter.
+     * The pages are still those of running transactions, so their
+     * committed contents are kept in the VersionStore, for snapshots and
+     * for restorePages should the transaction abort; pages an asynchronous
+     * commit left unwritten hold committed contents already.
+     *
+     * @return the number of pages written
+     */
+    synchronized int writeBack(int maxDirty) throws IOException {
+        List<Page> dirty = new ArrayList<>();
+        for (Page page : pages.values()) {
+            if (page.isDirty() != null)
+                dirty.add(page);
+        }
+        if (dirty.size() <= maxDirty)
+            return 0;
+        dirty.sort(WRITE_ORDER);
+        List<Page> batch = new ArrayList<>(dirty.subList(0, dirty.size() - maxDirty));
+        for (Page page : batch) {
+            if (page.isDirty() == COMMITTED)
+                continue;
+            versions.noteStolen(page);
+            stolenPages.computeIfAbsent(page.isDirty(), t -> new HashSet<>()).add(page.getId());
+        }
+        writeDirtyPages(batch);
+        return batch.size();
+    }
+
+    /**
+     * Write dirty pages to disk and mark them clean.  Following the WAL
+     * rule, the pages' changes are logged (logDirtyPages) and the log is
+     * forced before any page is written (writeLoggedPages).  Caller holds
+     * the BufferPool monitor.
+     */
+    private void writeDirtyPages(List<Page> dirty) throws IOException {
+        if (dirty.isEmpty())
+            return;
+        logDirtyPages(dirty);
+        Database.getLogFile().force();
+        writeLoggedPages(dirty);
+    }
+
+    /**
+     * Append an update record with the before- and after-image of every
+     * page whose changes are not already in the log as tuple records.
+     * Caller holds the BufferPool monitor.
+     *
+     * @return the LSN the log must be on disk up to before the pages are
+     *         written
+     */
+    private long logDirtyPages(List<Page> dirty) throws IOException {
+        LogFile log = Database.getLogFile();
+        for (Page page : dirty) {
+            Long logged = loggedChanges.remove(page.getId());
+            if (page.isDirty() == COMMITTED)
+                continue; // logged by the asynchronous commit
+            if (logged == null || logged != ((HeapPage) page).getModCount()) {
+                Page before = page.getBeforeImage();
+                log.logWrite(page.isDirty(), before, page);
+                before.release();
+            }
+        }
+        return log.getEndLSN();
+    }
+
+    /**
+     * Write dirty pages whose changes are in the log on disk, file by file
+     * in page number order, and mark them clean.  The LSN each was written
+     * with is left to the log, which records it once the file is synced.
+     * Caller holds the BufferPool monitor.
+     */
+    private void writeLoggedPages(List<Page> dirty) throws IOException {
+        if (dirty.isEmpty())
+            return;
+        dirty.sort(WRITE_ORDER);
+        LogFile log = Database.getLogFile();
+        long[] lsns = new long[dirty.size()];
+        for (int i = 0; i < dirty.size(); i++) {
+            // taken before the page is copied out, which it then reflects
+            lsns[i] = dirty.get(i).getLSN();
+        }
+        int from = 0;
+        while (from < dirty.size()) {
+            int tableId = dirty.get(from).getId().getTableId();
+            int to = from + 1;
+            while (to < dirty.size() && dirty.get(to).getId().getTableId() == tableId)
+                to++;
+            Database.getCatalog().getDatabaseFile(tableId).writePages(dirty.subList(from, to));
+            from = to;
+        }
+        for (int i = 0; i < dirty.size(); i++) {
+            log.pageWritten(dirty.get(i).getId(), lsns[i]);
+            unwrittenCommits.remove(dirty.get(i).getId());
+            dirty.get(i).markDirty(false, null);
+        }
+    }
+
+    /**
+     * Count a page about to be added to the pool against its partition,
+     * evicting a page of the same partition if the partition is at its
+     * quota, or any page if the pool is full.  Caller holds the monitor.
+     *
+     * @return the partition of the page
+     */
+    private Partition makeRoomFor(PageId pid) throws DbException {
+        Partition part = partitionOf(pid);
+        if (part.resident.get() >= part.quota && !part.name.equals(DEFAULT_PARTITION)) {
+            evictPage(part);
+        } else if (pages.size() >= numPages) {
+            evictPage(null);
+        }
+        part.resident.incrementAndGet();
+        return part;
     }
 
     /**
      * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * The victim is chosen by the eviction policy among the clean pages;
+     * dirty pages are never evicted (NO STEAL).
+     *
+     * @param part the partition to evict from, or null for any partition
+     * @throws DbException if every candidate page is dirty
+     */
+    private synchronized  void evictPage(Partition part) throws DbException {
+        PageId victim = selectVictim(part);
+        if (victim == null && writeUnwrittenCommits(part))
+            victim = selectVictim(part);
+        if (victim == null) {
+            throw new DbException(part == null ? "all pages in the buffer pool are dirty"
+                    : "all pages in partition " + part.name + " are dirty");
+        }
+        prefetched.remove(victim);
+        pages.remove(victim).release();
+        Partition victimPart = partitionOf(victim);
+        victimPart.resident.decrementAndGet();
+        victimPart.evictions.increment();
+    }
+
+    /** @return a clean page of part (of any partition if null), or null */
+    private PageId selectVictim(Partition part) {
+        policyLock.lock();
+        try {
+            drainAccesses();
+            return evictionPolicy.evict(pid -> {
+                Page page = pages.get(pid);
+                return page != null && page.isDirty() == null
+                        && (part == null || partitionOf(pid) == part);
+            });
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    /**
+     * Write the pages of part (of any partition if null) that asynchronous
+     * commits left unwritten, forcing the log first.  Caller holds the
+     * monitor.
+     *
+     * @return true if any page was written
      */
-    private synchronized  void evictPage() throws DbException {
-        // some code goes here
-        // not necessary for lab1
+    private boolean writeUnwrittenCommits(Partition part) throws DbException {
+        List<Page> dirty = new ArrayList<>();
+        for (PageId pid : unwrittenCommits) {
+            Page page = pages.get(pid);
+            if (page != null && page.isDirty() == COMMITTED
+                    && (part == null || partitionOf(pid) == part))
+                dirty.add(page);
+        }
+        if (dirty.isEmpty())
+            return false;
+        try {
+            writeDirtyPages(dirty);
+        } catch (IOException e) {
+            throw new DbException("could not write committed pages: " + e.getMessage());
+        }
+        return true;
     }
 
 }
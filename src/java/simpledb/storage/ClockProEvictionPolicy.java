@@ -0,0 +1,256 @@
+package simpledb.storage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * CLOCK-Pro replacement (Jiang, Chen and Zhang, USENIX 2005).
+ * <p>
+ * Pages are kept on a single circular list and are either hot (short reuse
+ * distance) or cold.  A cold page starts a test period when it is admitted;
+ * if it is referenced again during the test period it is promoted to hot.
+ * Cold pages are evicted first, and an evicted cold page still in its test
+ * period stays on the list as a non-resident entry, so that a quick return
+ * can be recognized.  Three hands sweep the list:
+ * <ul>
+ * <li>hand cold looks for a victim among the resident cold pages,
+ * <li>hand hot demotes hot pages that were not referenced since its last
+ * visit, keeping the number of hot pages below capacity - coldTarget,
+ * <li>hand test ends test periods and drops non-resident entries, so there
+ * are never more of them than there are frames.
+ * </ul>
+ * coldTarget adapts: it grows when a non-resident page is referenced again
+ * (the cold area was too small to keep it) and shrinks when a test period
+ * expires without a reference.
+ * <p>
+ * Hits only set a reference bit, so a sequential scan, whose pages are never
+ * referenced twice, cycles through the cold area and leaves hot pages such
+ * as B+ tree internal pages in place.
+ */
+public class ClockProEvictionPolicy implements EvictionPolicy {
+
+    private static class Node {
+        final PageId pid;
+        Node prev, next;
+        boolean hot, referenced, test, resident;
+
+        Node(PageId pid) {
+            this.pid = pid;
+        }
+    }
+
+    private final int capacity;
+    private final Map<PageId, Node> nodes = new HashMap<>();
+    private Node handHot, handCold, handTest;
+    private int hotCount = 0;
+    private int coldCount = 0;
+    private int nonResidentCount = 0;
+    private int coldTarget;
+
+    /**
+     * Creates a CLOCK-Pro policy.
+     *
+     * @param numPages the capacity of the buffer pool
+     */
+    public ClockProEvictionPolicy(int numPages) {
+        this.capacity = Math.max(numPages, 2);
+        this.coldTarget = Math.max(1, capacity / 4);
+    }
+
+    public void pageAdded(PageId pid) {
+        Node n = nodes.get(pid);
+        if (n != null && n.resident) {
+            n.referenced = true;
+            return;
+        }
+        if (n != null) {
+            // a non-resident page came back during its test period: its
+            // reuse distance is short, so admit it hot, and give the cold
+            // area more room since it was too small to keep this page
+            coldTarget = Math.min(capacity - 1, coldTarget + 1);
+            unlink(n);
+            nonResidentCount--;
+            n.resident = true;
+            n.hot = true;
+            n.test = false;
+            n.referenced = false;
+            insertAtHead(n);
+            hotCount++;
+            balanceHot();
+        } else {
+            n = new Node(pid);
+            n.resident = true;
+            n.test = true;
+            nodes.put(pid, n);
+            insertAtHead(n);
+            coldCount++;
+        }
+    }
+
+    public void pageAccessed(PageId pid) {
+        Node n = nodes.get(pid);
+        if (n != null && n.resident)
+            n.referenced = true;
+    }
+
+    public void pageRemoved(PageId pid) {
+        Node n = nodes.remove(pid);
+        if (n == null)
+            return;
+        unlink(n);
+        if (!n.resident)
+            nonResidentCount--;
+        else if (n.hot)
+            hotCount--;
+        else
+            coldCount--;
+    }
+
+    public PageId evict(Predicate<PageId> evictable) {
+        int budget = 3 * nodes.size() + 3;
+        while (coldCount > 0 && budget-- > 0) {
+            Node n = handCold;
+            handCold = n.next;
+            if (!n.resident || n.hot)
+                continue;
+            if (n.referenced) {
+                n.referenced = false;
+                if (n.test) {
+                    n.hot = true;
+                    n.test = false;
+                    coldCount--;
+                    hotCount++;
+                    moveToHead(n);
+                    balanceHot();
+                } else {
+                    n.test = true;
+                    moveToHead(n);
+                }
+            } else if (evictable.test(n.pid)) {
+                evictNode(n);
+                return n.pid;
+            }
+        }
+
+        // every cold page is pinned (e.g. dirty); fall back to any resident page
+        for (Node n : nodes.values()) {
+            if (n.resident && evictable.test(n.pid)) {
+                evictNode(n);
+                return n.pid;
+            }
+        }
+        return null;
+    }
+
+    public List<PageId> residentByHotness() {
+        // hot pages, then cold pages that were referenced since the hand
+        // last passed, then the rest
+        List<PageId> hot = new ArrayList<>(), warm = new ArrayList<>(), cold = new ArrayList<>();
+        for (Node n : nodes.values()) {
+            if (!n.resident)
+                continue;
+            (n.hot ? hot : n.referenced ? warm : cold).add(n.pid);
+        }
+        hot.addAll(warm);
+        hot.addAll(cold);
+        return hot;
+    }
+
+    private void evictNode(Node n) {
+        if (n.hot) {
+            hotCount--;
+            n.hot = false;
+        } else {
+            coldCount--;
+        }
+        if (n.test) {
+            n.resident = false;
+            n.referenced = false;
+            nonResidentCount++;
+            trimNonResident();
+        } else {
+            unlink(n);
+            nodes.remove(n.pid);
+        }
+    }
+
+    /** Run hand hot until the hot area fits in capacity - coldTarget. */
+    private void balanceHot() {
+        while (hotCount > 0 && hotCount > capacity - coldTarget) {
+            Node n = handHot;
+            handHot = n.next;
+            if (n.hot) {
+                if (n.referenced) {
+                    n.referenced = false;
+                } else {
+                    n.hot = false;
+                    hotCount--;
+                    coldCount++;
+                }
+            } else if (n.test) {
+                endTest(n);
+            }
+        }
+    }
+
+    /** Run hand test until there are no more non-resident entries than frames. */
+    private void trimNonResident() {
+        while (nonResidentCount > capacity) {
+            Node n = handTest;
+            handTest = n.next;
+            if (!n.hot && n.test)
+                endTest(n);
+        }
+    }
+
+    /** End the test period of a cold page, forgetting it if it is no longer resident. */
+    private void endTest(Node n) {
+        n.test = false;
+        if (!n.resident) {
+            unlink(n);
+            nodes.remove(n.pid);
+            nonResidentCount--;
+            coldTarget = Math.max(1, coldTarget - 1);
+        }
+    }
+
+    private void moveToHead(Node n) {
+        unlink(n);
+        insertAtHead(n);
+    }
+
+    /** Insert n at the list head, i.e. just behind hand hot. */
+    private void insertAtHead(Node n) {
+        if (handHot == null) {
+            n.next = n;
+            n.prev = n;
+            handHot = handCold = handTest = n;
+            return;
+        }
+        Node h = handHot;
+        n.next = h;
+        n.prev = h.prev;
+        h.prev.next = n;
+        h.prev = n;
+    }
+
+    private void unlink(Node n) {
+        if (n.next == n) {
+            handHot = handCold = handTest = null;
+        } else {
+            if (handHot == n)
+                handHot = n.next;
+            if (handCold == n)
+                handCold = n.next;
+            if (handTest == n)
+                handTest = n.next;
+            n.prev.next = n.next;
+            n.next.prev = n.prev;
+        }
+        n.next = null;
+        n.prev = null;
+    }
+}
@@ -33,6 +33,29 @@ public interface DbFile {
      */
     void writePage(Page p) throws IOException;
 
+    /**
+     * Push several pages of this file to disk.  Files may override this to
+     * coalesce adjacent pages into fewer, larger writes.
+     *
+     * @param pages The pages to write, in any order.
+     * @throws IOException if a write fails
+     */
+    default void writePages(List<Page> pages) throws IOException {
+        for (Page p : pages)
+            writePage(p);
+    }
+
+    /**
+     * Force the pages written to this file so far from the operating
+     * system's cache to disk, so that they survive a crash of the machine
+     * as well as of the database.  Files whose writes reach disk as they
+     * are made need not override this.
+     *
+     * @throws IOException if the force fails
+     */
+    default void sync() throws IOException {
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
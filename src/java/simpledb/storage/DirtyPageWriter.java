@@ -0,0 +1,84 @@
+package simpledb.storage;
+
+import simpledb.common.Debug;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * DirtyPageWriter is a background thread that keeps the fraction of dirty
+ * pages in a BufferPool under a target, so that the pool does not fill up
+ * with dirty pages that a foreground transaction would have to wait for.
+ * <p>
+ * When more than ratio * capacity pages are dirty, the writer writes dirty
+ * pages back until only half that many are left, in (table, page number)
+ * order so that adjacent pages are coalesced into single writes (see
+ * {@link BufferPool#writeBack}).  It checks every INTERVAL_MS milliseconds,
+ * and sooner when the pool wakes it after a modification.  The pages
+ * written belong to transactions still running; the pool keeps their
+ * committed contents so that an abort can put them back.
+ * <p>
+ * The target is set with -Dsimpledb.storage.DirtyRatio=r for 0 &lt; r &lt;= 1,
+ * or with {@link BufferPool#setDirtyRatio}; by default there is no writer.
+ */
+public class DirtyPageWriter {
+
+    public static final String RATIO_PROPERTY = "simpledb.storage.DirtyRatio";
+
+    static final long INTERVAL_MS = 100;
+
+    private final BufferPool pool;
+    private final double ratio;
+    private final int highWater;
+    private final int lowWater;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    DirtyPageWriter(BufferPool pool, double ratio) {
+        if (!(ratio > 0 && ratio <= 1))
+            throw new IllegalArgumentException("dirty ratio must be in (0, 1]: " + ratio);
+        this.pool = pool;
+        this.ratio = ratio;
+        this.highWater = (int) (ratio * pool.getCapacity());
+        this.lowWater = highWater / 2;
+        this.thread = new Thread(this::run, "BufferPool-writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /** @return the configured dirty ratio target */
+    public double getRatio() {
+        return ratio;
+    }
+
+    /** Ask the writer to check the pool now. */
+    void wakeUp() {
+        LockSupport.unpark(thread);
+    }
+
+    /** Stop the writer and wait for it to finish the batch it is writing. */
+    void shutdown() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                if (pool.countDirty() > highWater) {
+                    int n = pool.writeBack(lowWater);
+                    Debug.log(1, "DirtyPageWriter: wrote %d pages", n);
+                }
+            } catch (IOException | RuntimeException e) {
+                Debug.log(1, "DirtyPageWriter: write back failed: %s", e);
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(INTERVAL_MS));
+        }
+    }
+}
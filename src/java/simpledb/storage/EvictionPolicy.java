@@ -0,0 +1,79 @@
+package simpledb.storage;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * EvictionPolicy decides which resident page the BufferPool gives up when
+ * it needs room for a new one.
+ * <p>
+ * The BufferPool reports every page it admits, every hit on a resident page
+ * and every page it drops for another reason (e.g. discardPage).  The
+ * notifications for admits and hits are on the getPage path, so
+ * implementations must keep them constant-time; only victim selection may
+ * sweep over the resident pages.
+ * <p>
+ * Implementations are not required to be thread-safe; the BufferPool
+ * serializes all calls into its policy.
+ *
+ * @see BufferPool#evictPage
+ */
+public interface EvictionPolicy {
+
+    /** Name of the system property used to pick a policy when the Database is constructed. */
+    String POLICY_PROPERTY = "simpledb.storage.EvictionPolicy";
+
+    /**
+     * Called after a page that was not resident has been added to the
+     * buffer pool.
+     *
+     * @param pid the id of the page that was added
+     */
+    void pageAdded(PageId pid);
+
+    /**
+     * Called on every buffer pool hit on a resident page.
+     *
+     * @param pid the id of the page that was accessed
+     */
+    void pageAccessed(PageId pid);
+
+    /**
+     * Called when a resident page leaves the buffer pool without having
+     * been chosen by {@link #evict}, e.g. because it was discarded.
+     *
+     * @param pid the id of the page that was removed
+     */
+    void pageRemoved(PageId pid);
+
+    /**
+     * Choose a resident page to evict and stop tracking it as resident.
+     *
+     * @param evictable tells whether a candidate may be evicted right now
+     *            (e.g. it is not dirty)
+     * @return the id of the page to evict, or null if no resident page is
+     *         evictable
+     */
+    PageId evict(Predicate<PageId> evictable);
+
+    /**
+     * @return the resident pages, the ones the policy would keep longest
+     *         first
+     */
+    List<PageId> residentByHotness();
+
+    /**
+     * Create the policy named by name for a buffer pool of numPages pages.
+     * Recognized names are "clock-pro" and "lru-k" (LRU-2); null selects
+     * the default, CLOCK-Pro.
+     *
+     * @throws IllegalArgumentException if the name is not recognized
+     */
+    static EvictionPolicy create(String name, int numPages) {
+        if (name == null || name.equalsIgnoreCase("clock-pro"))
+            return new ClockProEvictionPolicy(numPages);
+        if (name.equalsIgnoreCase("lru-k"))
+            return new LruKEvictionPolicy(numPages, LruKEvictionPolicy.DEFAULT_K);
+        throw new IllegalArgumentException("unknown eviction policy " + name);
+    }
+}
@@ -0,0 +1,61 @@
+package simpledb.storage;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap records how many empty tuple slots each page of a HeapFile
+ * has, so that HeapFile.insertTuple can go straight to a page with room
+ * instead of fetching (and locking) full pages one after the other.
+ * <p>
+ * The map lives in memory only.  HeapFile rebuilds it from the page headers
+ * on disk the first time it is needed, and keeps it up to date as tuples are
+ * inserted and deleted and as pages are read and written.  It is a hint:
+ * a rolled back insert or delete can leave an entry stale until the page is
+ * next read or written, so callers still check the page itself and report
+ * what they found with {@link #update}.
+ *
+ * @Threadsafe
+ */
+public class FreeSpaceMap {
+
+    private int[] free;
+    private int numPages;
+    /** Pages with at least one empty slot. */
+    private final BitSet hasRoom = new BitSet();
+
+    /** Create a map of a file with no pages. */
+    public FreeSpaceMap() {
+        this.free = new int[16];
+    }
+
+    /** @return the number of pages the map knows about */
+    public synchronized int numPages() {
+        return numPages;
+    }
+
+    /**
+     * Record that page pgNo has the given number of empty slots, growing the
+     * map if pgNo is past its end.
+     */
+    public synchronized void update(int pgNo, int emptySlots) {
+        if (pgNo >= free.length)
+            free = Arrays.copyOf(free, Math.max(pgNo + 1, free.length * 2));
+        numPages = Math.max(numPages, pgNo + 1);
+        free[pgNo] = emptySlots;
+        hasRoom.set(pgNo, emptySlots > 0);
+    }
+
+    /** @return the number of empty slots recorded for page pgNo */
+    public synchronized int getFreeSlots(int pgNo) {
+        return pgNo < numPages ? free[pgNo] : 0;
+    }
+
+    /**
+     * @return the lowest numbered page that has an empty slot according to
+     *         the map, or -1 if every page is full
+     */
+    public synchronized int pageWithRoom() {
+        return hasRoom.nextSetBit(0);
+    }
+}
@@ -8,6 +8,8 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 
 /**
@@ -22,6 +24,18 @@ import java.util.*;
  */
 public class HeapFile implements DbFile {
 
+    private final File f;
+    private final TupleDesc td;
+    private final int tableid;
+
+    private volatile boolean memoryMapped = MappedFile.DEFAULT_ENABLED;
+    private MappedFile mapped;
+
+    /** Empty slots per page, built on first use; see {@link #freeSpaceMap}. */
+    private volatile FreeSpaceMap freeSpace;
+    /** Serializes appending pages to the file. */
+    private final Object appendLock = new Object();
+
     /**
      * Constructs a heap file backed by the specified file.
      * 
@@ -30,7 +44,9 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
-        // some code goes here
+        this.f = f;
+        this.td = td;
+        this.tableid = f.getAbsoluteFile().hashCode();
     }
 
     /**
@@ -39,8 +55,7 @@ public class HeapFile implements DbFile {
      * @return the File backing this HeapFile on disk.
      */
     public File getFile() {
-        // some code goes here
-        return null;
+        return f;
     }
 
     /**
@@ -53,8 +68,7 @@ public class HeapFile implements DbFile {
      * @return an ID uniquely identifying this HeapFile.
      */
     public int getId() {
-        // some code goes here
-        throw new UnsupportedOperationException("implement this");
+        return tableid;
     }
 
     /**
@@ -63,50 +77,240 @@ public class HeapFile implements DbFile {
      * @return TupleDesc of this DbFile.
      */
     public TupleDesc getTupleDesc() {
-        // some code goes here
-        throw new UnsupportedOperationException("implement this");
+        return td;
+    }
+
+    /**
+     * Choose whether readPage reads through a memory mapping of the file
+     * instead of a RandomAccessFile.
+     *
+     * @see MappedFile
+     */
+    public void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+    }
+
+    private synchronized MappedFile mappedFile() {
+        if (mapped == null)
+            mapped = new MappedFile(f, BufferPool.getPageSize());
+        return mapped;
     }
 
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
-        // some code goes here
-        return null;
+        if (pid.getTableId() != tableid || pid.getPageNumber() < 0 || pid.getPageNumber() >= numPages()) {
+            throw new IllegalArgumentException("page " + pid + " does not exist in this file");
+        }
+        long offset = (long) pid.getPageNumber() * BufferPool.getPageSize();
+        try {
+            HeapPage page;
+            if (memoryMapped) {
+                // copy straight from the mapping into the page's frame
+                page = new HeapPage((HeapPageId) pid, mappedFile().region(offset, BufferPool.getPageSize()));
+            } else {
+                byte[] data = new byte[BufferPool.getPageSize()];
+                try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+                    raf.seek(offset);
+                    raf.readFully(data);
+                }
+                page = new HeapPage((HeapPageId) pid, data);
+            }
+            Debug.log(1, "HeapFile.readPage: read page %d", pid.getPageNumber());
+            noteFreeSlots(page);
+            return page;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
-        // some code goes here
-        // not necessary for lab1
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.seek((long) page.getId().getPageNumber() * BufferPool.getPageSize());
+            raf.write(page.getPageData());
+        }
+        noteFreeSlots(page);
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public void writePages(List<Page> pages) throws IOException {
+        VectoredPageWriter.write(f, pages, pid -> (long) pid.getPageNumber() * BufferPool.getPageSize());
+        for (Page page : pages)
+            noteFreeSlots(page);
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public void sync() throws IOException {
+        try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.WRITE)) {
+            ch.force(false);
+        }
     }
 
     /**
      * Returns the number of pages in this HeapFile.
      */
     public int numPages() {
-        // some code goes here
-        return 0;
+        return (int) (f.length() / BufferPool.getPageSize());
+    }
+
+    /**
+     * Returns the free-space map of this file, building it from the page
+     * headers on disk the first time it is needed.
+     */
+    FreeSpaceMap freeSpaceMap() throws IOException {
+        FreeSpaceMap map = freeSpace;
+        if (map != null)
+            return map;
+        synchronized (appendLock) {
+            if (freeSpace == null)
+                freeSpace = buildFreeSpaceMap();
+            return freeSpace;
+        }
+    }
+
+    /** Count the empty slots of every page by reading just its header. */
+    private FreeSpaceMap buildFreeSpaceMap() throws IOException {
+        FreeSpaceMap map = new FreeSpaceMap();
+        int slots = slotsPerPage();
+        byte[] header = new byte[(slots + 7) / 8];
+        int n = numPages();
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+            for (int pgNo = 0; pgNo < n; pgNo++) {
+                raf.seek((long) pgNo * BufferPool.getPageSize());
+                raf.readFully(header);
+                int used = 0;
+                for (byte b : header)
+                    used += Integer.bitCount(b & 0xff);
+                map.update(pgNo, slots - used);
+            }
+        }
+        return map;
+    }
+
+    /** The number of tuple slots on a page of this file; see HeapPage. */
+    private int slotsPerPage() {
+        return (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+    }
+
+    /**
+     * Record the empty slots of a page that was just read or written, or
+     * put back to its before-image by an abort.
+     */
+    void noteFreeSlots(Page page) {
+        FreeSpaceMap map = freeSpace;
+        if (map != null && page instanceof HeapPage)
+            map.update(page.getId().getPageNumber(), ((HeapPage) page).getNumEmptySlots());
+    }
+
+    /** Add an empty page at the end of the file. */
+    private void appendEmptyPage() throws IOException {
+        synchronized (appendLock) {
+            writePage(new HeapPage(new HeapPageId(tableid, numPages()), HeapPage.createEmptyPageData()));
+        }
     }
 
     // see DbFile.java for javadocs
     public List<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
-        // some code goes here
-        return null;
-        // not necessary for lab1
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("tupledesc is mismatch");
+        BufferPool pool = Database.getBufferPool();
+        FreeSpaceMap map = freeSpaceMap();
+        while (true) {
+            int pgNo = map.pageWithRoom();
+            if (pgNo < 0) {
+                appendEmptyPage();
+                continue;
+            }
+            HeapPageId pid = new HeapPageId(tableid, pgNo);
+            boolean held = pool.holdsLock(tid, pid);
+            HeapPage page = (HeapPage) pool.getPage(tid, pid, Permissions.READ_WRITE);
+            if (page.getNumEmptySlots() > 0) {
+                page.insertTuple(t);
+                map.update(pgNo, page.getNumEmptySlots());
+                return new ArrayList<>(Collections.singletonList(page));
+            }
+            // the map was stale; correct it and give back the lock we only
+            // took to look at the page
+            map.update(pgNo, 0);
+            if (!held)
+                pool.unsafeReleasePage(tid, pid);
+        }
     }
 
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
-        // some code goes here
-        return null;
-        // not necessary for lab1
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != tableid)
+            throw new DbException("tuple is not a member of this file");
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, rid.getPageId(), Permissions.READ_WRITE);
+        page.deleteTuple(t);
+        noteFreeSlots(page);
+        return new ArrayList<>(Collections.singletonList(page));
     }
 
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
-        // some code goes here
-        return null;
+        return new HeapFileIterator(tid);
+    }
+
+    /**
+     * Iterates over the tuples of this file page by page, through the
+     * BufferPool, prefetching the pages ahead of it.
+     */
+    private class HeapFileIterator extends AbstractDbFileIterator {
+
+        private final TransactionId tid;
+        private ReadAhead readAhead;
+        private Iterator<Tuple> tuples;
+        private int pgNo;
+
+        HeapFileIterator(TransactionId tid) {
+            this.tid = tid;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            pgNo = 0;
+            readAhead = new ReadAhead(n -> new HeapPageId(tableid, n), numPages());
+            tuples = pageTuples(pgNo);
+        }
+
+        private Iterator<Tuple> pageTuples(int n) throws DbException, TransactionAbortedException {
+            if (n >= numPages())
+                return Collections.emptyIterator();
+            readAhead.pageAccessed(n);
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                    new HeapPageId(tableid, n), Permissions.READ_ONLY);
+            return page.iterator();
+        }
+
+        @Override
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (tuples == null)
+                return null;
+            while (!tuples.hasNext()) {
+                if (++pgNo >= numPages())
+                    return null;
+                tuples = pageTuples(pgNo);
+            }
+            return tuples.next();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            tuples = null;
+            if (readAhead != null)
+                readAhead.reset();
+        }
     }
 
 }
@@ -8,6 +8,7 @@ import simpledb.transaction.TransactionId;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
@@ -21,12 +22,36 @@ public class HeapPage implements Page {
 
     final HeapPageId pid;
     final TupleDesc td;
-    final byte[] header;
-    final Tuple[] tuples;
     final int numSlots;
+    private final int headerSize;
 
-    byte[] oldData;
-    private final Byte oldDataLock= (byte) 0;
+    /**
+     * The bytes of the page, header and tuple slots exactly as they are on
+     * disk, in a frame of the off-heap PageFrameArena, or on the heap once
+     * the page has been released.
+     */
+    private PageFrameArena.Frame frame;
+    private volatile ByteBuffer buf;
+    /** Tuple views handed out by the iterator, by slot; each holds a reference to the frame. */
+    private final HeapTupleView[] views;
+
+    /**
+     * The before image.  Until the page is modified after setBeforeImage
+     * the before image is the page itself, and no frame is needed for it.
+     */
+    private PageFrameArena.Frame before;
+    private ByteBuffer beforeBuf;
+    private boolean beforeIsCurrent;
+    private boolean released;
+    /** Guards the before image, the views, the frames and changes to the bytes. */
+    private final Object oldDataLock = new Object();
+
+    private volatile TransactionId dirtier;
+    /** Number of modifications, bumped before each one starts. */
+    private volatile long modCount;
+    /** Kept in memory only: the page format has no room for it, so recovery
+        learns a heap page's LSN on disk from PAGE_WRITTEN records. */
+    private volatile long lsn;
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
@@ -40,30 +65,43 @@ public class HeapPage implements Page {
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * The bytes are copied into a frame outside the Java heap and the tuples
+     * are not decoded here; a field is decoded when it is first read through
+     * a tuple returned by {@link #iterator}.
+     *
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id);
+        // a page without the trailing padding is accepted, as before
+        frame.fill(data);
+    }
+
+    /**
+     * Create a HeapPage from the remaining bytes of src, e.g. a region of a
+     * memory-mapped file, without an intermediate array.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer src) {
+        this(id);
+        ByteBuffer dst = buf.duplicate();
+        dst.put(src.duplicate());
+        while (dst.hasRemaining())
+            dst.put((byte) 0);
+    }
+
+    /** Set up an empty page whose frame the caller fills in. */
+    private HeapPage(HeapPageId id) {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
+        this.headerSize = getHeaderSize();
+        this.frame = PageFrameArena.get().acquire(this);
+        this.buf = frame.buffer();
+        this.views = new HeapTupleView[numSlots];
 
         setBeforeImage();
     }
@@ -72,9 +110,7 @@ public class HeapPage implements Page {
         @return the number of tuples on this page
     */
     private int getNumTuples() {        
-        // some code goes here
-        return 0;
-
+        return (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
     }
 
     /**
@@ -82,34 +118,25 @@ public class HeapPage implements Page {
      * @return the number of bytes in the header of a page in a HeapFile with each tuple occupying tupleSize bytes
      */
     private int getHeaderSize() {        
-        
-        // some code goes here
-        return 0;
-                 
+        return (numSlots + 7) / 8;
     }
     
     /** Return a view of this page before it was modified
         -- used by recovery */
     public HeapPage getBeforeImage(){
-        try {
-            byte[] oldDataRef = null;
-            synchronized(oldDataLock)
-            {
-                oldDataRef = oldData;
-            }
-            return new HeapPage(pid,oldDataRef);
-        } catch (IOException e) {
-            e.printStackTrace();
-            //should never happen -- we parsed it OK before!
-            System.exit(1);
+        HeapPage image = new HeapPage(pid);
+        synchronized(oldDataLock)
+        {
+            image.buf.duplicate().put((beforeIsCurrent ? buf : beforeBuf).duplicate());
         }
-        return null;
+        return image;
     }
     
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        // the frame is only copied when the page is next modified
+        beforeIsCurrent = true;
         }
     }
 
@@ -117,42 +144,47 @@ public class HeapPage implements Page {
      * @return the PageId associated with this page.
      */
     public HeapPageId getId() {
-    // some code goes here
-    throw new UnsupportedOperationException("implement this");
+        return pid;
     }
 
-    /**
-     * Suck up tuples from the source file.
-     */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
+    /** @return the offset of the first byte of the tuple in slot on the page */
+    private int tupleOffset(int slot) {
+        return headerSize + slot * td.getSize();
+    }
+
+    /** Decode field i of the tuple in slot. */
+    Field readField(int slot, int i) {
+        return td.getFieldType(i).parse(buf, tupleOffset(slot) + td.getFieldOffset(i));
+    }
+
+    /** Return the view of the tuple in slot, which must be in use. */
+    private Tuple tupleAt(int slot) {
+        synchronized (oldDataLock) {
+            HeapTupleView t = views[slot];
+            if (t == null) {
+                t = new HeapTupleView(this, slot, frame);
+                views[slot] = t;
             }
-            return null;
+            return t;
         }
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
+    /** Save the before image, if it is still the page itself, before a modification. */
+    private void ensureWritable() {
+        synchronized (oldDataLock) {
+            if (beforeIsCurrent) {
+                if (beforeBuf == null) {
+                    if (released) {
+                        beforeBuf = ByteBuffer.allocate(buf.capacity());
+                    } else {
+                        before = PageFrameArena.get().acquire(this);
+                        beforeBuf = before.buffer();
+                    }
+                }
+                beforeBuf.duplicate().put(buf.duplicate());
+                beforeIsCurrent = false;
             }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
         }
-
-        return t;
     }
 
     /**
@@ -167,64 +199,44 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
+        synchronized (oldDataLock) {
+            byte[] data = new byte[buf.capacity()];
+            buf.duplicate().get(data);
+            return data;
         }
+    }
 
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
+    /**
+     * Move the bytes of the page and its before image to the heap and give
+     * the frames back to the arena.  The page stays usable, so a transaction
+     * that fetched it before it left the BufferPool, or a tuple it handed
+     * out, reads the same bytes; views let go of the frame once no read of
+     * it is under way.
+     */
+    public void release() {
+        synchronized (oldDataLock) {
+            if (released)
+                return;
+            released = true;
+            buf = copyToHeap(buf);
+            if (before != null) {
+                beforeBuf = copyToHeap(beforeBuf);
+                before.release();
+                before = null;
             }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+            for (HeapTupleView view : views) {
+                if (view != null)
+                    view.unpin();
             }
+            frame.release();
+            frame = null;
         }
+    }
 
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+    private static ByteBuffer copyToHeap(ByteBuffer src) {
+        ByteBuffer copy = ByteBuffer.allocate(src.capacity());
+        copy.duplicate().put(src.duplicate());
+        return copy;
     }
 
     /**
@@ -249,8 +261,56 @@ public class HeapPage implements Page {
      * @param t The tuple to delete
      */
     public void deleteTuple(Tuple t) throws DbException {
-        // some code goes here
-        // not necessary for lab1
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()))
+            throw new DbException("tuple is not on this page");
+        int slot = rid.getTupleNumber();
+        if (!isSlotUsed(slot))
+            throw new DbException("tuple slot is already empty");
+        setSlot(slot, null, false);
+    }
+
+    /** @return a copy of the bytes of the tuple in slot, whether it is used or not */
+    byte[] getSlotData(int slot) {
+        byte[] data = new byte[td.getSize()];
+        ByteBuffer src = buf.duplicate();
+        src.position(tupleOffset(slot));
+        src.get(data);
+        return data;
+    }
+
+    /**
+     * Overwrite slot with the bytes of a tuple and mark it used, or zero it
+     * and mark it empty if data is null.  Used by deleteTuple and to apply
+     * tuple-level log records.
+     */
+    void setSlot(int slot, byte[] data, boolean used) {
+        modCount++;
+        synchronized (oldDataLock) {
+            ensureWritable();
+            HeapTupleView view = views[slot];
+            if (view != null) {
+                view.detach();
+                views[slot] = null;
+            }
+            ByteBuffer dst = buf.duplicate();
+            dst.position(tupleOffset(slot));
+            if (data != null) {
+                dst.put(data, 0, Math.min(data.length, td.getSize()));
+            } else {
+                for (int i = 0; i < td.getSize(); i++)
+                    dst.put((byte) 0);
+            }
+            markSlotUsed(slot, used);
+        }
+    }
+
+    /**
+     * @return the number of modifications made to this page object so far;
+     *         it changes before the bytes of the page do
+     */
+    long getModCount() {
+        return modCount;
     }
 
     /**
@@ -261,8 +321,27 @@ public class HeapPage implements Page {
      * @param t The tuple to add.
      */
     public void insertTuple(Tuple t) throws DbException {
-        // some code goes here
-        // not necessary for lab1
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("tupledesc is mismatch");
+        int slot = 0;
+        while (slot < numSlots && isSlotUsed(slot))
+            slot++;
+        if (slot == numSlots)
+            throw new DbException("page is full");
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(td.getSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int j = 0; j < td.numFields(); j++)
+                t.getField(j).serialize(dos);
+            dos.flush();
+        } catch (IOException e) {
+            // writing to memory cannot fail
+            throw new DbException("could not serialize tuple: " + e);
+        }
+
+        setSlot(slot, baos.toByteArray(), true);
+        t.setRecordId(new RecordId(pid, slot));
     }
 
     /**
@@ -270,50 +349,70 @@ public class HeapPage implements Page {
      * that did the dirtying
      */
     public void markDirty(boolean dirty, TransactionId tid) {
-        // some code goes here
-	// not necessary for lab1
+        this.dirtier = dirty ? tid : null;
     }
 
     /**
      * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
      */
     public TransactionId isDirty() {
-        // some code goes here
-	// Not necessary for lab1
-        return null;      
+        return dirtier;
+    }
+
+    public long getLSN() {
+        return lsn;
+    }
+
+    public void setLSN(long lsn) {
+        this.lsn = lsn;
     }
 
     /**
      * Returns the number of empty slots on this page.
      */
     public int getNumEmptySlots() {
-        // some code goes here
-        return 0;
+        int empty = 0;
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i))
+                empty++;
+        }
+        return empty;
     }
 
     /**
      * Returns true if associated slot on this page is filled.
      */
     public boolean isSlotUsed(int i) {
-        // some code goes here
-        return false;
+        if (i < 0 || i >= numSlots)
+            return false;
+        return (buf.get(i / 8) & (1 << (i % 8))) != 0;
     }
 
     /**
      * Abstraction to fill or clear a slot on this page.
      */
     private void markSlotUsed(int i, boolean value) {
-        // some code goes here
-        // not necessary for lab1
+        ensureWritable();
+        byte b = buf.get(i / 8);
+        if (value)
+            b |= (byte) (1 << (i % 8));
+        else
+            b &= (byte) ~(1 << (i % 8));
+        buf.put(i / 8, b);
     }
 
     /**
      * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
      * (note that this iterator shouldn't return tuples in empty slots!)
+     * The tuples are views that decode their fields from this page on demand.
      */
     public Iterator<Tuple> iterator() {
-        // some code goes here
-        return null;
+        List<Tuple> used = new ArrayList<>();
+        for (int i = 0; i < numSlots; i++) {
+            if (isSlotUsed(i))
+                used.add(tupleAt(i));
+        }
+        return Collections.unmodifiableList(used).iterator();
     }
 
 }
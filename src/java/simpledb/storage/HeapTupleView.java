@@ -0,0 +1,83 @@
+package simpledb.storage;
+
+/**
+ * HeapTupleView is a tuple handed out by a HeapPage that decodes its fields
+ * from the page bytes the first time each one is read, so that fields a
+ * query never looks at are never turned into Field objects.
+ * <p>
+ * Before the slot behind a view is overwritten, the page detaches the view:
+ * the remaining fields are decoded and the view no longer refers to the
+ * page, so tuples held by operators keep their values.
+ * <p>
+ * A view holds a reference to the page's frame, so the frame is not
+ * recycled while a field is being decoded from it.  When the page is
+ * released its bytes move to the heap and the view lets go of the frame;
+ * fields read afterwards are decoded from the heap copy.
+ *
+ * @see HeapPage#iterator
+ */
+class HeapTupleView extends Tuple {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The page the fields are read from, or null once detached. */
+    private transient HeapPage page;
+    /** The frame the view holds a reference to, or null once it let go. */
+    private transient PageFrameArena.Frame frame;
+    private final int slot;
+
+    /**
+     * @param frame the frame the page's bytes are in, or null if the page
+     *            has been released
+     */
+    HeapTupleView(HeapPage page, int slot, PageFrameArena.Frame frame) {
+        super(page.td);
+        this.page = page;
+        this.slot = slot;
+        setRecordId(new RecordId(page.pid, slot));
+        if (frame != null) {
+            frame.retain();
+            this.frame = frame;
+        }
+    }
+
+    @Override
+    public Field getField(int i) {
+        Field f = super.getField(i);
+        if (f == null) {
+            synchronized (this) {
+                f = super.getField(i);
+                if (f == null && page != null) {
+                    f = page.readField(slot, i);
+                    super.setField(i, f);
+                }
+            }
+        }
+        return f;
+    }
+
+    /** Decode every field still on the page and stop reading from it. */
+    synchronized void detach() {
+        for (int i = 0; i < getTupleDesc().numFields(); i++)
+            getField(i);
+        page = null;
+        unpin();
+    }
+
+    /** Let go of the frame; later reads go wherever the page's bytes are. */
+    synchronized void unpin() {
+        if (frame != null) {
+            frame.release();
+            frame = null;
+        }
+    }
+
+    /** Serialize as an ordinary tuple, since the page does not go along. */
+    private Object writeReplace() {
+        Tuple t = new Tuple(getTupleDesc());
+        for (int i = 0; i < getTupleDesc().numFields(); i++)
+            t.setField(i, getField(i));
+        t.setRecordId(getRecordId());
+        return t;
+    }
+}
@@ -2,12 +2,19 @@
 package simpledb.storage;
 
 import simpledb.common.Database;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeHeaderPage;
+import simpledb.index.BTreeInternalPage;
+import simpledb.index.BTreeLeafPage;
+import simpledb.index.BTreePageId;
+import simpledb.index.BTreeRootPtrPage;
 import simpledb.transaction.TransactionId;
 import simpledb.common.Debug;
 
 import java.io.*;
 import java.util.*;
-import java.lang.reflect.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 /*
 LogFile implements the recovery subsystem of SimpleDb.  This class is
@@ -43,40 +50,99 @@ must not be declared synchronized and must begin with a block like:
 
 <ul>
 
-<li> The first long integer of the file represents the offset of the
-last written checkpoint, or -1 if there are no checkpoints
+<li> The log file itself is a small control file of two long integers:
+the LSN of the last written checkpoint, or -1 if there are no
+checkpoints, and the LSN of the first record that may still be needed.
+
+<li> The records are kept in fixed-size segment files next to it (see
+{@link LogSegments}).  A record's LSN (log sequence number) is its
+position in the sequence of segments, so LSNs grow with the log and do
+not change when logTruncate deletes the segments before the first
+needed record.  The size of the segments is set with
+-Dsimpledb.storage.LogSegmentSize=bytes (default 16MB).
 
 <li> All additional data in the log consists of log records.  Log
 records are variable length.
 
-<li> Each log record begins with an integer type and a long integer
-transaction id.
+<li> Each log record begins with an integer type, a long integer
+transaction id and the long LSN of the transaction's previous record, or
+0 (NO_LSN) for its first.  These chain each transaction's records
+backwards, so rollback and recovery undo visit only the records of the
+transactions they undo.
+
+<li> Each log record ends with a long integer representing the LSN of
+the record, that is the position where it began.
 
-<li> Each log record ends with a long integer file offset representing
-the position in the log file where the record began.
+<li> There are nine record types: ABORT, COMMIT, UPDATE, BEGIN,
+CHECKPOINT, TUPLE_INSERT, TUPLE_DELETE, CLR and PAGE_WRITTEN
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> CHECKPOINT and PAGE_WRITTEN records belong to no transaction; their
+transaction id is -1 and their previous LSN NO_LSN.
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
 <li>UPDATE RECORDS consist of two entries, a before image and an
 after image.  These images are serialized Page objects, and can be
 accessed with the LogFile.readPageData() and LogFile.writePageData()
-methods.  See LogFile.print() for an example.
+methods.  See LogFile.print() for an example.  A serialized Page is its
+page id, then an integer length and the page data.  A page id is a byte
+tag giving the type of the page (HEAP_PAGE, or one of the BTREE_ tags),
+which determines the classes of both the page and the id, then the
+integer table id and page number.
+
+<li> TUPLE_INSERT and TUPLE_DELETE records describe a change to a
+single slot of a HeapPage: an integer table id, page number and slot
+number, then an integer length and the bytes of the tuple that was
+inserted into or deleted from the slot.  The slot's header bit is set by
+an insert and cleared by a delete.  Applying or undoing them is
+idempotent, so recovery can replay them onto pages in any state.
+
+<li> CLR (compensation log) records are written as changes are undone,
+by rollback and by recovery.  They hold the LSN of the next record of
+the transaction left to undo, the type of the record undone, and what
+the undo wrote: the before image of an UPDATE, or the table id, page
+number, slot, length and bytes of a tuple change.  They are only ever
+redone, so a crash during rollback or recovery never undoes a change
+twice.
+
+<li> PAGE_WRITTEN records follow the writing of a page to disk and hold
+the page's id (as in a serialized Page, see writePageData) and its LSN
+when it was written.  Recovery takes the page on disk to reflect every
+record up to that LSN and redoes none of them.  A write is only logged
+once its file has been synced (see syncPageWrites), since until then a
+crash of the machine can still lose it; the dirty page table, and with it
+checkpoints and truncation, keeps the page until then too.  B+ tree leaf
+and internal pages also store their LSN after the high key, and recovery
+reads it from the page; heap pages, whose fixed lab format leaves no room
+for it, and the root pointer and header pages rely on these records
+alone.  The records are not forced, and losing one only means redoing
+more.
 
 <li> CHECKPOINT records consist of active transactions at the time
 the checkpoint was taken and their first log record on disk.  The format
 of the record is an integer count of the number of transactions, as well
 as a long integer transaction id and a long integer first record offset
-for each active transaction.
+for each active transaction.  The dirty page table follows: an integer
+count of pages, and for each a page id (as in a serialized Page) and the
+long LSN of the first change to it that may not be on disk.  Checkpoints
+are fuzzy: taking one writes no pages, and a page changed before the
+checkpoint may only reach disk after it.
 
 </ul>
+
+<p> Commits are forced in groups: logCommit appends the COMMIT record
+(appendCommit) and then waits (awaitCommit), outside the LogFile monitor,
+for a {@link LogFlusher} to force the log on behalf of every commit
+pending at the time.  Transaction appends the record while it still holds
+its locks, and only waits once they are released.  The force the WAL rule
+needs before a committing transaction's pages are written is shared the
+same way (awaitForce), and waited for outside the BufferPool monitor.
 */
 public class LogFile {
 
     final File logFile;
-    private RandomAccessFile raf;
+    private final RandomAccessFile control;
+    private final LogSegments segments;
     Boolean recoveryUndecided; // no call to recover() and no append to log
 
     static final int ABORT_RECORD = 1;
@@ -84,16 +150,49 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int TUPLE_INSERT_RECORD = 6;
+    static final int TUPLE_DELETE_RECORD = 7;
+    static final int CLR_RECORD = 8;
+    static final int PAGE_WRITTEN_RECORD = 9;
     static final long NO_CHECKPOINT_ID = -1;
+    static final long NO_LSN = 0;
+
+    // page type tags of serialized pages; a BTree page's tag is
+    // BTREE_ROOT_PTR_PAGE plus its BTreePageId category
+    static final int HEAP_PAGE = 1;
+    static final int BTREE_ROOT_PTR_PAGE = 2;
+    static final int BTREE_INTERNAL_PAGE = 3;
+    static final int BTREE_LEAF_PAGE = 4;
+    static final int BTREE_HEADER_PAGE = 5;
 
     final static int INT_SIZE = 4;
     final static int LONG_SIZE = 8;
+    final static int HEADER_SIZE = 2 * LONG_SIZE;
+    /** The LSN of the first record of a new log; 0 is NO_LSN. */
+    static final long FIRST_LSN = HEADER_SIZE;
 
-    long currentOffset = -1;//protected by this
+    long currentOffset = -1; // the LSN of the next record //protected by this
+    int redoCount = 0; // records redone by the last recovery //protected by this
 //    int pageSize;
     int totalRecords = 0; // for PatchTest //protected by this
 
     final Map<Long,Long> tidToFirstLogRecord = new HashMap<>();
+    /** The LSN of the last record of each live transaction, where the
+        chain of its records starts. */
+    private final Map<Long, Long> tidToLastLogRecord = new HashMap<>(); //protected by this
+
+    /** The dirty page table: for each page with logged changes that may
+        not be on disk, the LSNs of the first and the last of them. */
+    private final Map<PageId, long[]> dirtyPages = new HashMap<>(); //protected by this
+    /** Pages written to their files that are not synced yet, with their
+        LSNs when written. */
+    private Map<PageId, Long> unsyncedWrites = new HashMap<>(); //protected by this
+
+    private long forces; // number of times the log was forced //protected by this
+    public static final String REDO_THREADS_PROPERTY = "simpledb.storage.RedoThreads";
+    private volatile int redoThreads = Integer.getInteger(REDO_THREADS_PROPERTY,
+            Runtime.getRuntime().availableProcessors());
+    private volatile LogFlusher flusher;
 
     /** Constructor.
         Initialize and back the log file with the specified file.
@@ -104,12 +203,16 @@ public class LogFile {
         do it, while if someone starts adding log file entries, then first
         throw out the initial log file contents.
 
-        @param f The log file's name
+        @param f The log file's name; the segments are named after it
     */
     public LogFile(File f) throws IOException {
 	this.logFile = f;
-        raf = new RandomAccessFile(f, "rw");
+        control = new RandomAccessFile(f, "rw");
+        segments = new LogSegments(f, Long.getLong(LogSegments.SIZE_PROPERTY, LogSegments.DEFAULT_SIZE));
         recoveryUndecided = true;
+        flusher = new LogFlusher(this, Long.getLong(LogFlusher.DELAY_PROPERTY, 0),
+                Integer.getInteger(LogFlusher.BATCH_PROPERTY, LogFlusher.DEFAULT_BATCH),
+                Long.getLong(LogFlusher.LAG_PROPERTY, LogFlusher.DEFAULT_LAG));
 
         // install shutdown hook to force cleanup on close
         // Runtime.getRuntime().addShutdownHook(new Thread() {
@@ -127,19 +230,40 @@ public class LogFile {
     // the log.
     void preAppend() throws IOException {
         totalRecords++;
+        startAppend();
+    }
+
+    // as preAppend, for bookkeeping records that are not counted
+    private void startAppend() throws IOException {
         if(recoveryUndecided){
             recoveryUndecided = false;
-            raf.seek(0);
-            raf.setLength(0);
-            raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+            segments.clear();
+            writeControl(NO_CHECKPOINT_ID, FIRST_LSN);
+            segments.seek(FIRST_LSN);
+            currentOffset = FIRST_LSN;
         }
     }
 
+    // point the control file at the last checkpoint and the first needed
+    // record, durably
+    private void writeControl(long checkpoint, long first) throws IOException {
+        control.seek(0);
+        control.writeLong(checkpoint);
+        control.writeLong(first);
+        control.getChannel().force(true);
+    }
+
     public synchronized int getTotalRecords() {
         return totalRecords;
     }
+
+    /** @return the LSN the next record will be written at, so the
+        difference between two calls is the size of the records
+        appended between them */
+    public synchronized long getEndLSN() throws IOException {
+        startAppend();
+        return currentOffset;
+    }
     
     /** Write an abort record to the log for the specified tid, force
         the log to disk, and perform a rollback
@@ -160,32 +284,142 @@ public class LogFile {
                 // live transactions (needs tidToFirstLogRecord)
                 rollback(tid);
 
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+                writeHeader(ABORT_RECORD, tid.getId());
+                segments.writeLong(currentOffset);
+                currentOffset = segments.getFilePointer();
                 force();
                 tidToFirstLogRecord.remove(tid.getId());
+                tidToLastLogRecord.remove(tid.getId());
             }
         }
     }
 
     /** Write a commit record to disk for the specified tid,
-        and force the log to disk.
+        and wait until the log is forced to disk.
+
+        @param tid The committing transaction.
+    */
+    public void logCommit(TransactionId tid) throws IOException {
+        logCommit(tid, false);
+    }
+
+    /** Write a commit record for the specified tid.
 
         @param tid The committing transaction.
+        @param async If false, wait until the log is forced to disk.  If
+            true, return at once; the flusher forces the record within the
+            async commit lag, and a crash before that loses the commit.
+            Recovery then rolls tid back, together with every later
+            transaction whose commit was lost, since the log reaches disk
+            in order.
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
+    public void logCommit(TransactionId tid, boolean async) throws IOException {
+        awaitCommit(appendCommit(tid), async);
+    }
+
+    /** Append a commit record for the specified tid, without forcing it.
+        A transaction must append its commit record before releasing its
+        locks, so that no transaction that saw its changes can commit
+        ahead of it in the log, and only then wait in awaitCommit.
+
+        @param tid The committing transaction.
+        @return the LSN just past the record, to pass to awaitCommit
+    */
+    public synchronized long appendCommit(TransactionId tid) throws IOException {
         preAppend();
         Debug.log("COMMIT " + tid.getId());
         //should we verify that this is a live transaction?
 
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
+        writeHeader(COMMIT_RECORD, tid.getId());
+        segments.writeLong(currentOffset);
+        currentOffset = segments.getFilePointer();
         tidToFirstLogRecord.remove(tid.getId());
+        tidToLastLogRecord.remove(tid.getId());
+        return currentOffset;
+    }
+
+    /** Wait until a commit appended by appendCommit is on disk.
+
+        @param lsn The LSN just past the commit record, from appendCommit.
+        @param async If true, return at once, as for logCommit.
+    */
+    public void awaitCommit(long lsn, boolean async) throws IOException {
+        if (async)
+            flusher.commitAsync(lsn);
+        else
+            flusher.awaitDurable(lsn, true);
+    }
+
+    /** Wait until the log is on disk up to lsn, sharing the force with
+        the commits waiting at the time rather than forcing it alone.
+
+        @param lsn The LSN the log must be on disk up to, such as
+            getEndLSN after appending the records a page write needs.
+    */
+    public void awaitForce(long lsn) throws IOException {
+        flusher.awaitDurable(lsn, false);
+    }
+
+    /**
+     * Set the group commit window: a commit waits up to maxDelayMicros
+     * microseconds, or until maxBatch commits are waiting, for others to
+     * share its force.
+     *
+     * @see LogFlusher
+     */
+    public void setGroupCommit(long maxDelayMicros, int maxBatch) {
+        flusher = new LogFlusher(this, maxDelayMicros, maxBatch, flusher.getMaxLagMicros());
+    }
+
+    /**
+     * Set the async commit lag: the log is forced at most maxLagMicros
+     * microseconds after an asynchronous commit.
+     *
+     * @see #logCommit(TransactionId, boolean)
+     */
+    public void setAsyncCommitLag(long maxLagMicros) {
+        LogFlusher f = flusher;
+        flusher = new LogFlusher(this, f.getMaxDelayMicros(), f.getMaxBatch(), maxLagMicros);
+    }
+
+    /** @return the flusher forcing the log for commits, for its statistics */
+    public LogFlusher getFlusher() {
+        return flusher;
+    }
+
+    /** @return the number of times the log was forced, by the flusher or
+        directly */
+    public synchronized long getForces() {
+        return forces;
+    }
+
+    /** @return the LSN the next record will be written at */
+    synchronized long appendedLSN() {
+        return currentOffset;
+    }
+
+    /**
+     * Force the log for the flusher.  The force itself runs outside the
+     * monitor, so appends carry on meanwhile.
+     *
+     * @return the LSN the log is now on disk up to
+     */
+    long forceCommits() throws IOException {
+        // so that the force carries the PAGE_WRITTEN records of the
+        // pages written for these commits
+        syncPageWrites();
+        long lsn;
+        LogSegments.Force f;
+        synchronized (this) {
+            lsn = currentOffset;
+            f = segments.startForce();
+            forces++;
+        }
+        f.run();
+        synchronized (this) {
+            segments.forced(f);
+        }
+        return lsn;
     }
 
     /** Write an UPDATE record to disk for the specified tid and page
@@ -199,7 +433,7 @@ public class LogFile {
     public  synchronized void logWrite(TransactionId tid, Page before,
                                        Page after)
         throws IOException  {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
+        Debug.log("WRITE, offset = " + segments.getFilePointer());
         preAppend();
         /* update record conists of
 
@@ -209,83 +443,255 @@ public class LogFile {
            after page data
            start offset
         */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
+        long lsn = currentOffset;
+        writeHeader(UPDATE_RECORD, tid.getId());
 
-        writePageData(raf,before);
-        writePageData(raf,after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+        writePageData(segments,before);
+        writePageData(segments,after);
+        segments.writeLong(currentOffset);
+        currentOffset = segments.getFilePointer();
+        after.setLSN(lsn);
+        noteChange(after.getId(), lsn);
 
         Debug.log("WRITE OFFSET = " + currentOffset);
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException{
-        PageId pid = p.getId();
-        int[] pageInfo = pid.serialize();
+    /** Write a TUPLE_INSERT record: tid put the tuple now in slot of page there.
+        @param tid The transaction performing the insert
+        @param page The page, after the insert
+        @param slot The slot the tuple was inserted into
+    */
+    public void logTupleInsert(TransactionId tid, HeapPage page, int slot)
+        throws IOException {
+        logTupleChange(TUPLE_INSERT_RECORD, tid, page, slot, page.getSlotData(slot));
+    }
 
-        //page data is:
-        // page class name
-        // id class name
-        // id class bytes
-        // id class data
-        // page class bytes
-        // page class data
+    /** Write a TUPLE_DELETE record: tid emptied slot of the page.
+        @param tid The transaction performing the delete
+        @param page The page, after the delete
+        @param slot The slot the tuple was in
+        @param tuple The bytes of the tuple, needed to undo the delete
+    */
+    public void logTupleDelete(TransactionId tid, HeapPage page, int slot, byte[] tuple)
+        throws IOException {
+        logTupleChange(TUPLE_DELETE_RECORD, tid, page, slot, tuple);
+    }
 
-        String pageClassName = p.getClass().getName();
-        String idClassName = pid.getClass().getName();
+    private synchronized void logTupleChange(int type, TransactionId tid, HeapPage page,
+                                             int slot, byte[] tuple)
+        throws IOException {
+        preAppend();
+        long lsn = currentOffset;
+        writeHeader(type, tid.getId());
+        writeTupleChange(segments, page.getId(), slot, tuple);
+        segments.writeLong(currentOffset);
+        currentOffset = segments.getFilePointer();
+        page.setLSN(lsn);
+        noteChange(page.getId(), lsn);
+    }
 
-        raf.writeUTF(pageClassName);
-        raf.writeUTF(idClassName);
+    private void writeTupleChange(LogSegments segments, PageId pid, int slot, byte[] tuple)
+        throws IOException {
+        segments.writeInt(pid.getTableId());
+        segments.writeInt(pid.getPageNumber());
+        segments.writeInt(slot);
+        segments.writeInt(tuple.length);
+        segments.write(tuple);
+    }
 
-        raf.writeInt(pageInfo.length);
-        for (int j : pageInfo) {
-            raf.writeInt(j);
-        }
-        byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
-        //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
+    /** Write a CLR record: rec, a record of a transaction being rolled
+        back, was undone.
+        @param rec The record undone
+        @param undoNext The LSN of the transaction's record to undo next,
+            or NO_LSN if rec was its first
+        @return the LSN of the CLR
+    */
+    private long logCompensation(LogRecord rec, long undoNext) throws IOException {
+        preAppend();
+        long lsn = currentOffset;
+        writeHeader(CLR_RECORD, rec.tid);
+        segments.writeLong(undoNext);
+        segments.writeInt(rec.type);
+        if (rec.type == UPDATE_RECORD)
+            writePageData(segments, rec.pid, rec.before);
+        else
+            writeTupleChange(segments, rec.pid, rec.slot, rec.tuple);
+        segments.writeLong(currentOffset);
+        currentOffset = segments.getFilePointer();
+        noteChange(rec.pid, lsn);
+        return lsn;
+    }
+
+    // begin a record of tid at currentOffset: its type, tid and the LSN of
+    // tid's previous record; the record becomes the end of tid's chain
+    private void writeHeader(int type, long tid) throws IOException {
+        segments.writeInt(type);
+        segments.writeLong(tid);
+        Long prev = tid == NO_CHECKPOINT_ID ? null : tidToLastLogRecord.put(tid, currentOffset);
+        segments.writeLong(prev == null ? NO_LSN : prev);
+    }
+
+    // add a logged change to the dirty page table
+    private void noteChange(PageId pid, long lsn) {
+        long[] firstLast = dirtyPages.get(pid);
+        if (firstLast == null)
+            dirtyPages.put(pid, new long[] { lsn, lsn });
+        else
+            firstLast[1] = lsn;
     }
 
-    Page readPageData(RandomAccessFile raf) throws IOException {
-        PageId pid;
-        Page newPage = null;
+    /** @return a copy of the dirty page table: the LSN of the first
+        change to each page that may not be on disk */
+    public synchronized Map<PageId, Long> getDirtyPageTable() {
+        Map<PageId, Long> dpt = new HashMap<>();
+        for (Map.Entry<PageId, long[]> e : dirtyPages.entrySet())
+            dpt.put(e.getKey(), e.getValue()[0]);
+        return dpt;
+    }
 
-        String pageClassName = raf.readUTF();
-        String idClassName = raf.readUTF();
+    /** Note that a page was written to its file as of lsn.  Its
+        PAGE_WRITTEN record waits for syncPageWrites to sync the file.
+        @param pid The page written
+        @param lsn The page's LSN when it was written
+    */
+    synchronized void pageWritten(PageId pid, long lsn) {
+        unsyncedWrites.merge(pid, lsn, Math::max);
+    }
 
+    /** Sync the files of the pages written since the last call, and then
+        write their PAGE_WRITTEN records.  The syncs run outside the
+        monitor, so appends carry on meanwhile; the records are not forced.
+    */
+    void syncPageWrites() throws IOException {
+        Map<PageId, Long> writes;
+        synchronized (this) {
+            if (unsyncedWrites.isEmpty())
+                return;
+            writes = unsyncedWrites;
+            unsyncedWrites = new HashMap<>();
+        }
+        Set<Integer> tables = new HashSet<>();
+        for (PageId pid : writes.keySet())
+            tables.add(pid.getTableId());
         try {
-            Class<?> idClass = Class.forName(idClassName);
-            Class<?> pageClass = Class.forName(pageClassName);
-
-            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
-            int numIdArgs = raf.readInt();
-            Object[] idArgs = new Object[numIdArgs];
-            for (int i = 0; i<numIdArgs;i++) {
-                idArgs[i] = raf.readInt();
+            for (int tableId : tables) {
+                DbFile file;
+                try {
+                    file = Database.getCatalog().getDatabaseFile(tableId);
+                } catch (NoSuchElementException e) {
+                    continue; // the table is gone, and its pages with it
+                }
+                file.sync();
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                for (Map.Entry<PageId, Long> w : writes.entrySet())
+                    unsyncedWrites.merge(w.getKey(), w.getValue(), Math::max);
             }
-            pid = (PageId)idConsts[0].newInstance(idArgs);
+            throw e;
+        }
+        synchronized (this) {
+            for (Map.Entry<PageId, Long> w : writes.entrySet())
+                logPageWritten(w.getKey(), w.getValue());
+        }
+    }
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
-            int pageSize = raf.readInt();
+    /** Write a PAGE_WRITTEN record: the page is on disk as of lsn.  It is
+        not forced, and not counted in getTotalRecords.
+        @param pid The page written
+        @param lsn The page's LSN when it was written
+    */
+    private void logPageWritten(PageId pid, long lsn) throws IOException {
+        startAppend();
+        writeHeader(PAGE_WRITTEN_RECORD, NO_CHECKPOINT_ID); // no tid
+        writePageId(segments, pid);
+        segments.writeLong(lsn);
+        segments.writeLong(currentOffset);
+        currentOffset = segments.getFilePointer();
+
+        long[] firstLast = dirtyPages.get(pid);
+        if (firstLast != null) {
+            if (firstLast[1] <= lsn)
+                dirtyPages.remove(pid);
+            else // changes logged while the page was being written
+                firstLast[0] = Math.max(firstLast[0], lsn + 1);
+        }
+    }
+
+    void writePageData(LogSegments segments, Page p) throws IOException{
+        writePageData(segments, p.getId(), p.getPageData());
+    }
+
+    private void writePageData(LogSegments segments, PageId pid, byte[] pageData) throws IOException {
+        //page data is:
+        // page id (see writePageId)
+        // page data length
+        // page data
+
+        writePageId(segments, pid);
+        segments.writeInt(pageData.length);
+        segments.write(pageData);
+        //        Debug.log ("WROTE PAGE DATA, table = " +  pid.getTableId() + ", page = " + pid.pageno());
+    }
 
-            byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
+    private void writePageId(LogSegments segments, PageId pid) throws IOException {
+        int tag;
+        if (pid instanceof HeapPageId)
+            tag = HEAP_PAGE;
+        else if (pid instanceof BTreePageId)
+            tag = BTREE_ROOT_PTR_PAGE + ((BTreePageId) pid).pgcateg();
+        else
+            throw new IllegalArgumentException("no page type tag for " + pid.getClass().getName());
+        segments.writeByte(tag);
+        segments.writeInt(pid.getTableId());
+        segments.writeInt(pid.getPageNumber());
+    }
 
-            Object[] pageArgs = new Object[2];
-            pageArgs[0] = pid;
-            pageArgs[1] = pageData;
+    Page readPageData(LogSegments segments) throws IOException {
+        PageId pid = readPageId(segments);
+        return pageOf(pid, readPageBytes(segments));
+    }
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+    // the length and data of a serialized page, after its id
+    private byte[] readPageBytes(LogSegments segments) throws IOException {
+        int pageSize = segments.readInt();
+        if (pageSize < 0 || pageSize > BufferPool.getPageSize())
+            throw new StreamCorruptedException("bad page size " + pageSize);
+        byte[] pageData = new byte[pageSize];
+        segments.readFully(pageData);
+        return pageData;
+    }
 
-            //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
-        } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException | InstantiationException e){
-            e.printStackTrace();
-            throw new IOException();
+    /** @return the page pid with the given data; a BTree leaf or internal
+        page needs its table in the catalog */
+    private static Page pageOf(PageId pid, byte[] pageData) throws IOException {
+        //            Debug.log("READ PAGE, table = " + pid.getTableId() + ", page = " + pid.getPageNumber());
+        if (pid instanceof HeapPageId)
+            return new HeapPage((HeapPageId) pid, pageData);
+        BTreePageId bpid = (BTreePageId) pid;
+        switch (bpid.pgcateg()) {
+        case BTreePageId.ROOT_PTR:
+            return new BTreeRootPtrPage(bpid, pageData);
+        case BTreePageId.HEADER:
+            return new BTreeHeaderPage(bpid, pageData);
+        default:
+            int keyField = ((BTreeFile) Database.getCatalog().getDatabaseFile(pid.getTableId())).keyField();
+            if (bpid.pgcateg() == BTreePageId.INTERNAL)
+                return new BTreeInternalPage(bpid, pageData, keyField);
+            return new BTreeLeafPage(bpid, pageData, keyField);
         }
-        return newPage;
+    }
 
+    private PageId readPageId(LogSegments segments) throws IOException {
+        int tag = segments.readByte();
+        int tableId = segments.readInt();
+        int pageNumber = segments.readInt();
+        if (tag == HEAP_PAGE)
+            return new HeapPageId(tableId, pageNumber);
+        if (tag >= BTREE_ROOT_PTR_PAGE && tag <= BTREE_HEADER_PAGE)
+            return new BTreePageId(tableId, pageNumber, tag - BTREE_ROOT_PTR_PAGE);
+        // not a page at all, e.g. the zeroes after a torn record
+        throw new StreamCorruptedException("bad page type tag " + tag);
     }
 
     /** Write a BEGIN record for the specified transaction
@@ -300,150 +706,98 @@ public class LogFile {
             throw new IOException("double logXactionBegin()");
         }
         preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
+        writeHeader(BEGIN_RECORD, tid.getId());
+        segments.writeLong(currentOffset);
         tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        currentOffset = segments.getFilePointer();
 
         Debug.log("BEGIN OFFSET = " + currentOffset);
     }
 
-    /** Checkpoint the log and write a checkpoint record. */
+    /** Checkpoint the log and write a checkpoint record.
+
+        <p> The checkpoint is fuzzy: it records the active transactions
+        and the dirty page table, and writes no pages, so it takes neither
+        the BufferPool monitor nor more than a single force.  Dirty pages
+        reach disk at their own pace, through commits, eviction and the
+        DirtyPageWriter, and recovery starts redo at the oldest change in
+        the table.  See BufferPool.flushAllPages for a checkpoint that
+        leaves nothing to redo.
+    */
     public void logCheckpoint() throws IOException {
-        //make sure we have buffer pool lock before proceeding
-        synchronized (Database.getBufferPool()) {
-            synchronized (this) {
-                //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
-                preAppend();
-                long startCpOffset, endCpOffset;
-                Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
-                force();
-                Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
-
-                //write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext()) {
-                    Long key = els.next();
-                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
-                    //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
-                }
+        // leave out of the dirty page table what is already on disk
+        syncPageWrites();
+        synchronized (this) {
+            //Debug.log("CHECKPOINT, offset = " + segments.getFilePointer());
+            preAppend();
+            long startCpOffset = currentOffset;
+            writeHeader(CHECKPOINT_RECORD, NO_CHECKPOINT_ID); //no tid , but leave space for convenience
+
+            //write list of outstanding transactions
+            segments.writeInt(tidToFirstLogRecord.size());
+            for (Map.Entry<Long, Long> e : tidToFirstLogRecord.entrySet()) {
+                Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + e.getKey());
+                segments.writeLong(e.getKey());
+                segments.writeLong(e.getValue());
+            }
 
-                //once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                //Debug.log("CP OFFSET = " + currentOffset);
+            //and the dirty page table
+            segments.writeInt(dirtyPages.size());
+            for (Map.Entry<PageId, long[]> e : dirtyPages.entrySet()) {
+                writePageId(segments, e.getKey());
+                segments.writeLong(e.getValue()[0]);
             }
+            segments.writeLong(startCpOffset);
+            currentOffset = segments.getFilePointer();
+
+            //once the CP is on disk, make sure the CP location in the
+            // control file is updated
+            force();
+            control.seek(0);
+            control.writeLong(startCpOffset);
+            //Debug.log("CP OFFSET = " + currentOffset);
         }
 
         logTruncate();
     }
 
     /** Truncate any unneeded portion of the log to reduce its space
-        consumption */
+        consumption.  Records keep their LSNs, so this only moves the
+        control file's first LSN forward and deletes the segments before
+        it; nothing is copied. */
     public synchronized void logTruncate() throws IOException {
         preAppend();
-        raf.seek(0);
-        long cpLoc = raf.readLong();
+        control.seek(0);
+        long cpLoc = control.readLong();
+        if (cpLoc == NO_CHECKPOINT_ID) {
+            // nothing is known to be on disk yet
+            return;
+        }
 
+        segments.seek(cpLoc);
+        LogRecord cp = readRecord();
+        segments.seek(currentOffset);
+        if (cp == null || cp.type != CHECKPOINT_RECORD) {
+            throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
+        }
         long minLogRecord = cpLoc;
-
-        if (cpLoc != -1L) {
-            raf.seek(cpLoc);
-            int cpType = raf.readInt();
-            @SuppressWarnings("unused")
-            long cpTid = raf.readLong();
-
-            if (cpType != CHECKPOINT_RECORD) {
-                throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
-            }
-
-            int numOutstanding = raf.readInt();
-
-            for (int i = 0; i < numOutstanding; i++) {
-                @SuppressWarnings("unused")
-                long tid = raf.readLong();
-                long firstLogRecord = raf.readLong();
-                if (firstLogRecord < minLogRecord) {
-                    minLogRecord = firstLogRecord;
-                }
+        for (long firstLogRecord : cp.active.values()) {
+            if (firstLogRecord < minLogRecord) {
+                minLogRecord = firstLogRecord;
             }
         }
-
-        // we can truncate everything before minLogRecord
-        File newFile = new File("logtmp" + System.currentTimeMillis());
-        RandomAccessFile logNew = new RandomAccessFile(newFile, "rw");
-        logNew.seek(0);
-        logNew.writeLong((cpLoc - minLogRecord) + LONG_SIZE);
-
-        raf.seek(minLogRecord);
-
-        //have to rewrite log records since offsets are different after truncation
-        while (true) {
-            try {
-                int type = raf.readInt();
-                long record_tid = raf.readLong();
-                long newStart = logNew.getFilePointer();
-
-                Debug.log("NEW START = " + newStart);
-
-                logNew.writeInt(type);
-                logNew.writeLong(record_tid);
-
-                switch (type) {
-                case UPDATE_RECORD:
-                    Page before = readPageData(raf);
-                    Page after = readPageData(raf);
-
-                    writePageData(logNew, before);
-                    writePageData(logNew, after);
-                    break;
-                case CHECKPOINT_RECORD:
-                    int numXactions = raf.readInt();
-                    logNew.writeInt(numXactions);
-                    while (numXactions-- > 0) {
-                        long xid = raf.readLong();
-                        long xoffset = raf.readLong();
-                        logNew.writeLong(xid);
-                        logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
-                    }
-                    break;
-                case BEGIN_RECORD:
-                    tidToFirstLogRecord.put(record_tid,newStart);
-                    break;
-                }
-
-                //all xactions finish with a pointer
-                logNew.writeLong(newStart);
-                raf.readLong();
-
-            } catch (EOFException e) {
-                break;
+        // redo starts at the oldest change not on disk
+        for (long recLsn : cp.dirty.values()) {
+            if (recLsn < minLogRecord) {
+                minLogRecord = recLsn;
             }
         }
 
-        Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
+        Debug.log("TRUNCATING LOG; NEW START : " + minLogRecord + " NEW LENGTH: " + (currentOffset - minLogRecord));
 
-        raf.close();
-        logFile.delete();
-        newFile.renameTo(logFile);
-        raf = new RandomAccessFile(logFile, "rw");
-        raf.seek(raf.length());
-        newFile.delete();
-
-        currentOffset = raf.getFilePointer();
-        //print();
+        // the control file must stop pointing at a segment before it goes
+        writeControl(cpLoc, minLogRecord);
+        segments.deleteBefore(minLogRecord);
     }
 
     /** Rollback the specified transaction, setting the state of any
@@ -452,6 +806,11 @@ public class LogFile {
         transactions that have already committed (though this may not
         be enforced by this method.)
 
+        <p> The transaction's changes are undone newest first, each with
+        a CLR, and the pages are written back once the CLRs are forced.
+        Only the transaction's own records are read, following the chain
+        of previous LSNs back from its last one.
+
         @param tid The transaction to rollback
     */
     public void rollback(TransactionId tid)
@@ -459,19 +818,218 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
             synchronized(this) {
                 preAppend();
-                // some code goes here
+                Long last = tidToLastLogRecord.get(tid.getId());
+                if (last == null)
+                    return; // nothing was logged
+
+                Map<PageId, Page> pages = new HashMap<>();
+                for (long lsn = last; lsn != NO_LSN; )
+                    lsn = undoRecord(lsn, pages, Collections.emptyMap());
+                force();
+                writeRecoveredPages(pages);
+            }
+        }
+    }
+
+    /** Undo the record at lsn, if it is a change, and log a CLR for it.
+        @return the LSN of the transaction's record to undo next, or
+        NO_LSN if there is none left
+    */
+    private long undoRecord(long lsn, Map<PageId, Page> pages,
+                            Map<PageId, Long> written) throws IOException {
+        segments.seek(lsn);
+        LogRecord rec = readRecord();
+        segments.seek(currentOffset);
+        if (rec == null)
+            throw new IOException("no log record at LSN " + lsn);
+        if (rec.type == CLR_RECORD)
+            return rec.undoNext; // undone already
+        if (rec.isUpdate())
+            compensate(rec, rec.prev, pages, written);
+        return rec.prev;
+    }
+
+    /** A log record, as read back by rollback and recovery. */
+    private static class LogRecord {
+        int type;
+        long tid;
+        long lsn;
+        long prev; // the transaction's previous record
+        PageId pid; // UPDATE, TUPLE_INSERT, TUPLE_DELETE, CLR and PAGE_WRITTEN
+        byte[] before, after; // page data: UPDATE, and before for a CLR of one
+        int slot;
+        byte[] tuple;
+        long undoNext; // CLR
+        int undoneType; // CLR
+        long pageLsn; // PAGE_WRITTEN
+        Map<Long, Long> active; // CHECKPOINT
+        Map<PageId, Long> dirty; // CHECKPOINT
+
+        boolean isUpdate() {
+            return type == UPDATE_RECORD || type == TUPLE_INSERT_RECORD || type == TUPLE_DELETE_RECORD;
+        }
+    }
+
+    /** Read the record at the file pointer.
+        @return the record, or null at the end of the log, including
+        when the last record was only partly written
+    */
+    private LogRecord readRecord() throws IOException {
+        LogRecord r = new LogRecord();
+        r.lsn = segments.getFilePointer();
+        try {
+            r.type = segments.readInt();
+            r.tid = segments.readLong();
+            r.prev = segments.readLong();
+            switch (r.type) {
+            case UPDATE_RECORD:
+                // the pages are only built if they are redone or undone
+                r.pid = readPageId(segments);
+                r.before = readPageBytes(segments);
+                readPageId(segments);
+                r.after = readPageBytes(segments);
+                break;
+            case TUPLE_INSERT_RECORD:
+            case TUPLE_DELETE_RECORD:
+                readTupleChange(r);
+                break;
+            case CLR_RECORD:
+                r.undoNext = segments.readLong();
+                r.undoneType = segments.readInt();
+                if (r.undoneType == UPDATE_RECORD) {
+                    r.pid = readPageId(segments);
+                    r.before = readPageBytes(segments);
+                } else if (r.undoneType == TUPLE_INSERT_RECORD || r.undoneType == TUPLE_DELETE_RECORD) {
+                    readTupleChange(r);
+                } else {
+                    return null;
+                }
+                break;
+            case PAGE_WRITTEN_RECORD:
+                r.pid = readPageId(segments);
+                r.pageLsn = segments.readLong();
+                break;
+            case CHECKPOINT_RECORD:
+                r.active = new HashMap<>();
+                int n = segments.readInt();
+                while (n-- > 0)
+                    r.active.put(segments.readLong(), segments.readLong());
+                r.dirty = new HashMap<>();
+                n = segments.readInt();
+                while (n-- > 0)
+                    r.dirty.put(readPageId(segments), segments.readLong());
+                break;
+            case ABORT_RECORD:
+            case COMMIT_RECORD:
+            case BEGIN_RECORD:
+                break;
+            default:
+                return null; // the zeroes after the end, or a torn record
             }
+            if (segments.readLong() != r.lsn)
+                return null; // a torn record
+        } catch (EOFException | StreamCorruptedException e) {
+            return null;
         }
+        return r;
+    }
+
+    private void readTupleChange(LogRecord r) throws IOException {
+        r.pid = new HeapPageId(segments.readInt(), segments.readInt());
+        r.slot = segments.readInt();
+        r.tuple = new byte[segments.readInt()];
+        segments.readFully(r.tuple);
+    }
+
+    /** Undo rec and log a CLR for it, leaving the page with the CLR's LSN. */
+    private void compensate(LogRecord rec, long undoNext, Map<PageId, Page> pages,
+                            Map<PageId, Long> written) throws IOException {
+        long lsn = logCompensation(rec, undoNext);
+        undo(rec.type, rec, pages, written);
+        pages.get(rec.pid).setLSN(lsn);
+    }
+
+    /** Undo a record of the given type on pages, reading pages not in it
+        from disk. */
+    private void undo(int type, LogRecord r, Map<PageId, Page> pages,
+                      Map<PageId, Long> written) throws IOException {
+        switch (type) {
+        case UPDATE_RECORD:
+            pages.put(r.pid, pageOf(r.pid, r.before));
+            break;
+        case TUPLE_INSERT_RECORD:
+            heapPage(r.pid, pages, written).setSlot(r.slot, null, false);
+            break;
+        case TUPLE_DELETE_RECORD:
+            heapPage(r.pid, pages, written).setSlot(r.slot, r.tuple, true);
+            break;
+        }
+    }
+
+    /** Redo a record on pages, reading pages not in it from disk. */
+    private void redo(LogRecord r, Map<PageId, Page> pages,
+                      Map<PageId, Long> written) throws IOException {
+        switch (r.type) {
+        case UPDATE_RECORD:
+            pages.put(r.pid, pageOf(r.pid, r.after));
+            break;
+        case TUPLE_INSERT_RECORD:
+            heapPage(r.pid, pages, written).setSlot(r.slot, r.tuple, true);
+            break;
+        case TUPLE_DELETE_RECORD:
+            heapPage(r.pid, pages, written).setSlot(r.slot, null, false);
+            break;
+        case CLR_RECORD:
+            // a CLR redoes the undo it records
+            undo(r.undoneType, r, pages, written);
+            break;
+        }
+    }
+
+    /** @return the page from pages, or read from disk with the LSN it was
+        last written with */
+    private HeapPage heapPage(PageId pid, Map<PageId, Page> pages, Map<PageId, Long> written) {
+        Page p = pages.get(pid);
+        if (p == null) {
+            p = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+            p.setLSN(written.getOrDefault(pid, NO_LSN));
+            pages.put(pid, p);
+        }
+        return (HeapPage) p;
+    }
+
+    /** Write pages changed by rollback or recovery, dropping any cached copies. */
+    private void writeRecoveredPages(Map<PageId, Page> pages) throws IOException {
+        for (Page p : pages.values()) {
+            Database.getCatalog().getDatabaseFile(p.getId().getTableId()).writePage(p);
+            pageWritten(p.getId(), p.getLSN());
+            Database.getBufferPool().discardPage(p.getId());
+            p.release();
+        }
+    }
+    /**
+     * @return the file, next to the log, in which shutdown saves the
+     *         buffer pool's resident pages for BufferPool.warmStart
+     */
+    public File getWarmStartFile() {
+        return new File(logFile.getPath() + ".warm");
     }
 
     /** Shutdown the logging system, writing out whatever state
         is necessary so that start up can happen quickly (without
         extensive recovery.)
     */
-    public synchronized void shutdown() {
+    public void shutdown() {
         try {
+            // write everything first, so that there is nothing to redo
+            Database.getBufferPool().flushAllPages();
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
-            raf.close();
+            synchronized (this) {
+                segments.close();
+                control.close();
+            }
+            // remember what was cached so the next start can warm up
+            Database.getBufferPool().saveResidentPages(getWarmStartFile());
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
             e.printStackTrace();
@@ -481,78 +1039,427 @@ public class LogFile {
     /** Recover the database system by ensuring that the updates of
         committed transactions are installed and that the
         updates of uncommitted transactions are not installed.
+
+        <p> Recovery follows ARIES.  Analysis reads the log from the
+        checkpoint, or from the first record of the oldest transaction
+        active at it, to find the transactions that never finished and
+        the last LSN written of each page.  Redo then reads the log again
+        and repeats history for the pages with changes that may not be on
+        disk, skipping every record a page already reflects; the pages
+        are divided among {@link #setRedoThreads} threads by id, so each
+        page's records are applied in order while different pages are
+        replayed concurrently.  Undo rolls the unfinished transactions
+        back together, newest change first, logging a CLR for each change
+        and resuming where the CLRs of an earlier, interrupted recovery
+        left off.
     */
     public void recover() throws IOException {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
                 recoveryUndecided = false;
-                // some code goes here
+                redoCount = 0;
+                if (control.length() < HEADER_SIZE) {
+                    // nothing was ever logged
+                    segments.clear();
+                    writeControl(NO_CHECKPOINT_ID, FIRST_LSN);
+                    segments.seek(FIRST_LSN);
+                    currentOffset = FIRST_LSN;
+                    return;
+                }
+
+                // everything before the checkpoint is on disk, except for
+                // the transactions that were running at the time and the
+                // pages in its dirty page table
+                control.seek(0);
+                long cpLoc = control.readLong();
+                long start = control.readLong();
+                long cpLsn = NO_LSN;
+                Map<PageId, Long> cpDirty = Collections.emptyMap();
+                if (cpLoc != NO_CHECKPOINT_ID) {
+                    segments.seek(cpLoc);
+                    LogRecord cp = readRecord();
+                    if (cp != null) {
+                        cpLsn = cp.lsn;
+                        cpDirty = cp.dirty;
+                        for (long first : cp.active.values())
+                            start = Math.min(start, first);
+                        for (long recLsn : cpDirty.values())
+                            start = Math.min(start, recLsn);
+                    }
+                }
+
+                // analysis
+                Map<Long, Long> lastLsn = new HashMap<>(); // tid -> its last record
+                Set<Long> losers = new HashSet<>();
+                Map<PageId, Long> written = new HashMap<>(); // page LSNs on disk
+                Map<PageId, Long> stored = new HashMap<>(); // LSNs on B+ tree pages
+                segments.seek(start);
+                long end = start;
+                LogRecord r;
+                while ((r = readRecord()) != null) {
+                    end = segments.getFilePointer();
+                    if (r.tid != NO_CHECKPOINT_ID)
+                        lastLsn.put(r.tid, r.lsn);
+                    switch (r.type) {
+                    case BEGIN_RECORD:
+                        losers.add(r.tid);
+                        break;
+                    case COMMIT_RECORD:
+                    case ABORT_RECORD:
+                        losers.remove(r.tid);
+                        break;
+                    case PAGE_WRITTEN_RECORD:
+                        written.put(r.pid, r.pageLsn);
+                        break;
+                    }
+                    if (r.isUpdate() || r.type == CLR_RECORD)
+                        noteStoredLSN(r, stored, written);
+                }
+
+                // drop a partly written last record
+                segments.truncate(end);
+                segments.seek(end);
+                currentOffset = end;
+
+                // redo
+                Map<PageId, Page> pages = new HashMap<>();
+                segments.seek(start);
+                redoCount = redoPass(end, cpLsn, cpDirty, written, pages);
+                segments.seek(end);
+
+                // undo, following the losers' chains back together
+                TreeMap<Long, Long> toUndo = new TreeMap<>(); // next LSN to undo -> tid
+                for (long tid : losers) {
+                    long last = lastLsn.get(tid);
+                    toUndo.put(last, tid);
+                    tidToLastLogRecord.put(tid, last);
+                }
+                while (!toUndo.isEmpty()) {
+                    Map.Entry<Long, Long> next = toUndo.pollLastEntry();
+                    long undoNext = undoRecord(next.getKey(), pages, written);
+                    if (undoNext != NO_LSN)
+                        toUndo.put(undoNext, next.getValue());
+                }
+                for (long tid : losers) {
+                    preAppend();
+                    writeHeader(ABORT_RECORD, tid);
+                    segments.writeLong(currentOffset);
+                    currentOffset = segments.getFilePointer();
+                }
+                force();
+                writeRecoveredPages(pages);
+                // B+ tree pages found current by their stored LSN get
+                // PAGE_WRITTEN records too, so that recovering again
+                // needs neither the pages nor their files; the stored LSN
+                // may have been read from the operating system's cache, so
+                // these files are synced as well
+                for (Map.Entry<PageId, Long> e : stored.entrySet())
+                    if (!pages.containsKey(e.getKey()) && e.getValue().equals(written.get(e.getKey())))
+                        pageWritten(e.getKey(), e.getValue());
+                syncPageWrites();
+                // and the PAGE_WRITTEN records, so that recovering again
+                // redoes nothing
+                force();
+                tidToFirstLogRecord.clear();
+                tidToLastLogRecord.clear();
+                dirtyPages.clear();
             }
          }
     }
 
+    /** B+ tree leaf and internal pages store their LSN.  Read it from the
+        page of r on disk the first time the page turns up, and once the
+        record at that LSN does, take the page to reflect every record up
+        to it, as a PAGE_WRITTEN record would.  Waiting for the record
+        guards against a page number since reused for a page of another
+        kind, whose bytes hold no LSN where this kind keeps it.
+    */
+    private void noteStoredLSN(LogRecord r, Map<PageId, Long> stored, Map<PageId, Long> written) {
+        if (!(r.pid instanceof BTreePageId))
+            return;
+        Long lsn = stored.get(r.pid);
+        if (lsn == null) {
+            lsn = readStoredLSN((BTreePageId) r.pid);
+            stored.put(r.pid, lsn);
+        }
+        if (lsn == r.lsn)
+            written.merge(r.pid, lsn, Math::max);
+    }
+
+    /** @return the LSN stored on the page on disk, or NO_LSN if the page
+        keeps none, was never written or cannot be read as one of its kind */
+    private long readStoredLSN(BTreePageId pid) {
+        if (pid.pgcateg() != BTreePageId.LEAF && pid.pgcateg() != BTreePageId.INTERNAL)
+            return NO_LSN;
+        try {
+            BTreeFile f = (BTreeFile) Database.getCatalog().getDatabaseFile(pid.getTableId());
+            if (pid.getPageNumber() > f.numPages())
+                return NO_LSN;
+            return f.readPage(pid).getLSN();
+        } catch (RuntimeException e) {
+            return NO_LSN;
+        }
+    }
+
+    /** Redo the changes between the file pointer and end that the pages
+        may not reflect: those logged after the page was last written, and
+        before the checkpoint only those in its dirty page table.
+        @param pages Gets the pages redone
+        @return the number of records redone
+    */
+    private int redoPass(long end, long cpLsn, Map<PageId, Long> cpDirty,
+                         Map<PageId, Long> written, Map<PageId, Page> pages)
+        throws IOException {
+        int threads = redoThreads;
+        RedoWorker[] workers = new RedoWorker[threads > 1 ? threads : 0];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new RedoWorker(i, written);
+            workers[i].start();
+        }
+
+        int count = 0;
+        try {
+            LogRecord r;
+            while (segments.getFilePointer() < end && (r = readRecord()) != null) {
+                if (!r.isUpdate() && r.type != CLR_RECORD)
+                    continue;
+                if (r.lsn < cpLsn) {
+                    Long recLsn = cpDirty.get(r.pid);
+                    if (recLsn == null || r.lsn < recLsn)
+                        continue;
+                }
+                if (r.lsn <= written.getOrDefault(r.pid, NO_LSN))
+                    continue;
+                if (workers.length == 0) {
+                    if (redoRecord(r, pages, written))
+                        count++;
+                } else {
+                    workers[Math.floorMod(r.pid.hashCode(), workers.length)].add(r);
+                }
+            }
+        } finally {
+            for (RedoWorker w : workers)
+                w.finish();
+        }
+
+        for (RedoWorker w : workers) {
+            if (w.failure != null)
+                throw new IOException("redo failed", w.failure);
+            pages.putAll(w.pages);
+            count += w.count;
+        }
+        return count;
+    }
+
+    /** Redo r unless its page already reflects it.
+        @return whether r was redone */
+    private boolean redoRecord(LogRecord r, Map<PageId, Page> pages,
+                               Map<PageId, Long> written) throws IOException {
+        Page p = pages.get(r.pid);
+        if (p != null && p.getLSN() >= r.lsn)
+            return false;
+        redo(r, pages, written);
+        pages.get(r.pid).setLSN(r.lsn);
+        return true;
+    }
+
+    static final int REDO_BATCH = 256;
+    private static final List<LogRecord> END_OF_REDO = Collections.emptyList();
+
+    /** A redo thread: applies the records of the pages whose ids hash to
+        it, in the order they are added, to pages of its own. */
+    private class RedoWorker extends Thread {
+        private final BlockingQueue<List<LogRecord>> batches = new ArrayBlockingQueue<>(16);
+        private final Map<PageId, Long> written;
+        private List<LogRecord> batch = new ArrayList<>(REDO_BATCH);
+        final Map<PageId, Page> pages = new HashMap<>();
+        int count;
+        Throwable failure;
+
+        RedoWorker(int i, Map<PageId, Long> written) {
+            super("LogFile-redo-" + i);
+            setDaemon(true);
+            this.written = written;
+        }
+
+        void add(LogRecord r) throws IOException {
+            batch.add(r);
+            if (batch.size() == REDO_BATCH) {
+                put(batch);
+                batch = new ArrayList<>(REDO_BATCH);
+            }
+        }
+
+        /** Wait until every record added has been applied. */
+        void finish() throws IOException {
+            if (!batch.isEmpty())
+                put(batch);
+            put(END_OF_REDO);
+            try {
+                join();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("interrupted during redo");
+            }
+        }
+
+        private void put(List<LogRecord> records) throws IOException {
+            try {
+                batches.put(records);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("interrupted during redo");
+            }
+        }
+
+        public void run() {
+            try {
+                List<LogRecord> records;
+                while ((records = batches.take()) != END_OF_REDO) {
+                    // after a failure, only drain the queue
+                    for (int i = 0; i < records.size() && failure == null; i++) {
+                        try {
+                            if (redoRecord(records.get(i), pages, written))
+                                count++;
+                        } catch (IOException | RuntimeException e) {
+                            failure = e;
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                failure = e;
+            }
+        }
+    }
+
+    /**
+     * Set the number of threads recovery redoes changes on; 1 redoes them
+     * on the recovering thread.  The default is the number of processors,
+     * or -Dsimpledb.storage.RedoThreads=n.
+     */
+    public void setRedoThreads(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("bad number of redo threads: " + threads);
+        redoThreads = threads;
+    }
+
+    /** @return the number of log records the last recovery redid */
+    public synchronized int getRedoCount() {
+        return redoCount;
+    }
+
     /** Print out a human readable represenation of the log */
     public void print() throws IOException {
-        long curOffset = raf.getFilePointer();
-
-        raf.seek(0);
+        long curOffset = segments.getFilePointer();
 
-        System.out.println("0: checkpoint record at offset " + raf.readLong());
+        control.seek(0);
+        System.out.println("checkpoint record at LSN " + control.readLong());
+        long first = control.readLong();
+        System.out.println("first needed record at LSN " + first);
+        segments.seek(first);
 
-        while (true) {
+        while (segments.getFilePointer() < currentOffset) {
             try {
-                int cpType = raf.readInt();
-                long cpTid = raf.readLong();
+                int cpType = segments.readInt();
+                long cpTid = segments.readLong();
+                long cpPrev = segments.readLong();
 
-                System.out.println((raf.getFilePointer() - (INT_SIZE + LONG_SIZE)) + ": RECORD TYPE " + cpType);
-                System.out.println((raf.getFilePointer() - LONG_SIZE) + ": TID " + cpTid);
+                System.out.println((segments.getFilePointer() - (INT_SIZE + 2 * LONG_SIZE)) + ": RECORD TYPE " + cpType);
+                System.out.println((segments.getFilePointer() - 2 * LONG_SIZE) + ": TID " + cpTid);
+                System.out.println((segments.getFilePointer() - LONG_SIZE) + ": PREVIOUS LSN " + cpPrev);
 
                 switch (cpType) {
                 case BEGIN_RECORD:
                     System.out.println(" (BEGIN)");
-                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                    System.out.println(segments.getFilePointer() + ": RECORD START OFFSET: " + segments.readLong());
                     break;
                 case ABORT_RECORD:
                     System.out.println(" (ABORT)");
-                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                    System.out.println(segments.getFilePointer() + ": RECORD START OFFSET: " + segments.readLong());
                     break;
                 case COMMIT_RECORD:
                     System.out.println(" (COMMIT)");
-                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                    System.out.println(segments.getFilePointer() + ": RECORD START OFFSET: " + segments.readLong());
                     break;
 
                 case CHECKPOINT_RECORD:
                     System.out.println(" (CHECKPOINT)");
-                    int numTransactions = raf.readInt();
-                    System.out.println((raf.getFilePointer() - INT_SIZE) + ": NUMBER OF OUTSTANDING RECORDS: " + numTransactions);
+                    int numTransactions = segments.readInt();
+                    System.out.println((segments.getFilePointer() - INT_SIZE) + ": NUMBER OF OUTSTANDING RECORDS: " + numTransactions);
 
                     while (numTransactions-- > 0) {
-                        long tid = raf.readLong();
-                        long firstRecord = raf.readLong();
-                        System.out.println((raf.getFilePointer() - (LONG_SIZE + LONG_SIZE)) + ": TID: " + tid);
-                        System.out.println((raf.getFilePointer() - LONG_SIZE) + ": FIRST LOG RECORD: " + firstRecord);
+                        long tid = segments.readLong();
+                        long firstRecord = segments.readLong();
+                        System.out.println((segments.getFilePointer() - (LONG_SIZE + LONG_SIZE)) + ": TID: " + tid);
+                        System.out.println((segments.getFilePointer() - LONG_SIZE) + ": FIRST LOG RECORD: " + firstRecord);
                     }
-                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                    int numDirty = segments.readInt();
+                    System.out.println((segments.getFilePointer() - INT_SIZE) + ": NUMBER OF DIRTY PAGES: " + numDirty);
+                    while (numDirty-- > 0) {
+                        long dirtyStart = segments.getFilePointer();
+                        PageId dirtyId = readPageId(segments);
+                        System.out.println(dirtyStart + ": table id " + dirtyId.getTableId() + " page number " + dirtyId.getPageNumber());
+                        System.out.println(segments.getFilePointer() + ": FIRST CHANGE LSN: " + segments.readLong());
+                    }
+                    System.out.println(segments.getFilePointer() + ": RECORD START OFFSET: " + segments.readLong());
 
+                    break;
+                case TUPLE_INSERT_RECORD:
+                case TUPLE_DELETE_RECORD:
+                    System.out.println(cpType == TUPLE_INSERT_RECORD ? " (TUPLE_INSERT)" : " (TUPLE_DELETE)");
+                    System.out.println(segments.getFilePointer() + ": TABLE ID " + segments.readInt());
+                    System.out.println(segments.getFilePointer() + ": PAGE NUMBER " + segments.readInt());
+                    System.out.println(segments.getFilePointer() + ": SLOT " + segments.readInt());
+                    int len = segments.readInt();
+                    System.out.println((segments.getFilePointer() - INT_SIZE) + ": TUPLE LENGTH " + len);
+                    segments.skipBytes(len);
+                    System.out.println(segments.getFilePointer() + ": RECORD START OFFSET: " + segments.readLong());
+                    break;
+                case CLR_RECORD:
+                    System.out.println(" (CLR)");
+                    System.out.println(segments.getFilePointer() + ": UNDO NEXT LSN " + segments.readLong());
+                    int undone = segments.readInt();
+                    System.out.println((segments.getFilePointer() - INT_SIZE) + ": UNDONE RECORD TYPE " + undone);
+                    if (undone == UPDATE_RECORD) {
+                        long imageStart = segments.getFilePointer();
+                        Page image = readPageData(segments);
+                        System.out.println(imageStart + " TO " + segments.getFilePointer() + ": before image of table id "
+                                + image.getId().getTableId() + " page number " + image.getId().getPageNumber());
+                    } else {
+                        System.out.println(segments.getFilePointer() + ": TABLE ID " + segments.readInt());
+                        System.out.println(segments.getFilePointer() + ": PAGE NUMBER " + segments.readInt());
+                        System.out.println(segments.getFilePointer() + ": SLOT " + segments.readInt());
+                        int tupleLen = segments.readInt();
+                        System.out.println((segments.getFilePointer() - INT_SIZE) + ": TUPLE LENGTH " + tupleLen);
+                        segments.skipBytes(tupleLen);
+                    }
+                    System.out.println(segments.getFilePointer() + ": RECORD START OFFSET: " + segments.readLong());
+                    break;
+                case PAGE_WRITTEN_RECORD:
+                    System.out.println(" (PAGE_WRITTEN)");
+                    long idStart = segments.getFilePointer();
+                    PageId pid = readPageId(segments);
+                    System.out.println(idStart + ": table id " + pid.getTableId() + " page number " + pid.getPageNumber());
+                    System.out.println(segments.getFilePointer() + ": PAGE LSN " + segments.readLong());
+                    System.out.println(segments.getFilePointer() + ": RECORD START OFFSET: " + segments.readLong());
                     break;
                 case UPDATE_RECORD:
                     System.out.println(" (UPDATE)");
 
-                    long start = raf.getFilePointer();
-                    Page before = readPageData(raf);
+                    long start = segments.getFilePointer();
+                    Page before = readPageData(segments);
 
-                    long middle = raf.getFilePointer();
-                    Page after = readPageData(raf);
+                    long middle = segments.getFilePointer();
+                    Page after = readPageData(segments);
 
-                    System.out.println(start + ": before image table id " + before.getId().getTableId());
-                    System.out.println((start + INT_SIZE) + ": before image page number " + before.getId().getPageNumber());
-                    System.out.println((start + INT_SIZE) + " TO " + (middle - INT_SIZE) + ": page data");
+                    // a tag byte, the table id, page number and data length
+                    System.out.println((start + 1) + ": before image table id " + before.getId().getTableId());
+                    System.out.println((start + 1 + INT_SIZE) + ": before image page number " + before.getId().getPageNumber());
+                    System.out.println((start + 1 + 3 * INT_SIZE) + " TO " + middle + ": page data");
 
-                    System.out.println(middle + ": after image table id " + after.getId().getTableId());
-                    System.out.println((middle + INT_SIZE) + ": after image page number " + after.getId().getPageNumber());
-                    System.out.println((middle + INT_SIZE) + " TO " + (raf.getFilePointer()) + ": page data");
+                    System.out.println((middle + 1) + ": after image table id " + after.getId().getTableId());
+                    System.out.println((middle + 1 + INT_SIZE) + ": after image page number " + after.getId().getPageNumber());
+                    System.out.println((middle + 1 + 3 * INT_SIZE) + " TO " + (segments.getFilePointer()) + ": page data");
 
-                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                    System.out.println(segments.getFilePointer() + ": RECORD START OFFSET: " + segments.readLong());
 
                     break;
                 }
@@ -564,11 +1471,13 @@ public class LogFile {
         }
 
         // Return the file pointer to its original position
-        raf.seek(curOffset);
+        segments.seek(curOffset);
     }
 
     public  synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+        segments.force();
+        forces++;
+        flusher.markDurable(currentOffset);
     }
 
 }
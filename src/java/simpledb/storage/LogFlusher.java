@@ -0,0 +1,222 @@
+package simpledb.storage;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LogFlusher forces the log to disk on behalf of committing transactions,
+ * so that commits that arrive together share a single force (group
+ * commit).
+ * <p>
+ * A committer appends its COMMIT record and then waits in
+ * {@link #awaitDurable} until the log is on disk up to the LSN just past
+ * that record.  The BufferPool waits here the same way for the log to
+ * reach disk before it writes a committing transaction's pages.  A
+ * background thread collects waiting committers into a batch: once the
+ * first of them arrives, it waits until maxBatch committers are waiting
+ * or maxDelay has passed, then forces the log once and wakes the whole
+ * batch.  Commits that arrive while a force is in progress make up the
+ * next batch, so even with no delay the number of forces grows much more
+ * slowly than the number of committing threads.  A wait before a page
+ * write counts towards the batch as a commit does.
+ * <p>
+ * The window is set with -Dsimpledb.storage.GroupCommitDelay=microseconds
+ * (default 0, no waiting) and -Dsimpledb.storage.GroupCommitBatch=n
+ * (default 64), or with {@link LogFile#setGroupCommit}.  The thread exits
+ * when it has been idle for a while and is restarted by the next commit.
+ * <p>
+ * An asynchronous commit does not wait at all: it registers with
+ * {@link #commitAsync} and the thread forces the log within maxLag of the
+ * first such commit that is not yet on disk, set with
+ * -Dsimpledb.storage.AsyncCommitLag=microseconds (default 10000) or with
+ * {@link LogFile#setAsyncCommitLag}.  A synchronous commit forces the
+ * asynchronous ones before it along with itself, since the log is forced
+ * in order.
+ *
+ * @Threadsafe
+ */
+public class LogFlusher {
+
+    public static final String DELAY_PROPERTY = "simpledb.storage.GroupCommitDelay";
+    public static final String BATCH_PROPERTY = "simpledb.storage.GroupCommitBatch";
+    public static final String LAG_PROPERTY = "simpledb.storage.AsyncCommitLag";
+    static final int DEFAULT_BATCH = 64;
+    static final long DEFAULT_LAG = 10_000;
+
+    static final long IDLE_MS = 1000;
+
+    private final LogFile log;
+    private final long maxDelayNanos;
+    private final int maxBatch;
+    private final long maxLagNanos;
+
+    // all protected by this
+    private long durable; // the LSN the log is on disk up to
+    private int pending;
+    private long firstPendingAt;
+    private int asyncPending;
+    private long firstAsyncAt;
+    private Thread thread;
+    private IOException failure;
+    private long failedUpTo;
+    private long forces;
+    private long commits;
+    private long asyncCommits;
+
+    LogFlusher(LogFile log, long maxDelayMicros, int maxBatch, long maxLagMicros) {
+        if (maxDelayMicros < 0 || maxBatch < 1)
+            throw new IllegalArgumentException("bad group commit window: " + maxDelayMicros + "us, " + maxBatch);
+        if (maxLagMicros < 0)
+            throw new IllegalArgumentException("bad async commit lag: " + maxLagMicros + "us");
+        this.log = log;
+        this.maxDelayNanos = TimeUnit.MICROSECONDS.toNanos(maxDelayMicros);
+        this.maxBatch = maxBatch;
+        this.maxLagNanos = TimeUnit.MICROSECONDS.toNanos(maxLagMicros);
+    }
+
+    /** @return the longest a commit waits for others to join its batch, in microseconds */
+    public long getMaxDelayMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(maxDelayNanos);
+    }
+
+    /** @return the largest number of commits forced together */
+    public int getMaxBatch() {
+        return maxBatch;
+    }
+
+    /** @return the longest an asynchronous commit may stay off disk, in microseconds */
+    public long getMaxLagMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(maxLagNanos);
+    }
+
+    /** @return the number of forces done for committers */
+    public synchronized long getForces() {
+        return forces;
+    }
+
+    /** @return the number of commits that waited for a force, not counting page writes */
+    public synchronized long getCommits() {
+        return commits;
+    }
+
+    /** @return the number of asynchronous commits */
+    public synchronized long getAsyncCommits() {
+        return asyncCommits;
+    }
+
+    /**
+     * Wait until the log is on disk up to lsn.
+     *
+     * @param commit true if a commit waits, for the statistics
+     * @throws IOException if the force covering lsn failed
+     */
+    void awaitDurable(long lsn, boolean commit) throws IOException {
+        synchronized (this) {
+            if (durable >= lsn)
+                return;
+            if (commit)
+                commits++;
+            if (pending++ == 0)
+                firstPendingAt = System.nanoTime();
+            startThread();
+            notifyAll();
+            boolean interrupted = false;
+            while (durable < lsn) {
+                if (failure != null && failedUpTo >= lsn)
+                    throw new IOException("log force failed", failure);
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    // the record is in the log; the commit cannot be called off
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * See that the log is on disk up to lsn within maxLag, without waiting
+     * for it.
+     */
+    synchronized void commitAsync(long lsn) {
+        asyncCommits++;
+        if (durable >= lsn)
+            return;
+        if (asyncPending++ == 0)
+            firstAsyncAt = System.nanoTime();
+        startThread();
+        notifyAll();
+    }
+
+    private void startThread() {
+        if (thread == null) {
+            thread = new Thread(this::run, "LogFile-flusher");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /** Note that the log was forced up to lsn by someone else. */
+    synchronized void markDurable(long lsn) {
+        if (lsn > durable) {
+            durable = lsn;
+            notifyAll();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            synchronized (this) {
+                try {
+                    long idleSince = System.currentTimeMillis();
+                    while (pending == 0 && asyncPending == 0) {
+                        long left = IDLE_MS - (System.currentTimeMillis() - idleSince);
+                        if (left <= 0) {
+                            thread = null;
+                            return;
+                        }
+                        wait(left);
+                    }
+                    // force when the batch is full, or the first waiting
+                    // commit has waited maxDelay, or the first asynchronous
+                    // one maxLag
+                    while (pending < maxBatch) {
+                        long now = System.nanoTime();
+                        long left = Long.MAX_VALUE;
+                        if (pending > 0)
+                            left = firstPendingAt + maxDelayNanos - now;
+                        if (asyncPending > 0)
+                            left = Math.min(left, firstAsyncAt + maxLagNanos - now);
+                        if (left <= 0)
+                            break;
+                        TimeUnit.NANOSECONDS.timedWait(this, left);
+                    }
+                } catch (InterruptedException e) {
+                    // only exits when idle
+                }
+                pending = 0;
+                asyncPending = 0;
+                forces++;
+            }
+            long lsn;
+            IOException error = null;
+            try {
+                lsn = log.forceCommits();
+            } catch (IOException e) {
+                error = e;
+                lsn = log.appendedLSN();
+            }
+            synchronized (this) {
+                if (error != null) {
+                    failure = error;
+                    failedUpTo = lsn;
+                } else if (lsn > durable) {
+                    durable = lsn;
+                }
+                notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,461 @@
+package simpledb.storage;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * LogSegments stores the bytes of the log in a series of fixed-size
+ * segment files, addressed by LSN: the byte at LSN n is at offset
+ * n % segmentSize of segment n / segmentSize.  Segment files are named
+ * after the log file with the segment number appended, e.g. log.0000000003.
+ * <p>
+ * Truncating the front of the log deletes whole segments, so it costs no
+ * copying however long the live part of the log is.  Segments are created
+ * at their full size by writing zeroes through, so that their blocks are
+ * allocated up front rather than left as holes, and the segment after the
+ * one being appended to is created ahead of time on the BufferPool's I/O
+ * threads, or when it is needed if that fails; so
+ * appends never grow a file or allocate blocks, and forcing the log only
+ * needs to write their data.
+ * <p>
+ * Like a RandomAccessFile, LogSegments has a position that reads and
+ * writes start at and advance; records may span segments.  Bytes of a
+ * segment that were never written read as zero.  Reads are served from
+ * a read-ahead buffer, so scanning the log costs a system call per
+ * READ_BUFFER bytes rather than per field.
+ * <p>
+ * Writes go to a direct write buffer, reused for the life of the log, and
+ * reach the segment files through their FileChannels when it fills, when
+ * the log is forced or read, and when a write does not follow on from the
+ * last one.  So appending a record costs no system call and allocates
+ * nothing; until the log is forced, buffered bytes are lost by a crash
+ * just as bytes in the OS cache are.
+ *
+ * @see LogFile
+ */
+class LogSegments {
+
+    public static final String SIZE_PROPERTY = "simpledb.storage.LogSegmentSize";
+    static final long DEFAULT_SIZE = 16L << 20;
+    static final int READ_BUFFER = 64 << 10;
+    static final int WRITE_BUFFER = 256 << 10;
+    static final int ZERO_CHUNK = 1 << 20;
+
+    /** Zeroes written to allocate segments; only ever read, through duplicates. */
+    private static final ByteBuffer ZEROES = ByteBuffer.allocateDirect(ZERO_CHUNK);
+
+    private static final class Segment {
+        final long number;
+        final File file;
+        final RandomAccessFile raf;
+        long writes; // number of writes to the segment
+        long forced; // number of those known to be on disk
+
+        Segment(long number, File file) throws IOException {
+            this.number = number;
+            this.file = file;
+            this.raf = new RandomAccessFile(file, "rw");
+        }
+    }
+
+    private final File dir;
+    private final String prefix;
+    private final long segmentSize;
+    /** The segment index: open segments by number. */
+    private final TreeMap<Long, Segment> index = new TreeMap<>();
+    /** Segments written since they were last forced. */
+    private final Set<Segment> unforced = new HashSet<>();
+    private long pos;
+    private long preallocating = -1;
+    private CompletableFuture<Void> preallocation = CompletableFuture.completedFuture(null);
+    private final byte[] scratch = new byte[8];
+    /** Buffered writes: the bytes from LSN writeStart on, up to the
+        buffer's position. */
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER);
+    private long writeStart;
+    /** Read-ahead: the bytes from LSN bufferStart on, bufferLength of them. */
+    private final byte[] readBuffer = new byte[READ_BUFFER];
+    private long bufferStart;
+    private int bufferLength;
+
+    /**
+     * Open the segments of the log in logFile's directory.
+     */
+    LogSegments(File logFile, long segmentSize) throws IOException {
+        if (segmentSize < 1024)
+            throw new IllegalArgumentException("log segments must be at least 1KB: " + segmentSize);
+        File abs = logFile.getAbsoluteFile();
+        this.dir = abs.getParentFile();
+        this.prefix = abs.getName() + ".";
+        this.segmentSize = segmentSize;
+        File[] files = dir.listFiles((d, name) -> name.startsWith(prefix)
+                && name.length() == prefix.length() + 10
+                && name.substring(prefix.length()).chars().allMatch(Character::isDigit));
+        if (files != null) {
+            for (File f : files) {
+                long number = Long.parseLong(f.getName().substring(prefix.length()));
+                index.put(number, new Segment(number, f));
+            }
+        }
+    }
+
+    /** @return the size of each segment in bytes */
+    long getSegmentSize() {
+        return segmentSize;
+    }
+
+    /** @return the number of segment files */
+    int getSegmentCount() {
+        return index.size();
+    }
+
+    long getFilePointer() {
+        return pos;
+    }
+
+    void seek(long lsn) {
+        pos = lsn;
+    }
+
+    void write(byte[] b) throws IOException {
+        write(b, 0, b.length);
+    }
+
+    void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            reserve(1);
+            int n = Math.min(len, writeBuffer.remaining());
+            writeBuffer.put(b, off, n);
+            pos += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    void writeByte(int v) throws IOException {
+        reserve(1);
+        writeBuffer.put((byte) v);
+        pos++;
+    }
+
+    void writeInt(int v) throws IOException {
+        reserve(4);
+        writeBuffer.putInt(v);
+        pos += 4;
+    }
+
+    void writeLong(long v) throws IOException {
+        reserve(8);
+        writeBuffer.putLong(v);
+        pos += 8;
+    }
+
+    // make room in the write buffer for n bytes at pos
+    private void reserve(int n) throws IOException {
+        bufferLength = 0;
+        if (writeBuffer.position() > 0
+                && (pos != writeStart + writeBuffer.position() || writeBuffer.remaining() < n))
+            flushWrites();
+        if (writeBuffer.position() == 0)
+            writeStart = pos;
+    }
+
+    /** Write out the write buffer, to the segments it covers. */
+    private void flushWrites() throws IOException {
+        int end = writeBuffer.position();
+        writeBuffer.flip();
+        while (writeBuffer.position() < end) {
+            long lsn = writeStart + writeBuffer.position();
+            Segment seg = segmentForWrite(lsn / segmentSize);
+            int n = (int) Math.min(end - writeBuffer.position(), segmentSize - lsn % segmentSize);
+            writeBuffer.limit(writeBuffer.position() + n);
+            FileChannel ch = seg.raf.getChannel();
+            while (writeBuffer.hasRemaining())
+                ch.write(writeBuffer, writeStart + writeBuffer.position() - seg.number * segmentSize);
+            writeBuffer.limit(end);
+            seg.writes++;
+            unforced.add(seg);
+        }
+        writeBuffer.clear();
+    }
+
+    /**
+     * @throws EOFException if the bytes run past the last segment
+     */
+    void readFully(byte[] b) throws IOException {
+        readFully(b, 0, b.length);
+    }
+
+    private void readFully(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (pos < bufferStart || pos >= bufferStart + bufferLength)
+                fill();
+            int from = (int) (pos - bufferStart);
+            int n = Math.min(len, bufferLength - from);
+            System.arraycopy(readBuffer, from, b, off, n);
+            pos += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    // read ahead from pos, up to the end of its segment
+    private void fill() throws IOException {
+        if (writeBuffer.position() > 0)
+            flushWrites();
+        Segment seg = index.get(pos / segmentSize);
+        if (seg == null)
+            throw new EOFException();
+        int n = (int) Math.min(readBuffer.length, segmentSize - pos % segmentSize);
+        seg.raf.seek(pos % segmentSize);
+        int got = seg.raf.read(readBuffer, 0, n);
+        if (got <= 0)
+            throw new EOFException();
+        bufferStart = pos;
+        bufferLength = got;
+    }
+
+    int readInt() throws IOException {
+        readFully(scratch, 0, 4);
+        int v = 0;
+        for (int i = 0; i < 4; i++)
+            v = (v << 8) | (scratch[i] & 0xff);
+        return v;
+    }
+
+    long readLong() throws IOException {
+        readFully(scratch, 0, 8);
+        long v = 0;
+        for (int i = 0; i < 8; i++)
+            v = (v << 8) | (scratch[i] & 0xff);
+        return v;
+    }
+
+    int readByte() throws IOException {
+        readFully(scratch, 0, 1);
+        return scratch[0] & 0xff;
+    }
+
+    void skipBytes(int n) {
+        pos += n;
+    }
+
+    /** Force the segments written since the last force to disk. */
+    void force() throws IOException {
+        Force f = startForce();
+        f.run();
+        forced(f);
+    }
+
+    /**
+     * A force of the segments written before it started, which may run
+     * without the lock that protects the LogSegments: the caller starts it
+     * with {@link #startForce}, runs it and then passes it to
+     * {@link #forced}, both under the lock.
+     */
+    static final class Force {
+        private final List<Segment> segments = new ArrayList<>();
+        private final List<Long> writes = new ArrayList<>();
+
+        void run() throws IOException {
+            for (Segment seg : segments) {
+                try {
+                    seg.raf.getChannel().force(false);
+                } catch (ClosedChannelException e) {
+                    // deleted meanwhile, so no longer needed
+                }
+            }
+        }
+    }
+
+    /** @return a force of the segments written since the last one */
+    Force startForce() throws IOException {
+        if (writeBuffer.position() > 0)
+            flushWrites();
+        Force f = new Force();
+        for (Segment seg : unforced) {
+            f.segments.add(seg);
+            f.writes.add(seg.writes);
+        }
+        return f;
+    }
+
+    /** Note that f has run.  Writes made while it ran are still unforced. */
+    void forced(Force f) {
+        for (int i = 0; i < f.segments.size(); i++) {
+            Segment seg = f.segments.get(i);
+            seg.forced = Math.max(seg.forced, f.writes.get(i));
+            if (seg.forced == seg.writes)
+                unforced.remove(seg);
+        }
+    }
+
+    /**
+     * Delete the segments that hold only bytes before lsn.
+     */
+    void deleteBefore(long lsn) throws IOException {
+        if (writeBuffer.position() > 0)
+            flushWrites();
+        bufferLength = 0;
+        long first = lsn / segmentSize;
+        Iterator<Map.Entry<Long, Segment>> it = index.headMap(first).entrySet().iterator();
+        while (it.hasNext()) {
+            delete(it.next().getValue());
+            it.remove();
+        }
+    }
+
+    /**
+     * Discard everything from lsn on: zero the rest of its segment and
+     * delete the segments after it.
+     */
+    void truncate(long lsn) throws IOException {
+        if (writeBuffer.position() > 0)
+            flushWrites();
+        awaitPreallocation();
+        bufferLength = 0;
+        Segment seg = index.get(lsn / segmentSize);
+        if (seg != null) {
+            FileChannel ch = seg.raf.getChannel();
+            writeZeroes(ch, lsn % segmentSize, segmentSize);
+            ch.force(true);
+        }
+        Iterator<Map.Entry<Long, Segment>> it = index.tailMap(lsn / segmentSize, false).entrySet().iterator();
+        while (it.hasNext()) {
+            delete(it.next().getValue());
+            it.remove();
+        }
+    }
+
+    /** Delete every segment. */
+    void clear() throws IOException {
+        awaitPreallocation();
+        writeBuffer.clear();
+        bufferLength = 0;
+        for (Segment seg : index.values())
+            delete(seg);
+        index.clear();
+        unforced.clear();
+    }
+
+    void close() throws IOException {
+        if (writeBuffer.position() > 0)
+            flushWrites();
+        awaitPreallocation();
+        bufferLength = 0;
+        for (Segment seg : index.values())
+            seg.raf.close();
+        index.clear();
+        unforced.clear();
+    }
+
+    private void delete(Segment seg) throws IOException {
+        unforced.remove(seg);
+        seg.raf.close();
+        seg.file.delete();
+    }
+
+    private File fileOf(long number) {
+        return new File(dir, prefix + String.format("%010d", number));
+    }
+
+    /** @return segment number, creating it if need be, and make sure the
+        next one is on its way */
+    private Segment segmentForWrite(long number) throws IOException {
+        Segment seg = index.get(number);
+        if (seg == null) {
+            if (preallocating != number || !awaitPreallocation())
+                create(fileOf(number), segmentSize);
+            seg = new Segment(number, fileOf(number));
+            index.put(number, seg);
+        }
+        if (preallocating < number + 1 && !index.containsKey(number + 1)) {
+            awaitPreallocation();
+            preallocating = number + 1;
+            File next = fileOf(number + 1);
+            preallocation = CompletableFuture.runAsync(() -> {
+                try {
+                    create(next, segmentSize);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, BufferPool.ioExecutor());
+        }
+        return seg;
+    }
+
+    /**
+     * Wait for the background preallocation, if one is running.
+     *
+     * @return false if it failed; the segment is then created in the
+     *         foreground when it is first written, which reports the
+     *         error if it persists
+     */
+    private boolean awaitPreallocation() throws IOException {
+        try {
+            preallocation.get();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while preallocating a log segment");
+        } catch (ExecutionException e) {
+            preallocating = -1;
+            preallocation = CompletableFuture.completedFuture(null);
+            return false;
+        }
+    }
+
+    /** Create an empty segment file of the given size, with all of its
+        blocks allocated, durably, directory entry included. */
+    private static void create(File f, long size) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            FileChannel ch = raf.getChannel();
+            ch.truncate(0);
+            writeZeroes(ch, 0, size);
+            ch.force(true);
+        }
+        forceDirectory(f.getAbsoluteFile().getParentFile());
+    }
+
+    /** Force the entries of dir to disk. */
+    private static void forceDirectory(File dir) throws IOException {
+        FileChannel ch;
+        try {
+            ch = FileChannel.open(dir.toPath(), StandardOpenOption.READ);
+        } catch (IOException e) {
+            // some platforms cannot open a directory; their file systems
+            // make the entry durable along with the file
+            return;
+        }
+        try (FileChannel c = ch) {
+            c.force(true);
+        }
+    }
+
+    /** Overwrite the bytes of ch from from to to with zeroes. */
+    private static void writeZeroes(FileChannel ch, long from, long to) throws IOException {
+        ByteBuffer zeroes = ZEROES.duplicate();
+        while (from < to) {
+            zeroes.clear();
+            zeroes.limit((int) Math.min(zeroes.capacity(), to - from));
+            while (zeroes.hasRemaining())
+                from += ch.write(zeroes, from);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package simpledb.storage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * LRU-K replacement (O'Neil, O'Neil and Weikum, 1993).
+ * <p>
+ * Every page remembers the logical times of its last K references.  The
+ * victim is the evictable page whose K-th most recent reference is oldest;
+ * pages referenced fewer than K times have an infinite backward K-distance
+ * and go first, least recently used first.  A sequential scan touches each
+ * page once, so its pages are evicted before any page that has been hit
+ * repeatedly, such as B+ tree internal pages.
+ * <p>
+ * Back-to-back references to the same page (e.g. an operator fetching a page
+ * and then fetching it again to modify it) are correlated and count as one.
+ * The history of evicted pages is retained for up to numPages pages, so a
+ * page that comes back shortly after eviction keeps its reference history.
+ */
+public class LruKEvictionPolicy implements EvictionPolicy {
+
+    public static final int DEFAULT_K = 2;
+
+    private final int k;
+    private final int retainedHistories;
+    private final Map<PageId, History> resident = new HashMap<>();
+    private final LinkedHashMap<PageId, History> retained;
+
+    private long clock = 0;
+    private PageId lastReferenced = null;
+
+    /** Reference history of a single page: the last k reference times. */
+    private static class History {
+        final long[] times;
+        int count = 0;
+
+        History(int k) {
+            times = new long[k];
+        }
+
+        void reference(long time) {
+            times[count % times.length] = time;
+            count++;
+        }
+
+        void replaceLast(long time) {
+            times[(count - 1) % times.length] = time;
+        }
+
+        long last() {
+            return times[(count - 1) % times.length];
+        }
+
+        /** @return the time of the k-th most recent reference, or Long.MIN_VALUE if there are fewer than k */
+        long kth() {
+            if (count < times.length)
+                return Long.MIN_VALUE;
+            return times[count % times.length];
+        }
+    }
+
+    /**
+     * Creates an LRU-K policy.
+     *
+     * @param numPages the capacity of the buffer pool
+     * @param k the number of references remembered per page
+     */
+    public LruKEvictionPolicy(int numPages, int k) {
+        if (k < 1)
+            throw new IllegalArgumentException("k must be positive");
+        this.k = k;
+        this.retainedHistories = numPages;
+        this.retained = new LinkedHashMap<PageId, History>(16, 0.75f, false) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PageId, History> eldest) {
+                return size() > retainedHistories;
+            }
+        };
+    }
+
+    public void pageAdded(PageId pid) {
+        History h = retained.remove(pid);
+        if (h == null)
+            h = new History(k);
+        resident.put(pid, h);
+        reference(pid, h);
+    }
+
+    public void pageAccessed(PageId pid) {
+        History h = resident.get(pid);
+        if (h != null)
+            reference(pid, h);
+    }
+
+    public void pageRemoved(PageId pid) {
+        resident.remove(pid);
+        if (pid.equals(lastReferenced))
+            lastReferenced = null;
+    }
+
+    public PageId evict(Predicate<PageId> evictable) {
+        PageId victim = null;
+        History victimHistory = null;
+        for (Map.Entry<PageId, History> e : resident.entrySet()) {
+            History h = e.getValue();
+            if (victimHistory != null && !olderThan(h, victimHistory))
+                continue;
+            if (!evictable.test(e.getKey()))
+                continue;
+            victim = e.getKey();
+            victimHistory = h;
+        }
+        if (victim != null) {
+            resident.remove(victim);
+            retained.put(victim, victimHistory);
+            if (victim.equals(lastReferenced))
+                lastReferenced = null;
+        }
+        return victim;
+    }
+
+    public List<PageId> residentByHotness() {
+        List<PageId> pids = new ArrayList<>(resident.keySet());
+        pids.sort((a, b) -> {
+            History ha = resident.get(a), hb = resident.get(b);
+            return olderThan(ha, hb) ? 1 : olderThan(hb, ha) ? -1 : 0;
+        });
+        return pids;
+    }
+
+    private void reference(PageId pid, History h) {
+        clock++;
+        if (pid.equals(lastReferenced) && h.count > 0) {
+            // correlated reference: just move the last one forward
+            h.replaceLast(clock);
+        } else {
+            h.reference(clock);
+        }
+        lastReferenced = pid;
+    }
+
+    /** @return true if a has a larger backward k-distance than b, breaking ties by least recent use */
+    private static boolean olderThan(History a, History b) {
+        long ka = a.kth(), kb = b.kth();
+        if (ka != kb)
+            return ka < kb;
+        return a.last() < b.last();
+    }
+}
@@ -0,0 +1,111 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * MappedFile gives read access to a table file through read-only memory
+ * mappings, so that reading a page is a copy out of the OS page cache
+ * instead of a read() system call, and pages that fall out of the buffer
+ * pool are likely still cached by the OS.
+ * <p>
+ * The file is mapped in fixed-size segments.  A segment is mapped the
+ * first time it is read; the last segment of the file is remapped when a
+ * read goes past its end, which is how the mapping follows a file that
+ * grows through writePage.  Pages are written with ordinary file writes,
+ * which on the platforms we run on are visible through shared mappings of
+ * the same file.
+ * <p>
+ * Whether a table file is read through a MappedFile is decided per file
+ * (see HeapFile and BTreeFile); the default comes from the
+ * simpledb.storage.MemoryMapped system property.
+ *
+ * @Threadsafe
+ */
+public class MappedFile {
+
+    /** Whether new table files read through memory mappings by default. */
+    public static final boolean DEFAULT_ENABLED =
+            Boolean.parseBoolean(System.getProperty("simpledb.storage.MemoryMapped"));
+
+    static final int SEGMENT_BYTES = 64 << 20;
+
+    private final File f;
+    private final int segmentSize;
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+    /**
+     * @param f the file to map
+     * @param pageSize the page size of the file; segments are a multiple of it
+     */
+    public MappedFile(File f, int pageSize) {
+        this.f = f;
+        this.segmentSize = Math.max(1, SEGMENT_BYTES / pageSize) * pageSize;
+    }
+
+    /**
+     * Return a read-only view of length bytes of the file starting at
+     * offset.  The view shares memory with the mapping unless the range
+     * crosses a segment boundary, in which case the bytes are copied.
+     *
+     * @throws IllegalArgumentException if the range extends past the end of the file
+     */
+    public ByteBuffer region(long offset, int length) throws IOException {
+        int k = (int) (offset / segmentSize);
+        int within = (int) (offset % segmentSize);
+        if (within + length <= segmentSize) {
+            MappedByteBuffer seg = segment(k, within + length);
+            ByteBuffer view = seg.duplicate();
+            view.limit(within + length);
+            view.position(within);
+            return view.slice().asReadOnlyBuffer();
+        }
+        // the range straddles two segments
+        ByteBuffer copy = ByteBuffer.allocate(length);
+        int first = segmentSize - within;
+        copy.put(region(offset, first));
+        copy.put(region(offset + first, length - first));
+        copy.flip();
+        return copy.asReadOnlyBuffer();
+    }
+
+    /**
+     * Copy length bytes of the file starting at offset into a new array.
+     *
+     * @throws IllegalArgumentException if the range extends past the end of the file
+     */
+    public byte[] read(long offset, int length) throws IOException {
+        byte[] data = new byte[length];
+        region(offset, length).get(data);
+        return data;
+    }
+
+    /** Return segment k, mapped at least up to minLength bytes. */
+    private MappedByteBuffer segment(int k, int minLength) throws IOException {
+        MappedByteBuffer[] segs = segments;
+        if (k < segs.length && segs[k] != null && segs[k].capacity() >= minLength)
+            return segs[k];
+        synchronized (this) {
+            segs = segments;
+            if (k < segs.length && segs[k] != null && segs[k].capacity() >= minLength)
+                return segs[k];
+            MappedByteBuffer seg;
+            try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+                long start = (long) k * segmentSize;
+                long len = Math.min(segmentSize, ch.size() - start);
+                if (len < minLength)
+                    throw new IllegalArgumentException("Read past end of " + f);
+                seg = ch.map(FileChannel.MapMode.READ_ONLY, start, len);
+            }
+            MappedByteBuffer[] grown = Arrays.copyOf(segs, Math.max(segs.length, k + 1));
+            grown[k] = seg;
+            segments = grown;
+            return seg;
+        }
+    }
+}
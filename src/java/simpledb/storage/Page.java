@@ -58,4 +58,28 @@ public interface Page {
      * copy current content to the before image.
      */
     void setBeforeImage();
+
+    /**
+     * Return the LSN of the last log record describing a change to this
+     * page, or 0 if that is not known.  Recovery does not redo records
+     * the page already reflects.
+     */
+    default long getLSN() {
+        return 0;
+    }
+
+    /**
+     * Set the LSN of the last log record describing a change to this page.
+     */
+    default void setLSN(long lsn) {
+    }
+
+    /**
+     * Give back the memory the page keeps outside the Java heap.  Called
+     * by the BufferPool when it evicts or discards the page.  A transaction
+     * may still hold the page, so it stays usable, only no longer off heap;
+     * tuples it handed out keep their values.
+     */
+    default void release() {
+    }
 }
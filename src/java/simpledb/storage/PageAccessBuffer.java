@@ -0,0 +1,78 @@
+package simpledb.storage;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * PageAccessBuffer records buffer pool hits without taking a lock, so that
+ * they can be replayed into the (single-threaded) eviction policy later.
+ * <p>
+ * Hits are appended to one of several fixed-size ring buffers, picked by
+ * the calling thread, with a single compare-and-set.  The buffer is lossy:
+ * when a ring is full the hit is dropped and the caller is told, so it can
+ * try to drain.  Losing a few hits only makes the eviction policy slightly
+ * less precise, whereas blocking would put every reader back on one lock.
+ *
+ * @Threadsafe record() may be called concurrently; drainTo() must be
+ * serialized by the caller.
+ */
+class PageAccessBuffer {
+
+    private static final int STRIPES = 16;
+    private static final int RING_SIZE = 64;
+    private static final int RING_MASK = RING_SIZE - 1;
+
+    private static class Ring {
+        final AtomicReferenceArray<PageId> slots = new AtomicReferenceArray<>(RING_SIZE);
+        final AtomicLong head = new AtomicLong();
+        volatile long tail = 0;
+    }
+
+    private final Ring[] rings = new Ring[STRIPES];
+
+    PageAccessBuffer() {
+        for (int i = 0; i < rings.length; i++) {
+            rings[i] = new Ring();
+        }
+    }
+
+    /**
+     * Record a hit on pid.
+     *
+     * @return false if the hit was dropped because the ring was full
+     */
+    boolean record(PageId pid) {
+        Ring ring = rings[(int) (Thread.currentThread().getId() & (STRIPES - 1))];
+        long h = ring.head.get();
+        if (h - ring.tail >= RING_SIZE) {
+            return false;
+        }
+        if (!ring.head.compareAndSet(h, h + 1)) {
+            // another thread on this stripe got the slot; dropping is fine
+            return true;
+        }
+        ring.slots.lazySet((int) (h & RING_MASK), pid);
+        return true;
+    }
+
+    /** Hand every recorded hit to consumer, oldest first within a ring. */
+    void drainTo(Consumer<PageId> consumer) {
+        for (Ring ring : rings) {
+            long t = ring.tail;
+            long h = ring.head.get();
+            while (t < h) {
+                int idx = (int) (t & RING_MASK);
+                PageId pid = ring.slots.get(idx);
+                if (pid == null) {
+                    // the writer has claimed the slot but not published yet
+                    break;
+                }
+                ring.slots.lazySet(idx, null);
+                consumer.accept(pid);
+                t++;
+            }
+            ring.tail = t;
+        }
+    }
+}
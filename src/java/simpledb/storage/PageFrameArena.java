@@ -0,0 +1,220 @@
+package simpledb.storage;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * PageFrameArena keeps page-sized frames of bytes outside the Java heap, so
+ * that a large buffer pool does not hand the garbage collector hundreds of
+ * thousands of page-sized arrays to trace and copy.
+ * <p>
+ * Frames are carved out of direct ByteBuffers allocated a chunk at a time
+ * and are never freed, only recycled.  Frames are reference counted: a
+ * frame is acquired with one reference on behalf of an owner, usually a
+ * page, further holders (such as the tuple views of a page) {@link
+ * Frame#retain} it, and it goes back on the free list when the last
+ * holder calls {@link Frame#release}.  The BufferPool releases a page's
+ * frames when it evicts or discards the page, so frames are recycled as
+ * pages leave the pool rather than when the collector gets around to it.
+ * <p>
+ * If an owner becomes unreachable while its frame still has references
+ * (an image nobody released, say), a PhantomReference gives the frame back
+ * after the collector finds it; {@link #getLeaked} counts those frames.
+ * This is only a backstop: the arena never asks for a collection, and it
+ * grows, or fails with OutOfMemoryError, if no frame has been released.
+ * <p>
+ * There is one arena per page size; see {@link #get}.
+ *
+ * @Threadsafe
+ */
+public class PageFrameArena {
+
+    /** Frames allocated at once when the free list runs dry. */
+    static final int FRAMES_PER_CHUNK = 256;
+
+    private static final ConcurrentHashMap<Integer, PageFrameArena> ARENAS = new ConcurrentHashMap<>();
+
+    /**
+     * A page-sized region of an arena.  The buffer's position and limit
+     * are never changed by the arena; users should read and write it with
+     * absolute gets and puts or through duplicates.
+     */
+    public static final class Frame {
+        private final PageFrameArena arena;
+        private final int index;
+        private final ByteBuffer buf;
+        /** References held, 0 while the frame is free. */
+        private final AtomicInteger refs = new AtomicInteger();
+        /** The backstop for the owner, guarded by the arena. */
+        private FrameRef ref;
+
+        private Frame(PageFrameArena arena, int index, ByteBuffer buf) {
+            this.arena = arena;
+            this.index = index;
+            this.buf = buf;
+        }
+
+        /** @return the bytes of the frame, positioned at 0 with limit at the page size */
+        public ByteBuffer buffer() {
+            return buf;
+        }
+
+        /**
+         * Take another reference to the frame, which must still be held.
+         *
+         * @throws IllegalStateException if the frame was released
+         */
+        public void retain() {
+            int n;
+            do {
+                n = refs.get();
+                if (n == 0)
+                    throw new IllegalStateException("frame " + index + " was released");
+            } while (!refs.compareAndSet(n, n + 1));
+        }
+
+        /**
+         * Drop a reference to the frame, giving it back to the arena when
+         * it was the last one.  The frame must not be used afterwards by
+         * the caller.
+         *
+         * @throws IllegalStateException if the frame was already released
+         */
+        public void release() {
+            int n;
+            do {
+                n = refs.get();
+                if (n == 0)
+                    throw new IllegalStateException("frame " + index + " was already released");
+            } while (!refs.compareAndSet(n, n - 1));
+            if (n == 1)
+                arena.recycle(this);
+        }
+
+        /** Copy the contents of this frame to dst, which must be as large. */
+        public void copyTo(Frame dst) {
+            dst.buf.duplicate().put(buf.duplicate());
+        }
+
+        /** Overwrite the start of the frame with data and zero the rest. */
+        public void fill(byte[] data) {
+            ByteBuffer b = buf.duplicate();
+            b.put(data, 0, Math.min(data.length, b.capacity()));
+            while (b.hasRemaining())
+                b.put((byte) 0);
+        }
+
+        /** @return a copy of the frame's bytes */
+        public byte[] toArray() {
+            byte[] data = new byte[buf.capacity()];
+            buf.duplicate().get(data);
+            return data;
+        }
+    }
+
+    /** Returns a frame to the free list if its owner is collected first. */
+    private static final class FrameRef extends PhantomReference<Object> {
+        final Frame frame;
+
+        FrameRef(Object owner, Frame frame, ReferenceQueue<Object> queue) {
+            super(owner, queue);
+            this.frame = frame;
+        }
+    }
+
+    private final int frameSize;
+    private final List<Frame> frames = new ArrayList<>();
+    private int[] free = new int[0];
+    private int numFree = 0;
+    private final ReferenceQueue<Object> collected = new ReferenceQueue<>();
+    /** Keeps the references themselves reachable until they are enqueued. */
+    private final Set<FrameRef> owned = new HashSet<>();
+    private long leaked;
+
+    private PageFrameArena(int frameSize) {
+        this.frameSize = frameSize;
+    }
+
+    /** @return the arena for frames of the current page size */
+    public static PageFrameArena get() {
+        return ARENAS.computeIfAbsent(BufferPool.getPageSize(), PageFrameArena::new);
+    }
+
+    /**
+     * Take a frame for owner, holding one reference.  The contents of the
+     * frame are undefined.
+     */
+    public synchronized Frame acquire(Object owner) {
+        reclaim();
+        if (numFree == 0)
+            grow();
+        Frame f = frames.get(free[--numFree]);
+        f.refs.set(1);
+        f.ref = new FrameRef(owner, f, collected);
+        owned.add(f.ref);
+        return f;
+    }
+
+    /** @return the number of frames the arena has allocated */
+    public synchronized int getCapacity() {
+        return frames.size();
+    }
+
+    /** @return the number of frames held, as far as the arena knows */
+    public synchronized int getInUse() {
+        reclaim();
+        return frames.size() - numFree;
+    }
+
+    /**
+     * @return the number of frames given back because their owner was
+     *         collected before the frame was released
+     */
+    public synchronized long getLeaked() {
+        reclaim();
+        return leaked;
+    }
+
+    /** Put a frame whose last reference was released back on the free list. */
+    private synchronized void recycle(Frame f) {
+        FrameRef ref = f.ref;
+        f.ref = null;
+        // a cleared reference is never enqueued
+        ref.clear();
+        owned.remove(ref);
+        free[numFree++] = f.index;
+    }
+
+    private void reclaim() {
+        FrameRef ref;
+        while ((ref = (FrameRef) collected.poll()) != null) {
+            if (!owned.remove(ref))
+                continue;
+            Frame f = ref.frame;
+            f.ref = null;
+            f.refs.set(0);
+            free[numFree++] = f.index;
+            leaked++;
+        }
+    }
+
+    private void grow() {
+        ByteBuffer chunk = ByteBuffer.allocateDirect(frameSize * FRAMES_PER_CHUNK);
+        int base = frames.size();
+        free = Arrays.copyOf(free, base + FRAMES_PER_CHUNK);
+        for (int i = 0; i < FRAMES_PER_CHUNK; i++) {
+            chunk.limit((i + 1) * frameSize);
+            chunk.position(i * frameSize);
+            frames.add(new Frame(this, base + i, chunk.slice()));
+            free[numFree++] = base + FRAMES_PER_CHUNK - 1 - i;
+        }
+    }
+}
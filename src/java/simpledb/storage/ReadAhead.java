@@ -0,0 +1,120 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.IntFunction;
+
+/**
+ * ReadAhead watches the page numbers a file iterator fetches and, once it
+ * sees a sequential run, asks the BufferPool to prefetch the pages ahead of
+ * the iterator on the background I/O executor.
+ * <p>
+ * The prefetch window starts small and doubles whenever the iterator
+ * catches up with a prefetch that has not completed yet, i.e. when the scan
+ * consumes pages faster than they are read.  It is capped at a quarter of
+ * the buffer pool so that read-ahead for one scan cannot flush the rest of
+ * the pool.  A non-sequential fetch resets the window.
+ * <p>
+ * Read-ahead can be turned off with -Dsimpledb.storage.ReadAhead=false.
+ *
+ * @see BufferPool#prefetchPage
+ */
+public class ReadAhead {
+
+    public static final boolean ENABLED =
+            !"false".equalsIgnoreCase(System.getProperty("simpledb.storage.ReadAhead"));
+
+    /** Number of consecutive pages that makes an access pattern sequential. */
+    public static final int SEQUENTIAL_THRESHOLD = 2;
+    public static final int MIN_WINDOW = 2;
+
+    private final BufferPool pool;
+    private final IntFunction<PageId> pageIds;
+    private final int numPages;
+    private final int maxWindow;
+
+    private int lastPage = -2;
+    private int run = 0;
+    private int window = MIN_WINDOW;
+    /** Highest page number prefetched so far. */
+    private int frontier = -1;
+    /** Outstanding prefetches, in page number order. */
+    private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+
+    private static class Pending {
+        final int pgNo;
+        final CompletableFuture<?> done;
+
+        Pending(int pgNo, CompletableFuture<?> done) {
+            this.pgNo = pgNo;
+            this.done = done;
+        }
+    }
+
+    /**
+     * @param pageIds maps a page number of the file to its PageId
+     * @param numPages the number of pages in the file
+     */
+    public ReadAhead(IntFunction<PageId> pageIds, int numPages) {
+        this.pool = Database.getBufferPool();
+        this.pageIds = pageIds;
+        this.numPages = numPages;
+        this.maxWindow = Math.max(MIN_WINDOW, pool.getCapacity() / 4);
+    }
+
+    /** @return the current prefetch window, in pages */
+    public int getWindow() {
+        return window;
+    }
+
+    /**
+     * Tell read-ahead that the iterator is about to fetch page pgNo.  Call
+     * this before BufferPool.getPage, so that prefetches for the following
+     * pages are issued before the iterator blocks on this one.
+     */
+    public void pageAccessed(int pgNo) {
+        if (!ENABLED)
+            return;
+
+        if (pgNo == lastPage + 1) {
+            run++;
+        } else {
+            run = 0;
+            window = MIN_WINDOW;
+            frontier = pgNo;
+            pending.clear();
+        }
+        lastPage = pgNo;
+
+        while (!pending.isEmpty() && pending.peekFirst().pgNo <= pgNo) {
+            Pending p = pending.pollFirst();
+            if (p.pgNo == pgNo && !p.done.isDone()) {
+                // the scan caught up with the I/O: read further ahead
+                window = Math.min(window * 2, maxWindow);
+            }
+        }
+
+        if (run + 1 < SEQUENTIAL_THRESHOLD)
+            return;
+        frontier = Math.max(frontier, pgNo);
+        int target = Math.min(pgNo + window, numPages - 1);
+        // issue in batches of half a window so the executor sees runs of pages
+        if (target - frontier < Math.max(1, window / 2))
+            return;
+        while (frontier < target) {
+            frontier++;
+            pending.addLast(new Pending(frontier, pool.prefetchPage(pageIds.apply(frontier))));
+        }
+    }
+
+    /** Forget outstanding prefetches; they still complete in the background. */
+    public void reset() {
+        lastPage = -2;
+        run = 0;
+        window = MIN_WINDOW;
+        frontier = -1;
+        pending.clear();
+    }
+}
@@ -43,12 +43,16 @@ public class TupleDesc implements Serializable {
      *        that are included in this TupleDesc
      * */
     public Iterator<TDItem> iterator() {
-        // some code goes here
-        return null;
+        return Collections.unmodifiableList(Arrays.asList(items)).iterator();
     }
 
     private static final long serialVersionUID = 1L;
 
+    private final TDItem[] items;
+    private final int size;
+    /** Byte offset of each field within a serialized tuple. */
+    private final int[] offsets;
+
     /**
      * Create a new TupleDesc with typeAr.length fields with fields of the
      * specified types, with associated named fields.
@@ -61,7 +65,32 @@ public class TupleDesc implements Serializable {
      *            be null.
      */
     public TupleDesc(Type[] typeAr, String[] fieldAr) {
-        // some code goes here
+        if (typeAr == null || typeAr.length == 0)
+            throw new IllegalArgumentException("a TupleDesc needs at least one field");
+        if (fieldAr != null && fieldAr.length != typeAr.length)
+            throw new IllegalArgumentException("field names and types differ in length");
+        items = new TDItem[typeAr.length];
+        for (int i = 0; i < typeAr.length; i++) {
+            items[i] = new TDItem(typeAr[i], fieldAr == null ? null : fieldAr[i]);
+        }
+        offsets = new int[items.length];
+        size = computeOffsets(items, offsets);
+    }
+
+    private TupleDesc(TDItem[] items) {
+        this.items = items;
+        this.offsets = new int[items.length];
+        this.size = computeOffsets(items, offsets);
+    }
+
+    /** Fill in the offset of each field and return the tuple size. */
+    private static int computeOffsets(TDItem[] items, int[] offsets) {
+        int sz = 0;
+        for (int i = 0; i < items.length; i++) {
+            offsets[i] = sz;
+            sz += items[i].fieldType.getLen();
+        }
+        return sz;
     }
 
     /**
@@ -73,15 +102,14 @@ public class TupleDesc implements Serializable {
      *            TupleDesc. It must contain at least one entry.
      */
     public TupleDesc(Type[] typeAr) {
-        // some code goes here
+        this(typeAr, null);
     }
 
     /**
      * @return the number of fields in this TupleDesc
      */
     public int numFields() {
-        // some code goes here
-        return 0;
+        return items.length;
     }
 
     /**
@@ -94,8 +122,7 @@ public class TupleDesc implements Serializable {
      *             if i is not a valid field reference.
      */
     public String getFieldName(int i) throws NoSuchElementException {
-        // some code goes here
-        return null;
+        return getItem(i).fieldName;
     }
 
     /**
@@ -109,8 +136,28 @@ public class TupleDesc implements Serializable {
      *             if i is not a valid field reference.
      */
     public Type getFieldType(int i) throws NoSuchElementException {
-        // some code goes here
-        return null;
+        return getItem(i).fieldType;
+    }
+
+    /**
+     * Gets the byte offset of the ith field within a tuple of this
+     * TupleDesc as it is laid out on a page.
+     *
+     * @param i
+     *            The index of the field. It must be a valid index.
+     * @return the sum of the sizes of the fields before field i
+     * @throws NoSuchElementException
+     *             if i is not a valid field reference.
+     */
+    public int getFieldOffset(int i) throws NoSuchElementException {
+        getItem(i);
+        return offsets[i];
+    }
+
+    private TDItem getItem(int i) throws NoSuchElementException {
+        if (i < 0 || i >= items.length)
+            throw new NoSuchElementException("no field " + i);
+        return items[i];
     }
 
     /**
@@ -123,8 +170,13 @@ public class TupleDesc implements Serializable {
      *             if no field with a matching name is found.
      */
     public int fieldNameToIndex(String name) throws NoSuchElementException {
-        // some code goes here
-        return 0;
+        if (name != null) {
+            for (int i = 0; i < items.length; i++) {
+                if (name.equals(items[i].fieldName))
+                    return i;
+            }
+        }
+        throw new NoSuchElementException("no field named " + name);
     }
 
     /**
@@ -132,8 +184,7 @@ public class TupleDesc implements Serializable {
      *         Note that tuples from a given TupleDesc are of a fixed size.
      */
     public int getSize() {
-        // some code goes here
-        return 0;
+        return size;
     }
 
     /**
@@ -147,8 +198,9 @@ public class TupleDesc implements Serializable {
      * @return the new TupleDesc
      */
     public static TupleDesc merge(TupleDesc td1, TupleDesc td2) {
-        // some code goes here
-        return null;
+        TDItem[] merged = Arrays.copyOf(td1.items, td1.items.length + td2.items.length);
+        System.arraycopy(td2.items, 0, merged, td1.items.length, td2.items.length);
+        return new TupleDesc(merged);
     }
 
     /**
@@ -163,14 +215,25 @@ public class TupleDesc implements Serializable {
      */
 
     public boolean equals(Object o) {
-        // some code goes here
-        return false;
+        if (this == o)
+            return true;
+        if (!(o instanceof TupleDesc))
+            return false;
+        TupleDesc other = (TupleDesc) o;
+        if (other.items.length != items.length)
+            return false;
+        for (int i = 0; i < items.length; i++) {
+            if (items[i].fieldType != other.items[i].fieldType)
+                return false;
+        }
+        return true;
     }
 
     public int hashCode() {
-        // If you want to use TupleDesc as keys for HashMap, implement this so
-        // that equal objects have equals hashCode() results
-        throw new UnsupportedOperationException("unimplemented");
+        int h = 1;
+        for (TDItem item : items)
+            h = 31 * h + item.fieldType.hashCode();
+        return h;
     }
 
     /**
@@ -181,7 +244,12 @@ public class TupleDesc implements Serializable {
      * @return String describing this descriptor.
      */
     public String toString() {
-        // some code goes here
-        return "";
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < items.length; i++) {
+            if (i > 0)
+                sb.append(", ");
+            sb.append(items[i].fieldType).append("(").append(items[i].fieldName).append(")");
+        }
+        return sb.toString();
     }
 }
@@ -0,0 +1,66 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.ToLongFunction;
+
+/**
+ * VectoredPageWriter writes a batch of pages of one file with as few
+ * system calls as possible: the pages are sorted by their offset in the
+ * file, and each run of adjacent pages is written with a single gathering
+ * FileChannel write.
+ */
+public final class VectoredPageWriter {
+
+    /** Longest run written with one call; keeps us under the OS iovec limit. */
+    static final int MAX_RUN = 64;
+
+    private VectoredPageWriter() {
+    }
+
+    /**
+     * Write pages to f.
+     *
+     * @param f the file to write to
+     * @param pages the pages to write, in any order
+     * @param offsetOf maps the id of a page to its byte offset in f
+     */
+    public static void write(File f, List<? extends Page> pages, ToLongFunction<PageId> offsetOf)
+            throws IOException {
+        if (pages.isEmpty())
+            return;
+        List<Page> sorted = new ArrayList<>(pages);
+        sorted.sort(Comparator.comparingLong(p -> offsetOf.applyAsLong(p.getId())));
+        try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.WRITE)) {
+            int i = 0;
+            while (i < sorted.size()) {
+                long start = offsetOf.applyAsLong(sorted.get(i).getId());
+                long end = start;
+                List<ByteBuffer> run = new ArrayList<>();
+                while (i < sorted.size() && run.size() < MAX_RUN
+                        && offsetOf.applyAsLong(sorted.get(i).getId()) == end) {
+                    byte[] data = sorted.get(i).getPageData();
+                    run.add(ByteBuffer.wrap(data));
+                    end += data.length;
+                    i++;
+                }
+                writeRun(ch, start, run.toArray(new ByteBuffer[0]), end - start);
+            }
+        }
+    }
+
+    private static void writeRun(FileChannel ch, long position, ByteBuffer[] bufs, long length)
+            throws IOException {
+        ch.position(position);
+        long written = 0;
+        while (written < length) {
+            written += ch.write(bufs);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package simpledb.storage;
+
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * VersionStore keeps the old committed versions of pages that snapshot
+ * transactions may still need, so that read-only transactions can read a
+ * consistent state of the database without taking any locks.
+ * <p>
+ * Commits are numbered.  A snapshot taken after commit s sees every page
+ * as it was after commit s: when a later commit c replaces the committed
+ * contents of a page, the contents it replaces (the page's before-image)
+ * are kept as a version superseded at c.  A snapshot reads the oldest
+ * version of a page superseded after it, or the page's current committed
+ * contents if there is none.  Versions are only made while snapshots are
+ * open, and a version is dropped as soon as no open snapshot is older
+ * than the commit that superseded it.
+ * <p>
+ * Reads and commits are serialized by the store's monitor, so a snapshot
+ * never sees half of a commit.  A page a DirtyPageWriter writes back
+ * before its transaction ends has uncommitted data on disk, and so loses
+ * its committed contents if it is evicted and read back; the store keeps
+ * those contents (see {@link #noteStolen}) until the transaction commits
+ * or aborts, and snapshots read them instead.
+ *
+ * @Threadsafe
+ */
+public class VersionStore {
+
+    private static final class Version {
+        final long supersededAt;
+        final Page image;
+
+        Version(long supersededAt, Page image) {
+            this.supersededAt = supersededAt;
+            this.image = image;
+        }
+    }
+
+    private final Map<PageId, ArrayDeque<Version>> versions = new HashMap<>();
+    /** The committed contents of pages written back before their transaction ended. */
+    private final Map<PageId, Page> stolen = new HashMap<>();
+    /** The commit each open snapshot was taken after. */
+    private final ConcurrentHashMap<TransactionId, Long> snapshots = new ConcurrentHashMap<>();
+    /** Number of open snapshots by commit, to find the oldest. */
+    private final TreeMap<Long, Integer> open = new TreeMap<>();
+    private long lastCommit;
+    private int numVersions;
+
+    /** Open a snapshot of the committed state for tid. */
+    public synchronized void beginSnapshot(TransactionId tid) {
+        if (snapshots.putIfAbsent(tid, lastCommit) == null)
+            open.merge(lastCommit, 1, Integer::sum);
+    }
+
+    /** @return true if tid is reading a snapshot */
+    public boolean isSnapshot(TransactionId tid) {
+        return snapshots.containsKey(tid);
+    }
+
+    /** Close tid's snapshot and drop the versions nobody needs any more. */
+    public synchronized void endSnapshot(TransactionId tid) {
+        Long taken = snapshots.remove(tid);
+        if (taken == null)
+            return;
+        if (open.merge(taken, -1, Integer::sum) == 0)
+            open.remove(taken);
+        collect();
+    }
+
+    /**
+     * Publish a commit: keep the committed contents of pages the committing
+     * transaction may have changed as versions if open snapshots need them,
+     * then make the pages' current contents their before-image.
+     *
+     * @param pages the resident pages the transaction holds exclusive
+     *            locks on, already written to disk unless the commit
+     *            is asynchronous
+     * @param stolenPages the pages of the transaction that were written
+     *            back before the commit, resident or not
+     */
+    public synchronized void commit(Collection<Page> pages, Collection<PageId> stolenPages) {
+        lastCommit++;
+        for (Page page : pages) {
+            Page committed = stolen.remove(page.getId());
+            if (committed == null && !open.isEmpty())
+                committed = page.getBeforeImage();
+            if (committed != null)
+                keep(page.getId(), committed);
+            page.setBeforeImage();
+        }
+        for (PageId pid : stolenPages) {
+            Page committed = stolen.remove(pid);
+            if (committed != null)
+                keep(pid, committed);
+        }
+    }
+
+    /** Keep image as a version if a snapshot may need it, else release it. */
+    private void keep(PageId pid, Page image) {
+        if (!open.isEmpty()) {
+            versions.computeIfAbsent(pid, p -> new ArrayDeque<>())
+                    .addLast(new Version(lastCommit, image));
+            numVersions++;
+        } else {
+            image.release();
+        }
+    }
+
+    /**
+     * Note that page, dirty with the changes of a running transaction, is
+     * about to be written back, and keep its committed contents until the
+     * transaction ends.
+     */
+    public synchronized void noteStolen(Page page) {
+        if (!stolen.containsKey(page.getId()))
+            stolen.put(page.getId(), page.getBeforeImage());
+    }
+
+    /**
+     * Forget the committed contents kept by noteStolen for the pages of an
+     * aborting transaction, and return them to be put back.
+     */
+    public synchronized Map<PageId, Page> abortStolen(Collection<PageId> stolenPages) {
+        Map<PageId, Page> committed = new HashMap<>();
+        for (PageId pid : stolenPages) {
+            Page image = stolen.remove(pid);
+            if (image != null)
+                committed.put(pid, image);
+        }
+        return committed;
+    }
+
+    /**
+     * Read a page as of tid's snapshot.  A copy made for the reader is
+     * released at once, so it keeps its bytes on the heap and is reclaimed
+     * with the reader's last reference to it.
+     *
+     * @param current the resident page
+     * @return a page that will not change under the reader
+     */
+    public synchronized Page read(TransactionId tid, Page current) {
+        long taken = snapshots.get(tid);
+        ArrayDeque<Version> chain = versions.get(current.getId());
+        if (chain != null) {
+            for (Version v : chain) {
+                if (v.supersededAt > taken)
+                    return v.image;
+            }
+        }
+        Page committed = stolen.get(current.getId());
+        if (committed != null)
+            return committed;
+        Page copy = current.getBeforeImage();
+        copy.release();
+        return copy;
+    }
+
+    /** @return the number of old page versions kept */
+    public synchronized int getVersionCount() {
+        return numVersions;
+    }
+
+    private void collect() {
+        long oldest = open.isEmpty() ? Long.MAX_VALUE : open.firstKey();
+        for (Iterator<ArrayDeque<Version>> it = versions.values().iterator(); it.hasNext();) {
+            ArrayDeque<Version> chain = it.next();
+            while (!chain.isEmpty() && chain.peekFirst().supersededAt <= oldest) {
+                chain.removeFirst().image.release();
+                numVersions--;
+            }
+            if (chain.isEmpty())
+                it.remove();
+        }
+    }
+}
@@ -0,0 +1,505 @@
+package simpledb.transaction;
+
+import simpledb.storage.PageId;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * LockManager grants locks to transactions for strict two-phase locking,
+ * and breaks deadlocks as soon as they form.
+ * <p>
+ * Locks are taken at two granularities: tables (by DbFile id) and pages.
+ * Tables are locked in one of the modes IS, IX, S, SIX and X; pages only
+ * in S or X, after the matching intention mode (IS or IX) on their table.
+ * A table S or X lock covers every page of the table, so a scan or a bulk
+ * update can take a single lock (see {@link #lockTable}) rather than one
+ * per page.  Once a transaction holds more than the escalation threshold
+ * of page locks on one table, they are traded for a single table S or X
+ * lock if that can be granted without waiting; otherwise the page locks
+ * are kept and escalation is tried again with the next page.  The
+ * threshold is read from the {@link #ESCALATION_PROPERTY} system property.
+ * <p>
+ * A request for a lock the transaction already holds, or a table lock
+ * covers, is granted without taking the manager's monitor: each
+ * transaction's locks are mirrored in a concurrent map that only ever
+ * changes under the monitor, so a page fetched again and again costs no
+ * contended lock.  Every other request takes the monitor.
+ * <p>
+ * A request that conflicts with locks held by other transactions waits on
+ * the manager's monitor.  Waiting requests define a wait-for graph: a
+ * waiting transaction has an edge to every transaction holding a lock that
+ * conflicts with its request.  The edges are computed from the lock table
+ * when the graph is searched, so they are never stale.  Every time a
+ * request is about to wait, the graph is searched for a cycle through the
+ * requester; any new cycle must go through the request that closed it, so
+ * no deadlock goes unnoticed.  The youngest transaction on the cycle (the
+ * one with the largest id), which has done the least work, is the victim:
+ * its pending request fails with a TransactionAbortedException, and the
+ * caller is expected to abort it and release its locks.
+ * <p>
+ * A lock is upgraded by asking for a stronger mode; the transaction then
+ * holds the weakest mode covering both (S and IX make SIX).  Requests are
+ * not queued in order, so a stream of readers can delay a writer.
+ *
+ * @Threadsafe
+ */
+public class LockManager {
+
+    /** System property giving the number of page locks on a table that triggers escalation. */
+    public static final String ESCALATION_PROPERTY = "simpledb.transaction.LockEscalation";
+    public static final int DEFAULT_ESCALATION = 1000;
+
+    /** Lock modes, from weakest to strongest. */
+    public enum Mode {
+        IS, IX, S, SIX, X;
+
+        private static final boolean[][] COMPATIBLE = {
+                // IS    IX     S      SIX    X
+                { true,  true,  true,  true,  false }, // IS
+                { true,  true,  false, false, false }, // IX
+                { true,  false, true,  false, false }, // S
+                { true,  false, false, false, false }, // SIX
+                { false, false, false, false, false }, // X
+        };
+
+        /** @return true if other transactions may hold this mode and other at once */
+        public boolean compatibleWith(Mode other) {
+            return COMPATIBLE[ordinal()][other.ordinal()];
+        }
+
+        /** @return true if holding this mode grants everything other does */
+        public boolean covers(Mode other) {
+            switch (this) {
+            case X:
+                return true;
+            case SIX:
+                return other != X;
+            case S:
+                return other == S || other == IS;
+            case IX:
+                return other == IX || other == IS;
+            default:
+                return other == IS;
+            }
+        }
+
+        /** @return the weakest mode covering both this and other */
+        public Mode join(Mode other) {
+            if (covers(other))
+                return this;
+            if (other.covers(this))
+                return other;
+            return SIX;
+        }
+    }
+
+    /** The lock table key of a whole table. */
+    private static final class TableKey {
+        final int tableId;
+
+        TableKey(int tableId) {
+            this.tableId = tableId;
+        }
+
+        public boolean equals(Object o) {
+            return o instanceof TableKey && ((TableKey) o).tableId == tableId;
+        }
+
+        public int hashCode() {
+            return Integer.hashCode(tableId);
+        }
+
+        public String toString() {
+            return "table " + tableId;
+        }
+    }
+
+    /** A request that is waiting. */
+    private static class Request {
+        final Object key;
+        final Mode mode;
+
+        Request(Object key, Mode mode) {
+            this.key = key;
+            this.mode = mode;
+        }
+    }
+
+    /** Holders of each locked table or page, and the mode each holds. */
+    private final Map<Object, Map<TransactionId, Mode>> locks = new HashMap<>();
+    /**
+     * The locks each transaction holds, by table key or page id, as in
+     * locks; written only under the monitor, read without it by
+     * {@link #alreadyHeld}.
+     */
+    private final ConcurrentHashMap<TransactionId, ConcurrentHashMap<Object, Mode>> granted =
+            new ConcurrentHashMap<>();
+    private final Map<TransactionId, Set<Integer>> tablesHeld = new HashMap<>();
+    private final Map<TransactionId, Map<Integer, Set<PageId>>> pagesHeld = new HashMap<>();
+    private final Map<TransactionId, Request> waiting = new HashMap<>();
+    /** Waiting transactions chosen as victims that have not woken up yet. */
+    private final Set<TransactionId> victims = new HashSet<>();
+    private int escalationThreshold;
+
+    private long deadlocks;
+    private long detections;
+    private long detectionNanos;
+    private long escalations;
+
+    public LockManager() {
+        String threshold = System.getProperty(ESCALATION_PROPERTY);
+        escalationThreshold = threshold == null ? DEFAULT_ESCALATION : Integer.parseInt(threshold);
+    }
+
+    /**
+     * Set the number of page locks a transaction may hold on one table
+     * before they are escalated to a table lock.
+     */
+    public synchronized void setEscalationThreshold(int pages) {
+        escalationThreshold = pages;
+    }
+
+    public synchronized int getEscalationThreshold() {
+        return escalationThreshold;
+    }
+
+    /**
+     * Acquire a lock on pid for tid, and the intention lock on its table,
+     * waiting while other transactions hold conflicting locks.  Nothing is
+     * acquired if tid's table lock already covers the page.
+     *
+     * @param exclusive true for an exclusive (write) lock, false for a
+     *            shared (read) lock
+     * @throws TransactionAbortedException if tid was chosen to break a
+     *             deadlock, or the thread was interrupted while waiting
+     */
+    public void acquire(TransactionId tid, PageId pid, boolean exclusive)
+            throws TransactionAbortedException {
+        if (!alreadyHeld(tid, pid, exclusive))
+            lockPage(tid, pid, exclusive);
+    }
+
+    private synchronized void lockPage(TransactionId tid, PageId pid, boolean exclusive)
+            throws TransactionAbortedException {
+        TableKey table = new TableKey(pid.getTableId());
+        Mode mode = exclusive ? Mode.X : Mode.S;
+        Mode tableMode = heldMode(tid, table);
+        if (tableMode != null && tableMode.covers(mode))
+            return;
+        lock(tid, table, exclusive ? Mode.IX : Mode.IS);
+        lock(tid, pid, mode);
+        notePage(tid, pid);
+    }
+
+    /**
+     * Acquire a lock on pid for tid as {@link #acquire} does, but only if
+     * it can be granted at once.  Callers holding latches use this, since
+     * a wait for a lock while holding a latch is invisible to deadlock
+     * detection.
+     *
+     * @return true if tid now holds the lock, false if it would have had
+     *         to wait, in which case nothing was acquired
+     */
+    public boolean tryAcquire(TransactionId tid, PageId pid, boolean exclusive) {
+        return alreadyHeld(tid, pid, exclusive) || tryLockPage(tid, pid, exclusive);
+    }
+
+    private synchronized boolean tryLockPage(TransactionId tid, PageId pid, boolean exclusive) {
+        TableKey table = new TableKey(pid.getTableId());
+        Mode mode = exclusive ? Mode.X : Mode.S;
+        Mode tableMode = heldMode(tid, table);
+        if (tableMode != null && tableMode.covers(mode))
+            return true;
+        Mode intention = exclusive ? Mode.IX : Mode.IS;
+        if (!grantable(tid, table, intention) || !grantable(tid, pid, mode))
+            return false;
+        tryGrant(tid, table, intention);
+        tryGrant(tid, pid, mode);
+        notePage(tid, pid);
+        return true;
+    }
+
+    /**
+     * @return true if tid holds a lock on pid, or on its table, covering
+     *         the mode asked for.  Takes no lock: tid's locks only change
+     *         under the monitor, and only on tid's behalf, so the answer
+     *         cannot go stale while tid is asking.
+     */
+    private boolean alreadyHeld(TransactionId tid, PageId pid, boolean exclusive) {
+        Map<Object, Mode> held = granted.get(tid);
+        if (held == null)
+            return false;
+        Mode mode = exclusive ? Mode.X : Mode.S;
+        Mode pageMode = held.get(pid);
+        if (pageMode != null && pageMode.covers(mode))
+            return true;
+        Mode tableMode = held.get(new TableKey(pid.getTableId()));
+        return tableMode != null && tableMode.covers(mode);
+    }
+
+    // record a page lock of tid, escalating if it holds too many
+    private void notePage(TransactionId tid, PageId pid) {
+        pagesHeld.computeIfAbsent(tid, t -> new HashMap<>())
+                .computeIfAbsent(pid.getTableId(), t -> new HashSet<>()).add(pid);
+        if (pagesHeld.get(tid).get(pid.getTableId()).size() > escalationThreshold)
+            tryEscalate(tid, pid.getTableId());
+    }
+
+    /**
+     * Acquire a shared or exclusive lock on a whole table, waiting while
+     * other transactions hold conflicting locks.  Page locks of tid on the
+     * table that the table lock covers are released.
+     *
+     * @throws TransactionAbortedException if tid was chosen to break a
+     *             deadlock, or the thread was interrupted while waiting
+     */
+    public synchronized void lockTable(TransactionId tid, int tableId, boolean exclusive)
+            throws TransactionAbortedException {
+        lock(tid, new TableKey(tableId), exclusive ? Mode.X : Mode.S);
+        releaseCoveredPages(tid, tableId);
+    }
+
+    /** Release tid's lock on pid, if it has one.  Table locks are kept. */
+    public synchronized void release(TransactionId tid, PageId pid) {
+        Map<TransactionId, Mode> holders = locks.get(pid);
+        if (holders == null || !holders.containsKey(tid))
+            return;
+        unlock(tid, pid);
+        Map<Integer, Set<PageId>> byTable = pagesHeld.get(tid);
+        Set<PageId> pids = byTable.get(pid.getTableId());
+        pids.remove(pid);
+        if (pids.isEmpty())
+            byTable.remove(pid.getTableId());
+        if (byTable.isEmpty())
+            pagesHeld.remove(tid);
+        notifyAll();
+    }
+
+    /** Release every lock held by tid. */
+    public synchronized void releaseAll(TransactionId tid) {
+        Map<Integer, Set<PageId>> byTable = pagesHeld.remove(tid);
+        if (byTable != null) {
+            for (Set<PageId> pids : byTable.values()) {
+                for (PageId pid : pids)
+                    unlock(tid, pid);
+            }
+        }
+        Set<Integer> tables = tablesHeld.remove(tid);
+        if (tables != null) {
+            for (int tableId : tables)
+                unlock(tid, new TableKey(tableId));
+        }
+        granted.remove(tid);
+        notifyAll();
+    }
+
+    /** @return true if tid holds a lock on pid or a table lock covering it */
+    public synchronized boolean holdsLock(TransactionId tid, PageId pid) {
+        Mode tableMode = heldMode(tid, new TableKey(pid.getTableId()));
+        return heldMode(tid, pid) != null || (tableMode != null && tableMode.covers(Mode.S));
+    }
+
+    /** @return true if tid holds the exclusive lock on pid or on its table */
+    public synchronized boolean holdsExclusive(TransactionId tid, PageId pid) {
+        return heldMode(tid, pid) == Mode.X || heldMode(tid, new TableKey(pid.getTableId())) == Mode.X;
+    }
+
+    /** @return the mode of tid's lock on the table, or null if it has none */
+    public synchronized Mode getTableMode(TransactionId tid, int tableId) {
+        return heldMode(tid, new TableKey(tableId));
+    }
+
+    /** @return the number of tables and pages that are locked */
+    public synchronized int getLockCount() {
+        return locks.size();
+    }
+
+    /** @return the number of deadlocks detected */
+    public synchronized long getDeadlocks() {
+        return deadlocks;
+    }
+
+    /** @return the number of times the wait-for graph was searched */
+    public synchronized long getDetections() {
+        return detections;
+    }
+
+    /** @return the total time spent searching the wait-for graph, in nanoseconds */
+    public synchronized long getDetectionNanos() {
+        return detectionNanos;
+    }
+
+    /** @return the number of times page locks were escalated to a table lock */
+    public synchronized long getEscalations() {
+        return escalations;
+    }
+
+    private Mode heldMode(TransactionId tid, Object key) {
+        Map<TransactionId, Mode> holders = locks.get(key);
+        return holders == null ? null : holders.get(tid);
+    }
+
+    /** Acquire mode on key for tid, waiting and detecting deadlocks as needed. */
+    private void lock(TransactionId tid, Object key, Mode mode) throws TransactionAbortedException {
+        if (tryGrant(tid, key, mode))
+            return;
+        waiting.put(tid, new Request(key, mode));
+        try {
+            while (true) {
+                long begin = System.nanoTime();
+                TransactionId victim = findDeadlockVictim(tid);
+                detections++;
+                detectionNanos += System.nanoTime() - begin;
+                if (victim != null) {
+                    deadlocks++;
+                    if (victim.equals(tid))
+                        throw new TransactionAbortedException();
+                    victims.add(victim);
+                    notifyAll();
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new TransactionAbortedException();
+                }
+                if (victims.remove(tid))
+                    throw new TransactionAbortedException();
+                if (tryGrant(tid, key, mode))
+                    return;
+            }
+        } finally {
+            waiting.remove(tid);
+            victims.remove(tid);
+        }
+    }
+
+    private boolean grantable(TransactionId tid, Object key, Mode mode) {
+        Map<TransactionId, Mode> holders = locks.get(key);
+        return holders == null || blockers(holders, tid, mode).isEmpty();
+    }
+
+    private boolean tryGrant(TransactionId tid, Object key, Mode mode) {
+        Map<TransactionId, Mode> holders = locks.computeIfAbsent(key, k -> new HashMap<>());
+        if (!blockers(holders, tid, mode).isEmpty()) {
+            if (holders.isEmpty())
+                locks.remove(key);
+            return false;
+        }
+        Mode held = holders.merge(tid, mode, Mode::join);
+        granted.computeIfAbsent(tid, t -> new ConcurrentHashMap<>()).put(key, held);
+        if (key instanceof TableKey)
+            tablesHeld.computeIfAbsent(tid, t -> new HashSet<>()).add(((TableKey) key).tableId);
+        return true;
+    }
+
+    /** Remove tid from the holders of key, without touching pagesHeld or tablesHeld. */
+    private void unlock(TransactionId tid, Object key) {
+        Map<TransactionId, Mode> holders = locks.get(key);
+        if (holders != null) {
+            holders.remove(tid);
+            if (holders.isEmpty())
+                locks.remove(key);
+        }
+        Map<Object, Mode> held = granted.get(tid);
+        if (held != null)
+            held.remove(key);
+    }
+
+    /**
+     * Trade tid's page locks on a table for a table S lock, or X if any of
+     * them is exclusive, if that can be done without waiting.
+     */
+    private void tryEscalate(TransactionId tid, int tableId) {
+        TableKey table = new TableKey(tableId);
+        Mode mode = heldMode(tid, table) == Mode.IS ? Mode.S : Mode.X;
+        if (tryGrant(tid, table, mode)) {
+            escalations++;
+            releaseCoveredPages(tid, tableId);
+        }
+    }
+
+    /** Release the page locks of tid on a table that its table lock covers. */
+    private void releaseCoveredPages(TransactionId tid, int tableId) {
+        Mode tableMode = heldMode(tid, new TableKey(tableId));
+        Map<Integer, Set<PageId>> byTable = pagesHeld.get(tid);
+        Set<PageId> pids = byTable == null ? null : byTable.get(tableId);
+        if (pids == null)
+            return;
+        for (Iterator<PageId> it = pids.iterator(); it.hasNext();) {
+            PageId pid = it.next();
+            if (tableMode.covers(heldMode(tid, pid))) {
+                unlock(tid, pid);
+                it.remove();
+            }
+        }
+        if (pids.isEmpty())
+            byTable.remove(tableId);
+        if (byTable.isEmpty())
+            pagesHeld.remove(tid);
+        notifyAll();
+    }
+
+    /** @return the transactions whose locks conflict with tid's request for mode */
+    private static Set<TransactionId> blockers(Map<TransactionId, Mode> holders, TransactionId tid, Mode mode) {
+        Mode held = holders.get(tid);
+        Mode wanted = held == null ? mode : held.join(mode);
+        Set<TransactionId> conflicting = Collections.emptySet();
+        for (Map.Entry<TransactionId, Mode> e : holders.entrySet()) {
+            if (e.getKey().equals(tid) || wanted.compatibleWith(e.getValue()))
+                continue;
+            if (conflicting.isEmpty())
+                conflicting = new HashSet<>();
+            conflicting.add(e.getKey());
+        }
+        return conflicting;
+    }
+
+    /** @return the transactions tid waits for; none if it is not waiting */
+    private Set<TransactionId> waitsFor(TransactionId tid) {
+        Request r = waiting.get(tid);
+        if (r == null || victims.contains(tid))
+            return Collections.emptySet();
+        Map<TransactionId, Mode> holders = locks.get(r.key);
+        return holders == null ? Collections.emptySet() : blockers(holders, tid, r.mode);
+    }
+
+    /**
+     * Search the wait-for graph for a cycle through tid.
+     *
+     * @return the youngest transaction on the cycle, or null if there is none
+     */
+    private TransactionId findDeadlockVictim(TransactionId tid) {
+        List<TransactionId> path = new ArrayList<>();
+        if (!findPath(tid, tid, new HashSet<>(), path))
+            return null;
+        TransactionId victim = tid;
+        for (TransactionId t : path) {
+            if (t.getId() > victim.getId())
+                victim = t;
+        }
+        return victim;
+    }
+
+    /** Depth-first search for a path of waits from t to target, appended to path. */
+    private boolean findPath(TransactionId t, TransactionId target, Set<TransactionId> visited,
+                             List<TransactionId> path) {
+        path.add(t);
+        for (TransactionId next : waitsFor(t)) {
+            if (next.equals(target))
+                return true;
+            if (visited.add(next) && findPath(next, target, visited, path))
+                return true;
+        }
+        path.remove(path.size() - 1);
+        return false;
+    }
+}
@@ -11,15 +11,32 @@ import java.io.*;
 
 public class Transaction {
     private final TransactionId tid;
+    private final boolean readOnly;
+    private volatile boolean asyncCommit = false;
     volatile boolean started = false;
 
     public Transaction() {
+        this(false);
+    }
+
+    /**
+     * @param readOnly if true, the transaction reads a snapshot of the
+     *            committed state taken when it starts, without locking
+     *            anything, and may not modify any page
+     */
+    public Transaction(boolean readOnly) {
         tid = new TransactionId();
+        this.readOnly = readOnly;
     }
 
     /** Start the transaction running */
     public void start() {
         started = true;
+        if (readOnly) {
+            // nothing to log or undo
+            Database.getBufferPool().beginSnapshot(tid);
+            return;
+        }
         try {
             Database.getLogFile().logXactionBegin(tid);
         } catch (IOException e) {
@@ -31,6 +48,24 @@ public class Transaction {
         return tid;
     }
 
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * @param asyncCommit if true, commit returns without waiting for the
+     *            commit record to reach disk; a crash within the async
+     *            commit lag may then roll the transaction back
+     * @see simpledb.storage.LogFile#logCommit(TransactionId, boolean)
+     */
+    public void setAsyncCommit(boolean asyncCommit) {
+        this.asyncCommit = asyncCommit;
+    }
+
+    public boolean isAsyncCommit() {
+        return asyncCommit;
+    }
+
     /** Finish the transaction */
     public void commit() throws IOException {
         transactionComplete(false);
@@ -44,18 +79,23 @@ public class Transaction {
     /** Handle the details of transaction commit / abort */
     public void transactionComplete(boolean abort) throws IOException {
 
-        if (started) {
+        if (started && readOnly) {
+            Database.getBufferPool().transactionComplete(tid, !abort); // end the snapshot
+            started = false;
+        } else if (started) {
             //write abort log record and rollback transaction
             if (abort) {
                 Database.getLogFile().logAbort(tid); //does rollback too
             } 
 
-            // Release locks and flush pages if needed
-            Database.getBufferPool().transactionComplete(tid, !abort); // release locks
-
-            // write commit log record
-            if (!abort) {
-            	Database.getLogFile().logCommit(tid);
+            if (abort) {
+                Database.getBufferPool().transactionComplete(tid, false); // release locks
+            } else {
+                // flush pages and write the commit log record while still
+                // holding the locks, then release them before waiting for
+                // the record to reach disk
+                long lsn = Database.getBufferPool().commitLogged(tid, asyncCommit);
+                Database.getLogFile().awaitCommit(lsn, asyncCommit);
             }
 
             //setting this here means we could possibly write multiple abort records -- OK?
@@ -0,0 +1,183 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.*;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeBulkLoadTest extends SimpleDbTestBase {
+	private static final Type[] TYPES = { Type.INT_TYPE, Type.INT_TYPE };
+
+	private TransactionId tid;
+	private File bFile;
+
+	@Before
+	public void setUp() throws Exception {
+		tid = new TransactionId();
+		bFile = File.createTempFile("bulk", ".dat");
+		bFile.deleteOnExit();
+	}
+
+	@After
+	public void tearDown() {
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * Write rows random keys, in order if sorted, to a text file, and add
+	 * the keys to keys in order.
+	 */
+	private File writeRows(int rows, boolean sorted, List<Integer> keys) throws IOException {
+		Random rand = new Random(rows);
+		for (int i = 0; i < rows; i++)
+			keys.add(rand.nextInt(BTreeUtility.MAX_RAND_VALUE));
+		List<Integer> written = new ArrayList<>(keys);
+		Collections.sort(keys);
+		if (sorted)
+			written = keys;
+		File in = File.createTempFile("bulk", ".txt");
+		in.deleteOnExit();
+		try (BufferedWriter bw = new BufferedWriter(new FileWriter(in))) {
+			for (int k : written)
+				bw.write(k + "," + (k % 7) + "\n");
+		}
+		return in;
+	}
+
+	/** Check that a scan returns keys, and a lookup finds each of a few of them. */
+	private void checkContents(BTreeFile bf, List<Integer> keys) throws Exception {
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		List<Integer> found = new ArrayList<>();
+		while (it.hasNext()) {
+			Tuple t = it.next();
+			int k = ((IntField) t.getField(0)).getValue();
+			assertEquals(k % 7, ((IntField) t.getField(1)).getValue());
+			found.add(k);
+		}
+		it.close();
+		assertEquals(keys, found);
+
+		for (int i = 0; i < keys.size(); i += Math.max(1, keys.size() / 20)) {
+			int k = keys.get(i);
+			it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(k)));
+			it.open();
+			int n = 0;
+			while (it.hasNext()) {
+				assertEquals(k, ((IntField) it.next().getField(0)).getValue());
+				n++;
+			}
+			it.close();
+			assertEquals(Collections.frequency(keys, k), n);
+		}
+	}
+
+	/** @return the leaves of bf, from left to right */
+	private List<BTreeLeafPage> leaves(BTreeFile bf) throws Exception {
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(tid,
+				BTreeRootPtrPage.getId(bf.getId()), Permissions.READ_ONLY);
+		BTreePageId pid = rootPtr.getRootId();
+		while (pid.pgcateg() == BTreePageId.INTERNAL) {
+			BTreeInternalPage p = (BTreeInternalPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+			pid = p.iterator().next().getLeftChild();
+		}
+		List<BTreeLeafPage> leaves = new ArrayList<>();
+		for (; pid != null; pid = leaves.get(leaves.size() - 1).getRightSiblingId())
+			leaves.add((BTreeLeafPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY));
+		return leaves;
+	}
+
+	/**
+	 * Unit test for bulk loading unsorted input through more sorted runs
+	 * than are merged at once
+	 */
+	@Test
+	public void unsortedInput() throws Exception {
+		List<Integer> keys = new ArrayList<>();
+		File in = writeRows(20000, false, keys);
+		// 200 runs, merged in two passes
+		BTreeFile bf = BTreeFileEncoder.bulkLoad(in, bFile, BufferPool.getPageSize(), 2, TYPES, ',', 0,
+				1.0, false, 100);
+		checkContents(bf, keys);
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+		// three levels
+		assertEquals(BTreePageId.INTERNAL, leaves(bf).get(0).getParentId().pgcateg());
+	}
+
+	/**
+	 * Unit test for bulk loading sorted input with leaves half full, which
+	 * then takes inserts
+	 */
+	@Test
+	public void fillFactor() throws Exception {
+		List<Integer> keys = new ArrayList<>();
+		File in = writeRows(10000, true, keys);
+		BTreeFile bf = BTreeFileEncoder.bulkLoad(in, bFile, BufferPool.getPageSize(), 2, TYPES, ',', 0,
+				0.5, true, 100);
+		checkContents(bf, keys);
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), false);
+
+		int capacity = BTreeUtility.getNumTuplesPerPage(2) / 2;
+		List<BTreeLeafPage> leaves = leaves(bf);
+		assertEquals((10000 + capacity - 1) / capacity, leaves.size());
+		for (BTreeLeafPage p : leaves) {
+			assertTrue(p.getNumTuples() <= capacity);
+			assertTrue(p.getNumTuples() >= capacity / 2);
+		}
+
+		Random rand = new Random(1);
+		for (int i = 0; i < 2000; i++) {
+			int k = rand.nextInt(BTreeUtility.MAX_RAND_VALUE);
+			Database.getBufferPool().insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(new int[] { k, k % 7 }));
+			keys.add(k);
+		}
+		Collections.sort(keys);
+		checkContents(bf, keys);
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), false);
+	}
+
+	/**
+	 * Unit test for bulk loading no tuples
+	 */
+	@Test
+	public void emptyInput() throws Exception {
+		BTreeFile bf = BTreeFileEncoder.bulkLoad(Collections.emptyIterator(), 0, bFile,
+				BufferPool.getPageSize(), 2, TYPES, 0, 1.0);
+		checkContents(bf, new ArrayList<>());
+		assertEquals(1, bf.numPages());
+	}
+
+	/**
+	 * Unit test that input said to be sorted but out of order is refused
+	 */
+	@Test(expected = DbException.class)
+	public void unsortedInputRefused() throws Exception {
+		List<Tuple> tuples = new ArrayList<>();
+		for (int k : new int[] { 1, 3, 2 })
+			tuples.add(BTreeUtility.getBTreeTuple(k, 2));
+		BTreeFileEncoder.bulkLoad(tuples.iterator(), tuples.size(), bFile, BufferPool.getPageSize(), 2, TYPES, 0, 1.0);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeBulkLoadTest.class);
+	}
+}
@@ -0,0 +1,251 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.BTreeEntry;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeInternalPage;
+import simpledb.index.BTreeLeafPage;
+import simpledb.index.BTreePageId;
+import simpledb.index.BTreeRootPtrPage;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.IntField;
+import simpledb.storage.Page;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class BTreeLatchTest extends SimpleDbTestBase {
+
+	private BTreeFile bf;
+	private List<List<Integer>> tuples;
+	private BTreePageId rootId;
+	private ExecutorService threads;
+
+	@Before public void setUp() throws Exception {
+		tuples = new ArrayList<>();
+		// three levels: a root over internal pages over leaves
+		bf = BTreeUtility.createRandomBTreeFile(2, 100000, null, tuples, 0);
+		TransactionId tid = new TransactionId();
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(tid,
+				BTreeRootPtrPage.getId(bf.getId()), Permissions.READ_ONLY);
+		rootId = rootPtr.getRootId();
+		Database.getBufferPool().transactionComplete(tid);
+		threads = Executors.newCachedThreadPool();
+	}
+
+	@After public void tearDown() {
+		threads.shutdownNow();
+	}
+
+	private int lookup(TransactionId tid, int key) throws Exception {
+		DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(key)));
+		it.open();
+		int n = 0;
+		while (it.hasNext()) {
+			it.next();
+			n++;
+		}
+		it.close();
+		return n;
+	}
+
+	private int expected(int key) {
+		int n = 0;
+		for (List<Integer> t : tuples)
+			if (t.get(0) == key)
+				n++;
+		return n;
+	}
+
+	/**
+	 * Unit test that a lookup locks the leaf it reads but none of the
+	 * internal pages above it
+	 */
+	@Test public void lookupLocksOnlyLeaves() throws Exception {
+		assertEquals(BTreePageId.INTERNAL, rootId.pgcateg());
+		int key = tuples.get(tuples.size() / 2).get(0);
+		TransactionId tid = new TransactionId();
+		assertEquals(expected(key), lookup(tid, key));
+		assertFalse(Database.getBufferPool().holdsLock(tid, rootId));
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * Unit test that a lookup passing through an internal page dirtied by
+	 * an uncompleted transaction reads it as it is, without waiting for
+	 * that transaction
+	 */
+	@Test public void lookupReadsDirtyInternalPage() throws Exception {
+		int key = tuples.get(0).get(0);
+		TransactionId writer = new TransactionId();
+		Page root = Database.getBufferPool().getPage(writer, rootId, Permissions.READ_WRITE);
+		root.markDirty(true, writer);
+
+		TransactionId reader = new TransactionId();
+		Future<Integer> found = threads.submit(() -> lookup(reader, key));
+		assertEquals(expected(key), (int) found.get(5, TimeUnit.SECONDS));
+		Database.getBufferPool().transactionComplete(writer);
+		Database.getBufferPool().transactionComplete(reader);
+	}
+
+	/**
+	 * Unit test that a lookup sent to the wrong leaf by a parent without
+	 * the entry for a split, as one read before the split would be, follows
+	 * the right link of the leaf to its key
+	 */
+	@Test public void lookupMovesRight() throws Exception {
+		TransactionId writer = new TransactionId();
+		BTreeInternalPage parent = (BTreeInternalPage) Database.getBufferPool().getPage(writer,
+				rootId, Permissions.READ_ONLY);
+		for (BTreePageId child = parent.iterator().next().getLeftChild();
+				child.pgcateg() == BTreePageId.INTERNAL; child = parent.iterator().next().getLeftChild()) {
+			parent = (BTreeInternalPage) Database.getBufferPool().getPage(writer, child, Permissions.READ_ONLY);
+		}
+		parent = (BTreeInternalPage) Database.getBufferPool().getPage(writer, parent.getId(),
+				Permissions.READ_WRITE);
+		BTreeEntry e = parent.iterator().next();
+		BTreeLeafPage right = (BTreeLeafPage) Database.getBufferPool().getPage(writer,
+				e.getRightChild(), Permissions.READ_ONLY);
+		int key = ((IntField) right.reverseIterator().next().getField(0)).getValue();
+		assertTrue(key > ((IntField) e.getKey()).getValue());
+		// the left child takes the place of the right one
+		parent.deleteKeyAndRightChild(e);
+		parent.markDirty(true, writer);
+
+		TransactionId reader = new TransactionId();
+		Future<Integer> found = threads.submit(() -> lookup(reader, key));
+		assertEquals(expected(key), (int) found.get(5, TimeUnit.SECONDS));
+		Database.getBufferPool().transactionComplete(reader);
+		Database.getBufferPool().transactionComplete(writer, false);
+	}
+
+	/**
+	 * Unit test that concurrent lookups from several threads all find
+	 * their keys
+	 */
+	@Test public void concurrentLookups() throws Exception {
+		List<Future<Boolean>> results = new ArrayList<>();
+		for (int i = 0; i < 8; i++) {
+			int seed = i;
+			results.add(threads.submit(() -> {
+				TransactionId tid = new TransactionId();
+				try {
+					for (int j = 0; j < 50; j++) {
+						int key = tuples.get((seed * 7919 + j * 104729) % tuples.size()).get(0);
+						if (lookup(tid, key) != expected(key))
+							return false;
+					}
+					return true;
+				} finally {
+					Database.getBufferPool().transactionComplete(tid);
+				}
+			}));
+		}
+		for (Future<Boolean> r : results)
+			assertTrue(r.get(60, TimeUnit.SECONDS));
+	}
+
+	/**
+	 * Unit test that an insert whose split needs an internal page locked by
+	 * another transaction waits for that transaction instead of aborting
+	 */
+	@Test public void splitWaitsForLockedParent() throws Exception {
+		TransactionId holder = new TransactionId();
+		BTreePageId pid = rootId;
+		BTreeInternalPage parent = null;
+		while (pid.pgcateg() == BTreePageId.INTERNAL) {
+			parent = (BTreeInternalPage) Database.getBufferPool().getPage(holder, pid, Permissions.READ_ONLY);
+			pid = parent.iterator().next().getLeftChild();
+		}
+		Database.getBufferPool().getPage(holder, parent.getId(), Permissions.READ_WRITE);
+		BTreeLeafPage leaf = (BTreeLeafPage) Database.getBufferPool().getPage(holder, pid, Permissions.READ_ONLY);
+		int key = ((IntField) leaf.iterator().next().getField(0)).getValue();
+		int inserts = leaf.getMaxTuples() + 1;
+		Database.getBufferPool().transactionComplete(holder);
+		holder = new TransactionId();
+		Database.getBufferPool().getPage(holder, parent.getId(), Permissions.READ_WRITE);
+
+		TransactionId inserter = new TransactionId();
+		Future<?> done = threads.submit(() -> {
+			for (int i = 0; i < inserts; i++)
+				Database.getBufferPool().insertTuple(inserter, bf.getId(),
+						BTreeUtility.getBTreeTuple(new int[] { key, i }));
+			return null;
+		});
+		Thread.sleep(500);
+		assertFalse(done.isDone());
+		Database.getBufferPool().transactionComplete(holder);
+		done.get(30, TimeUnit.SECONDS);
+		Database.getBufferPool().transactionComplete(inserter);
+
+		TransactionId reader = new TransactionId();
+		assertEquals(expected(key) + inserts, lookup(reader, key));
+		Database.getBufferPool().transactionComplete(reader);
+	}
+
+	/**
+	 * Unit test that inserts from several threads that split leaves under
+	 * the same parents all commit, and leave no latches behind
+	 */
+	@Test public void concurrentSplitsCommit() throws Exception {
+		List<Integer> keys = new ArrayList<>();
+		for (List<Integer> t : tuples)
+			keys.add(t.get(0));
+		Collections.sort(keys);
+		List<Future<Integer>> results = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			// keys some leaves apart, so that each thread splits leaves of its own
+			int key = keys.get((i + 1) * 2000);
+			results.add(threads.submit(() -> {
+				TransactionId tid = new TransactionId();
+				for (int j = 0; j < 600; j++)
+					Database.getBufferPool().insertTuple(tid, bf.getId(),
+							BTreeUtility.getBTreeTuple(new int[] { key, j }));
+				Database.getBufferPool().transactionComplete(tid);
+				return 600;
+			}));
+		}
+		int inserted = 0;
+		for (Future<Integer> r : results)
+			inserted += r.get(120, TimeUnit.SECONDS);
+		assertEquals(0, bf.getLatchedPageCount());
+
+		TransactionId tid = new TransactionId();
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		int n = 0;
+		while (it.hasNext()) {
+			it.next();
+			n++;
+		}
+		it.close();
+		Database.getBufferPool().transactionComplete(tid);
+		assertEquals(tuples.size() + inserted, n);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeLatchTest.class);
+	}
+}
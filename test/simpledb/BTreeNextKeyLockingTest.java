@@ -43,7 +43,7 @@ public class BTreeNextKeyLockingTest extends SimpleDbTestBase {
 	public void nextKeyLockingTestLessThan() throws Exception {
 		
 		// This should create a B+ tree with 100 leaf pages
-		BTreeFile bigFile = BTreeUtility.createRandomBTreeFile(2, 50200,
+		BTreeFile bigFile = BTreeUtility.createRandomBTreeFile(2, 50100,
 				null, null, 0);
 
 		// get a key from the middle of the root page
@@ -145,7 +145,7 @@ public class BTreeNextKeyLockingTest extends SimpleDbTestBase {
 	@Test
 	public void nextKeyLockingTestGreaterThan() throws Exception {
 		// This should create a B+ tree with 100 leaf pages
-		BTreeFile bigFile = BTreeUtility.createRandomBTreeFile(2, 50200,
+		BTreeFile bigFile = BTreeUtility.createRandomBTreeFile(2, 50100,
 				null, null, 0);
 
 		// get a key from the middle of the root page
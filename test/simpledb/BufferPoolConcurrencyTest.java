@@ -0,0 +1,103 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.index.BTreePageId;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class BufferPoolConcurrencyTest extends SimpleDbTestBase {
+
+	private static final int THREADS = 8;
+
+	/** A table whose reads are slow and counted. */
+	private static class SlowFile implements DbFile {
+		final AtomicInteger reads = new AtomicInteger();
+
+		public Page readPage(PageId id) {
+			reads.incrementAndGet();
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+			return new CleanPage(id);
+		}
+		public void writePage(Page p) { }
+		public List<Page> insertTuple(TransactionId tid, Tuple t) { return null; }
+		public List<Page> deleteTuple(TransactionId tid, Tuple t) { return null; }
+		public DbFileIterator iterator(TransactionId tid) { return null; }
+		public int getId() { return 4711; }
+		public TupleDesc getTupleDesc() { return new TupleDesc(new Type[] { Type.INT_TYPE }); }
+	}
+
+	private static class CleanPage implements Page {
+		private final PageId pid;
+		CleanPage(PageId pid) { this.pid = pid; }
+		public PageId getId() { return pid; }
+		public TransactionId isDirty() { return null; }
+		public void markDirty(boolean dirty, TransactionId tid) { }
+		public byte[] getPageData() { return new byte[0]; }
+		public Page getBeforeImage() { return this; }
+		public void setBeforeImage() { }
+	}
+
+	private SlowFile file;
+	private BufferPool pool;
+
+	@Before public void setUpFile() {
+		file = new SlowFile();
+		Database.getCatalog().addTable(file, "slow");
+		pool = Database.resetBufferPool(4);
+	}
+
+	/**
+	 * Concurrent misses on the same page must read it from disk only once
+	 */
+	@Test public void concurrentMissesReadOnce() throws Exception {
+		PageId pid = new BTreePageId(file.getId(), 1, BTreePageId.LEAF);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<>();
+		Page[] seen = new Page[THREADS];
+		for (int i = 0; i < THREADS; i++) {
+			final int n = i;
+			Thread t = new Thread(() -> {
+				try {
+					start.await();
+					seen[n] = pool.getPage(new TransactionId(), pid, Permissions.READ_ONLY);
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			});
+			t.start();
+			threads.add(t);
+		}
+		start.countDown();
+		for (Thread t : threads)
+			t.join();
+		assertEquals(1, file.reads.get());
+		for (Page p : seen)
+			assertSame(seen[0], p);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BufferPoolConcurrencyTest.class);
+	}
+}
@@ -0,0 +1,97 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import static org.junit.Assert.*;
+
+public class BufferPoolPartitionTest extends SimpleDbTestBase {
+
+	private static final int POOL_PAGES = 10;
+	private static final int TABLE_PAGES = 8;
+	private static final int QUOTA = 3;
+
+	private HeapFile report;
+	private HeapFile orders;
+	private BufferPool pool;
+
+	@Before public void setUp() throws Exception {
+		report = SystemTestUtil.createRandomHeapFile(2, 504 * TABLE_PAGES, null, null);
+		orders = SystemTestUtil.createRandomHeapFile(2, 504 * TABLE_PAGES, null, null);
+		Database.getCatalog().addPartition("reporting", QUOTA);
+		Database.getCatalog().addTable(report, "report", "", "reporting");
+		pool = Database.resetBufferPool(POOL_PAGES);
+	}
+
+	private void scan(HeapFile file) throws Exception {
+		TransactionId tid = new TransactionId();
+		for (int i = 0; i < file.numPages(); i++)
+			pool.getPage(tid, new HeapPageId(file.getId(), i), Permissions.READ_ONLY);
+	}
+
+	/**
+	 * Unit test that a table in a partition only replaces its own pages once
+	 * the partition is at its quota
+	 */
+	@Test public void scanStaysInPartition() throws Exception {
+		scan(orders);
+		scan(report);
+		scan(report);
+
+		BufferPool.Partition reporting = pool.getPartition("reporting");
+		assertEquals(QUOTA, reporting.getQuota());
+		assertEquals(QUOTA, reporting.getResidentPages());
+		assertEquals(2 * TABLE_PAGES, reporting.getMisses());
+		assertEquals(2 * TABLE_PAGES - QUOTA, reporting.getEvictions());
+
+		// the default partition lost pages only while the pool was full
+		BufferPool.Partition def = pool.getPartition(BufferPool.DEFAULT_PARTITION);
+		assertEquals(POOL_PAGES - QUOTA, def.getResidentPages());
+		assertEquals(TABLE_PAGES - (POOL_PAGES - QUOTA), def.getEvictions());
+
+		scan(report);
+		assertEquals(POOL_PAGES - QUOTA, def.getResidentPages());
+		assertEquals(TABLE_PAGES, def.getMisses());
+	}
+
+	/**
+	 * Unit test for partition declarations in Catalog.loadSchema()
+	 */
+	@Test public void loadSchemaPartitions() throws IOException {
+		File schema = File.createTempFile("schema", ".txt");
+		schema.deleteOnExit();
+		try (Writer w = new FileWriter(schema)) {
+			w.write("partition olap 12\n");
+			w.write("facts (id int pk, amount int) partition olap\n");
+			w.write("users (id int, name string)\n");
+		}
+		Database.getCatalog().loadSchema(schema.getAbsolutePath());
+
+		assertEquals(12, Database.getCatalog().getPartitionQuota("olap"));
+		assertEquals("olap", Database.getCatalog().getPartition(Database.getCatalog().getTableId("facts")));
+		assertNull(Database.getCatalog().getPartition(Database.getCatalog().getTableId("users")));
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BufferPoolPartitionTest.class);
+	}
+}
@@ -0,0 +1,140 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Page;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DirtyPageWriterTest extends TestUtil.CreateHeapFile {
+
+	private static final int POOL_PAGES = 20;
+
+	private BufferPool pool;
+
+	@Before public void setUp() throws Exception {
+		super.setUp();
+		pool = Database.resetBufferPool(POOL_PAGES);
+	}
+
+	@After public void tearDown() {
+		pool.setDirtyRatio(0);
+	}
+
+	/**
+	 * Unit test for HeapFile.writePages(): runs of adjacent pages, given
+	 * out of order, end up where writePage would have put them
+	 */
+	@Test public void writePagesCoalesces() throws Exception {
+		int[] pgNos = { 5, 1, 2, 7, 0, 3 };
+		List<Page> pages = new ArrayList<>();
+		for (int pgNo : pgNos) {
+			HeapPage page = new HeapPage(new HeapPageId(empty.getId(), pgNo), HeapPage.createEmptyPageData());
+			for (int i = 0; i <= pgNo; i++)
+				page.insertTuple(Utility.getHeapTuple(pgNo * 100 + i, 2));
+			pages.add(page);
+		}
+		empty.writePages(pages);
+
+		assertEquals(8, empty.numPages());
+		for (Page page : pages) {
+			assertArrayEquals(page.getPageData(), empty.readPage(page.getId()).getPageData());
+		}
+		assertEquals(((HeapPage) empty.readPage(new HeapPageId(empty.getId(), 6))).getNumEmptySlots(),
+				((HeapPage) empty.readPage(new HeapPageId(empty.getId(), 4))).getNumEmptySlots());
+	}
+
+	/**
+	 * Unit test that the background writer brings the number of dirty pages
+	 * back under its target, and that the pages it wrote are on disk
+	 */
+	@Test public void writerKeepsDirtyRatio() throws Exception {
+		pool.setDirtyRatio(0.5);
+		TransactionId tid = new TransactionId();
+		int perPage = ((HeapPage) empty.readPage(new HeapPageId(empty.getId(), 0))).getNumEmptySlots();
+		int tuples = perPage * 15;
+		for (int i = 0; i < tuples; i++) {
+			pool.insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+		}
+
+		long deadline = System.currentTimeMillis() + 10000;
+		while (pool.countDirty() > POOL_PAGES / 2 && System.currentTimeMillis() < deadline)
+			Thread.sleep(10);
+		assertTrue(pool.countDirty() <= POOL_PAGES / 2);
+
+		// the clean pages are the ones that were written back
+		int onDisk = 0;
+		for (int pgNo = 0; pgNo < empty.numPages(); pgNo++) {
+			HeapPage page = (HeapPage) empty.readPage(new HeapPageId(empty.getId(), pgNo));
+			onDisk += perPage - page.getNumEmptySlots();
+		}
+		assertTrue(onDisk > 0);
+		assertTrue(onDisk >= tuples - perPage * pool.countDirty());
+		assertEquals(15, empty.numPages());
+	}
+
+	/**
+	 * Unit test that aborting a transaction whose pages the background
+	 * writer wrote puts the committed contents back, on disk and in the
+	 * pool
+	 */
+	@Test public void abortAfterWriteBack() throws Exception {
+		pool.setDirtyRatio(0.5);
+		TransactionId tid = new TransactionId();
+		int perPage = ((HeapPage) empty.readPage(new HeapPageId(empty.getId(), 0))).getNumEmptySlots();
+		for (int i = 0; i < perPage * 15; i++) {
+			pool.insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+		}
+		long deadline = System.currentTimeMillis() + 10000;
+		while (pool.countDirty() > POOL_PAGES / 2 && System.currentTimeMillis() < deadline)
+			Thread.sleep(10);
+		assertTrue(pool.countDirty() <= POOL_PAGES / 2);
+		pool.setDirtyRatio(0);
+
+		// page 0 was written first; evicted and read back, it must still
+		// look empty to a snapshot
+		HeapPageId first = new HeapPageId(empty.getId(), 0);
+		assertEquals(0, ((HeapPage) empty.readPage(first)).getNumEmptySlots());
+		pool.discardPage(first);
+		Transaction snapshot = new Transaction(true);
+		snapshot.start();
+		assertEquals(perPage, ((HeapPage) pool.getPage(snapshot.getId(), first, Permissions.READ_ONLY))
+				.getNumEmptySlots());
+		snapshot.commit();
+
+		pool.transactionComplete(tid, false);
+		for (int pgNo = 0; pgNo < empty.numPages(); pgNo++) {
+			HeapPageId pid = new HeapPageId(empty.getId(), pgNo);
+			assertEquals(perPage, ((HeapPage) empty.readPage(pid)).getNumEmptySlots());
+		}
+		TransactionId reader = new TransactionId();
+		DbFileIterator it = empty.iterator(reader);
+		it.open();
+		assertFalse(it.hasNext());
+		it.close();
+		pool.transactionComplete(reader);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(DirtyPageWriterTest.class);
+	}
+}
@@ -0,0 +1,142 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.index.BTreePageId;
+import simpledb.storage.ClockProEvictionPolicy;
+import simpledb.storage.EvictionPolicy;
+import simpledb.storage.LruKEvictionPolicy;
+import simpledb.storage.PageId;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class EvictionPolicyTest extends SimpleDbTestBase {
+
+	private static final int CAPACITY = 16;
+	private static final int HOT_PAGES = 4;
+
+	/**
+	 * Minimal model of the buffer pool: fetch a page, evicting through the
+	 * policy when the pool is full.
+	 */
+	private static void fetch(EvictionPolicy policy, Set<PageId> resident, PageId pid) {
+		if (resident.contains(pid)) {
+			policy.pageAccessed(pid);
+			return;
+		}
+		if (resident.size() >= CAPACITY) {
+			PageId victim = policy.evict(p -> true);
+			assertNotNull(victim);
+			assertTrue(resident.remove(victim));
+		}
+		resident.add(pid);
+		policy.pageAdded(pid);
+	}
+
+	private static BTreePageId internal(int i) {
+		return new BTreePageId(1, i, BTreePageId.INTERNAL);
+	}
+
+	private static BTreePageId heap(int i) {
+		return new BTreePageId(2, i, BTreePageId.LEAF);
+	}
+
+	private void checkScanResistance(EvictionPolicy policy) {
+		Set<PageId> resident = new HashSet<>();
+		// index lookups make the internal pages hot
+		for (int round = 0; round < 10; round++) {
+			for (int i = 0; i < HOT_PAGES; i++) {
+				fetch(policy, resident, internal(i));
+			}
+			fetch(policy, resident, heap(1000 + round));
+		}
+		// then a full table scan touches many pages exactly once
+		for (int i = 0; i < CAPACITY * 20; i++) {
+			fetch(policy, resident, heap(i));
+			if (i % 8 == 0) {
+				fetch(policy, resident, internal(i % HOT_PAGES));
+			}
+		}
+		for (int i = 0; i < HOT_PAGES; i++) {
+			assertTrue(resident.contains(internal(i)));
+		}
+		assertTrue(resident.size() <= CAPACITY);
+	}
+
+	/**
+	 * Unit test for scan resistance of ClockProEvictionPolicy
+	 */
+	@Test public void clockProScanResistance() {
+		checkScanResistance(new ClockProEvictionPolicy(CAPACITY));
+	}
+
+	/**
+	 * Unit test for scan resistance of LruKEvictionPolicy
+	 */
+	@Test public void lruKScanResistance() {
+		checkScanResistance(new LruKEvictionPolicy(CAPACITY, 2));
+	}
+
+	private void checkRespectsEvictable(EvictionPolicy policy) {
+		for (int i = 0; i < CAPACITY; i++) {
+			policy.pageAdded(heap(i));
+		}
+		// only one page may go
+		PageId victim = policy.evict(p -> p.equals(heap(7)));
+		assertEquals(heap(7), victim);
+		// nothing may go
+		assertNull(policy.evict(p -> false));
+		// a removed page is never chosen
+		policy.pageRemoved(heap(3));
+		Set<PageId> evicted = new HashSet<>();
+		PageId pid;
+		while ((pid = policy.evict(p -> true)) != null) {
+			assertTrue(evicted.add(pid));
+		}
+		assertEquals(CAPACITY - 2, evicted.size());
+		assertFalse(evicted.contains(heap(3)));
+		assertFalse(evicted.contains(heap(7)));
+	}
+
+	/**
+	 * Unit test for ClockProEvictionPolicy.evict() with pinned pages
+	 */
+	@Test public void clockProRespectsEvictable() {
+		checkRespectsEvictable(new ClockProEvictionPolicy(CAPACITY));
+	}
+
+	/**
+	 * Unit test for LruKEvictionPolicy.evict() with pinned pages
+	 */
+	@Test public void lruKRespectsEvictable() {
+		checkRespectsEvictable(new LruKEvictionPolicy(CAPACITY, 2));
+	}
+
+	/**
+	 * Unit test for EvictionPolicy.create()
+	 */
+	@Test public void create() {
+		assertTrue(EvictionPolicy.create(null, CAPACITY) instanceof ClockProEvictionPolicy);
+		assertTrue(EvictionPolicy.create("clock-pro", CAPACITY) instanceof ClockProEvictionPolicy);
+		assertTrue(EvictionPolicy.create("LRU-K", CAPACITY) instanceof LruKEvictionPolicy);
+		try {
+			EvictionPolicy.create("random", CAPACITY);
+			fail("expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(EvictionPolicyTest.class);
+	}
+}
@@ -0,0 +1,197 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LogFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class GroupCommitTest extends SimpleDbTestBase {
+
+	private LogFile log;
+
+	@Before public void setUp() throws Exception {
+		File f = File.createTempFile("groupcommit", ".log");
+		f.deleteOnExit();
+		log = new LogFile(f);
+	}
+
+	private void commit() throws Exception {
+		TransactionId tid = new TransactionId();
+		log.logXactionBegin(tid);
+		log.logCommit(tid);
+	}
+
+	/**
+	 * Unit test that commits arriving together share one force, which
+	 * happens as soon as the batch is full
+	 */
+	@Test public void batchSharesForce() throws Exception {
+		log.setGroupCommit(10_000_000, 4);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> committers = new ArrayList<>();
+		List<Exception> errors = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			Thread t = new Thread(() -> {
+				try {
+					start.await();
+					commit();
+				} catch (Exception e) {
+					synchronized (errors) {
+						errors.add(e);
+					}
+				}
+			});
+			t.start();
+			committers.add(t);
+		}
+		long begin = System.nanoTime();
+		start.countDown();
+		for (Thread t : committers)
+			t.join(5000);
+		assertTrue(errors.isEmpty());
+		assertTrue(System.nanoTime() - begin < 5_000_000_000L);
+		assertEquals(4, log.getFlusher().getCommits());
+		assertEquals(1, log.getFlusher().getForces());
+	}
+
+	/**
+	 * Unit test that transactions that insert tuples commit with the
+	 * forces of the batch, their page writes included, and never force the
+	 * log alone
+	 */
+	@Test public void insertsShareForces() throws Exception {
+		Database.getLogFile().setGroupCommit(10_000_000, 4);
+		List<HeapFile> tables = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			File f = File.createTempFile("groupcommit", ".dat");
+			f.deleteOnExit();
+			tables.add(Utility.createEmptyHeapFile(f.getAbsolutePath(), 2));
+		}
+		long forces = Database.getLogFile().getForces();
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> committers = new ArrayList<>();
+		List<Exception> errors = new ArrayList<>();
+		for (HeapFile table : tables) {
+			Thread t = new Thread(() -> {
+				try {
+					start.await();
+					Transaction tx = new Transaction();
+					tx.start();
+					for (int j = 0; j < 10; j++)
+						Database.getBufferPool().insertTuple(tx.getId(), table.getId(), Utility.getHeapTuple(j, 2));
+					tx.commit();
+				} catch (Exception e) {
+					synchronized (errors) {
+						errors.add(e);
+					}
+				}
+			});
+			t.start();
+			committers.add(t);
+		}
+		long begin = System.nanoTime();
+		start.countDown();
+		for (Thread t : committers)
+			t.join(5000);
+		assertTrue(errors.isEmpty());
+		assertTrue(System.nanoTime() - begin < 5_000_000_000L);
+		// one force before the pages are written, one for the commit records
+		assertEquals(2, Database.getLogFile().getForces() - forces);
+		assertEquals(4, Database.getLogFile().getFlusher().getCommits());
+		// and the pages are on disk
+		for (HeapFile table : tables) {
+			HeapPage p = (HeapPage) table.readPage(new HeapPageId(table.getId(), 0));
+			int n = 0;
+			for (Iterator<?> it = p.iterator(); it.hasNext(); it.next())
+				n++;
+			assertEquals(10, n);
+		}
+	}
+
+	/**
+	 * Unit test that a lone commit waits out the delay and no longer
+	 */
+	@Test public void delayBoundsLatency() throws Exception {
+		log.setGroupCommit(50_000, 64);
+		long begin = System.nanoTime();
+		commit();
+		long elapsed = System.nanoTime() - begin;
+		assertTrue(elapsed >= 50_000_000L);
+		assertTrue(elapsed < 5_000_000_000L);
+		assertEquals(1, log.getFlusher().getForces());
+	}
+
+	/**
+	 * Unit test that an asynchronous commit returns without a force, and
+	 * the flusher forces it once the lag is up
+	 */
+	@Test public void asyncCommitBoundsLag() throws Exception {
+		log.setAsyncCommitLag(200_000);
+		TransactionId tid = new TransactionId();
+		log.logXactionBegin(tid);
+		long begin = System.nanoTime();
+		log.logCommit(tid, true);
+		assertEquals(0, log.getFlusher().getForces());
+		while (log.getFlusher().getForces() == 0 && System.nanoTime() - begin < 5_000_000_000L)
+			Thread.sleep(5);
+		long elapsed = System.nanoTime() - begin;
+		assertEquals(1, log.getFlusher().getForces());
+		assertEquals(1, log.getFlusher().getAsyncCommits());
+		assertTrue(elapsed >= 200_000_000L);
+		assertTrue(elapsed < 5_000_000_000L);
+	}
+
+	/**
+	 * Unit test that an asynchronous commit of a transaction that inserts
+	 * tuples forces nothing, and leaves its page to be written later
+	 */
+	@Test public void asyncInsertNeverForces() throws Exception {
+		Database.getLogFile().setAsyncCommitLag(10_000_000);
+		File f = File.createTempFile("groupcommit", ".dat");
+		f.deleteOnExit();
+		HeapFile table = Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+		long forces = Database.getLogFile().getForces();
+		Transaction tx = new Transaction();
+		tx.setAsyncCommit(true);
+		tx.start();
+		for (int j = 0; j < 10; j++)
+			Database.getBufferPool().insertTuple(tx.getId(), table.getId(), Utility.getHeapTuple(j, 2));
+		tx.commit();
+		assertEquals(forces, Database.getLogFile().getForces());
+		HeapPageId pid = new HeapPageId(table.getId(), 0);
+		assertFalse(((HeapPage) table.readPage(pid)).iterator().hasNext());
+
+		// a flush forces the log and writes the committed page
+		Database.getBufferPool().flushAllPages();
+		assertTrue(Database.getLogFile().getForces() > forces);
+		int n = 0;
+		for (Iterator<?> it = ((HeapPage) table.readPage(pid)).iterator(); it.hasNext(); it.next())
+			n++;
+		assertEquals(10, n);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(GroupCommitTest.class);
+	}
+}
@@ -90,6 +90,54 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         it.close();
     }
 
+    /**
+     * Unit test that HeapFile.insertTuple() goes to a page with room, as
+     * recorded by the free-space map, reuses slots freed by deleteTuple(),
+     * and sees the slots an abort frees
+     */
+    @Test public void insertUsesFreeSpace() throws Exception {
+        HeapFile file = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        int tableId = file.getId();
+        int numTuples = (BufferPool.getPageSize()*8) / (8 * 8 + 1);
+        int headerSize = (int) Math.ceil(numTuples / 8.0);
+        byte[] full = new byte[BufferPool.getPageSize()];
+        Arrays.fill(full, 0, headerSize, (byte) 0xFF);
+        file.writePage(new HeapPage(new HeapPageId(tableId, 0), full));
+        file.writePage(new HeapPage(new HeapPageId(tableId, 1), full));
+        file.writePage(new HeapPage(new HeapPageId(tableId, 2), HeapPage.createEmptyPageData()));
+        file.writePage(new HeapPage(new HeapPageId(tableId, 3), full));
+
+        Tuple t = Utility.getHeapTuple(1, 2);
+        file.insertTuple(tid, t);
+        assertEquals(2, t.getRecordId().getPageId().getPageNumber());
+        assertEquals(4, file.numPages());
+
+        DbFileIterator it = file.iterator(tid);
+        it.open();
+        Tuple victim = it.next();
+        it.close();
+        assertEquals(0, victim.getRecordId().getPageId().getPageNumber());
+        file.deleteTuple(tid, victim);
+        Tuple u = Utility.getHeapTuple(2, 2);
+        file.insertTuple(tid, u);
+        assertEquals(victim.getRecordId(), u.getRecordId());
+        Database.getBufferPool().transactionComplete(tid);
+
+        // an aborted transaction that filled page 2 leaves it with room
+        TransactionId filler = new TransactionId();
+        for (int i = 1; i < numTuples; i++) {
+            Tuple f = Utility.getHeapTuple(i, 2);
+            Database.getBufferPool().insertTuple(filler, tableId, f);
+            assertEquals(2, f.getRecordId().getPageId().getPageNumber());
+        }
+        Database.getBufferPool().transactionComplete(filler, false);
+        tid = new TransactionId();
+        Tuple v = Utility.getHeapTuple(3, 2);
+        Database.getBufferPool().insertTuple(tid, tableId, v);
+        assertEquals(2, v.getRecordId().getPageId().getPageNumber());
+        assertEquals(4, file.numPages());
+    }
+
     /**
      * JUnit suite target
      */
@@ -14,6 +14,7 @@ import simpledb.common.DbException;
 import simpledb.common.Utility;
 import simpledb.storage.HeapPage;
 import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
@@ -131,6 +132,39 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test that tuples handed out by HeapPage.iterator() keep their
+     * values after they are deleted and their slot is reused
+     */
+    @Test public void tupleOutlivesSlot() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        Tuple first = page.iterator().next();
+        int[] values = { ((IntField) first.getField(0)).getValue(),
+                ((IntField) first.getField(1)).getValue() };
+
+        page.deleteTuple(first);
+        page.insertTuple(Utility.getHeapTuple(-1, 2));
+        assertEquals(first.getRecordId().getTupleNumber(),
+                page.iterator().next().getRecordId().getTupleNumber());
+        assertEquals(values[0], ((IntField) first.getField(0)).getValue());
+        assertEquals(values[1], ((IntField) first.getField(1)).getValue());
+    }
+
+    /**
+     * Unit test that modifying a HeapPage leaves the data it was built from
+     * and its before image unchanged
+     */
+    @Test public void modifyCopiesData() throws Exception {
+        byte[] data = HeapPageReadTest.EXAMPLE_DATA.clone();
+        HeapPage page = new HeapPage(pid, data);
+        int free = page.getNumEmptySlots();
+        page.insertTuple(Utility.getHeapTuple(7, 2));
+
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, data);
+        assertEquals(free, page.getBeforeImage().getNumEmptySlots());
+        assertEquals(free - 1, new HeapPage(pid, page.getPageData()).getNumEmptySlots());
+    }
+
     /**
      * JUnit suite target
      */
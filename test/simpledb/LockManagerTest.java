@@ -0,0 +1,218 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.transaction.LockManager;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LockManagerTest {
+
+	private LockManager locks;
+	private ExecutorService threads;
+	private PageId p0, p1, p2;
+
+	@Before public void setUp() {
+		locks = new LockManager();
+		threads = Executors.newCachedThreadPool();
+		p0 = new HeapPageId(1, 0);
+		p1 = new HeapPageId(1, 1);
+		p2 = new HeapPageId(1, 2);
+	}
+
+	@After public void tearDown() {
+		threads.shutdownNow();
+	}
+
+	private Future<?> acquireLater(TransactionId tid, PageId pid, boolean exclusive) throws Exception {
+		Future<?> f = threads.submit(() -> {
+			locks.acquire(tid, pid, exclusive);
+			return null;
+		});
+		// give the request time to block
+		Thread.sleep(100);
+		assertFalse(f.isDone());
+		return f;
+	}
+
+	/**
+	 * Unit test that the request closing a cycle of three transactions
+	 * aborts the youngest, and the others go ahead once it releases its locks
+	 */
+	@Test public void youngestOnCycleIsVictim() throws Exception {
+		TransactionId t1 = new TransactionId(), t2 = new TransactionId(), t3 = new TransactionId();
+		locks.acquire(t1, p0, true);
+		locks.acquire(t2, p1, true);
+		locks.acquire(t3, p2, false);
+		Future<?> w1 = acquireLater(t1, p1, false);
+		Future<?> w2 = acquireLater(t2, p2, true);
+
+		try {
+			locks.acquire(t3, p0, false);
+			fail("expected t3 to be aborted");
+		} catch (TransactionAbortedException e) {
+			// expected
+		}
+		assertEquals(1, locks.getDeadlocks());
+		assertTrue(locks.getDetections() >= 3);
+
+		locks.releaseAll(t3);
+		w2.get(1, TimeUnit.SECONDS);
+		locks.releaseAll(t2);
+		w1.get(1, TimeUnit.SECONDS);
+		assertTrue(locks.holdsLock(t1, p1));
+	}
+
+	/**
+	 * Unit test that a waiting transaction is aborted when an older one
+	 * closes a cycle with it
+	 */
+	@Test public void waitingVictimIsWoken() throws Exception {
+		TransactionId older = new TransactionId(), younger = new TransactionId();
+		locks.acquire(older, p0, false);
+		locks.acquire(younger, p0, false);
+		Future<?> upgrade = acquireLater(younger, p0, true);
+		Future<?> olderUpgrade = threads.submit(() -> {
+			locks.acquire(older, p0, true);
+			return null;
+		});
+
+		try {
+			upgrade.get(1, TimeUnit.SECONDS);
+			fail("expected the younger transaction to be aborted");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof TransactionAbortedException);
+		}
+		assertEquals(1, locks.getDeadlocks());
+		locks.releaseAll(younger);
+		olderUpgrade.get(1, TimeUnit.SECONDS);
+		assertTrue(locks.holdsExclusive(older, p0));
+	}
+
+	/**
+	 * Unit test that a table S lock coexists with page readers but keeps
+	 * out page writers
+	 */
+	@Test public void tableLockBlocksPageWriters() throws Exception {
+		TransactionId reader = new TransactionId(), scanner = new TransactionId(), writer = new TransactionId();
+		locks.acquire(reader, p0, false);
+		locks.lockTable(scanner, 1, false);
+		assertEquals(LockManager.Mode.IS, locks.getTableMode(reader, 1));
+		assertTrue(locks.holdsLock(scanner, p2));
+
+		// the table lock covers the page, so nothing more is locked
+		int before = locks.getLockCount();
+		locks.acquire(scanner, p1, false);
+		assertEquals(before, locks.getLockCount());
+
+		Future<?> write = acquireLater(writer, p2, true);
+		locks.releaseAll(scanner);
+		write.get(1, TimeUnit.SECONDS);
+		assertEquals(LockManager.Mode.IX, locks.getTableMode(writer, 1));
+		assertTrue(locks.holdsExclusive(writer, p2));
+	}
+
+	/**
+	 * Unit test that page locks past the threshold become one table lock
+	 */
+	@Test public void escalation() throws Exception {
+		locks.setEscalationThreshold(4);
+		TransactionId reader = new TransactionId(), writer = new TransactionId();
+		for (int i = 0; i < 5; i++)
+			locks.acquire(reader, new HeapPageId(1, i), false);
+		assertEquals(LockManager.Mode.S, locks.getTableMode(reader, 1));
+		assertEquals(1, locks.getLockCount());
+		assertTrue(locks.holdsLock(reader, new HeapPageId(1, 100)));
+
+		// escalating to X would have to wait for the reader, so the page locks stay
+		locks.acquire(writer, new HeapPageId(2, 0), true);
+		locks.acquire(reader, new HeapPageId(2, 1), false);
+		for (int i = 2; i < 7; i++)
+			locks.acquire(writer, new HeapPageId(2, i), true);
+		assertEquals(LockManager.Mode.IX, locks.getTableMode(writer, 2));
+		locks.releaseAll(reader);
+		locks.acquire(writer, new HeapPageId(2, 7), true);
+		assertEquals(LockManager.Mode.X, locks.getTableMode(writer, 2));
+		assertEquals(2, locks.getEscalations());
+		assertEquals(1, locks.getLockCount());
+	}
+
+	/**
+	 * Unit test that tryAcquire grants what it can at once and acquires
+	 * nothing otherwise
+	 */
+	@Test public void tryAcquireNeverWaits() throws Exception {
+		TransactionId t1 = new TransactionId(), t2 = new TransactionId();
+		assertTrue(locks.tryAcquire(t1, p0, false));
+		assertTrue(locks.tryAcquire(t2, p0, false));
+		assertFalse(locks.tryAcquire(t2, p0, true));
+		assertFalse(locks.holdsExclusive(t2, p0));
+		assertTrue(locks.tryAcquire(t1, p1, true));
+		assertFalse(locks.tryAcquire(t2, p1, false));
+		assertFalse(locks.holdsLock(t2, p1));
+		locks.releaseAll(t1);
+		assertTrue(locks.tryAcquire(t2, p0, true));
+		assertTrue(locks.holdsExclusive(t2, p0));
+	}
+
+	/**
+	 * Unit test that a lock a transaction already holds, or its table lock
+	 * covers, is granted without the manager's monitor, and that released
+	 * locks are asked for again
+	 */
+	@Test public void heldLockTakesNoMonitor() throws Exception {
+		TransactionId t1 = new TransactionId(), t2 = new TransactionId();
+		locks.acquire(t1, p0, true);
+		locks.lockTable(t1, 2, false);
+		CountDownLatch holding = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(1);
+		threads.submit(() -> {
+			synchronized (locks) {
+				holding.countDown();
+				done.await();
+			}
+			return null;
+		});
+		holding.await();
+		Future<?> f = threads.submit(() -> {
+			locks.acquire(t1, p0, false);
+			locks.acquire(t1, p0, true);
+			locks.acquire(t1, new HeapPageId(2, 5), false);
+			return null;
+		});
+		try {
+			f.get(5, TimeUnit.SECONDS);
+		} finally {
+			done.countDown();
+		}
+
+		locks.release(t1, p0);
+		assertTrue(locks.tryAcquire(t2, p0, true));
+		assertFalse(locks.tryAcquire(t1, p0, false));
+		locks.releaseAll(t2);
+		locks.releaseAll(t1);
+		assertTrue(locks.tryAcquire(t2, new HeapPageId(2, 5), true));
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(LockManagerTest.class);
+	}
+}
@@ -0,0 +1,195 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.Transaction;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.util.Iterator;
+
+import static org.junit.Assert.*;
+
+public class LogSegmentTest extends SimpleDbTestBase {
+
+	private static final int SEGMENT_SIZE = 4096;
+
+	private File file;
+	private HeapFile hf;
+
+	@Before public void setUp() throws Exception {
+		System.setProperty("simpledb.storage.LogSegmentSize", Integer.toString(SEGMENT_SIZE));
+		Database.reset();
+		file = File.createTempFile("logsegment", ".dat");
+		file.deleteOnExit();
+		hf = Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+	}
+
+	@After public void tearDown() {
+		System.clearProperty("simpledb.storage.LogSegmentSize");
+		Database.reset();
+	}
+
+	/** @return the segment files of the log, in the working directory */
+	private static File[] segments() {
+		File[] files = new File(".").getAbsoluteFile().listFiles((d, name) -> name.matches("log\\.\\d{10}"));
+		assertNotNull(files);
+		return files;
+	}
+
+	/**
+	 * @return the bytes of disk allocated to f, as stat reports them; the
+	 *         test is skipped where there is no GNU stat
+	 */
+	private static long allocated(File f) throws Exception {
+		Process p = new ProcessBuilder("stat", "-c", "%b %B", f.getPath()).start();
+		String out;
+		try (BufferedReader r = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
+			out = r.readLine();
+		}
+		Assume.assumeTrue(p.waitFor() == 0 && out != null);
+		String[] fields = out.trim().split(" ");
+		return Long.parseLong(fields[0]) * Long.parseLong(fields[1]);
+	}
+
+	/** Commit n one-tuple transactions. */
+	private void commitInserts(int n) throws Exception {
+		for (int i = 0; i < n; i++) {
+			Transaction t = new Transaction();
+			t.start();
+			Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(i, 2));
+			t.commit();
+		}
+	}
+
+	/** Insert n tuples in one transaction and crash after its commit
+	    record is forced but before its page is. */
+	private void logInserts(int n) throws Exception {
+		Transaction t = new Transaction();
+		t.start();
+		for (int i = 0; i < n; i++)
+			Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(i, 2));
+		Database.getLogFile().logCommit(t.getId());
+	}
+
+	private void crashAndRecover() throws Exception {
+		Database.reset();
+		hf = Utility.openHeapFile(2, file);
+		Database.getLogFile().recover();
+	}
+
+	/** @return the number of tuples on page 0, as it is on disk */
+	private int onDisk() {
+		HeapPage p = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+		int n = 0;
+		for (Iterator<?> it = p.iterator(); it.hasNext(); it.next())
+			n++;
+		return n;
+	}
+
+	/**
+	 * Unit test that segments are created with all of their blocks
+	 * allocated, with the next one ahead of the appends
+	 */
+	@Test public void preallocate() throws Exception {
+		long start = Database.getLogFile().getEndLSN();
+		commitInserts(1);
+		assertTrue(Database.getLogFile().getEndLSN() - start < SEGMENT_SIZE);
+		// waits for the preallocation
+		Database.getLogFile().shutdown();
+		File[] files = segments();
+		assertEquals(2, files.length);
+		for (File f : files) {
+			assertEquals(SEGMENT_SIZE, f.length());
+			assertTrue(allocated(f) >= SEGMENT_SIZE);
+		}
+	}
+
+	/**
+	 * Unit test that a segment whose preallocation failed is created when
+	 * the appends reach it
+	 */
+	@Test public void preallocationFailureRetried() throws Exception {
+		// start the log afresh, then put a directory where the second
+		// segment goes, which makes creating it fail
+		Database.getLogFile().getEndLSN();
+		File blocker = new File(new File(".").getAbsoluteFile(), "log.0000000001");
+		assertTrue(blocker.mkdir());
+		try {
+			commitInserts(1);
+			// let the preallocation fail
+			Thread.sleep(500);
+		} finally {
+			assertTrue(blocker.delete());
+		}
+		commitInserts(100);
+		assertTrue(Database.getLogFile().getEndLSN() > 2 * SEGMENT_SIZE);
+	}
+
+	/**
+	 * Unit test that a checkpoint deletes the segments holding only
+	 * records that are no longer needed
+	 */
+	@Test public void truncateDeletesSegments() throws Exception {
+		commitInserts(200);
+		assertTrue(Database.getLogFile().getEndLSN() > 5 * SEGMENT_SIZE);
+		assertTrue(segments().length > 5);
+
+		Database.getLogFile().logCheckpoint();
+		// the segment with the checkpoint, and the next one
+		assertTrue(segments().length <= 3);
+		assertEquals(200, onDisk());
+	}
+
+	/**
+	 * Unit test that recovery reads records that span segments, and
+	 * redoes them
+	 */
+	@Test public void recoverAcrossSegments() throws Exception {
+		logInserts(400);
+		assertTrue(Database.getLogFile().getEndLSN() > 3 * SEGMENT_SIZE);
+
+		crashAndRecover();
+		assertEquals(400, Database.getLogFile().getRedoCount());
+		assertEquals(400, onDisk());
+
+		// and appends carry on after the last record
+		commitInserts(1);
+		crashAndRecover();
+		assertEquals(0, Database.getLogFile().getRedoCount());
+		assertEquals(401, onDisk());
+	}
+
+	/**
+	 * Unit test that recovery after a checkpoint needs only the segments
+	 * truncation kept
+	 */
+	@Test public void recoverAfterTruncation() throws Exception {
+		commitInserts(100);
+		Database.getLogFile().logCheckpoint();
+		logInserts(100);
+
+		crashAndRecover();
+		assertEquals(100, Database.getLogFile().getRedoCount());
+		assertEquals(200, onDisk());
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(LogSegmentTest.class);
+	}
+}
@@ -0,0 +1,117 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreePageId;
+import simpledb.index.BTreeRootPtrPage;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class MappedFileTest extends SimpleDbTestBase {
+
+	/**
+	 * Unit test for MappedFile.region() and MappedFile.read()
+	 */
+	@Test public void readRegions() throws Exception {
+		File f = File.createTempFile("mapped", ".dat");
+		f.deleteOnExit();
+		byte[] data = new byte[3 * 4096];
+		for (int i = 0; i < data.length; i++)
+			data[i] = (byte) (i * 7);
+		try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+			raf.write(data);
+		}
+		MappedFile mf = new MappedFile(f, 4096);
+		ByteBuffer b = mf.region(4096, 4096);
+		assertEquals(4096, b.remaining());
+		for (int i = 0; i < 4096; i++)
+			assertEquals(data[4096 + i], b.get());
+		assertArrayEquals(java.util.Arrays.copyOfRange(data, 100, 200), mf.read(100, 100));
+
+		try {
+			mf.read(2 * 4096, 4097);
+			fail("expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+
+		// the mapping follows the file as it grows
+		try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+			raf.seek(data.length);
+			raf.write(data, 0, 4096);
+		}
+		assertArrayEquals(java.util.Arrays.copyOfRange(data, 0, 4096), mf.read(3 * 4096, 4096));
+	}
+
+	/**
+	 * HeapFile.readPage() returns the same pages with and without the mapping,
+	 * including pages appended with writePage()
+	 */
+	@Test public void heapFileMappedReads() throws Exception {
+		HeapFile hf = SystemTestUtil.createRandomHeapFile(3, 5000, null, null);
+		hf.setMemoryMapped(true);
+		int numPages = hf.numPages();
+		assertTrue(numPages > 1);
+		for (int i = 0; i < numPages; i++) {
+			HeapPageId pid = new HeapPageId(hf.getId(), i);
+			hf.setMemoryMapped(false);
+			byte[] expected = hf.readPage(pid).getPageData();
+			hf.setMemoryMapped(true);
+			assertArrayEquals(expected, hf.readPage(pid).getPageData());
+		}
+
+		HeapPage copy = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+		HeapPage appended = new HeapPage(new HeapPageId(hf.getId(), numPages), copy.getPageData());
+		hf.writePage(appended);
+		assertEquals(numPages + 1, hf.numPages());
+		assertArrayEquals(copy.getPageData(),
+				hf.readPage(new HeapPageId(hf.getId(), numPages)).getPageData());
+	}
+
+	/**
+	 * BTreeFile.readPage() returns the same pages with and without the mapping
+	 */
+	@Test public void bTreeFileMappedReads() throws Exception {
+		BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 5000, null, null, 0);
+		Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+		BTreePageId rootPtrId = BTreeRootPtrPage.getId(bf.getId());
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) bf.readPage(rootPtrId);
+		bf.setMemoryMapped(true);
+		assertArrayEquals(rootPtr.getPageData(), bf.readPage(rootPtrId).getPageData());
+
+		BTreePageId rootId = rootPtr.getRootId();
+		bf.setMemoryMapped(false);
+		byte[] expectedRoot = bf.readPage(rootId).getPageData();
+		bf.setMemoryMapped(true);
+		assertArrayEquals(expectedRoot, bf.readPage(rootId).getPageData());
+
+		// compare the raw bytes of every page, read as header pages
+		assertTrue(bf.numPages() > 1);
+		for (int i = 1; i <= bf.numPages(); i++) {
+			BTreePageId pid = new BTreePageId(bf.getId(), i, BTreePageId.HEADER);
+			bf.setMemoryMapped(false);
+			byte[] expected = bf.readPage(pid).getPageData();
+			bf.setMemoryMapped(true);
+			assertArrayEquals(expected, bf.readPage(pid).getPageData());
+		}
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(MappedFileTest.class);
+	}
+}
@@ -0,0 +1,142 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.PageFrameArena;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PageFrameArenaTest extends SimpleDbTestBase {
+
+	/**
+	 * Unit test for PageFrameArena.Frame fill(), copyTo() and toArray()
+	 */
+	@Test public void copyBetweenFrames() {
+		PageFrameArena arena = PageFrameArena.get();
+		Object owner = new Object();
+		PageFrameArena.Frame a = arena.acquire(owner);
+		PageFrameArena.Frame b = arena.acquire(owner);
+
+		byte[] data = new byte[BufferPool.getPageSize()];
+		Arrays.fill(data, (byte) 7);
+		b.fill(data);
+		a.fill(new byte[] { 1, 2, 3 });
+		byte[] expected = new byte[BufferPool.getPageSize()];
+		expected[0] = 1;
+		expected[1] = 2;
+		expected[2] = 3;
+		assertArrayEquals(expected, a.toArray());
+
+		a.copyTo(b);
+		assertArrayEquals(expected, b.toArray());
+		assertEquals(0, a.buffer().position());
+		assertEquals(BufferPool.getPageSize(), a.buffer().limit());
+	}
+
+	/**
+	 * Unit test that a frame goes back to the arena when its last reference
+	 * is released, and not before
+	 */
+	@Test public void releaseLastReference() {
+		PageFrameArena arena = PageFrameArena.get();
+		List<Object> owners = new ArrayList<>();
+		int capacity = arena.getCapacity();
+		for (int i = 0; i < 20000; i++) {
+			Object owner = new Object();
+			owners.add(owner);
+			PageFrameArena.Frame f = arena.acquire(owner);
+			f.retain();
+			f.release();
+			f.retain();
+			f.release();
+			f.release();
+		}
+		// every owner is still reachable, so only the releases gave frames back
+		assertTrue(arena.getCapacity() - capacity < 1000);
+
+		PageFrameArena.Frame f = arena.acquire(owners.get(0));
+		f.release();
+		try {
+			f.release();
+			fail("released a frame twice");
+		} catch (IllegalStateException expected) {
+		}
+		try {
+			f.retain();
+			fail("retained a released frame");
+		} catch (IllegalStateException expected) {
+		}
+	}
+
+	/**
+	 * Unit test that pages evicted from the BufferPool give their frames
+	 * back, and that a tuple of an evicted page still reads its values
+	 */
+	@Test public void evictionReleasesFrames() throws Exception {
+		PageFrameArena arena = PageFrameArena.get();
+		List<List<Integer>> tuples = new ArrayList<>();
+		HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 50 * 504, null, tuples);
+		assertEquals(50, hf.numPages());
+		Database.resetBufferPool(4);
+		TransactionId tid = new TransactionId();
+		DbFileIterator it = hf.iterator(tid);
+		it.open();
+		Tuple first = it.next();
+		int inUse = arena.getInUse();
+		while (it.hasNext())
+			it.next();
+		it.close();
+		// 49 more pages were read through a pool of 4
+		assertTrue(arena.getInUse() - inUse < 10);
+
+		// the fields of first are decoded only now, long after its page left the pool
+		for (int i = 0; i < 2; i++)
+			assertEquals((int) tuples.get(0).get(i), ((IntField) first.getField(i)).getValue());
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * Unit test that frames of owners collected without releasing them are
+	 * reclaimed instead of the arena growing
+	 */
+	@Test public void framesAreRecycled() throws Exception {
+		PageFrameArena arena = PageFrameArena.get();
+		long leaked = arena.getLeaked();
+		for (int round = 0; round < 20; round++) {
+			List<Object> owners = new ArrayList<>();
+			for (int i = 0; i < 1000; i++) {
+				Object owner = new Object();
+				arena.acquire(owner);
+				owners.add(owner);
+			}
+			owners.clear();
+			System.gc();
+			Thread.sleep(10);
+		}
+		// 20000 frames were handed out; without recycling the arena would hold them all
+		assertTrue(arena.getCapacity() < 10000);
+		assertTrue(arena.getLeaked() > leaked);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(PageFrameArenaTest.class);
+	}
+}
@@ -0,0 +1,108 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ReadAheadTest extends SimpleDbTestBase {
+
+	/** A HeapFile that counts its page reads. */
+	private static class CountingHeapFile extends HeapFile {
+		final AtomicInteger reads = new AtomicInteger();
+
+		CountingHeapFile(File f, TupleDesc td) {
+			super(f, td);
+		}
+
+		@Override
+		public Page readPage(PageId pid) {
+			reads.incrementAndGet();
+			return super.readPage(pid);
+		}
+	}
+
+	private CountingHeapFile hf;
+
+	@Before public void createFile() throws Exception {
+		File f = SystemTestUtil.createRandomHeapFileUnopened(2, 20000, 1000, null, null);
+		hf = new CountingHeapFile(f, Utility.getTupleDesc(2));
+		Database.getCatalog().addTable(hf, "readahead");
+		Database.resetBufferPool(64);
+	}
+
+	private void awaitReads(int n) throws InterruptedException {
+		for (int i = 0; i < 500 && hf.reads.get() < n; i++)
+			Thread.sleep(10);
+		assertEquals(n, hf.reads.get());
+	}
+
+	/**
+	 * Unit test for ReadAhead.pageAccessed(): a sequential run prefetches
+	 * the pages after it, and fetching them afterwards causes no reads
+	 */
+	@Test public void prefetchesSequentialRun() throws Exception {
+		assertTrue(hf.numPages() > 10);
+		ReadAhead ra = new ReadAhead(n -> new HeapPageId(hf.getId(), n), hf.numPages());
+		BufferPool pool = Database.getBufferPool();
+		TransactionId tid = new TransactionId();
+
+		ra.pageAccessed(0);
+		pool.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+		ra.pageAccessed(1);
+		pool.getPage(tid, new HeapPageId(hf.getId(), 1), Permissions.READ_ONLY);
+		// pages 2 and 3 are on their way
+		awaitReads(2 + ReadAhead.MIN_WINDOW);
+		pool.getPage(tid, new HeapPageId(hf.getId(), 2), Permissions.READ_ONLY);
+		pool.getPage(tid, new HeapPageId(hf.getId(), 3), Permissions.READ_ONLY);
+		assertEquals(2 + ReadAhead.MIN_WINDOW, hf.reads.get());
+	}
+
+	/**
+	 * Unit test for ReadAhead.pageAccessed(): random access prefetches nothing
+	 */
+	@Test public void randomAccessDoesNotPrefetch() throws Exception {
+		ReadAhead ra = new ReadAhead(n -> new HeapPageId(hf.getId(), n), hf.numPages());
+		for (int pgNo : new int[] { 7, 3, 9, 1, 5 })
+			ra.pageAccessed(pgNo);
+		Thread.sleep(100);
+		assertEquals(0, hf.reads.get());
+		assertEquals(ReadAhead.MIN_WINDOW, ra.getWindow());
+	}
+
+	/**
+	 * A full scan with read-ahead reads every page exactly once
+	 */
+	@Test public void scanReadsEachPageOnce() throws Exception {
+		DbFileIterator it = hf.iterator(new TransactionId());
+		it.open();
+		int count = 0;
+		while (it.hasNext()) {
+			it.next();
+			count++;
+		}
+		it.close();
+		assertEquals(20000, count);
+		assertEquals(hf.numPages(), hf.reads.get());
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(ReadAheadTest.class);
+	}
+}
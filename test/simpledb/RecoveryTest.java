@@ -0,0 +1,414 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeLeafPage;
+import simpledb.index.BTreePageId;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Page;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Iterator;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class RecoveryTest extends SimpleDbTestBase {
+
+	private File file;
+	private HeapFile hf;
+
+	@Before public void setUp() throws Exception {
+		file = File.createTempFile("recovery", ".dat");
+		file.deleteOnExit();
+		hf = Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+	}
+
+	private void insert(Transaction t, int v) throws Exception {
+		Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(v, 2));
+	}
+
+	private void crashAndRecover() throws Exception {
+		Database.reset();
+		hf = Utility.openHeapFile(2, file);
+		Database.getLogFile().recover();
+	}
+
+	/** @return the number of tuples on page 0, as it is on disk */
+	private int onDisk() {
+		HeapPage p = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+		int n = 0;
+		for (Iterator<?> it = p.iterator(); it.hasNext(); it.next())
+			n++;
+		return n;
+	}
+
+	/**
+	 * Unit test that logged changes set the page LSN
+	 */
+	@Test public void changesSetPageLSN() throws Exception {
+		Transaction t = new Transaction();
+		t.start();
+		insert(t, 1);
+		Page p = Database.getBufferPool().getPage(t.getId(), new HeapPageId(hf.getId(), 0),
+				Permissions.READ_ONLY);
+		long first = p.getLSN();
+		assertTrue(first > 0);
+		insert(t, 2);
+		assertTrue(p.getLSN() > first);
+		t.commit();
+	}
+
+	/**
+	 * Unit test that recovery redoes nothing for pages written since
+	 * their last change
+	 */
+	@Test public void redoSkipsWrittenPages() throws Exception {
+		Transaction t = new Transaction();
+		t.start();
+		for (int i = 0; i < 3; i++)
+			insert(t, i);
+		t.commit();
+
+		crashAndRecover();
+		assertEquals(0, Database.getLogFile().getRedoCount());
+		assertEquals(3, onDisk());
+	}
+
+	/**
+	 * Unit test that a page write is only logged as written once its file
+	 * is synced, and that the page stays in the dirty page table until then
+	 */
+	@Test public void pageWrittenAfterSync() throws Exception {
+		HeapPageId pid = new HeapPageId(hf.getId(), 0);
+		AtomicInteger syncs = new AtomicInteger();
+		AtomicBoolean dirtyAtSync = new AtomicBoolean(true);
+		hf = new HeapFile(file, Utility.getTupleDesc(2)) {
+			@Override public void sync() throws IOException {
+				syncs.incrementAndGet();
+				if (!Database.getLogFile().getDirtyPageTable().containsKey(pid))
+					dirtyAtSync.set(false);
+				super.sync();
+			}
+		};
+		Database.getCatalog().addTable(hf, UUID.randomUUID().toString());
+
+		Transaction t = new Transaction();
+		t.start();
+		insert(t, 1);
+		t.commit();
+		assertTrue(syncs.get() > 0);
+		assertTrue(dirtyAtSync.get());
+		assertFalse(Database.getLogFile().getDirtyPageTable().containsKey(pid));
+	}
+
+	/**
+	 * Unit test that recovery redoes committed changes that were not
+	 * written, and only those
+	 */
+	@Test public void redoUnwrittenChanges() throws Exception {
+		Transaction t1 = new Transaction();
+		t1.start();
+		insert(t1, 1);
+		t1.commit();
+
+		// crash after the commit record is forced but before the page is
+		Transaction t2 = new Transaction();
+		t2.start();
+		insert(t2, 2);
+		insert(t2, 3);
+		Database.getLogFile().logCommit(t2.getId());
+
+		crashAndRecover();
+		assertEquals(2, Database.getLogFile().getRedoCount());
+		assertEquals(3, onDisk());
+	}
+
+	/**
+	 * Unit test that page LSNs still match the log after a checkpoint
+	 * truncates it
+	 */
+	@Test public void redoAfterTruncation() throws Exception {
+		Transaction t1 = new Transaction();
+		t1.start();
+		insert(t1, 1);
+		t1.commit();
+		Database.getLogFile().logCheckpoint();
+
+		Transaction t2 = new Transaction();
+		t2.start();
+		insert(t2, 2);
+		Database.getLogFile().logCommit(t2.getId());
+
+		crashAndRecover();
+		assertEquals(1, Database.getLogFile().getRedoCount());
+		assertEquals(2, onDisk());
+	}
+
+	/**
+	 * Unit test that a checkpoint writes no pages but records the dirty
+	 * ones, and that recovery redoes changes logged before it
+	 */
+	@Test public void fuzzyCheckpoint() throws Exception {
+		HeapPageId pid = new HeapPageId(hf.getId(), 0);
+		Transaction t1 = new Transaction();
+		t1.start();
+		insert(t1, 1);
+		Database.getLogFile().logCommit(t1.getId());
+		Page p = Database.getBufferPool().getPage(t1.getId(), pid, Permissions.READ_ONLY);
+
+		Database.getLogFile().logCheckpoint();
+		assertNotNull(p.isDirty());
+		assertEquals(0, onDisk());
+		assertTrue(Database.getLogFile().getDirtyPageTable().containsKey(pid));
+
+		crashAndRecover();
+		assertEquals(1, Database.getLogFile().getRedoCount());
+		assertEquals(1, onDisk());
+		assertTrue(Database.getLogFile().getDirtyPageTable().isEmpty());
+	}
+
+	/**
+	 * Unit test that undoing a transaction during recovery is logged, so
+	 * that recovering again neither redoes nor undoes anything
+	 */
+	@Test public void recoveryIsLogged() throws Exception {
+		Transaction winner = new Transaction();
+		winner.start();
+		insert(winner, 1);
+		winner.commit();
+
+		Transaction loser = new Transaction();
+		loser.start();
+		insert(loser, 2);
+		insert(loser, 3);
+		Database.getBufferPool().flushAllPages();
+		Database.getLogFile().force();
+
+		crashAndRecover();
+		assertEquals(1, onDisk());
+
+		crashAndRecover();
+		assertEquals(0, Database.getLogFile().getRedoCount());
+		assertEquals(1, onDisk());
+	}
+
+	/**
+	 * Unit test that the changes undone by an abort stay undone after a
+	 * crash
+	 */
+	@Test public void abortSurvivesCrash() throws Exception {
+		Transaction t1 = new Transaction();
+		t1.start();
+		insert(t1, 1);
+		t1.commit();
+
+		Transaction t2 = new Transaction();
+		t2.start();
+		insert(t2, 2);
+		Database.getBufferPool().flushAllPages();
+		t2.abort();
+		assertEquals(1, onDisk());
+
+		crashAndRecover();
+		assertEquals(1, onDisk());
+	}
+
+	/**
+	 * Unit test that rollback undoes only the aborting transaction's
+	 * changes when its records are interleaved with another's
+	 */
+	@Test public void rollbackInterleaved() throws Exception {
+		File file2 = File.createTempFile("recovery", ".dat");
+		file2.deleteOnExit();
+		HeapFile hf2 = Utility.createEmptyHeapFile(file2.getAbsolutePath(), 2);
+
+		Transaction t1 = new Transaction();
+		t1.start();
+		Transaction t2 = new Transaction();
+		t2.start();
+		for (int i = 0; i < 3; i++) {
+			insert(t1, i);
+			Database.getBufferPool().insertTuple(t2.getId(), hf2.getId(), Utility.getHeapTuple(i, 2));
+		}
+		Database.getBufferPool().flushAllPages();
+		t2.abort();
+		t1.commit();
+		assertEquals(3, onDisk());
+		HeapPage p = (HeapPage) hf2.readPage(new HeapPageId(hf2.getId(), 0));
+		assertFalse(p.iterator().hasNext());
+
+		crashAndRecover();
+		assertEquals(0, Database.getLogFile().getRedoCount());
+		assertEquals(3, onDisk());
+	}
+
+	/**
+	 * Unit test that a crash before an asynchronous commit is forced
+	 * rolls the transaction back, keeping the commits before it
+	 */
+	@Test public void lostAsyncCommit() throws Exception {
+		Transaction t1 = new Transaction();
+		t1.start();
+		insert(t1, 1);
+		t1.commit();
+
+		Database.getLogFile().setAsyncCommitLag(10_000_000);
+		Transaction t2 = new Transaction();
+		t2.setAsyncCommit(true);
+		t2.start();
+		insert(t2, 2);
+		long unforced = Database.getLogFile().getEndLSN();
+		t2.commit();
+		assertEquals(1, onDisk());
+
+		// crash, losing the log after the last force: the page was never
+		// written and the commit record is lost with the log tail
+		Database.reset();
+		try (RandomAccessFile seg = new RandomAccessFile("log.0000000000", "rw")) {
+			seg.seek(unforced);
+			seg.write(new byte[4096]);
+		}
+		hf = Utility.openHeapFile(2, file);
+		Database.getLogFile().recover();
+		assertEquals(1, onDisk());
+	}
+
+	/**
+	 * Unit test that a commit record is in the log before the transaction
+	 * releases its locks, so that a transaction waiting on one of them can
+	 * never commit ahead of it
+	 */
+	@Test public void commitLoggedBeforeLocksReleased() throws Exception {
+		Transaction t1 = new Transaction();
+		t1.start();
+		insert(t1, 1);
+
+		HeapPageId pid = new HeapPageId(hf.getId(), 0);
+		TransactionId waiter = new TransactionId();
+		AtomicInteger seen = new AtomicInteger(-1);
+		Thread t = new Thread(() -> {
+			try {
+				Database.getBufferPool().getPage(waiter, pid, Permissions.READ_WRITE);
+				seen.set(Database.getLogFile().getTotalRecords());
+				Database.getBufferPool().transactionComplete(waiter);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		});
+		t.start();
+		while (t.getState() == Thread.State.NEW || t.getState() == Thread.State.RUNNABLE)
+			Thread.sleep(1);
+		t1.commit();
+		t.join(5000);
+		// the waiter logged nothing, and saw every record of the commit
+		assertEquals(Database.getLogFile().getTotalRecords(), seen.get());
+	}
+
+	/**
+	 * Unit test that recovery redoes an update record of a BTree page,
+	 * rebuilding the page from its page type tag
+	 */
+	@Test public void redoBTreePageImage() throws Exception {
+		File bfile = File.createTempFile("recovery", ".dat");
+		bfile.deleteOnExit();
+		BTreeFile bf = BTreeUtility.createEmptyBTreeFile(bfile.getAbsolutePath(), 2, 0, 1);
+		BTreePageId pid = new BTreePageId(bf.getId(), 1, BTreePageId.LEAF);
+		Page before = bf.readPage(pid);
+		BTreeLeafPage after = (BTreeLeafPage) bf.readPage(pid);
+		after.insertTuple(Utility.getHeapTuple(7, 2));
+
+		// crash after the commit record is forced but before the page is
+		Transaction t = new Transaction();
+		t.start();
+		Database.getLogFile().logWrite(t.getId(), before, after);
+		Database.getLogFile().logCommit(t.getId());
+
+		Database.reset();
+		bf = BTreeUtility.openBTreeFile(2, bfile, 0);
+		Database.getLogFile().recover();
+		assertEquals(1, Database.getLogFile().getRedoCount());
+		BTreeLeafPage p = (BTreeLeafPage) bf.readPage(pid);
+		assertEquals(1, p.getNumTuples());
+	}
+
+	/**
+	 * Unit test that recovery redoes nothing for a BTree page whose stored
+	 * LSN covers its changes, though no PAGE_WRITTEN record says so
+	 */
+	@Test public void redoSkipsBTreePageLSN() throws Exception {
+		File bfile = File.createTempFile("recovery", ".dat");
+		bfile.deleteOnExit();
+		BTreeFile bf = BTreeUtility.createEmptyBTreeFile(bfile.getAbsolutePath(), 2, 0, 1);
+		BTreePageId pid = new BTreePageId(bf.getId(), 1, BTreePageId.LEAF);
+		Page before = bf.readPage(pid);
+		BTreeLeafPage after = (BTreeLeafPage) bf.readPage(pid);
+		after.insertTuple(Utility.getHeapTuple(7, 2));
+
+		// crash after the page is written but before its PAGE_WRITTEN record is
+		Transaction t = new Transaction();
+		t.start();
+		Database.getLogFile().logWrite(t.getId(), before, after);
+		Database.getLogFile().logCommit(t.getId());
+		long lsn = after.getLSN();
+		bf.writePage(after);
+
+		Database.reset();
+		bf = BTreeUtility.openBTreeFile(2, bfile, 0);
+		Database.getLogFile().recover();
+		assertEquals(0, Database.getLogFile().getRedoCount());
+		BTreeLeafPage p = (BTreeLeafPage) bf.readPage(pid);
+		assertEquals(1, p.getNumTuples());
+		assertEquals(lsn, p.getLSN());
+	}
+
+	/**
+	 * Unit test that redo on several threads replays the changes to
+	 * every page, each page's in order
+	 */
+	@Test public void parallelRedo() throws Exception {
+		Transaction t = new Transaction();
+		t.start();
+		for (int i = 0; i < 2000; i++)
+			insert(t, i);
+		Database.getLogFile().logCommit(t.getId());
+		assertTrue(hf.numPages() > 3);
+
+		Database.reset();
+		hf = Utility.openHeapFile(2, file);
+		Database.getLogFile().setRedoThreads(4);
+		Database.getLogFile().recover();
+		assertEquals(2000, Database.getLogFile().getRedoCount());
+		int n = 0;
+		for (int pg = 0; pg < hf.numPages(); pg++) {
+			HeapPage p = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), pg));
+			for (Iterator<?> it = p.iterator(); it.hasNext(); it.next())
+				n++;
+		}
+		assertEquals(2000, n);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(RecoveryTest.class);
+	}
+}
@@ -0,0 +1,182 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageFrameArena;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class SnapshotTest extends TestUtil.CreateHeapFile {
+
+	private BufferPool pool;
+	private HeapPageId pid;
+
+	@Before public void setUp() throws Exception {
+		super.setUp();
+		pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+		pid = new HeapPageId(empty.getId(), 0);
+		insert(10);
+	}
+
+	/** Insert and commit n tuples in a new transaction. */
+	private void insert(int n) throws Exception {
+		TransactionId tid = new TransactionId();
+		for (int i = 0; i < n; i++)
+			pool.insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+		pool.transactionComplete(tid, true);
+	}
+
+	private int count(TransactionId tid) throws Exception {
+		int n = 0;
+		Iterator<Tuple> it = ((HeapPage) pool.getPage(tid, pid, Permissions.READ_ONLY)).iterator();
+		while (it.hasNext()) {
+			it.next();
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * Unit test that a snapshot reader neither waits for a writer nor sees
+	 * its changes, before or after it commits
+	 */
+	@Test public void readerSeesSnapshot() throws Exception {
+		Transaction reader = new Transaction(true);
+		reader.start();
+
+		TransactionId writer = new TransactionId();
+		pool.insertTuple(writer, empty.getId(), Utility.getHeapTuple(99, 2));
+		assertEquals(10, count(reader.getId()));
+		assertFalse(pool.holdsLock(reader.getId(), pid));
+		pool.transactionComplete(writer, true);
+		assertEquals(10, count(reader.getId()));
+		assertEquals(1, pool.getVersionStore().getVersionCount());
+
+		Transaction later = new Transaction(true);
+		later.start();
+		assertEquals(11, count(later.getId()));
+
+		reader.commit();
+		assertEquals(0, pool.getVersionStore().getVersionCount());
+		later.commit();
+	}
+
+	/**
+	 * Unit test that versions are only kept while a snapshot needs them
+	 */
+	@Test public void versionsAreCollected() throws Exception {
+		insert(1);
+		assertEquals(0, pool.getVersionStore().getVersionCount());
+
+		Transaction reader = new Transaction(true);
+		reader.start();
+		insert(1);
+		insert(1);
+		assertEquals(2, pool.getVersionStore().getVersionCount());
+		assertEquals(11, count(reader.getId()));
+		reader.commit();
+		assertEquals(0, pool.getVersionStore().getVersionCount());
+	}
+
+	/**
+	 * Unit test that a snapshot reader still sees the old version of a
+	 * page evicted after a commit, including while other transactions
+	 * are evicting pages during the commit
+	 */
+	@Test public void readerSeesSnapshotAfterEviction() throws Exception {
+		pool = Database.resetBufferPool(4);
+		HeapFile other = SystemTestUtil.createRandomHeapFile(2, 5000, null, null);
+		AtomicBoolean done = new AtomicBoolean();
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		Thread evictor = new Thread(() -> {
+			try {
+				while (!done.get()) {
+					TransactionId tid = new TransactionId();
+					DbFileIterator it = other.iterator(tid);
+					it.open();
+					while (it.hasNext())
+						it.next();
+					it.close();
+					pool.transactionComplete(tid);
+				}
+			} catch (Throwable e) {
+				failure.set(e);
+			}
+		});
+		evictor.start();
+		try {
+			for (int i = 0; i < 50; i++) {
+				Transaction reader = new Transaction(true);
+				reader.start();
+				insert(1);
+				pool.discardPage(pid);
+				assertEquals(10 + i, count(reader.getId()));
+				reader.commit();
+			}
+		} finally {
+			done.set(true);
+			evictor.join();
+		}
+		assertNull(failure.get());
+	}
+
+	/**
+	 * Unit test that a snapshot scan of more pages than the pool holds
+	 * gives the frames of the copies it reads back
+	 */
+	@Test public void snapshotScanReleasesFrames() throws Exception {
+		pool = Database.resetBufferPool(4);
+		HeapFile big = SystemTestUtil.createRandomHeapFile(2, 50 * 504, null, null);
+		PageFrameArena arena = PageFrameArena.get();
+		Transaction reader = new Transaction(true);
+		reader.start();
+		int inUse = arena.getInUse();
+		DbFileIterator it = big.iterator(reader.getId());
+		it.open();
+		int n = 0;
+		while (it.hasNext()) {
+			it.next();
+			n++;
+		}
+		it.close();
+		assertEquals(50 * 504, n);
+		assertTrue(arena.getInUse() - inUse < 10);
+		reader.commit();
+	}
+
+	/**
+	 * Unit test that a snapshot reader cannot write
+	 */
+	@Test(expected = DbException.class) public void readerCannotWrite() throws Exception {
+		Transaction reader = new Transaction(true);
+		reader.start();
+		pool.getPage(reader.getId(), pid, Permissions.READ_WRITE);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(SnapshotTest.class);
+	}
+}
@@ -0,0 +1,139 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.Transaction;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TupleLogTest extends SimpleDbTestBase {
+
+	private File file;
+	private HeapFile hf;
+
+	@Before public void setUp() throws Exception {
+		file = File.createTempFile("tuplelog", ".dat");
+		file.deleteOnExit();
+		hf = Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+	}
+
+	private Tuple insert(Transaction t, int v) throws Exception {
+		Tuple tup = Utility.getHeapTuple(v, 2);
+		Database.getBufferPool().insertTuple(t.getId(), hf.getId(), tup);
+		return tup;
+	}
+
+	/** @return the first field of the tuples on page 0, as it is on disk */
+	private List<Integer> onDisk() {
+		HeapPage p = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+		List<Integer> values = new ArrayList<>();
+		Iterator<Tuple> it = p.iterator();
+		while (it.hasNext())
+			values.add(((IntField) it.next().getField(0)).getValue());
+		return values;
+	}
+
+	/**
+	 * Unit test that writing a page changed only by inserts logs tuple
+	 * records instead of page images, and that aborting undoes them
+	 */
+	@Test public void insertLogsDelta() throws Exception {
+		Transaction t = new Transaction();
+		t.start();
+		long before = Database.getLogFile().getEndLSN();
+		insert(t, 1);
+		insert(t, 2);
+		Database.getBufferPool().flushAllPages();
+		assertEquals(2, onDisk().size());
+		assertTrue(Database.getLogFile().getEndLSN() - before < BufferPool.getPageSize());
+
+		t.abort();
+		assertEquals(0, onDisk().size());
+	}
+
+	/**
+	 * Unit test that aborting restores a deleted tuple that had been
+	 * written to disk
+	 */
+	@Test public void deleteRollback() throws Exception {
+		Transaction t1 = new Transaction();
+		t1.start();
+		insert(t1, 1);
+		insert(t1, 2);
+		t1.commit();
+
+		Transaction t2 = new Transaction();
+		t2.start();
+		HeapPage p = (HeapPage) Database.getBufferPool().getPage(t2.getId(),
+				new HeapPageId(hf.getId(), 0), Permissions.READ_WRITE);
+		Tuple victim = p.iterator().next();
+		int value = ((IntField) victim.getField(0)).getValue();
+		Database.getBufferPool().deleteTuple(t2.getId(), victim);
+		Database.getBufferPool().flushAllPages();
+		assertEquals(1, onDisk().size());
+
+		t2.abort();
+		List<Integer> values = onDisk();
+		assertEquals(2, values.size());
+		assertTrue(values.contains(value));
+	}
+
+	/**
+	 * Unit test that recovery redoes tuple records of committed
+	 * transactions and undoes those of transactions that never finished
+	 */
+	@Test public void recoverDeltas() throws Exception {
+		File file2 = File.createTempFile("tuplelog", ".dat");
+		file2.deleteOnExit();
+		HeapFile hf2 = Utility.createEmptyHeapFile(file2.getAbsolutePath(), 2);
+
+		// crash after the commit record is forced but before the page is
+		Transaction winner = new Transaction();
+		winner.start();
+		insert(winner, 1);
+		Database.getLogFile().logCommit(winner.getId());
+
+		Transaction loser = new Transaction();
+		loser.start();
+		Database.getBufferPool().insertTuple(loser.getId(), hf2.getId(), Utility.getHeapTuple(2, 2));
+		Database.getBufferPool().flushPages(loser.getId());
+		Database.getLogFile().force();
+
+		// crash and restart
+		Database.reset();
+		hf = Utility.openHeapFile(2, file);
+		hf2 = Utility.openHeapFile(2, file2);
+		Database.getLogFile().recover();
+
+		List<Integer> values = onDisk();
+		assertEquals(1, values.size());
+		assertEquals(1, (int) values.get(0));
+		HeapPage p = (HeapPage) hf2.readPage(new HeapPageId(hf2.getId(), 0));
+		assertFalse(p.iterator().hasNext());
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(TupleLogTest.class);
+	}
+}
@@ -0,0 +1,96 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+public class WarmStartTest extends SimpleDbTestBase {
+
+	private static final int TABLE_PAGES = 10;
+
+	private HeapFile table;
+	private File saved;
+
+	@Before public void setUp() throws Exception {
+		Database.reset("lru-k");
+		table = SystemTestUtil.createRandomHeapFile(2, 504 * TABLE_PAGES, null, null);
+		saved = File.createTempFile("warm", ".dat");
+		saved.deleteOnExit();
+	}
+
+	private void read(BufferPool pool, int pgNo) throws Exception {
+		pool.getPage(new TransactionId(), new HeapPageId(table.getId(), pgNo), Permissions.READ_ONLY);
+	}
+
+	/**
+	 * Unit test that warmStart() reads back every saved page
+	 */
+	@Test public void reloadsResidentPages() throws Exception {
+		BufferPool pool = Database.resetBufferPool(TABLE_PAGES);
+		for (int i = 0; i < TABLE_PAGES; i++)
+			read(pool, i);
+		pool.saveResidentPages(saved);
+
+		pool = Database.resetBufferPool(TABLE_PAGES);
+		assertEquals(TABLE_PAGES, (int) pool.warmStart(saved).get());
+		BufferPool.Partition def = pool.getPartition(BufferPool.DEFAULT_PARTITION);
+		assertEquals(TABLE_PAGES, def.getResidentPages());
+		for (int i = 0; i < TABLE_PAGES; i++)
+			read(pool, i);
+		assertEquals(TABLE_PAGES, def.getMisses());
+	}
+
+	/**
+	 * Unit test that a smaller pool is warmed with the hottest saved pages
+	 */
+	@Test public void keepsHottestPages() throws Exception {
+		BufferPool pool = Database.resetBufferPool(TABLE_PAGES);
+		for (int i = 0; i < TABLE_PAGES; i++)
+			read(pool, i);
+		for (int i = 6; i < TABLE_PAGES; i++)
+			read(pool, i);
+		pool.saveResidentPages(saved);
+
+		pool = Database.resetBufferPool(4);
+		assertEquals(4, (int) pool.warmStart(saved).get());
+		BufferPool.Partition def = pool.getPartition(BufferPool.DEFAULT_PARTITION);
+		for (int i = 6; i < TABLE_PAGES; i++)
+			read(pool, i);
+		assertEquals(4, def.getMisses());
+		assertEquals(0, def.getEvictions());
+	}
+
+	/**
+	 * Unit test that pages of tables no longer in the Catalog are skipped
+	 */
+	@Test public void skipsDroppedTables() throws Exception {
+		BufferPool pool = Database.resetBufferPool(TABLE_PAGES);
+		read(pool, 0);
+		pool.saveResidentPages(saved);
+
+		Database.getCatalog().clear();
+		pool = Database.resetBufferPool(TABLE_PAGES);
+		assertEquals(0, (int) pool.warmStart(saved).get());
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(WarmStartTest.class);
+	}
+}
@@ -0,0 +1,58 @@
+package simpledb.bench;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.Transaction;
+
+import java.io.File;
+
+/**
+ * Measures how long aborting a short transaction takes as the log written
+ * since it began grows.  The short transaction inserts one tuple, then a
+ * long one inserts n tuples into another table, and the short one aborts.
+ * Rollback follows the short transaction's own chain of records, so its
+ * latency should not depend on n.
+ * <p>
+ * Usage: ant runbench -Dbench=AbortBenchmark
+ * [-Dbench.args="maxRecords trials"]
+ */
+public class AbortBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int maxRecords = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int trials = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        BufferPool pool = Database.resetBufferPool(1000);
+        HeapFile shortTable = emptyTable();
+        HeapFile longTable = emptyTable();
+
+        System.out.println("records since begin\tabort ms (best of " + trials + ")");
+        for (int n = 1000; n <= maxRecords; n *= 10) {
+            long best = Long.MAX_VALUE;
+            for (int trial = 0; trial < trials; trial++) {
+                Transaction shortTxn = new Transaction();
+                shortTxn.start();
+                pool.insertTuple(shortTxn.getId(), shortTable.getId(), Utility.getHeapTuple(trial, 2));
+
+                Transaction longTxn = new Transaction();
+                longTxn.start();
+                for (int i = 0; i < n; i++)
+                    pool.insertTuple(longTxn.getId(), longTable.getId(), Utility.getHeapTuple(i, 2));
+
+                long begin = System.nanoTime();
+                shortTxn.abort();
+                best = Math.min(best, System.nanoTime() - begin);
+                longTxn.abort();
+            }
+            System.out.printf("%d\t%.2f%n", n, best / 1e6);
+        }
+    }
+
+    private static HeapFile emptyTable() throws Exception {
+        File f = File.createTempFile("abortbench", ".dat");
+        f.deleteOnExit();
+        return Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+    }
+}
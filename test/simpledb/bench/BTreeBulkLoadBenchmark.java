@@ -0,0 +1,65 @@
+package simpledb.bench;
+
+import simpledb.common.Type;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeFileEncoder;
+import simpledb.storage.BufferPool;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Random;
+
+/**
+ * Measures the streaming B+ tree bulk loader on a table of random rows
+ * written to a text file.  The rows are sorted externally and the tree is
+ * built bottom-up, so the heap used should stay flat as the table grows
+ * past the size of the heap; run it with a small heap to see that.  The
+ * peak heap is reported, along with the sizes of the input and the tree.
+ * <p>
+ * Usage: ant runbench -Dbench=BTreeBulkLoadBenchmark
+ * [-Dbench.jvmargs=-Xmx512m] [-Dbench.args="rows fillFactor runTuples"]
+ */
+public class BTreeBulkLoadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        long rows = args.length > 0 ? Long.parseLong(args[0]) : 5000000;
+        double fill = args.length > 1 ? Double.parseDouble(args[1]) : 1.0;
+        int runTuples = args.length > 2 ? Integer.parseInt(args[2]) : 1 << 20;
+
+        File in = File.createTempFile("bulkbench", ".txt");
+        in.deleteOnExit();
+        Random rand = new Random(0);
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(in), 1 << 16)) {
+            for (long i = 0; i < rows; i++) {
+                bw.write(Integer.toString(rand.nextInt()));
+                bw.write(',');
+                bw.write(Long.toString(i));
+                bw.write('\n');
+            }
+        }
+        File out = File.createTempFile("bulkbench", ".dat");
+        out.deleteOnExit();
+
+        Type[] types = { Type.INT_TYPE, Type.INT_TYPE };
+        long begin = System.nanoTime();
+        BTreeFile bf = BTreeFileEncoder.bulkLoad(in, out, BufferPool.getPageSize(), 2, types, ',', 0,
+                fill, false, runTuples);
+        double secs = (System.nanoTime() - begin) / 1e9;
+
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            if (pool.getType() == MemoryType.HEAP)
+                peak += pool.getPeakUsage().getUsed();
+        System.out.printf("rows: %d, input: %d MB, tree: %d MB in %d pages%n", rows,
+                in.length() >> 20, out.length() >> 20, bf.numPages());
+        System.out.printf("max heap: %d MB, peak heap used: %d MB%n",
+                Runtime.getRuntime().maxMemory() >> 20, peak >> 20);
+        System.out.printf("%.1f s, %.0f rows/sec%n", secs, rows / secs);
+        in.delete();
+        out.delete();
+    }
+}
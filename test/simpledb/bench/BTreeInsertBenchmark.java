@@ -0,0 +1,123 @@
+package simpledb.bench;
+
+import simpledb.common.Database;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures B+ tree insert throughput as the number of inserting threads
+ * grows.  A tree is bulk loaded, then two tuples in five are deleted from
+ * every leaf, so that the inserts that follow find room without splitting.
+ * Each thread then inserts random keys for a fixed time, a few per
+ * transaction.  Descents latch the internal pages rather than lock them,
+ * so the inserts contend only on the leaves they share.
+ * <p>
+ * Aborted transactions, which lost a lock on a leaf, are counted and
+ * retried.
+ * <p>
+ * Usage: ant runbench -Dbench=BTreeInsertBenchmark
+ * [-Dbench.args="maxThreads seconds rows"]
+ */
+public class BTreeInsertBenchmark {
+
+    private static final int PER_TRANSACTION = 10;
+
+    public static void main(String[] args) throws Exception {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        int rows = args.length > 2 ? Integer.parseInt(args[2]) : 200000;
+
+        System.out.println("cores: " + Runtime.getRuntime().availableProcessors());
+        System.out.println("threads\tinserts/sec\taborts\tspeedup");
+        double base = 0;
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            BTreeFile bf = slackTree(rows);
+            // a quarter of the room made in the leaves, so random keys rarely fill one
+            long budget = rows / 10;
+            double rate = run(bf, threads, seconds, budget);
+            if (threads == 1)
+                base = rate;
+            System.out.printf("%d\t%.0f\t%d\t%.2f%n", threads, rate, aborts.getAndSet(0), rate / base);
+        }
+    }
+
+    private static final AtomicLong aborts = new AtomicLong();
+
+    /** A tree of rows tuples with room for more in every leaf. */
+    private static BTreeFile slackTree(int rows) throws Exception {
+        Database.reset();
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, rows, null, null, 0);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = bf.iterator(tid);
+        it.open();
+        List<Tuple> doomed = new ArrayList<>();
+        for (int i = 0; it.hasNext(); i++) {
+            Tuple t = it.next();
+            if (i % 5 < 2)
+                doomed.add(t);
+        }
+        it.close();
+        BufferPool pool = Database.getBufferPool();
+        pool.transactionComplete(tid);
+        // a few thousand at a time, so the pages dirtied fit in the pool
+        for (int i = 0; i < doomed.size(); i++) {
+            if (i % 2000 == 0) {
+                pool.transactionComplete(tid);
+                tid = new TransactionId();
+            }
+            pool.deleteTuple(tid, doomed.get(i));
+        }
+        pool.transactionComplete(tid);
+        return bf;
+    }
+
+    private static double run(BTreeFile bf, int threads, int seconds, long budget) throws Exception {
+        AtomicLong inserts = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Thread w = new Thread(() -> {
+                ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                BufferPool pool = Database.getBufferPool();
+                try {
+                    start.await();
+                    while (System.nanoTime() < deadline && inserts.get() < budget) {
+                        TransactionId tid = new TransactionId();
+                        try {
+                            for (int n = 0; n < PER_TRANSACTION; n++) {
+                                int key = rnd.nextInt(BTreeUtility.MAX_RAND_VALUE);
+                                pool.insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(key, 2));
+                            }
+                            pool.transactionComplete(tid, true);
+                            inserts.addAndGet(PER_TRANSACTION);
+                        } catch (TransactionAbortedException e) {
+                            pool.transactionComplete(tid, false);
+                            aborts.incrementAndGet();
+                        }
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            w.start();
+            workers.add(w);
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread w : workers)
+            w.join();
+        return inserts.get() / ((System.nanoTime() - begin) / 1e9);
+    }
+}
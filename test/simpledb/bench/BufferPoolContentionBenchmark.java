@@ -0,0 +1,125 @@
+package simpledb.bench;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.index.BTreePageId;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures BufferPool.getPage throughput on cache hits as the number of
+ * threads grows.  Every page of a small in-memory table is made resident
+ * first, then each thread looks up random pages for a fixed time.  With a
+ * lock-free hit path the throughput should grow close to linearly with the
+ * number of threads, up to the number of cores.
+ * <p>
+ * Usage: ant runbench -Dbench=BufferPoolContentionBenchmark
+ * [-Dbench.args="maxThreads seconds"]
+ */
+public class BufferPoolContentionBenchmark {
+
+    private static final int NUM_PAGES = 1000;
+
+    /** A page that is never dirtied and holds no data. */
+    private static class MemoryPage implements Page {
+        private final PageId pid;
+
+        MemoryPage(PageId pid) {
+            this.pid = pid;
+        }
+
+        public PageId getId() { return pid; }
+        public TransactionId isDirty() { return null; }
+        public void markDirty(boolean dirty, TransactionId tid) { }
+        public byte[] getPageData() { return new byte[BufferPool.getPageSize()]; }
+        public Page getBeforeImage() { return this; }
+        public void setBeforeImage() { }
+    }
+
+    /** A read-only table whose pages are made up on demand. */
+    private static class MemoryFile implements DbFile {
+        private final TupleDesc td = new TupleDesc(new simpledb.common.Type[] { simpledb.common.Type.INT_TYPE });
+        final AtomicLong reads = new AtomicLong();
+
+        public Page readPage(PageId id) {
+            reads.incrementAndGet();
+            return new MemoryPage(id);
+        }
+        public void writePage(Page p) { throw new UnsupportedOperationException(); }
+        public List<Page> insertTuple(TransactionId tid, Tuple t) { throw new UnsupportedOperationException(); }
+        public List<Page> deleteTuple(TransactionId tid, Tuple t) { throw new UnsupportedOperationException(); }
+        public DbFileIterator iterator(TransactionId tid) { throw new UnsupportedOperationException(); }
+        public int getId() { return 42; }
+        public TupleDesc getTupleDesc() { return td; }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        MemoryFile file = new MemoryFile();
+        Database.getCatalog().addTable(file, "contention");
+        BufferPool pool = Database.resetBufferPool(NUM_PAGES);
+        PageId[] pids = new PageId[NUM_PAGES];
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < NUM_PAGES; i++) {
+            pids[i] = new BTreePageId(file.getId(), i, BTreePageId.LEAF);
+            pool.getPage(tid, pids[i], Permissions.READ_ONLY);
+        }
+
+        // warm up the JIT so the single-thread baseline is not penalized
+        run(pool, pids, 1, 1);
+
+        System.out.println("cores: " + Runtime.getRuntime().availableProcessors());
+        System.out.println("threads\tops/sec\tspeedup");
+        double base = 0;
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            double opsPerSec = run(pool, pids, threads, seconds);
+            if (threads == 1)
+                base = opsPerSec;
+            System.out.printf("%d\t%.0f\t%.2f%n", threads, opsPerSec, opsPerSec / base);
+        }
+        if (file.reads.get() != NUM_PAGES)
+            System.out.println("WARNING: " + file.reads.get() + " page reads for " + NUM_PAGES + " pages");
+    }
+
+    private static double run(BufferPool pool, PageId[] pids, int threads, int seconds)
+            throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicLong ops = new AtomicLong();
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread w = new Thread(() -> {
+                TransactionId tid = new TransactionId();
+                ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                long n = 0;
+                try {
+                    start.await();
+                    while (System.nanoTime() < deadline) {
+                        for (int i = 0; i < 1000; i++) {
+                            pool.getPage(tid, pids[rnd.nextInt(pids.length)], Permissions.READ_ONLY);
+                        }
+                        n += 1000;
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+                ops.addAndGet(n);
+            });
+            w.start();
+            workers.add(w);
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread w : workers)
+            w.join();
+        return ops.get() / ((System.nanoTime() - begin) / 1e9);
+    }
+}
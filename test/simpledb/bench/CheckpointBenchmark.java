@@ -0,0 +1,149 @@
+package simpledb.bench;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LogFile;
+import simpledb.storage.Page;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Measures how a checkpoint affects the latency of concurrent short
+ * transactions.  Reader threads run one-page read transactions against a
+ * table larger than the pool, while a long update transaction holds many
+ * dirty pages of another table.  Midway, a checkpoint is taken, either
+ * the old way ("sharp": write every dirty page while holding the
+ * BufferPool monitor, then log the checkpoint) or with the fuzzy
+ * LogFile.logCheckpoint, and the latency of the transactions that
+ * overlap it is compared with those that do not.
+ * <p>
+ * Usage: ant runbench -Dbench=CheckpointBenchmark
+ * [-Dbench.args="readers dirtyPages seconds"]
+ */
+public class CheckpointBenchmark {
+
+    static final int POOL_PAGES = 2000;
+    static final int READ_PAGES = 3000;
+
+    public static void main(String[] args) throws Exception {
+        int readers = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int dirtyPages = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+        BufferPool pool = Database.resetBufferPool(POOL_PAGES);
+        HeapFile reads = emptyTable(READ_PAGES);
+        HeapFile updates = emptyTable(dirtyPages);
+
+        System.out.println(readers + " readers, " + dirtyPages + " dirty pages at the checkpoint");
+        System.out.println("checkpoint\tms\ttxns during\tmax ms during\tp99 ms during\tp99 ms otherwise");
+        for (String mode : new String[] { "sharp", "fuzzy" }) {
+            // a long transaction with many dirty pages
+            TransactionId updater = new TransactionId();
+            for (int i = 0; i < dirtyPages; i++) {
+                Page p = pool.getPage(updater, new HeapPageId(updates.getId(), i), Permissions.READ_WRITE);
+                p.markDirty(true, updater);
+            }
+
+            long[][] ops = new long[readers][];
+            List<Thread> threads = new ArrayList<>();
+            long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+            for (int t = 0; t < readers; t++) {
+                final int me = t;
+                Thread th = new Thread(() -> ops[me] = read(pool, reads, deadline));
+                th.start();
+                threads.add(th);
+            }
+            Thread.sleep(seconds * 1000L / 2);
+            long cpStart = System.nanoTime();
+            checkpoint(mode, pool);
+            long cpEnd = System.nanoTime();
+            for (Thread th : threads)
+                th.join();
+            pool.transactionComplete(updater, false);
+
+            // ops[t] holds pairs of start and end times
+            List<Long> during = new ArrayList<>();
+            List<Long> otherwise = new ArrayList<>();
+            for (long[] times : ops) {
+                for (int i = 0; i + 1 < times.length && times[i] != 0; i += 2) {
+                    long latency = times[i + 1] - times[i];
+                    if (times[i] <= cpEnd && times[i + 1] >= cpStart)
+                        during.add(latency);
+                    else
+                        otherwise.add(latency);
+                }
+            }
+            System.out.printf("%s\t%.1f\t%d\t%.2f\t%.2f\t%.2f%n", mode, (cpEnd - cpStart) / 1e6,
+                    during.size(), max(during) / 1e6, percentile(during, 0.99) / 1e6,
+                    percentile(otherwise, 0.99) / 1e6);
+        }
+    }
+
+    private static void checkpoint(String mode, BufferPool pool) throws IOException {
+        LogFile log = Database.getLogFile();
+        if (mode.equals("sharp")) {
+            // what logCheckpoint used to do
+            synchronized (pool) {
+                synchronized (log) {
+                    log.force();
+                    pool.flushAllPages();
+                }
+            }
+        }
+        log.logCheckpoint();
+    }
+
+    /** Run one-page read transactions until deadline, recording their times. */
+    private static long[] read(BufferPool pool, HeapFile table, long deadline) {
+        long[] times = new long[1 << 20];
+        int n = 0;
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        try {
+            while (System.nanoTime() < deadline && n + 1 < times.length) {
+                TransactionId tid = new TransactionId();
+                times[n++] = System.nanoTime();
+                pool.getPage(tid, new HeapPageId(table.getId(), rnd.nextInt(READ_PAGES)), Permissions.READ_ONLY);
+                pool.transactionComplete(tid);
+                times[n++] = System.nanoTime();
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        return times;
+    }
+
+    private static HeapFile emptyTable(int pages) throws IOException {
+        File f = File.createTempFile("checkpointbench", ".dat");
+        f.deleteOnExit();
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.setLength((long) pages * BufferPool.getPageSize());
+        }
+        return Utility.openHeapFile(2, f);
+    }
+
+    private static long max(List<Long> values) {
+        long m = 0;
+        for (long v : values)
+            m = Math.max(m, v);
+        return m;
+    }
+
+    private static long percentile(List<Long> values, double p) {
+        if (values.isEmpty())
+            return 0;
+        long[] sorted = values.stream().mapToLong(Long::longValue).toArray();
+        Arrays.sort(sorted);
+        return sorted[Math.min(sorted.length - 1, (int) (p * sorted.length))];
+    }
+}
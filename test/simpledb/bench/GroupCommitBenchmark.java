@@ -0,0 +1,112 @@
+package simpledb.bench;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.HeapFile;
+import simpledb.storage.LogFile;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures LogFile commit throughput as the number of committing threads
+ * grows.  Each thread logs BEGIN and COMMIT records for empty transactions
+ * for a fixed time.  With group commit, commits that arrive together share
+ * one force, so commits per second should grow with the number of threads
+ * while forces per second stay near the disk's fsync rate.
+ * <p>
+ * With insert as the fifth argument, each transaction instead inserts a
+ * tuple through the BufferPool into a table of its thread's own, so that
+ * its commit also writes a page, and the force before the write is shared
+ * by the batch as well.
+ * <p>
+ * Usage: ant runbench -Dbench=GroupCommitBenchmark
+ * [-Dbench.args="maxThreads seconds maxDelayMicros maxBatch [insert]"]
+ */
+public class GroupCommitBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        long delay = args.length > 2 ? Long.parseLong(args[2]) : 0;
+        int batch = args.length > 3 ? Integer.parseInt(args[3]) : 64;
+        boolean insert = args.length > 4 && args[4].equals("insert");
+
+        System.out.println("group commit window: " + delay + "us, " + batch + " commits"
+                + (insert ? ", one insert per transaction" : ""));
+        System.out.println("threads\tcommits/sec\tforces/sec\tspeedup");
+        double base = 0;
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            LogFile log;
+            List<HeapFile> tables = new ArrayList<>();
+            if (insert) {
+                Database.reset();
+                log = Database.getLogFile();
+                for (int t = 0; t < threads; t++) {
+                    File f = File.createTempFile("commitbench", ".dat");
+                    f.deleteOnExit();
+                    tables.add(Utility.createEmptyHeapFile(f.getAbsolutePath(), 2));
+                }
+            } else {
+                File f = File.createTempFile("commitbench", ".log");
+                f.deleteOnExit();
+                log = new LogFile(f);
+            }
+            log.setGroupCommit(delay, batch);
+            long forces = log.getForces();
+            long begin = System.nanoTime();
+            long commits = run(log, tables, threads, seconds);
+            double secs = (System.nanoTime() - begin) / 1e9;
+            double perSec = commits / secs;
+            if (threads == 1)
+                base = perSec;
+            System.out.printf("%d\t%.0f\t%.0f\t%.2f%n", threads, perSec,
+                    (log.getForces() - forces) / secs, perSec / base);
+        }
+    }
+
+    private static long run(LogFile log, List<HeapFile> tables, int threads, int seconds)
+            throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicLong commits = new AtomicLong();
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            HeapFile table = tables.isEmpty() ? null : tables.get(t);
+            Thread w = new Thread(() -> {
+                long n = 0;
+                try {
+                    start.await();
+                    while (System.nanoTime() < deadline) {
+                        if (table == null) {
+                            TransactionId tid = new TransactionId();
+                            log.logXactionBegin(tid);
+                            log.logCommit(tid);
+                        } else {
+                            Transaction tx = new Transaction();
+                            tx.start();
+                            Database.getBufferPool().insertTuple(tx.getId(), table.getId(),
+                                    Utility.getHeapTuple((int) n, 2));
+                            tx.commit();
+                        }
+                        n++;
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+                commits.addAndGet(n);
+            });
+            w.start();
+            workers.add(w);
+        }
+        start.countDown();
+        for (Thread w : workers)
+            w.join();
+        return commits.get();
+    }
+}
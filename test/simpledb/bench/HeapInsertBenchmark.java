@@ -0,0 +1,46 @@
+package simpledb.bench;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+
+/**
+ * Measures HeapFile insert throughput as the table grows.  Tuples are
+ * inserted through the BufferPool in rounds, flushing the pool after each
+ * round; with the free-space map an insert goes straight to the page with
+ * room, so the rate should not drop as the number of full pages grows.
+ * <p>
+ * Usage: ant runbench -Dbench=HeapInsertBenchmark
+ * [-Dbench.args="rounds tuplesPerRound"]
+ */
+public class HeapInsertBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        int perRound = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+
+        File f = File.createTempFile("insertbench", ".dat");
+        f.deleteOnExit();
+        HeapFile file = Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+        BufferPool pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+
+        System.out.println("round\tpages\tinserts/sec");
+        for (int r = 0; r < rounds; r++) {
+            long begin = System.nanoTime();
+            for (int i = 0; i < perRound; i++) {
+                pool.insertTuple(tid, file.getId(), Utility.getHeapTuple(i, 2));
+                // NO STEAL: write the dirty pages out before the pool fills up
+                if (i % (BufferPool.DEFAULT_PAGES * 100) == 0)
+                    pool.flushAllPages();
+            }
+            pool.flushAllPages();
+            double secs = (System.nanoTime() - begin) / 1e9;
+            System.out.printf("%d\t%d\t%.0f%n", r, file.numPages(), perRound / secs);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package simpledb.bench;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.LogFile;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Random;
+
+/**
+ * Measures how fast the log takes records: one transaction appends n
+ * tuple insert and delete records across the pages of a table, then n / 10
+ * update records holding before and after images of those pages, and
+ * commits.  The commit forces the log, and the force is counted in the
+ * time of the update records.  The pages are kept in memory only; nothing
+ * but the log is written.
+ * <p>
+ * Usage: ant runbench -Dbench=LogWriteBenchmark
+ * [-Dbench.args="records trials"]
+ */
+public class LogWriteBenchmark {
+
+    private static final int PAGES = 100;
+
+    public static void main(String[] args) throws Exception {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int trials = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        File f = File.createTempFile("logwritebench", ".dat");
+        f.deleteOnExit();
+        HeapFile table = Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+        LogFile log = Database.getLogFile();
+
+        HeapPage[] pages = new HeapPage[PAGES];
+        @SuppressWarnings("unchecked")
+        Deque<Tuple>[] live = new Deque[PAGES];
+        for (int i = 0; i < PAGES; i++) {
+            pages[i] = new HeapPage(new HeapPageId(table.getId(), i), HeapPage.createEmptyPageData());
+            live[i] = new ArrayDeque<>();
+        }
+        Random rnd = new Random(0);
+
+        System.out.println("trial\ttuple records/s\ttuple MB/s\tupdate records/s\tupdate MB/s");
+        for (int trial = 0; trial < trials; trial++) {
+            TransactionId tid = new TransactionId();
+            log.logXactionBegin(tid);
+
+            long start = log.getEndLSN();
+            long begin = System.nanoTime();
+            for (int n = 0; n < records; n++) {
+                int pg = rnd.nextInt(PAGES);
+                HeapPage page = pages[pg];
+                if (live[pg].isEmpty() || (page.getNumEmptySlots() > 0 && rnd.nextBoolean())) {
+                    Tuple t = Utility.getHeapTuple(rnd.nextInt(), 2);
+                    page.insertTuple(t);
+                    live[pg].push(t);
+                    log.logTupleInsert(tid, page, t.getRecordId().getTupleNumber());
+                } else {
+                    Tuple t = live[pg].pop();
+                    int slot = t.getRecordId().getTupleNumber();
+                    page.deleteTuple(t);
+                    log.logTupleDelete(tid, page, slot, bytesOf(t));
+                }
+            }
+            double tupleSecs = (System.nanoTime() - begin) / 1e9;
+            long tupleBytes = log.getEndLSN() - start;
+
+            int updates = records / 10;
+            start = log.getEndLSN();
+            begin = System.nanoTime();
+            for (int n = 0; n < updates; n++) {
+                HeapPage page = pages[n % PAGES];
+                log.logWrite(tid, page, page);
+            }
+            log.logCommit(tid);
+            double updateSecs = (System.nanoTime() - begin) / 1e9;
+            long updateBytes = log.getEndLSN() - start;
+
+            System.out.printf("%d\t%.0f\t%.1f\t%.0f\t%.1f%n", trial,
+                    records / tupleSecs, tupleBytes / tupleSecs / (1 << 20),
+                    updates / updateSecs, updateBytes / updateSecs / (1 << 20));
+            // the records are not needed any more
+            log.logCheckpoint();
+        }
+    }
+
+    private static byte[] bytesOf(Tuple t) {
+        ByteBuffer b = ByteBuffer.allocate(8);
+        for (int i = 0; i < 2; i++)
+            b.putInt(((IntField) t.getField(i)).getValue());
+        return b.array();
+    }
+}
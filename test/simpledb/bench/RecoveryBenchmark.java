@@ -0,0 +1,151 @@
+package simpledb.bench;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.LogFile;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures crash recovery time against the number of redo threads.  One
+ * committed transaction logs random tuple inserts and deletes across the
+ * pages of a table until the log reaches the given size, and none of its
+ * pages is written, as if the database crashed right after the commit.
+ * Recovery is then run from that state with 1, 2, 4, ... redo threads,
+ * up to maxThreads.
+ * <p>
+ * The pages are read from the OS cache rather than disk after the first
+ * run, so later runs measure redo's CPU work rather than its I/O.
+ * <p>
+ * Usage: ant runbench -Dbench=RecoveryBenchmark
+ * [-Dbench.args="logMB pages maxThreads"]
+ */
+public class RecoveryBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        long logMB = args.length > 0 ? Long.parseLong(args[0]) : 2048;
+        int pages = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int cores = Runtime.getRuntime().availableProcessors();
+        int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : Math.max(4, cores);
+
+        File f = File.createTempFile("recoverybench", ".dat");
+        f.deleteOnExit();
+        emptyPages(f, pages);
+        HeapFile table = Utility.openHeapFile(2, f);
+
+        long begin = System.nanoTime();
+        long records = buildLog(table, pages, logMB << 20);
+        LogFile log = Database.getLogFile();
+        long end = log.getEndLSN();
+        System.out.printf("logged %d records, %d MB, over %d pages in %.1f s; %d processors%n",
+                records, end >> 20, pages, (System.nanoTime() - begin) / 1e9, cores);
+
+        // recovery only appends to the log: keep what it will change, the
+        // control file and the last two segments (the one being appended
+        // to and the preallocated one after it)
+        File dir = new File(".").getAbsoluteFile();
+        File[] segments = dir.listFiles((d, name) -> name.matches("log\\.\\d{10}"));
+        Arrays.sort(segments);
+        File control = new File("log");
+        List<File> kept = new ArrayList<>(Arrays.asList(segments).subList(Math.max(0, segments.length - 2), segments.length));
+        kept.add(control);
+        List<File> copies = new ArrayList<>();
+        for (File k : kept) {
+            File copy = File.createTempFile("recoverybench", ".log");
+            copy.deleteOnExit();
+            Files.copy(k.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            copies.add(copy);
+        }
+        String lastName = segments[segments.length - 1].getName();
+
+        System.out.println("redo threads\trecovery s\trecords redone");
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            // crash and restart
+            Database.reset();
+            table = Utility.openHeapFile(2, f);
+            log = Database.getLogFile();
+            log.setRedoThreads(threads);
+            long start = System.nanoTime();
+            log.recover();
+            double secs = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%d\t%.2f\t%d%n", threads, secs, log.getRedoCount());
+
+            // back to the state of the crash
+            emptyPages(f, pages);
+            for (int i = 0; i < kept.size(); i++)
+                Files.copy(copies.get(i).toPath(), kept.get(i).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            for (File s : dir.listFiles((d, name) -> name.matches("log\\.\\d{10}")))
+                if (s.getName().compareTo(lastName) > 0)
+                    s.delete();
+        }
+    }
+
+    /** Log random inserts and deletes on the pages of table, kept in
+        memory only, until the log holds bytes bytes. */
+    private static long buildLog(HeapFile table, int pages, long bytes) throws Exception {
+        LogFile log = Database.getLogFile();
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        long start = log.getEndLSN();
+
+        HeapPage[] inMemory = new HeapPage[pages];
+        @SuppressWarnings("unchecked")
+        Deque<Tuple>[] live = new Deque[pages];
+        for (int i = 0; i < pages; i++) {
+            inMemory[i] = new HeapPage(new HeapPageId(table.getId(), i), HeapPage.createEmptyPageData());
+            live[i] = new ArrayDeque<>();
+        }
+        Random rnd = new Random(0);
+        long records = 0;
+        while (log.getEndLSN() - start < bytes) {
+            for (int n = 0; n < 10000; n++, records++) {
+                int pg = rnd.nextInt(pages);
+                HeapPage page = inMemory[pg];
+                if (live[pg].isEmpty() || (page.getNumEmptySlots() > 0 && rnd.nextBoolean())) {
+                    Tuple t = Utility.getHeapTuple(rnd.nextInt(), 2);
+                    page.insertTuple(t);
+                    live[pg].push(t);
+                    log.logTupleInsert(tid, page, t.getRecordId().getTupleNumber());
+                } else {
+                    Tuple t = live[pg].pop();
+                    int slot = t.getRecordId().getTupleNumber();
+                    page.deleteTuple(t);
+                    log.logTupleDelete(tid, page, slot, bytesOf(t));
+                }
+            }
+        }
+        log.logCommit(tid);
+        return records;
+    }
+
+    private static byte[] bytesOf(Tuple t) {
+        ByteBuffer b = ByteBuffer.allocate(8);
+        for (int i = 0; i < 2; i++)
+            b.putInt(((IntField) t.getField(i)).getValue());
+        return b.array();
+    }
+
+    private static void emptyPages(File f, int pages) throws Exception {
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.setLength(0);
+            raf.setLength((long) pages * BufferPool.getPageSize());
+        }
+    }
+}